@@ -17,6 +17,7 @@
 import org.h2.result.ResultInterface;
 import org.h2.result.ResultWithGeneratedKeys;
 import org.h2.util.MathUtils;
+import org.h2.value.Value;
 
 /**
  * Represents a SQL statement. This object is only used on the server side.
@@ -25,7 +26,7 @@ public abstract class Command implements CommandInterface {
     /**
      * The session.
      */
-    protected final Session session;
+    protected Session session;
 
     /**
      * The last start time.
@@ -46,10 +47,26 @@ public abstract class Command implements CommandInterface {
 
     private boolean canReuse;
 
+    /**
+     * The key in the shared plan cache of the database, or null if this
+     * command can not be shared between sessions.
+     */
+    private String planCacheKey;
+
     public Session getSession() {
         return session;
     }
 
+    /**
+     * Use this command in a different session. This is only allowed if the
+     * command is shareable, and not currently used.
+     *
+     * @param session the new session
+     */
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
     Command(Parser parser, String sql) {
         this.session = parser.getSession();
         this.sql = sql;
@@ -185,6 +202,17 @@ public void stop() {
      */
     @Override
     public ResultInterface executeQuery(int maxrows, boolean scrollable) {
+        session.deferSync();
+        try {
+            return executeQueryLocked(maxrows);
+        } finally {
+            // after releasing the lock, so that the commits of concurrent
+            // sessions can be synced together
+            session.endDeferSync();
+        }
+    }
+
+    private ResultInterface executeQueryLocked(int maxrows) {
         startTimeNanos = 0;
         long start = 0;
         Database database = session.getDatabase();
@@ -248,6 +276,18 @@ public ResultWithGeneratedKeys executeUpdate() {
 
     @Override
     public ResultWithGeneratedKeys executeUpdate(Object generatedKeysRequest) {
+        session.deferSync();
+        try {
+            return executeUpdateLocked(generatedKeysRequest);
+        } finally {
+            // after releasing the lock, so that the commits of concurrent
+            // sessions can be synced together
+            session.endDeferSync();
+        }
+    }
+
+    private ResultWithGeneratedKeys executeUpdateLocked(
+            Object generatedKeysRequest) {
         long start = 0;
         Database database = session.getDatabase();
         Object sync = database.isMultiThreaded() ? (Object) session : (Object) database;
@@ -312,6 +352,27 @@ public ResultWithGeneratedKeys executeUpdate(Object generatedKeysRequest) {
         }
     }
 
+    @Override
+    public ResultWithGeneratedKeys[] executeBatchUpdate(
+            ArrayList<Value[]> batchParameters, Object generatedKeysRequest,
+            DbException[] errors) {
+        int size = batchParameters.size();
+        ResultWithGeneratedKeys[] results = new ResultWithGeneratedKeys[size];
+        ArrayList<? extends ParameterInterface> parameters = getParameters();
+        for (int i = 0; i < size; i++) {
+            Value[] set = batchParameters.get(i);
+            for (int j = 0; j < set.length; j++) {
+                parameters.get(j).setValue(set[j], false);
+            }
+            try {
+                results[i] = executeUpdate(generatedKeysRequest);
+            } catch (DbException e) {
+                errors[i] = e;
+            }
+        }
+        return results;
+    }
+
     private long filterConcurrentUpdate(DbException e, long start) {
         int errorCode = e.getErrorCode();
         if (errorCode != ErrorCode.CONCURRENT_UPDATE_1 &&
@@ -362,6 +423,23 @@ public boolean isCacheable() {
         return false;
     }
 
+    /**
+     * Whether the command can be used by other sessions after it was closed.
+     *
+     * @return true if it can be shared
+     */
+    public boolean isShareable() {
+        return false;
+    }
+
+    public String getPlanCacheKey() {
+        return planCacheKey;
+    }
+
+    public void setPlanCacheKey(String planCacheKey) {
+        this.planCacheKey = planCacheKey;
+    }
+
     /**
      * Whether the command is already closed (in which case it can be re-used).
      *
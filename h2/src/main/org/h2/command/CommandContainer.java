@@ -167,6 +167,17 @@ public boolean isCacheable() {
         return prepared.isCacheable();
     }
 
+    @Override
+    public boolean isShareable() {
+        return prepared.isShareable();
+    }
+
+    @Override
+    public void setSession(Session session) {
+        super.setSession(session);
+        prepared.setSession(session);
+    }
+
     @Override
     public int getCommandType() {
         return prepared.getType();
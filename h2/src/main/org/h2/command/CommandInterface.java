@@ -7,8 +7,10 @@
 
 import java.util.ArrayList;
 import org.h2.expression.ParameterInterface;
+import org.h2.message.DbException;
 import org.h2.result.ResultInterface;
 import org.h2.result.ResultWithGeneratedKeys;
+import org.h2.value.Value;
 
 /**
  * Represents a SQL statement.
@@ -527,6 +529,21 @@ public interface CommandInterface {
      */
     ResultWithGeneratedKeys executeUpdate(Object generatedKeysRequest);
 
+    /**
+     * Execute the statement once for each set of parameter values. An
+     * execution that fails does not stop the remaining executions.
+     *
+     * @param batchParameters the parameter values for each execution
+     * @param generatedKeysRequest the generated keys request, as in
+     *            {@link #executeUpdate(Object)}
+     * @param errors the array that receives the exception of each failed
+     *            execution (the entry is null for successful executions)
+     * @return the update counts (the entry is null for failed executions)
+     */
+    ResultWithGeneratedKeys[] executeBatchUpdate(
+            ArrayList<Value[]> batchParameters, Object generatedKeysRequest,
+            DbException[] errors);
+
     /**
      * Stop the command execution, release all locks and resources
      */
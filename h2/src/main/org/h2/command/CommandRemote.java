@@ -213,26 +213,7 @@ public ResultWithGeneratedKeys executeUpdate(Object generatedKeysRequest) {
                     transfer.writeInt(SessionRemote.COMMAND_EXECUTE_UPDATE).writeInt(id);
                     sendParameters(transfer);
                     if (supportsGeneratedKeys) {
-                        int mode = GeneratedKeysMode.valueOf(generatedKeysRequest);
-                        transfer.writeInt(mode);
-                        switch (mode) {
-                        case GeneratedKeysMode.COLUMN_NUMBERS: {
-                            int[] keys = (int[]) generatedKeysRequest;
-                            transfer.writeInt(keys.length);
-                            for (int key : keys) {
-                                transfer.writeInt(key);
-                            }
-                            break;
-                        }
-                        case GeneratedKeysMode.COLUMN_NAMES: {
-                            String[] keys = (String[]) generatedKeysRequest;
-                            transfer.writeInt(keys.length);
-                            for (String key : keys) {
-                                transfer.writeString(key);
-                            }
-                            break;
-                        }
-                        }
+                        sendGeneratedKeysRequest(transfer, generatedKeysRequest);
                     }
                     session.done(transfer);
                     updateCount = transfer.readInt();
@@ -259,6 +240,113 @@ public ResultWithGeneratedKeys executeUpdate(Object generatedKeysRequest) {
         }
     }
 
+    @Override
+    public ResultWithGeneratedKeys[] executeBatchUpdate(
+            ArrayList<Value[]> batchParameters, Object generatedKeysRequest,
+            DbException[] errors) {
+        int size = batchParameters.size();
+        if (session.getClientVersion() < Constants.TCP_PROTOCOL_VERSION_18) {
+            // one round trip for each set of parameter values
+            ResultWithGeneratedKeys[] results = new ResultWithGeneratedKeys[size];
+            for (int i = 0; i < size; i++) {
+                Value[] set = batchParameters.get(i);
+                for (int j = 0; j < set.length; j++) {
+                    parameters.get(j).setValue(set[j], false);
+                }
+                try {
+                    results[i] = executeUpdate(generatedKeysRequest);
+                } catch (DbException e) {
+                    errors[i] = e;
+                }
+            }
+            return results;
+        }
+        boolean readGeneratedKeys = !Boolean.FALSE.equals(generatedKeysRequest);
+        synchronized (session) {
+            ResultWithGeneratedKeys[] results = null;
+            boolean autoCommit = false;
+            for (int i = 0, count = 0; i < transferList.size(); i++) {
+                prepareIfRequired();
+                Transfer transfer = transferList.get(i);
+                try {
+                    session.traceOperation("COMMAND_EXECUTE_BATCH_UPDATE", id);
+                    transfer.writeInt(SessionRemote.COMMAND_EXECUTE_BATCH_UPDATE).
+                            writeInt(id).writeInt(size);
+                    for (Value[] set : batchParameters) {
+                        transfer.writeInt(set.length);
+                        for (Value v : set) {
+                            transfer.writeValue(v);
+                        }
+                    }
+                    sendGeneratedKeysRequest(transfer, generatedKeysRequest);
+                    session.done(transfer);
+                    closeGeneratedKeys(results);
+                    results = new ResultWithGeneratedKeys[size];
+                    for (int j = 0; j < size; j++) {
+                        if (!transfer.readBoolean()) {
+                            errors[j] = DbException.convert(
+                                    SessionRemote.readException(transfer));
+                            continue;
+                        }
+                        errors[j] = null;
+                        int updateCount = transfer.readInt();
+                        if (readGeneratedKeys) {
+                            int columnCount = transfer.readInt();
+                            ResultRemote generatedKeys = new ResultRemote(session,
+                                    transfer, session.getNextId(), columnCount,
+                                    Integer.MAX_VALUE);
+                            results[j] = new ResultWithGeneratedKeys.WithKeys(
+                                    updateCount, generatedKeys);
+                        } else {
+                            results[j] = ResultWithGeneratedKeys.of(updateCount);
+                        }
+                    }
+                    autoCommit = transfer.readBoolean();
+                } catch (IOException e) {
+                    session.removeServer(e, i--, ++count);
+                }
+            }
+            session.setAutoCommitFromServer(autoCommit);
+            session.autoCommitIfCluster();
+            session.readSessionState();
+            return results;
+        }
+    }
+
+    private static void closeGeneratedKeys(ResultWithGeneratedKeys[] results) {
+        if (results != null) {
+            for (ResultWithGeneratedKeys r : results) {
+                if (r != null && r.getGeneratedKeys() != null) {
+                    r.getGeneratedKeys().close();
+                }
+            }
+        }
+    }
+
+    private static void sendGeneratedKeysRequest(Transfer transfer,
+            Object generatedKeysRequest) throws IOException {
+        int mode = GeneratedKeysMode.valueOf(generatedKeysRequest);
+        transfer.writeInt(mode);
+        switch (mode) {
+        case GeneratedKeysMode.COLUMN_NUMBERS: {
+            int[] keys = (int[]) generatedKeysRequest;
+            transfer.writeInt(keys.length);
+            for (int key : keys) {
+                transfer.writeInt(key);
+            }
+            break;
+        }
+        case GeneratedKeysMode.COLUMN_NAMES: {
+            String[] keys = (String[]) generatedKeysRequest;
+            transfer.writeInt(keys.length);
+            for (String key : keys) {
+                transfer.writeString(key);
+            }
+            break;
+        }
+        }
+    }
+
     private void checkParameters() {
         if (cmdType != EXPLAIN) {
             for (ParameterInterface p : parameters) {
@@ -114,6 +114,7 @@
 import org.h2.schema.Schema;
 import org.h2.schema.Sequence;
 import org.h2.table.Column;
+import org.h2.table.ColumnStatistics;
 import org.h2.table.FunctionTable;
 import org.h2.table.IndexColumn;
 import org.h2.table.IndexHints;
@@ -2337,6 +2338,18 @@ private Expression readCondition() {
             read(")");
             return new ConditionExists(query);
         }
+        if (readIfAll("MATCH", "(")) {
+            String schema = null;
+            String alias = readColumnIdentifier();
+            if (readIf(".")) {
+                schema = alias;
+                alias = readColumnIdentifier();
+            }
+            read(",");
+            Expression text = readExpression();
+            read(")");
+            return new ConditionMatch(schema, alias, text);
+        }
         if (readIf("INTERSECTS")) {
             read("(");
             Expression r1 = readConcat();
@@ -4285,6 +4298,9 @@ private Column parseColumnForTable(String columnName,
             int value = readPositiveInt();
             column.setSelectivity(value);
         }
+        if (readIf("STATISTICS")) {
+            column.setStatistics(parseColumnStatistics(column));
+        }
         String comment = readCommentIf();
         if (comment != null) {
             column.setComment(comment);
@@ -4292,6 +4308,58 @@ private Column parseColumnForTable(String columnName,
         return column;
     }
 
+    private ColumnStatistics parseColumnStatistics(Column column) {
+        read("(");
+        read("ROWS");
+        long rowCount = readLong();
+        if (rowCount <= 0) {
+            throw getSyntaxError();
+        }
+        read("NULLS");
+        long nullCount = readLong();
+        read("DISTINCT");
+        long distinctCount = readLong();
+        read("HISTOGRAM");
+        read("(");
+        ArrayList<Value> bounds = New.arrayList();
+        if (!readIf(")")) {
+            do {
+                bounds.add(readStatisticsValue(column));
+            } while (readIf(","));
+            read(")");
+        }
+        read("MOST_COMMON");
+        read("(");
+        ArrayList<Value> commonValues = New.arrayList();
+        ArrayList<Long> commonCounts = New.arrayList();
+        if (!readIf(")")) {
+            do {
+                read("(");
+                commonValues.add(readStatisticsValue(column));
+                read(",");
+                commonCounts.add(readLong());
+                read(")");
+            } while (readIf(","));
+            read(")");
+        }
+        read(")");
+        long[] counts = new long[commonCounts.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = commonCounts.get(i);
+        }
+        return new ColumnStatistics(rowCount, nullCount, distinctCount,
+                bounds.toArray(new Value[0]),
+                commonValues.toArray(new Value[0]), counts);
+    }
+
+    private Value readStatisticsValue(Column column) {
+        Expression expr = readExpression().optimize(session);
+        if (!expr.isConstant()) {
+            throw getSyntaxError();
+        }
+        return column.convert(expr.getValue(session));
+    }
+
     private void parseAutoIncrement(Column column) {
         long start = 1, increment = 1;
         if (readIf("(")) {
@@ -4656,6 +4724,10 @@ protected Prepared parseCreate() {
             command.setComment(readCommentIf());
             read("(");
             command.setIndexColumns(parseIndexColumnList());
+            if (readIf("INCLUDE")) {
+                read("(");
+                command.setIncludeColumnNames(parseColumnList());
+            }
 
             if (readIf("USING")) {
                 if (hash) {
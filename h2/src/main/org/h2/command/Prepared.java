@@ -8,16 +8,20 @@
 import java.sql.SQLException;
 import java.sql.Wrapper;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import org.h2.api.DatabaseEventListener;
 import org.h2.api.ErrorCode;
 import org.h2.engine.Database;
+import org.h2.engine.DbObject;
 import org.h2.engine.Session;
 import org.h2.expression.Expression;
 import org.h2.expression.Parameter;
 import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.result.ResultInterface;
+import org.h2.table.Table;
+import org.h2.table.TableType;
 import org.h2.table.TableView;
 import org.h2.util.StatementBuilder;
 import org.h2.value.Value;
@@ -280,6 +284,16 @@ public String getPlanSQL() {
         return null;
     }
 
+    /**
+     * Get the SQL statement with the execution plan, and with information
+     * about the last execution of this statement (for EXPLAIN ANALYZE).
+     *
+     * @return the execution plan
+     */
+    public String getAnalyzedPlanSQL() {
+        return getPlanSQL();
+    }
+
     /**
      * Check if this statement was canceled.
      *
@@ -447,6 +461,38 @@ public boolean isCacheable() {
         return false;
     }
 
+    /**
+     * Check whether this statement can be used by other sessions after the
+     * session was changed using setSession. This is not the case if the
+     * statement keeps references to objects that belong to the session that
+     * prepared it, for example indexes of views or local temporary tables.
+     *
+     * @return true if the statement can be shared
+     */
+    public boolean isShareable() {
+        return false;
+    }
+
+    /**
+     * Check whether all the given objects can be used by a statement that is
+     * shared between sessions. Only regular tables are allowed.
+     *
+     * @param dependencies the objects the statement depends on
+     * @return true if the statement can be shared
+     */
+    protected static boolean isShareable(HashSet<DbObject> dependencies) {
+        for (DbObject obj : dependencies) {
+            if (obj instanceof Table) {
+                Table table = (Table) obj;
+                if (table.getTableType() != TableType.TABLE ||
+                        table.isTemporary()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * @return the temporary views created for CTE's.
      */
@@ -8,16 +8,19 @@
 import java.util.ArrayList;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.expression.Parameter;
 import org.h2.result.ResultInterface;
 import org.h2.table.Column;
+import org.h2.table.ColumnStatistics;
 import org.h2.table.Table;
 import org.h2.table.TableType;
 import org.h2.util.StatementBuilder;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
 import org.h2.value.ValueInt;
 import org.h2.value.ValueNull;
 
@@ -101,24 +104,83 @@ public static void analyzeTable(Session session, Table table, int sample,
             return;
         }
         Database db = session.getDatabase();
-        StatementBuilder buff = new StatementBuilder("SELECT ");
+        // the distinct values of the whole table could use a lot of memory,
+        // so the statistics use a smaller sample if required
+        boolean separateStatistics = sample <= 0 ||
+                sample > Constants.STATISTICS_MAX_SAMPLE;
+        StatementBuilder buff = new StatementBuilder("SELECT COUNT(*)");
         for (Column col : columns) {
-            buff.appendExceptFirst(", ");
             int type = col.getType();
             if (type == Value.BLOB || type == Value.CLOB) {
                 // can not index LOB columns, so calculating
                 // the selectivity is not required
-                buff.append("MAX(NULL)");
+                buff.append(", MAX(NULL), MAX(NULL), MAX(NULL)");
             } else {
-                buff.append("SELECTIVITY(").append(col.getSQL()).append(')');
+                String sql = col.getSQL();
+                buff.append(", SELECTIVITY(").append(sql).append(')');
+                if (hasStatistics(type) && !separateStatistics) {
+                    buff.append(", COUNT(").append(sql).
+                            append("), HISTOGRAM(").append(sql).append(')');
+                } else {
+                    buff.append(", MAX(NULL), MAX(NULL)");
+                }
             }
         }
+        Value[] row = query(session, table, buff, sample);
+        Value[] statisticsRow = row;
+        if (separateStatistics) {
+            buff = new StatementBuilder("SELECT COUNT(*)");
+            for (Column col : columns) {
+                int type = col.getType();
+                if (type != Value.BLOB && type != Value.CLOB &&
+                        hasStatistics(type)) {
+                    String sql = col.getSQL();
+                    buff.append(", MAX(NULL), COUNT(").append(sql).
+                            append("), HISTOGRAM(").append(sql).append(')');
+                } else {
+                    buff.append(", MAX(NULL), MAX(NULL), MAX(NULL)");
+                }
+            }
+            statisticsRow = query(session, table, buff,
+                    Constants.STATISTICS_MAX_SAMPLE);
+        }
+        long statisticsRowCount = statisticsRow[0].getLong();
+        ColumnStatistics[] statistics = new ColumnStatistics[columns.length];
+        for (int j = 0; j < columns.length; j++) {
+            Value count = statisticsRow[2 + j * 3];
+            Value histogram = statisticsRow[3 + j * 3];
+            if (count != ValueNull.INSTANCE &&
+                    histogram != ValueNull.INSTANCE) {
+                statistics[j] = ColumnStatistics.create(statisticsRowCount,
+                        statisticsRowCount - count.getLong(),
+                        ((ValueArray) histogram).getList());
+            }
+        }
+        // the new values are only set while the meta data is locked, as the
+        // table could be dropped concurrently if it is analyzed in the
+        // background
+        db.lockMeta(session);
+        if (!table.isValid()) {
+            return;
+        }
+        for (int j = 0; j < columns.length; j++) {
+            Value v = row[1 + j * 3];
+            if (v != ValueNull.INSTANCE) {
+                int selectivity = v.getInt();
+                columns[j].setSelectivity(selectivity);
+            }
+            columns[j].setStatistics(statistics[j]);
+        }
+        db.updateMeta(session, table);
+    }
+
+    private static Value[] query(Session session, Table table,
+            StatementBuilder buff, int sample) {
         buff.append(" FROM ").append(table.getSQL());
         if (sample > 0) {
             buff.append(" LIMIT ? SAMPLE_SIZE ? ");
         }
-        String sql = buff.toString();
-        Prepared command = session.prepare(sql);
+        Prepared command = session.prepare(buff.toString());
         if (sample > 0) {
             ArrayList<Parameter> params = command.getParameters();
             params.get(0).setValue(ValueInt.get(1));
@@ -126,14 +188,27 @@ public static void analyzeTable(Session session, Table table, int sample,
         }
         ResultInterface result = command.query(0);
         result.next();
-        for (int j = 0; j < columns.length; j++) {
-            Value v = result.currentRow()[j];
-            if (v != ValueNull.INSTANCE) {
-                int selectivity = v.getInt();
-                columns[j].setSelectivity(selectivity);
-            }
+        return result.currentRow();
+    }
+
+    /**
+     * Check whether the distribution of the values of a column of this type
+     * is calculated, so that it can be used to estimate the number of rows
+     * that match a condition.
+     *
+     * @param type the data type
+     * @return true if yes
+     */
+    private static boolean hasStatistics(int type) {
+        switch (type) {
+        case Value.ARRAY:
+        case Value.JAVA_OBJECT:
+        case Value.GEOMETRY:
+        case Value.RESULT_SET:
+            return false;
+        default:
+            return true;
         }
-        db.updateMeta(session, table);
     }
 
     public void setTop(int top) {
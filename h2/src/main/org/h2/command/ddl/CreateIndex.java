@@ -5,6 +5,7 @@
  */
 package org.h2.command.ddl;
 
+import java.util.HashSet;
 import org.h2.api.ErrorCode;
 import org.h2.command.CommandInterface;
 import org.h2.engine.Constants;
@@ -14,6 +15,7 @@
 import org.h2.index.IndexType;
 import org.h2.message.DbException;
 import org.h2.schema.Schema;
+import org.h2.table.Column;
 import org.h2.table.IndexColumn;
 import org.h2.table.Table;
 
@@ -26,6 +28,7 @@ public class CreateIndex extends SchemaCommand {
     private String tableName;
     private String indexName;
     private IndexColumn[] indexColumns;
+    private String[] includeColumnNames;
     private boolean primaryKey, unique, hash, spatial, affinity;
     private boolean ifTableExists;
     private boolean ifNotExists;
@@ -55,6 +58,10 @@ public void setIndexColumns(IndexColumn[] columns) {
         this.indexColumns = columns;
     }
 
+    public void setIncludeColumnNames(String[] includeColumnNames) {
+        this.includeColumnNames = includeColumnNames;
+    }
+
     @Override
     public int update() {
         if (!transactional) {
@@ -104,8 +111,24 @@ public int update() {
             indexType = IndexType.createNonUnique(persistent, hash, spatial);
         }
         IndexColumn.mapColumns(indexColumns, table);
-        table.addIndex(session, indexName, id, indexColumns, indexType, create,
-                comment);
+        Column[] includeColumns = null;
+        if (includeColumnNames != null) {
+            HashSet<Column> set = new HashSet<>();
+            for (IndexColumn c : indexColumns) {
+                set.add(c.column);
+            }
+            includeColumns = new Column[includeColumnNames.length];
+            for (int i = 0; i < includeColumns.length; i++) {
+                Column c = table.getColumn(includeColumnNames[i]);
+                if (!set.add(c)) {
+                    throw DbException.get(ErrorCode.DUPLICATE_COLUMN_NAME_1,
+                            c.getSQL());
+                }
+                includeColumns[i] = c;
+            }
+        }
+        table.addIndex(session, indexName, id, indexColumns, includeColumns,
+                indexType, create, comment);
         return 0;
     }
 
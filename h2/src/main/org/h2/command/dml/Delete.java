@@ -5,9 +5,12 @@
  */
 package org.h2.command.dml;
 
+import java.util.HashSet;
+
 import org.h2.api.Trigger;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.DbObject;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.engine.UndoLogRecord;
@@ -177,6 +180,24 @@ public boolean isCacheable() {
         return true;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (sourceTableFilter != null) {
+            return false;
+        }
+        HashSet<DbObject> dependencies = new HashSet<>();
+        dependencies.add(targetTableFilter.getTable());
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        if (condition != null) {
+            condition.isEverything(visitor);
+        }
+        if (limitExpr != null) {
+            limitExpr.isEverything(visitor);
+        }
+        return isShareable(dependencies);
+    }
+
     public void setSourceTableFilter(TableFilter sourceTableFilter) {
         this.sourceTableFilter = sourceTableFilter;
     }
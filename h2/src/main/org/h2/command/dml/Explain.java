@@ -93,7 +93,7 @@ public ResultInterface query(int maxrows) {
                 } else {
                     command.update();
                 }
-                plan = command.getPlanSQL();
+                plan = command.getAnalyzedPlanSQL();
                 Map<String, Integer> statistics = null;
                 if (store != null) {
                     statistics = store.statisticsEnd();
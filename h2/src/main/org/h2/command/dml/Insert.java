@@ -7,11 +7,13 @@
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import org.h2.api.ErrorCode;
 import org.h2.api.Trigger;
 import org.h2.command.Command;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.DbObject;
 import org.h2.engine.GeneratedKeys;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
@@ -20,6 +22,7 @@
 import org.h2.expression.ConditionAndOr;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionColumn;
+import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.Parameter;
 import org.h2.expression.SequenceValue;
 import org.h2.index.Index;
@@ -357,6 +360,25 @@ public boolean isCacheable() {
                 duplicateKeyAssignmentMap.isEmpty();
     }
 
+    @Override
+    public boolean isShareable() {
+        if (!isCacheable() || query != null || sourceTableFilter != null) {
+            return false;
+        }
+        HashSet<DbObject> dependencies = new HashSet<>();
+        dependencies.add(table);
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        for (Expression[] expr : list) {
+            for (Expression e : expr) {
+                if (e != null) {
+                    e.isEverything(visitor);
+                }
+            }
+        }
+        return isShareable(dependencies);
+    }
+
     /**
      * @param de duplicate key exception
      * @return {@code true} if row was updated, {@code false} if row was ignored
@@ -279,6 +279,17 @@ public boolean isTransactional() {
         return true;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        if (currentSession != session) {
+            // the last result may contain rows
+            // that are only visible to the old session
+            closeLastResult();
+            lastResult = null;
+        }
+        super.setSession(currentSession);
+    }
+
     /**
      * Disable caching of result sets.
      */
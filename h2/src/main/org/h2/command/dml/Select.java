@@ -10,6 +10,7 @@
 import org.h2.command.CommandInterface;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
+import org.h2.engine.DbObject;
 import org.h2.engine.Session;
 import org.h2.engine.SysProperties;
 import org.h2.expression.*;
@@ -17,11 +18,14 @@
 import org.h2.index.Index;
 import org.h2.index.IndexType;
 import org.h2.message.DbException;
+import org.h2.mvstore.db.MVPrimaryIndex;
 import org.h2.result.*;
 import org.h2.table.*;
 import org.h2.util.*;
 import org.h2.value.Value;
 import org.h2.value.ValueArray;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueLong;
 import org.h2.value.ValueNull;
 
 import java.util.ArrayList;
@@ -99,6 +103,23 @@ public class Select extends Query {
      */
     int currentGroupRowId;
 
+    /**
+     * The number of groups and rows of the last GROUP BY query that did not
+     * fit in memory, and were aggregated using a temporary result.
+     */
+    private int spilledGroups, spilledGroupRows;
+
+    /**
+     * The number of threads used to read the rows of the last GROUP BY query,
+     * or 0 if the rows were read by the calling thread only.
+     */
+    private int parallelScanThreads;
+
+    /**
+     * Whether the rows of the last aggregate query were processed in batches.
+     */
+    private boolean vectorized;
+
     public Select(Session session) {
         super(session);
     }
@@ -313,72 +334,405 @@ boolean isConditionMet() {
     }
 
     private void queryGroup(int columnCount, LocalResult result) {
-        ValueHashMap<HashMap<Expression, Object>> groups =
-                ValueHashMap.newInstance();
         int rowNumber = 0;
         setCurrentRowNumber(0);
         currentGroup = null;
+        spilledGroups = spilledGroupRows = parallelScanThreads = 0;
+        vectorized = false;
         ValueArray defaultGroup = ValueArray.get(new Value[0]);
         int sampleSize = getSampleSizeValue(session);
-        while (topTableFilter.next()) {
-            setCurrentRowNumber(rowNumber + 1);
-            if (isConditionMet()) {
-                Value key;
-                rowNumber++;
-                if (groupIndex == null) {
-                    key = defaultGroup;
-                } else {
-                    Value[] keyValues = new Value[groupIndex.length];
-                    // update group
-                    for (int i = 0; i < groupIndex.length; i++) {
-                        int idx = groupIndex[i];
-                        Expression expr = expressions.get(idx);
-                        keyValues[i] = expr.getValue(session);
+        int maxGroups = getMaxMemoryGroups();
+        Cursor parallelScan = null;
+        ValueHashMap<HashMap<Expression, Object>> groups = null;
+        if (sampleSize <= 0) {
+            parallelScan = openParallelScan();
+            groups = queryGroupVectorized(defaultGroup, parallelScan);
+        }
+        // the rows are read here unless they were already read in batches
+        boolean scan = groups == null;
+        if (scan) {
+            groups = ValueHashMap.newInstance();
+        }
+        ArrayList<TableFilter> spillFilters = null;
+        LocalResult spill = null;
+        try {
+            while (scan && nextRow(parallelScan)) {
+                setCurrentRowNumber(rowNumber + 1);
+                if (isConditionMet()) {
+                    rowNumber++;
+                    Value key = getGroupKey(defaultGroup);
+                    HashMap<Expression, Object> values = groups.get(key);
+                    if (values == null) {
+                        if (groups.size() >= maxGroups) {
+                            // too many groups: the rows of new groups are
+                            // aggregated later, sorted by group
+                            if (spill == null) {
+                                spillFilters = getAllFilters();
+                                spill = createGroupSpillResult(spillFilters.size());
+                            }
+                            spill.addRow(createGroupSpillRow(key, rowNumber,
+                                    spillFilters));
+                            spilledGroupRows++;
+                        } else {
+                            values = new HashMap<>();
+                            groups.put(key, values);
+                        }
+                    }
+                    if (values != null) {
+                        currentGroup = values;
+                        currentGroupRowId++;
+                        updateAggregates(columnCount);
+                    }
+                    if (sampleSize > 0 && rowNumber >= sampleSize) {
+                        break;
                     }
-                    key = ValueArray.get(keyValues);
                 }
-                HashMap<Expression, Object> values = groups.get(key);
-                if (values == null) {
-                    values = new HashMap<>();
-                    groups.put(key, values);
+            }
+            if (groupIndex == null && groups.size() == 0) {
+                groups.put(defaultGroup, new HashMap<Expression, Object>());
+            }
+            ArrayList<Value> keys = groups.keys();
+            for (Value v : keys) {
+                ValueArray key = (ValueArray) v;
+                currentGroup = groups.get(key);
+                Value[] keyValues = key.getList();
+                Value[] row = new Value[columnCount];
+                for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
+                    row[groupIndex[j]] = keyValues[j];
                 }
-                currentGroup = values;
-                currentGroupRowId++;
-                for (int i = 0; i < columnCount; i++) {
-                    if (groupByExpression == null || !groupByExpression[i]) {
-                        Expression expr = expressions.get(i);
-                        expr.updateAggregate(session);
+                for (int j = 0; j < columnCount; j++) {
+                    if (groupByExpression != null && groupByExpression[j]) {
+                        continue;
                     }
+                    Expression expr = expressions.get(j);
+                    row[j] = expr.getValue(session);
                 }
-                if (sampleSize > 0 && rowNumber >= sampleSize) {
-                    break;
+                if (isHavingNullOrFalse(row)) {
+                    continue;
                 }
+                row = keepOnlyDistinct(row, columnCount);
+                result.addRow(row);
+            }
+            if (spill != null) {
+                // free the memory of the completed groups
+                groups = null;
+                keys = null;
+                queryGroupSpilled(columnCount, result, spill, spillFilters);
+            }
+        } finally {
+            if (spill != null) {
+                spill.close();
             }
         }
-        if (groupIndex == null && groups.size() == 0) {
-            groups.put(defaultGroup, new HashMap<Expression, Object>());
+    }
+
+    private Value getGroupKey(ValueArray defaultGroup) {
+        if (groupIndex == null) {
+            return defaultGroup;
         }
-        ArrayList<Value> keys = groups.keys();
-        for (Value v : keys) {
-            ValueArray key = (ValueArray) v;
-            currentGroup = groups.get(key);
-            Value[] keyValues = key.getList();
-            Value[] row = new Value[columnCount];
-            for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
-                row[groupIndex[j]] = keyValues[j];
+        Value[] keyValues = new Value[groupIndex.length];
+        // update group
+        for (int i = 0; i < groupIndex.length; i++) {
+            int idx = groupIndex[i];
+            Expression expr = expressions.get(idx);
+            keyValues[i] = expr.getValue(session);
+        }
+        return ValueArray.get(keyValues);
+    }
+
+    private void updateAggregates(int columnCount) {
+        for (int i = 0; i < columnCount; i++) {
+            if (groupByExpression == null || !groupByExpression[i]) {
+                Expression expr = expressions.get(i);
+                expr.updateAggregate(session);
             }
-            for (int j = 0; j < columnCount; j++) {
-                if (groupByExpression != null && groupByExpression[j]) {
-                    continue;
+        }
+    }
+
+    /**
+     * Open a cursor that reads the rows of the table using multiple threads,
+     * if possible. The rows are still processed by the calling thread, in the
+     * same order as when they are read using the table filter, so that the
+     * query and the session are only used by one thread.
+     *
+     * @return the cursor, or null if the rows need to be read using the
+     *         table filter
+     */
+    private Cursor openParallelScan() {
+        Database db = session.getDatabase();
+        int threads = db.getSettings().parallelScanThreads;
+        if (threads < 2 || isForUpdate || filters.size() != 1 ||
+                getJoinBatch() != null) {
+            return null;
+        }
+        TableFilter f = topTableFilter;
+        Index index = f.getIndex();
+        if (!(index instanceof MVPrimaryIndex) ||
+                !f.getIndexConditions().isEmpty() ||
+                f.getFilterCondition() != null ||
+                f.getJoinCondition() != null ||
+                index.getRowCountApproximation() <
+                db.getSettings().parallelScanMinRows) {
+            return null;
+        }
+        parallelScanThreads = threads;
+        return ((MVPrimaryIndex) index).findParallel(session,
+                db.getWorkerPool(), threads);
+    }
+
+    /**
+     * Go to the next row of the top table filter.
+     *
+     * @param parallelScan the cursor that reads the rows in parallel, or null
+     *            to read them using the table filter
+     * @return true if there is a next row
+     */
+    private boolean nextRow(Cursor parallelScan) {
+        if (parallelScan == null) {
+            return topTableFilter.next();
+        }
+        if (!parallelScan.next()) {
+            return false;
+        }
+        topTableFilter.set(parallelScan.get());
+        return true;
+    }
+
+    /**
+     * Read the rows of an aggregate query without GROUP BY in batches, and
+     * evaluate the condition and update the aggregates for each batch, if
+     * possible.
+     *
+     * @param defaultGroup the key of the (only) group
+     * @param parallelScan the cursor that reads the rows in parallel, or null
+     * @return the groups, or null if the rows need to be read one by one
+     */
+    private ValueHashMap<HashMap<Expression, Object>> queryGroupVectorized(
+            ValueArray defaultGroup, Cursor parallelScan) {
+        int size = session.getDatabase().getSettings().vectorSize;
+        if (size <= 0 || groupIndex != null || isForUpdate ||
+                filters.size() != 1 || getJoinBatch() != null) {
+            return null;
+        }
+        ArrayList<Expression> groupData = getGroupData();
+        if (groupData == null) {
+            return null;
+        }
+        // columns are only allowed within the aggregates and the condition
+        ArrayList<Expression> aggregates = new ArrayList<>();
+        ArrayList<Expression> used = new ArrayList<>();
+        ExpressionVisitor usedVisitor = ExpressionVisitor.getGroupDataVisitor(used);
+        for (Expression e : groupData) {
+            if (e instanceof Aggregate) {
+                if (!e.isVectorizable(topTableFilter)) {
+                    return null;
                 }
-                Expression expr = expressions.get(j);
-                row[j] = expr.getValue(session);
+                aggregates.add(e);
+                e.isEverything(usedVisitor);
+            }
+        }
+        if (condition != null) {
+            if (!condition.isVectorizable(topTableFilter)) {
+                return null;
+            }
+            condition.isEverything(usedVisitor);
+        }
+        for (Expression e : groupData) {
+            if (!used.contains(e)) {
+                return null;
+            }
+        }
+        HashSet<Column> columns = new HashSet<>();
+        ExpressionVisitor visitor = ExpressionVisitor.getColumnsVisitor(columns);
+        for (Expression e : aggregates) {
+            e.isEverything(visitor);
+        }
+        if (condition != null) {
+            condition.isEverything(visitor);
+        }
+        RowBatch batch = new RowBatch(size,
+                columns.toArray(new Column[columns.size()]));
+        currentGroup = new HashMap<>();
+        int rowNumber = 0;
+        while (nextRow(parallelScan)) {
+            // also checks whether the statement was canceled
+            setCurrentRowNumber(++rowNumber);
+            batch.add(topTableFilter);
+            if (batch.isFull()) {
+                updateAggregates(batch, aggregates);
             }
-            if (isHavingNullOrFalse(row)) {
+        }
+        updateAggregates(batch, aggregates);
+        ValueHashMap<HashMap<Expression, Object>> groups =
+                ValueHashMap.newInstance();
+        groups.put(defaultGroup, currentGroup);
+        vectorized = true;
+        return groups;
+    }
+
+    private void updateAggregates(RowBatch batch,
+            ArrayList<Expression> aggregates) {
+        batch.selectAll();
+        if (condition != null) {
+            condition.filter(session, batch);
+        }
+        for (Expression e : aggregates) {
+            ((Aggregate) e).updateAggregate(session, batch);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Get the expressions that keep data for each group, in the order they
+     * are used in the query.
+     *
+     * @return the expressions, or null if the data of the groups is not
+     *         known, or if an expression is not deterministic
+     */
+    private ArrayList<Expression> getGroupData() {
+        ArrayList<Expression> list = new ArrayList<>();
+        ExpressionVisitor visitor = ExpressionVisitor.getGroupDataVisitor(list);
+        for (Expression e : expressions) {
+            if (!e.isEverything(visitor) ||
+                    !e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+                return null;
+            }
+        }
+        if (condition != null && (!condition.isEverything(visitor) ||
+                !condition.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR))) {
+            return null;
+        }
+        return list;
+    }
+
+    /**
+     * Get the maximum number of groups of a GROUP BY query to keep in memory.
+     * Like for regular results, only persistent databases use temporary
+     * storage.
+     *
+     * @return the maximum number of groups
+     */
+    private int getMaxMemoryGroups() {
+        Database db = session.getDatabase();
+        if (groupIndex == null || getJoinBatch() != null ||
+                !db.isPersistent() || db.isReadOnly()) {
+            return Integer.MAX_VALUE;
+        }
+        return db.getMaxMemoryRows();
+    }
+
+    private ArrayList<TableFilter> getAllFilters() {
+        final ArrayList<TableFilter> list = New.arrayList();
+        topTableFilter.visit(new TableFilter.TableFilterVisitor() {
+            @Override
+            public void accept(TableFilter f) {
+                list.add(f);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Create the temporary result for the rows of groups that don't fit in
+     * memory. Each row contains the group key, the row number, and the
+     * current row of each table filter; the result is sorted by group key.
+     *
+     * @param filterCount the number of table filters
+     * @return the result
+     */
+    private LocalResult createGroupSpillResult(int filterCount) {
+        Expression[] list = new Expression[2 + filterCount];
+        Expression array = ValueExpression.get(ValueArray.get(new Value[0]));
+        list[0] = array;
+        list[1] = ValueExpression.get(ValueInt.get(0));
+        for (int i = 0; i < filterCount; i++) {
+            list[2 + i] = array;
+        }
+        LocalResult spill = new LocalResult(session, list, list.length);
+        spill.setSortOrder(new SortOrder(session.getDatabase(), new int[] { 0 },
+                new int[] { SortOrder.ASCENDING }, null));
+        return spill;
+    }
+
+    private static Value[] createGroupSpillRow(Value key, int rowNumber,
+            ArrayList<TableFilter> filterList) {
+        Value[] spillRow = new Value[2 + filterList.size()];
+        spillRow[0] = key;
+        spillRow[1] = ValueInt.get(rowNumber);
+        for (int i = 0; i < filterList.size(); i++) {
+            Row r = filterList.get(i).get();
+            if (r == null) {
+                spillRow[2 + i] = ValueNull.INSTANCE;
                 continue;
             }
-            row = keepOnlyDistinct(row, columnCount);
-            result.addRow(row);
+            int count = r.getColumnCount();
+            Value[] data = new Value[count + 1];
+            for (int j = 0; j < count; j++) {
+                data[j] = r.getValue(j);
+            }
+            data[count] = ValueLong.get(r.getKey());
+            spillRow[2 + i] = ValueArray.get(data);
+        }
+        return spillRow;
+    }
+
+    /**
+     * Aggregate the rows of the groups that did not fit in memory. The rows
+     * are read sorted by group key, so that only one group at a time is
+     * kept in memory.
+     *
+     * @param columnCount the number of columns
+     * @param result the result
+     * @param spill the temporary result with the rows of the groups
+     * @param filterList the table filters
+     */
+    private void queryGroupSpilled(int columnCount, LocalResult result,
+            LocalResult spill, ArrayList<TableFilter> filterList) {
+        Database db = session.getDatabase();
+        spill.done();
+        Value[] previousKeyValues = null;
+        while (spill.next()) {
+            Value[] spillRow = spill.currentRow();
+            Value[] keyValues = ((ValueArray) spillRow[0]).getList();
+            if (previousKeyValues == null ||
+                    !Arrays.equals(previousKeyValues, keyValues)) {
+                if (previousKeyValues != null) {
+                    Value[] row = createGroupSortedRow(previousKeyValues, columnCount);
+                    if (row != null) {
+                        result.addRow(row);
+                    }
+                }
+                previousKeyValues = keyValues;
+                currentGroup = new HashMap<>();
+                spilledGroups++;
+            }
+            // restore the current rows of the table filters
+            for (int i = 0; i < filterList.size(); i++) {
+                Value v = spillRow[2 + i];
+                Row r = null;
+                if (v != ValueNull.INSTANCE) {
+                    Value[] data = ((ValueArray) v).getList();
+                    int count = data.length - 1;
+                    r = db.createRow(Arrays.copyOf(data, count),
+                            Row.MEMORY_CALCULATE);
+                    r.setKey(data[count].getLong());
+                }
+                filterList.get(i).set(r);
+            }
+            setCurrentRowNumber(spillRow[1].getInt());
+            currentGroupRowId++;
+            for (int i = 0; i < columnCount; i++) {
+                if (groupByExpression == null || !groupByExpression[i]) {
+                    Expression expr = expressions.get(i);
+                    expr.updateAggregate(session);
+                }
+            }
+        }
+        if (previousKeyValues != null) {
+            Value[] row = createGroupSortedRow(previousKeyValues, columnCount);
+            if (row != null) {
+                result.addRow(row);
+            }
         }
     }
 
@@ -588,6 +942,7 @@ protected ResultInterface queryWithoutCache(int maxRows, ResultTarget target) {
         }
         if (randomAccessResult) {
             result = createLocalResult(result);
+            result.setRandomAccess();
         }
         if (isGroupQuery && !isGroupSortedQuery) {
             result = createLocalResult(result);
@@ -1065,6 +1420,24 @@ private void setEvaluatableRecursive(TableFilter f) {
 
     @Override
     public String getPlanSQL() {
+        return getPlanSQL(false);
+    }
+
+    @Override
+    public String getAnalyzedPlanSQL() {
+        return getPlanSQL(true);
+    }
+
+    /**
+     * Get the SQL statement with the execution plan. How the rows were
+     * actually read and aggregated is only known after the statement was
+     * executed, and is only included if requested.
+     *
+     * @param analyzed whether to include how the rows were processed when
+     *            the statement was last executed
+     * @return the execution plan
+     */
+    private String getPlanSQL(boolean analyzed) {
         // can not use the field sqlStatement because the parameter
         // indexes may be incorrect: ? may be in fact ?2 for a subquery
         // but indexes may be set manually as well
@@ -1195,6 +1568,20 @@ public String getPlanSQL() {
             if (isGroupSortedQuery) {
                 buff.append("\n/* group sorted */");
             }
+            if (analyzed) {
+                if (vectorized) {
+                    buff.append("\n/* vectorized */");
+                }
+                if (parallelScanThreads > 0) {
+                    buff.append("\n/* parallel scan: ").
+                            append(parallelScanThreads).append(" threads */");
+                }
+                if (spilledGroups > 0) {
+                    buff.append("\n/* spilled groups: ").
+                            append(spilledGroups).append(", rows: ").
+                            append(spilledGroupRows).append(" */");
+                }
+            }
         }
         // buff.append("\n/* cost: " + cost + " */");
         return buff.toString();
@@ -1222,6 +1609,10 @@ public ArrayList<Expression> getExpressions() {
         return expressions;
     }
 
+    public boolean isForUpdate() {
+        return isForUpdate;
+    }
+
     @Override
     public void setForUpdate(boolean b) {
         this.isForUpdate = b;
@@ -1354,6 +1745,24 @@ public boolean isEverything(ExpressionVisitor visitor) {
             }
             break;
         }
+        case ExpressionVisitor.GET_GROUP_DATA:
+            // a subquery
+            return false;
+        case ExpressionVisitor.GET_COLUMNS: {
+            // the conditions of outer joins are not part of the condition
+            ExpressionVisitor v2 = visitor.incrementQueryLevel(1);
+            for (TableFilter f : filters) {
+                Expression on = f.getJoinCondition();
+                if (on != null) {
+                    on.isEverything(v2);
+                }
+                on = f.getFilterCondition();
+                if (on != null) {
+                    on.isEverything(v2);
+                }
+            }
+            break;
+        }
         default:
         }
         ExpressionVisitor v2 = visitor.incrementQueryLevel(1);
@@ -1384,6 +1793,16 @@ public boolean isCacheable() {
         return !isForUpdate;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (!isCacheable()) {
+            return false;
+        }
+        HashSet<DbObject> dependencies = new HashSet<>();
+        isEverything(ExpressionVisitor.getDependenciesVisitor(dependencies));
+        return isShareable(dependencies);
+    }
+
     @Override
     public int getType() {
         return CommandInterface.SELECT;
@@ -7,12 +7,14 @@
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Objects;
 
 import org.h2.api.ErrorCode;
 import org.h2.api.Trigger;
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.DbObject;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.expression.Expression;
@@ -262,6 +264,27 @@ public boolean isCacheable() {
         return true;
     }
 
+    @Override
+    public boolean isShareable() {
+        if (sourceTableFilter != null) {
+            return false;
+        }
+        HashSet<DbObject> dependencies = new HashSet<>();
+        dependencies.add(targetTableFilter.getTable());
+        ExpressionVisitor visitor =
+                ExpressionVisitor.getDependenciesVisitor(dependencies);
+        if (condition != null) {
+            condition.isEverything(visitor);
+        }
+        if (limitExpr != null) {
+            limitExpr.isEverything(visitor);
+        }
+        for (Expression e : expressionMap.values()) {
+            e.isEverything(visitor);
+        }
+        return isShareable(dependencies);
+    }
+
     public TableFilter getSourceTableFilter() {
         return sourceTableFilter;
     }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.engine;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import org.h2.Driver;
+import org.h2.command.ddl.Analyze;
+import org.h2.message.Trace;
+import org.h2.table.Table;
+
+/**
+ * The analyze thread updates the statistics of tables after many rows were
+ * changed. It uses its own session, so that the statement that changed the
+ * rows does not need to wait until the table is analyzed. The same session
+ * is used for all tables.
+ */
+class AnalyzeThread implements Runnable {
+
+    /**
+     * The reference to the database. A weak reference is used so that the
+     * database can be garbage collected if it was not closed.
+     */
+    private volatile WeakReference<Database> databaseRef;
+
+    /**
+     * The tables that need to be analyzed.
+     */
+    private final LinkedHashSet<Table> tables = new LinkedHashSet<>();
+
+    /**
+     * The table that is currently analyzed, or null.
+     */
+    private Table current;
+
+    private volatile boolean stop;
+
+    private AnalyzeThread(Database database) {
+        this.databaseRef = new WeakReference<>(database);
+    }
+
+    /**
+     * Create and start a new analyze thread for the given database. If the
+     * thread can't be created, this method returns null.
+     *
+     * @param database the database
+     * @return the analyze thread object or null
+     */
+    static AnalyzeThread create(Database database) {
+        try {
+            AnalyzeThread analyzer = new AnalyzeThread(database);
+            Thread thread = new Thread(analyzer,
+                    "H2 Analyze " + database.getShortName());
+            Driver.setThreadContextClassLoader(thread);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+            return analyzer;
+        } catch (SecurityException e) {
+            // the security manager does not allow threads
+            return null;
+        }
+    }
+
+    /**
+     * Add a table to the list of tables that need to be analyzed.
+     *
+     * @param table the table
+     */
+    synchronized void add(Table table) {
+        tables.add(table);
+        notifyAll();
+    }
+
+    /**
+     * Wait until all tables that were added are analyzed, or the thread is
+     * stopped.
+     */
+    synchronized void waitUntilIdle() {
+        while (!stop && (current != null || !tables.isEmpty())) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        // one session is used for all tables
+        Session session = null;
+        while (!stop) {
+            Table table = null;
+            synchronized (this) {
+                Iterator<Table> it = tables.iterator();
+                current = null;
+                notifyAll();
+                if (it.hasNext()) {
+                    table = it.next();
+                    it.remove();
+                    current = table;
+                } else {
+                    try {
+                        wait(1000);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            }
+            Database database = databaseRef.get();
+            if (database == null) {
+                break;
+            }
+            if (table != null && !stop) {
+                if (session == null) {
+                    session = database.createSystemSession();
+                }
+                analyze(database, session, table);
+            }
+        }
+        databaseRef = null;
+        synchronized (this) {
+            stop = true;
+            current = null;
+            notifyAll();
+        }
+    }
+
+    private static void analyze(Database database, Session session,
+            Table table) {
+        if (!table.isValid()) {
+            // the table was dropped in the meantime
+            return;
+        }
+        int rows = database.getSettings().analyzeSample / 10;
+        try {
+            Analyze.analyzeTable(session, table, rows, false);
+            session.commit(false);
+        } catch (Exception e) {
+            // for example if the table is locked, or the database is closed
+            database.getTrace(Trace.DATABASE).debug(e,
+                    "analyze " + table.getName());
+            try {
+                session.rollback();
+            } catch (Exception e2) {
+                // ignore
+            }
+        }
+        if (!database.isClosing()) {
+            // analyze can lock the meta
+            database.unlockMeta(session);
+        }
+    }
+
+    /**
+     * Stop the thread. This method is called when closing the database. The
+     * tables that were not analyzed yet are skipped.
+     */
+    void stopThread() {
+        stop = true;
+        synchronized (this) {
+            tables.clear();
+            notifyAll();
+        }
+        // can't do thread.join(), because this thread might be holding
+        // a lock that the analyze thread is waiting for
+    }
+
+}
@@ -106,6 +106,12 @@ public class Constants {
      */
     public static final int TCP_PROTOCOL_VERSION_17 = 17;
 
+    /**
+     * The TCP protocol version number 18.
+     * @since 1.4.197 (TODO)
+     */
+    public static final int TCP_PROTOCOL_VERSION_18 = 18;
+
     /**
      * Minimum supported version of TCP protocol.
      */
@@ -114,7 +120,7 @@ public class Constants {
     /**
      * Maximum supported version of TCP protocol.
      */
-    public static final int TCP_PROTOCOL_VERSION_MAX_SUPPORTED = TCP_PROTOCOL_VERSION_17;
+    public static final int TCP_PROTOCOL_VERSION_MAX_SUPPORTED = TCP_PROTOCOL_VERSION_18;
 
     /**
      * The major version of this database.
@@ -407,6 +413,26 @@ public class Constants {
      */
     public static final int SELECTIVITY_DISTINCT_COUNT = 10_000;
 
+    /**
+     * The maximum number of buckets of the histogram of a column, as
+     * calculated by ANALYZE.
+     */
+    public static final int STATISTICS_HISTOGRAM_BUCKETS = 32;
+
+    /**
+     * The maximum number of most common values of a column that are kept by
+     * ANALYZE.
+     */
+    public static final int STATISTICS_COMMON_VALUES = 16;
+
+    /**
+     * The maximum number of rows that are read to calculate the most common
+     * values and the histogram of the columns when running ANALYZE. If the
+     * sample is larger (or the whole table), they are calculated from a
+     * separate sample of this size.
+     */
+    public static final int STATISTICS_MAX_SAMPLE = 100_000;
+
     /**
      * The default directory name of the server properties file for the H2
      * Console.
@@ -465,6 +491,11 @@ public class Constants {
      */
     public static final String SUFFIX_MV_FILE = ".mv.db";
 
+    /**
+     * The file name suffix of a transaction log file of a MVStore.
+     */
+    public static final String SUFFIX_MV_LOG_FILE = ".log.db";
+
     /**
      * The file name suffix of a new MVStore file, used when compacting a store.
      */
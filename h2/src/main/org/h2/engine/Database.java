@@ -16,6 +16,7 @@
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -137,6 +138,8 @@ public class Database implements DataHandler {
     private Index metaIdIndex;
     private FileLock lock;
     private WriterThread writer;
+    private AnalyzeThread analyzeThread;
+    private volatile ForkJoinPool workerPool;
     private boolean starting;
     private TraceSystem traceSystem;
     private Trace trace;
@@ -207,6 +210,7 @@ public class Database implements DataHandler {
     private int queryStatisticsMaxEntries = Constants.QUERY_STATISTICS_MAX_ENTRIES;
     private QueryStatisticsData queryStatisticsData;
     private RowFactory rowFactory = RowFactory.DEFAULT;
+    private final PlanCache planCache;
 
     public Database(ConnectionInfo ci, String cipher) {
         META_LOCK_DEBUGGING.set(null);
@@ -214,6 +218,9 @@ public Database(ConnectionInfo ci, String cipher) {
         String name = ci.getName();
         this.dbSettings = ci.getDbSettings();
         this.reconnectCheckDelayNs = TimeUnit.MILLISECONDS.toNanos(dbSettings.reconnectCheckDelay);
+        this.planCache = dbSettings.planCacheSize > 0 &&
+                dbSettings.queryCacheSize > 0 ?
+                new PlanCache(this, dbSettings.planCacheSize) : null;
         this.compareMode = CompareMode.getInstance(null, 0);
         this.persistent = ci.isPersistent();
         this.filePasswordHash = ci.getFilePasswordHash();
@@ -526,6 +533,15 @@ public long getModificationMetaId() {
         return modificationMetaId.get();
     }
 
+    /**
+     * Get the plan cache that is shared by all sessions.
+     *
+     * @return the plan cache, or null if disabled
+     */
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
     public long getNextModificationMetaId() {
         // if the meta data has been modified, the data is modified as well
         // (because MetaTable returns modificationDataId)
@@ -593,6 +609,77 @@ static boolean exists(String name) {
         return FileUtils.exists(name + Constants.SUFFIX_MV_FILE);
     }
 
+    /**
+     * Create a new session for a background task of the database. The
+     * session is not a user session and does not need to be closed.
+     *
+     * @return the session
+     */
+    synchronized Session createSystemSession() {
+        return new Session(this, systemUser, ++nextSessionId);
+    }
+
+    /**
+     * Update the statistics of the given table in the background.
+     *
+     * @param table the table
+     * @return false if this is not possible, and the caller needs to analyze
+     *         the table itself
+     */
+    public boolean analyzeInBackground(Table table) {
+        AnalyzeThread analyzer;
+        synchronized (this) {
+            if (closing) {
+                return true;
+            }
+            if (analyzeThread == null) {
+                analyzeThread = AnalyzeThread.create(this);
+                if (analyzeThread == null) {
+                    return false;
+                }
+            }
+            analyzer = analyzeThread;
+        }
+        analyzer.add(table);
+        return true;
+    }
+
+    /**
+     * Wait until the tables that were added to be analyzed in the background
+     * are analyzed. This is used by tests.
+     */
+    public void waitForBackgroundAnalyze() {
+        AnalyzeThread analyzer;
+        synchronized (this) {
+            analyzer = analyzeThread;
+        }
+        if (analyzer != null) {
+            analyzer.waitUntilIdle();
+        }
+    }
+
+    /**
+     * Get the pool of worker threads used to split statements into parallel
+     * tasks. The pool is created when first needed, and uses one thread per
+     * processor.
+     *
+     * @return the pool
+     */
+    public ForkJoinPool getWorkerPool() {
+        ForkJoinPool pool = workerPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = workerPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(
+                            Runtime.getRuntime().availableProcessors());
+                    workerPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
     /**
      * Get the trace object for the given module id.
      *
@@ -1341,6 +1428,14 @@ public void close(boolean fromShutdownHook) {
                     closing = true;
                 }
             }
+            if (analyzeThread != null) {
+                analyzeThread.stopThread();
+                analyzeThread = null;
+            }
+            if (workerPool != null) {
+                workerPool.shutdown();
+                workerPool = null;
+            }
             removeOrphanedLobs();
             try {
                 if (systemSession != null) {
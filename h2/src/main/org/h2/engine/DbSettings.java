@@ -46,7 +46,9 @@ public class DbSettings extends SettingsBase {
      * then ANALYZE will run against each user table after about 1000 changes to
      * that table. The time between running ANALYZE doubles each time since
      * starting the database. It is not run on local temporary tables, and
-     * tables that have a trigger on SELECT.
+     * tables that have a trigger on SELECT. ANALYZE is run in a background
+     * thread after the transaction that changed the rows is committed, so that
+     * the statement does not have to wait.
      */
     public final int analyzeAuto = get("ANALYZE_AUTO", 2000);
 
@@ -56,6 +58,22 @@ public class DbSettings extends SettingsBase {
      */
     public final int analyzeSample = get("ANALYZE_SAMPLE", 10_000);
 
+    /**
+     * Database setting <code>AUTO_COMPACT_FILL_RATE</code> (default: 40).<br />
+     * The target fill rate of the MVStore in percent. If the live data in
+     * the chunks is less than this, the chunks with the lowest fill rate are
+     * re-written in the background. 0 disables background compaction.
+     */
+    public final int autoCompactFillRate = get("AUTO_COMPACT_FILL_RATE", 40);
+
+    /**
+     * Database setting <code>AUTO_COMPACT_RATE</code> (default: 0).<br />
+     * The maximum number of KB per second that the MVStore background
+     * compaction writes. If set, chunks are re-written in small steps, so
+     * that commits are not delayed for a long time. 0 means there is no limit.
+     */
+    public final int autoCompactRate = get("AUTO_COMPACT_RATE", 0);
+
     /**
      * Database setting <code>DATABASE_TO_UPPER</code> (default: true).<br />
      * Database short names are converted to uppercase for the DATABASE()
@@ -131,6 +149,13 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean functionsInSchema = get("FUNCTIONS_IN_SCHEMA", true);
 
+    /**
+     * Database setting <code>HASH_JOIN</code> (default: true).<br />
+     * Join a table using an equality condition by building a hash table of
+     * its rows, if there is no index that could be used to look up the rows.
+     */
+    public final boolean hashJoin = get("HASH_JOIN", true);
+
     /**
      * Database setting <code>LARGE_TRANSACTIONS</code> (default: true).<br />
      * Support very large transactions
@@ -261,6 +286,39 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean pageStoreTrim = get("PAGE_STORE_TRIM", true);
 
+    /**
+     * Database setting <code>PARALLEL_SCAN_MIN_ROWS</code>
+     * (default: 100000).<br />
+     * The minimum number of rows of a table to read the rows of a GROUP BY
+     * query using multiple threads.
+     */
+    public final int parallelScanMinRows = get("PARALLEL_SCAN_MIN_ROWS", 100000);
+
+    /**
+     * Database setting <code>PARALLEL_SCAN_THREADS</code> (default: 0).<br />
+     * The number of threads used to read the rows of a large table in a
+     * GROUP BY query (or an aggregate query without GROUP BY). The table is
+     * split into small ranges of rows, and the worker threads read the next
+     * ranges while the rows of the current range are aggregated. The
+     * conditions and aggregates are still evaluated by the thread that runs
+     * the query, in the order of the rows. This is only used for queries that
+     * scan a single table of the MVStore without using an index. Use 0 to
+     * disable.
+     */
+    public final int parallelScanThreads = get("PARALLEL_SCAN_THREADS", 0);
+
+    /**
+     * Database setting <code>PLAN_CACHE_SIZE</code> (default: 256).<br />
+     * The size of the plan cache, in number of cached statements. This cache
+     * is shared by all sessions of a database, so that a statement that was
+     * prepared by one session can be re-used by other sessions, without
+     * parsing and optimizing it again. Only SELECT, INSERT, UPDATE, and
+     * DELETE statements on regular tables (not views and not temporary tables)
+     * are shared. The cache is only used if the query cache is enabled. Use 0
+     * to disable.
+     */
+    public final int planCacheSize = get("PLAN_CACHE_SIZE", 256);
+
     /**
      * Database setting <code>QUERY_CACHE_SIZE</code> (default: 8).<br />
      * The size of the query cache, in number of cached statements. Each session
@@ -321,6 +379,39 @@ public class DbSettings extends SettingsBase {
     public final boolean shareLinkedConnections = get(
             "SHARE_LINKED_CONNECTIONS", true);
 
+    /**
+     * Database setting <code>SYNC_ON_COMMIT</code> (default: false).<br />
+     * If enabled, committing a transaction on the MVStore waits until the
+     * changes are written and synced to disk, so that they survive a crash of
+     * the operating system. Concurrent commits are grouped: they are written
+     * and synced together, so that one sync is enough for all of them.
+     */
+    public final boolean syncOnCommit = get("SYNC_ON_COMMIT", false);
+
+    /**
+     * Database setting <code>TRANSACTION_LOG</code> (default: false).<br />
+     * If enabled, the changes of committed transactions on the MVStore are
+     * appended to a redo log file, which is synced before the commit returns.
+     * The store itself is only written from time to time, and when the schema
+     * changes. When opening the database, the changes in the log are applied.
+     * This is not supported for encrypted or in-memory databases.
+     */
+    public final boolean transactionLog = get("TRANSACTION_LOG", false);
+
+    /**
+     * Database setting <code>VECTOR_SIZE</code> (default: 0).<br />
+     * The number of rows per batch when evaluating an aggregate query without
+     * GROUP BY in batches. The values of the used columns of a batch are
+     * stored as arrays of primitive values, and the condition and the
+     * aggregate functions are evaluated for all rows of the batch at once.
+     * This is only used for queries on a single table where the condition
+     * consists of comparisons, AND and OR, and all aggregate functions are
+     * COUNT, SUM, MIN, MAX, or AVG (not DISTINCT) on numeric columns of type
+     * TINYINT, SMALLINT, INT, BIGINT, REAL, or DOUBLE, or on +, -, and *
+     * operations of them. Use 0 to disable.
+     */
+    public final int vectorSize = get("VECTOR_SIZE", 0);
+
     /**
      * Database setting <code>DEFAULT_TABLE_ENGINE</code>
      * (default: null).<br />
@@ -342,6 +433,17 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean compressData = get("COMPRESS", false);
 
+    /**
+     * Database setting <code>OFF_HEAP_CACHE_SIZE</code>
+     * (default: 0).<br />
+     * The size of the second level page cache of the MVStore, in MB. This
+     * cache keeps the serialized pages in the off-heap area of the main
+     * memory, so that a large cache does not require a large Java heap. It is
+     * limited by the JVM option -XX:MaxDirectMemorySize. 0 means this cache
+     * is disabled.
+     */
+    public final int offHeapCacheSize = get("OFF_HEAP_CACHE_SIZE", 0);
+
     /**
      * Database setting <code>MULTI_THREADED</code>
      * (default: false).<br />
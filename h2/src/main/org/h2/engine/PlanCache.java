@@ -0,0 +1,183 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.engine;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.h2.command.Command;
+import org.h2.util.StatementBuilder;
+
+/**
+ * A cache of prepared statements that is shared by all sessions of a
+ * database, so that a statement only needs to be parsed and optimized once
+ * even if it is used by many connections.
+ * <p>
+ * Only statements that are currently not used are kept in this cache. A
+ * session takes a statement out of the cache (it is then bound to this
+ * session), and gives it back once it no longer needs it. Statements are
+ * not cloned: a prepared statement keeps the state of its execution (table
+ * filters, parameter values, cached results), and there is no way to copy
+ * it. Instead, sessions that need the same statement at the same time each
+ * prepare their own copy, and the cache keeps all copies, so that after
+ * warming up there is one copy for each concurrent user. Like the query
+ * cache of the session, the whole cache is invalidated when the database
+ * meta data changes.
+ */
+public class PlanCache {
+
+    private final Database database;
+    private final int maxSize;
+
+    /**
+     * The unused statements, in access order.
+     */
+    private final LinkedHashMap<String, ArrayDeque<Command>> map =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private int size;
+    private long modificationMetaId;
+    private long hits, misses;
+
+    PlanCache(Database database, int maxSize) {
+        this.database = database;
+        this.maxSize = maxSize;
+        this.modificationMetaId = database.getModificationMetaId();
+    }
+
+    /**
+     * Get the cache key for the given statement. The key contains the settings
+     * of the session that are used when parsing and optimizing a statement.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @return the key
+     */
+    static String getKey(Session session, String sql) {
+        StatementBuilder buff = new StatementBuilder();
+        buff.append(session.getUser().getName()).append('\n');
+        buff.append(session.getCurrentSchemaName()).append('\n');
+        String[] searchPath = session.getSchemaSearchPath();
+        if (searchPath != null) {
+            for (String s : searchPath) {
+                buff.appendExceptFirst(",");
+                buff.append(s);
+            }
+        }
+        buff.append('\n');
+        buff.append(session.isForceJoinOrder() ? '1' : '0');
+        buff.append(session.isJoinBatchEnabled() ? '1' : '0');
+        buff.append('\n').append(sql);
+        return buff.toString();
+    }
+
+    /**
+     * Take an unused statement out of the cache and bind it to the given
+     * session.
+     *
+     * @param key the key
+     * @param session the session that will use the statement
+     * @return the statement, or null if there is none
+     */
+    Command take(String key, Session session) {
+        Command command;
+        synchronized (this) {
+            checkValid();
+            ArrayDeque<Command> list = map.get(key);
+            if (list == null) {
+                misses++;
+                return null;
+            }
+            command = list.poll();
+            if (list.isEmpty()) {
+                map.remove(key);
+            }
+            size--;
+            hits++;
+        }
+        command.setSession(session);
+        command.reuse();
+        return command;
+    }
+
+    /**
+     * Add an unused statement to the cache. The statement must no longer be
+     * used by the session that prepared it.
+     *
+     * @param key the key
+     * @param command the statement
+     * @param metaId the meta data modification id at the time the statement
+     *            was known to be up to date
+     */
+    synchronized void add(String key, Command command, long metaId) {
+        checkValid();
+        if (metaId != modificationMetaId) {
+            // prepared for an older schema
+            return;
+        }
+        ArrayDeque<Command> list = map.get(key);
+        if (list == null) {
+            list = new ArrayDeque<>(1);
+            map.put(key, list);
+        }
+        list.add(command);
+        size++;
+        // remove the least recently used statements
+        Iterator<Map.Entry<String, ArrayDeque<Command>>> it =
+                map.entrySet().iterator();
+        while (size > maxSize) {
+            ArrayDeque<Command> eldest = it.next().getValue();
+            while (size > maxSize && !eldest.isEmpty()) {
+                eldest.poll();
+                size--;
+            }
+            if (eldest.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void checkValid() {
+        long metaId = database.getModificationMetaId();
+        if (metaId != modificationMetaId) {
+            map.clear();
+            size = 0;
+            modificationMetaId = metaId;
+        }
+    }
+
+    /**
+     * Get the number of unused statements in the cache.
+     *
+     * @return the number of statements
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of times an unused statement was found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of times no statement was found in the cache.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
@@ -15,6 +15,7 @@
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.h2.api.ErrorCode;
 import org.h2.command.Command;
 import org.h2.command.CommandInterface;
@@ -30,6 +31,7 @@
 import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.message.TraceSystem;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.db.MVTable;
 import org.h2.mvstore.db.TransactionStore.Change;
 import org.h2.mvstore.db.TransactionStore.Transaction;
@@ -110,9 +112,24 @@ public class Session extends SessionWithState {
     private boolean closed;
     private final long sessionStart = System.currentTimeMillis();
     private long transactionStart;
+
+    /**
+     * Whether a transaction that changed data was committed, and the changes
+     * still need to be synced (if SYNC_ON_COMMIT or TRANSACTION_LOG is
+     * enabled).
+     */
+    private boolean syncPending;
+
+    /**
+     * The number of commands that are being executed and that sync the
+     * committed changes when done. While this is larger than 0, commit does
+     * not sync.
+     */
+    private final AtomicInteger syncDeferred = new AtomicInteger();
     private long currentCommandStart;
     private HashMap<String, Value> variables;
     private HashSet<ResultInterface> temporaryResults;
+    private ArrayList<MVMap<?, ?>> temporaryMaps;
     private int queryTimeout;
     private boolean commitOrRollbackDisabled;
     private Table waitForLock;
@@ -621,6 +638,16 @@ public Command prepareLocal(String sql) {
                 }
             }
         }
+        PlanCache planCache = queryCache == null ? null : database.getPlanCache();
+        String planCacheKey = null;
+        if (planCache != null) {
+            planCacheKey = PlanCache.getKey(this, sql);
+            command = planCache.take(planCacheKey, this);
+            if (command != null) {
+                addToQueryCache(sql, command);
+                return command;
+            }
+        }
         Parser parser = new Parser(this);
         try {
             command = parser.prepareCommand(sql);
@@ -631,12 +658,36 @@ public Command prepareLocal(String sql) {
         command.prepareJoinBatch();
         if (queryCache != null) {
             if (command.isCacheable()) {
-                queryCache.put(sql, command);
+                if (planCacheKey != null && command.isShareable()) {
+                    command.setPlanCacheKey(planCacheKey);
+                }
+                addToQueryCache(sql, command);
             }
         }
         return command;
     }
 
+    private void addToQueryCache(String sql, Command command) {
+        PlanCache planCache = database.getPlanCache();
+        if (planCache != null && queryCache.size() >= queryCacheSize &&
+                !queryCache.containsKey(sql)) {
+            // remove the least recently used statement here, so that it can
+            // be used by other sessions
+            Iterator<Command> it = queryCache.values().iterator();
+            Command eldest = it.next();
+            it.remove();
+            releaseToPlanCache(planCache, eldest);
+        }
+        queryCache.put(sql, command);
+    }
+
+    private void releaseToPlanCache(PlanCache planCache, Command command) {
+        String key = command.getPlanCacheKey();
+        if (key != null && command.canReuse()) {
+            planCache.add(key, command, modificationMetaID);
+        }
+    }
+
     public Database getDatabase() {
         return database;
     }
@@ -673,6 +724,17 @@ public void commit(boolean ddl) {
                     }
                 }
             }
+            if (transaction.hasChanges()) {
+                boolean hasLog = database.getMvStore().
+                        getTransactionStore().hasLog();
+                if (hasLog && (ddl || locks.contains(database.getMeta()))) {
+                    // the schema is not in the log
+                    transaction.requireCheckpoint();
+                }
+                if (hasLog || database.getSettings().syncOnCommit) {
+                    syncPending = true;
+                }
+            }
             transaction.commit();
             transaction = null;
         }
@@ -713,7 +775,11 @@ public void commit(boolean ddl) {
         int rows = getDatabase().getSettings().analyzeSample / 10;
         if (tablesToAnalyze != null) {
             for (Table table : tablesToAnalyze) {
-                Analyze.analyzeTable(this, table, rows, false);
+                // local temporary tables are only visible in this session
+                if (table.isTemporary() && !table.isGlobalTemporary() ||
+                        !database.analyzeInBackground(table)) {
+                    Analyze.analyzeTable(this, table, rows, false);
+                }
             }
             // analyze can lock the meta
             database.unlockMeta(this);
@@ -721,6 +787,9 @@ public void commit(boolean ddl) {
         tablesToAnalyze = null;
 
         endTransaction();
+        if (syncDeferred.get() == 0) {
+            syncCommitted();
+        }
     }
 
     private void removeTemporaryLobs(boolean onTimeout) {
@@ -754,6 +823,42 @@ private void removeTemporaryLobs(boolean onTimeout) {
         }
     }
 
+    /**
+     * Defer syncing the committed changes until the command that is about to
+     * be executed is done. Each call needs to be followed by a call to
+     * endDeferSync.
+     */
+    public void deferSync() {
+        syncDeferred.incrementAndGet();
+    }
+
+    /**
+     * Stop deferring the sync of the committed changes, and sync them if no
+     * other command defers it.
+     */
+    public void endDeferSync() {
+        if (syncDeferred.decrementAndGet() == 0) {
+            syncCommitted();
+        }
+    }
+
+    /**
+     * Wait until the changes of the transactions that were committed are
+     * synced to disk, if SYNC_ON_COMMIT or TRANSACTION_LOG is enabled. A
+     * command defers this until it was executed and does not hold the
+     * database lock any longer, so that the commits of concurrent sessions
+     * can be synced together. Commits outside of a command are synced right
+     * away.
+     */
+    public void syncCommitted() {
+        if (syncPending) {
+            syncPending = false;
+            if (database.getMvStore() != null) {
+                database.getMvStore().getTransactionStore().syncCommitted();
+            }
+        }
+    }
+
     private void checkCommitRollback() {
         if (commitOrRollbackDisabled && !locks.isEmpty()) {
             throw DbException.get(ErrorCode.COMMIT_ROLLBACK_NOT_ALLOWED);
@@ -896,6 +1001,13 @@ public void close() {
 
                 removeTemporaryLobs(false);
                 cleanTempTables(true);
+                PlanCache planCache = database.getPlanCache();
+                if (planCache != null && queryCache != null) {
+                    for (Command command : queryCache.values()) {
+                        releaseToPlanCache(planCache, command);
+                    }
+                    queryCache = null;
+                }
                 undoLog.clear();
                 // Table#removeChildrenAndResources can take the meta lock,
                 // and we need to unlock before we call removeSession(), which might
@@ -1573,6 +1685,30 @@ public void addTemporaryResult(ResultInterface result) {
         }
     }
 
+    /**
+     * Remember the temporary map and remove it as soon as the statement is
+     * completed.
+     *
+     * @param map the temporary map
+     */
+    public void addTemporaryMap(MVMap<?, ?> map) {
+        if (temporaryMaps == null) {
+            temporaryMaps = new ArrayList<>();
+        }
+        temporaryMaps.add(map);
+    }
+
+    private void removeTemporaryMaps() {
+        if (temporaryMaps != null) {
+            for (MVMap<?, ?> map : temporaryMaps) {
+                if (!map.isClosed()) {
+                    map.getStore().removeMap(map);
+                }
+            }
+            temporaryMaps = null;
+        }
+    }
+
     private void closeTemporaryResults() {
         if (temporaryResults != null) {
             for (ResultInterface result : temporaryResults) {
@@ -1731,6 +1867,7 @@ public void startStatementWithinTransaction() {
     public void endStatement() {
         startStatement = -1;
         closeTemporaryResults();
+        removeTemporaryMaps();
     }
 
     /**
@@ -60,6 +60,7 @@ public class SessionRemote extends SessionWithState implements DataHandler {
     public static final int SESSION_HAS_PENDING_TRANSACTION = 16;
     public static final int LOB_READ = 17;
     public static final int SESSION_PREPARE_READ_PARAMS2 = 18;
+    public static final int COMMAND_EXECUTE_BATCH_UPDATE = 19;
 
     public static final int STATUS_ERROR = 0;
     public static final int STATUS_OK = 1;
@@ -615,14 +616,8 @@ public void done(Transfer transfer) throws IOException {
         transfer.flush();
         int status = transfer.readInt();
         if (status == STATUS_ERROR) {
-            String sqlstate = transfer.readString();
-            String message = transfer.readString();
-            String sql = transfer.readString();
-            int errorCode = transfer.readInt();
-            String stackTrace = transfer.readString();
-            JdbcSQLException s = new JdbcSQLException(message, sql, sqlstate,
-                    errorCode, null, stackTrace);
-            if (errorCode == ErrorCode.CONNECTION_BROKEN_1) {
+            JdbcSQLException s = readException(transfer);
+            if (s.getErrorCode() == ErrorCode.CONNECTION_BROKEN_1) {
                 // allow re-connect
                 throw new IOException(s.toString(), s);
             }
@@ -639,6 +634,24 @@ public void done(Transfer transfer) throws IOException {
         }
     }
 
+    /**
+     * Read an exception that was sent by the server (the status was already
+     * read).
+     *
+     * @param transfer the transfer object
+     * @return the exception
+     */
+    public static JdbcSQLException readException(Transfer transfer)
+            throws IOException {
+        String sqlstate = transfer.readString();
+        String message = transfer.readString();
+        String sql = transfer.readString();
+        int errorCode = transfer.readInt();
+        String stackTrace = transfer.readString();
+        return new JdbcSQLException(message, sql, sqlstate, errorCode, null,
+                stackTrace);
+    }
+
     /**
      * Returns true if the connection was opened in cluster mode.
      *
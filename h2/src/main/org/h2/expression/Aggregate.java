@@ -335,6 +335,45 @@ public void updateAggregate(Session session) {
         data.add(session.getDatabase(), dataType, distinct, v);
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        if (distinct || filterCondition != null) {
+            return false;
+        }
+        switch (type) {
+        case COUNT_ALL:
+            return true;
+        case COUNT:
+        case SUM:
+        case MIN:
+        case MAX:
+        case AVG:
+            return ValueVector.isSupported(on.getType()) &&
+                    on.isVectorizable(filter);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Update the aggregate for the selected rows of the batch. This method
+     * is only called if the aggregate is vectorizable.
+     *
+     * @param session the session
+     * @param batch the batch
+     */
+    public void updateAggregate(Session session, RowBatch batch) {
+        HashMap<Expression, Object> group = select.getCurrentGroup();
+        AggregateData data = (AggregateData) group.get(this);
+        if (data == null) {
+            data = AggregateData.create(type);
+            group.put(this, data);
+        }
+        ValueVector v = on == null ? null : on.getVector(session, batch);
+        data.add(session.getDatabase(), dataType, v, batch.getSelection(),
+                batch.getSelectionCount());
+    }
+
     @Override
     public Value getValue(Session session) {
         if (select.isQuickAggregateQuery()) {
@@ -765,6 +804,9 @@ public boolean isEverything(ExpressionVisitor visitor) {
                 return false;
             }
         }
+        if (visitor.getType() == ExpressionVisitor.GET_GROUP_DATA) {
+            visitor.addGroupData(this);
+        }
         if (on != null && !on.isEverything(visitor)) {
             return false;
         }
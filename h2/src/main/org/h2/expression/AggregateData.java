@@ -54,6 +54,24 @@ void add(Database database, int dataType, boolean distinct, Value v) {
         throw DbException.throwInternalError();
     }
 
+    /**
+     * Add the values of the selected rows of a batch to this aggregate. The
+     * values are not distinct.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param v the values, or null for COUNT(*)
+     * @param selection the indexes of the selected rows
+     * @param count the number of selected rows
+     */
+    void add(Database database, int dataType, ValueVector v, int[] selection,
+            int count) {
+        for (int j = 0; j < count; j++) {
+            add(database, dataType, false,
+                    v == null ? null : v.getValue(selection[j]));
+        }
+    }
+
     /**
      * Get the aggregate result.
      *
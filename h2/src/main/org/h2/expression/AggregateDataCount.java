@@ -32,6 +32,16 @@ public void add(Database database, int dataType, boolean distinct, Value v) {
         }
     }
 
+    @Override
+    void add(Database database, int dataType, ValueVector v, int[] selection,
+            int n) {
+        for (int j = 0; j < n; j++) {
+            if (!v.nulls[selection[j]]) {
+                count++;
+            }
+        }
+    }
+
     @Override
     public Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
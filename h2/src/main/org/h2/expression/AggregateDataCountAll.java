@@ -25,6 +25,12 @@ public void add(Database database, int dataType, boolean distinct, Value v) {
         count++;
     }
 
+    @Override
+    void add(Database database, int dataType, ValueVector v, int[] selection,
+            int n) {
+        count += n;
+    }
+
     @Override
     public Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
@@ -5,6 +5,7 @@
  */
 package org.h2.expression;
 
+import java.math.BigDecimal;
 import org.h2.engine.Database;
 import org.h2.expression.Aggregate.AggregateType;
 import org.h2.message.DbException;
@@ -12,6 +13,7 @@
 import org.h2.value.DataType;
 import org.h2.value.Value;
 import org.h2.value.ValueBoolean;
+import org.h2.value.ValueDecimal;
 import org.h2.value.ValueDouble;
 import org.h2.value.ValueLong;
 import org.h2.value.ValueNull;
@@ -126,6 +128,134 @@ public void add(Database database, int dataType, boolean distinct, Value v) {
         }
     }
 
+    @Override
+    void add(Database database, int dataType, ValueVector v, int[] selection,
+            int n) {
+        switch (aggregateType) {
+        case SUM:
+        case AVG: {
+            int sumType = aggregateType == AggregateType.SUM ? dataType :
+                    DataType.getAddProofType(dataType);
+            if (sumType == Value.DOUBLE) {
+                addDoubles(v, selection, n);
+                return;
+            } else if (sumType == Value.LONG || sumType == Value.DECIMAL) {
+                addLongs(database, dataType, sumType, v, selection, n);
+                return;
+            }
+            break;
+        }
+        case MIN:
+        case MAX:
+            addMinMax(database, v, selection, n);
+            return;
+        default:
+        }
+        super.add(database, dataType, v, selection, n);
+    }
+
+    private void addDoubles(ValueVector v, int[] selection, int n) {
+        // the values are added in the same order as one by one,
+        // so that the result is exactly the same
+        boolean first = value == null;
+        double sum = first ? 0 : value.getDouble();
+        for (int j = 0; j < n; j++) {
+            int i = selection[j];
+            if (v.nulls[i]) {
+                continue;
+            }
+            double x = v.getDouble(i);
+            if (first) {
+                sum = x;
+                first = false;
+            } else {
+                sum += x;
+            }
+            count++;
+        }
+        if (!first) {
+            value = ValueDouble.get(sum);
+        }
+    }
+
+    private void addLongs(Database database, int dataType, int sumType,
+            ValueVector v, int[] selection, int n) {
+        // a sum of type LONG is calculated in the same order as one by one,
+        // so that an overflow is detected at the same row; a sum of type
+        // DECIMAL can't overflow, so partial sums are used
+        boolean decimal = sumType == Value.DECIMAL;
+        long sum = 0;
+        boolean added = false;
+        if (!decimal && value != null) {
+            sum = value.getLong();
+            added = true;
+        }
+        for (int j = 0; j < n; j++) {
+            int i = selection[j];
+            if (v.nulls[i]) {
+                continue;
+            }
+            long x = v.longs[i];
+            long s = sum + x;
+            // overflow if both operands have a different sign than the result
+            if (added && ((sum ^ s) & (x ^ s)) < 0) {
+                if (!decimal) {
+                    // throws the same exception as when adding one by one
+                    value = ValueLong.get(sum);
+                    for (; j < n; j++) {
+                        add(database, dataType, false, v.getValue(selection[j]));
+                    }
+                    return;
+                }
+                addPartialSum(sum);
+                s = x;
+            }
+            sum = s;
+            added = true;
+            count++;
+        }
+        if (!added) {
+            return;
+        }
+        if (decimal) {
+            addPartialSum(sum);
+        } else {
+            value = ValueLong.get(sum);
+        }
+    }
+
+    private void addPartialSum(long sum) {
+        Value v = ValueDecimal.get(BigDecimal.valueOf(sum));
+        value = value == null ? v : value.add(v);
+    }
+
+    private void addMinMax(Database database, ValueVector v, int[] selection,
+            int n) {
+        boolean min = aggregateType == AggregateType.MIN;
+        int best = -1;
+        for (int j = 0; j < n; j++) {
+            int i = selection[j];
+            if (v.nulls[i]) {
+                continue;
+            }
+            count++;
+            if (best >= 0) {
+                int comp = v.compare(i, best);
+                if (min ? comp >= 0 : comp <= 0) {
+                    continue;
+                }
+            }
+            best = i;
+        }
+        if (best >= 0) {
+            Value x = v.getValue(best);
+            int comp = value == null ? 0 : database.compare(x, value);
+            if (value == null || (min ? comp < 0 : comp > 0)) {
+                value = x;
+            }
+        }
+    }
+
     @Override
     public Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
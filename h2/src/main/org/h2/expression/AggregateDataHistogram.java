@@ -45,6 +45,9 @@ public Value getValue(Database database, int dataType, boolean distinct) {
             count = 0;
             groupDistinct(database, dataType);
         }
+        if (distinctValues == null) {
+            return ValueArray.get(new Value[0]).convertTo(dataType);
+        }
         ValueArray[] values = new ValueArray[distinctValues.size()];
         int i = 0;
         for (Value dv : distinctValues.keys()) {
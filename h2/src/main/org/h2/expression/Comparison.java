@@ -530,6 +530,91 @@ public boolean isEverything(ExpressionVisitor visitor) {
                 (right == null || right.isEverything(visitor));
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        switch (compareType) {
+        case IS_NULL:
+        case IS_NOT_NULL:
+            return left.isVectorizable(filter) &&
+                    ValueVector.isSupported(left.getType());
+        case EQUAL:
+        case NOT_EQUAL:
+        case BIGGER_EQUAL:
+        case BIGGER:
+        case SMALLER_EQUAL:
+        case SMALLER:
+            return left.isVectorizable(filter) &&
+                    right.isVectorizable(filter) &&
+                    ValueVector.isSupported(left.getType()) &&
+                    ValueVector.isSupported(right.getType());
+        default:
+            return false;
+        }
+    }
+
+    @Override
+    public void filter(Session session, RowBatch batch) {
+        ValueVector a = left.getVector(session, batch);
+        int[] sel = batch.getSelection();
+        int count = batch.getSelectionCount();
+        int n = 0;
+        if (right == null) {
+            boolean isNull = compareType == IS_NULL;
+            for (int j = 0; j < count; j++) {
+                int i = sel[j];
+                if (a.nulls[i] == isNull) {
+                    sel[n++] = i;
+                }
+            }
+            batch.setSelection(sel, n);
+            return;
+        }
+        ValueVector b = right.getVector(session, batch);
+        // the values are compared using the higher data type
+        int dataType = Value.getHigherOrder(left.getType(), right.getType());
+        for (int j = 0; j < count; j++) {
+            int i = sel[j];
+            if (a.nulls[i] || b.nulls[i]) {
+                continue;
+            }
+            int comp;
+            if (dataType == Value.FLOAT) {
+                float x = a.doubles != null ? (float) a.doubles[i] : (float) a.longs[i];
+                float y = b.doubles != null ? (float) b.doubles[i] : (float) b.longs[i];
+                // widening to double keeps the order
+                comp = ValueVector.compare(x, y);
+            } else if (dataType == Value.DOUBLE) {
+                comp = ValueVector.compare(a.getDouble(i), b.getDouble(i));
+            } else {
+                comp = Long.compare(a.longs[i], b.longs[i]);
+            }
+            boolean result;
+            switch (compareType) {
+            case EQUAL:
+                result = comp == 0;
+                break;
+            case NOT_EQUAL:
+                result = comp != 0;
+                break;
+            case BIGGER_EQUAL:
+                result = comp >= 0;
+                break;
+            case BIGGER:
+                result = comp > 0;
+                break;
+            case SMALLER_EQUAL:
+                result = comp <= 0;
+                break;
+            default:
+                result = comp < 0;
+            }
+            if (result) {
+                sel[n++] = i;
+            }
+        }
+        batch.setSelection(sel, n);
+    }
+
     @Override
     public int getCost() {
         return left.getCost() + (right == null ? 0 : right.getCost()) + 1;
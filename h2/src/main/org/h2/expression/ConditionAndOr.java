@@ -5,6 +5,7 @@
  */
 package org.h2.expression;
 
+import java.util.Arrays;
 import org.h2.engine.Session;
 import org.h2.engine.SysProperties;
 import org.h2.message.DbException;
@@ -365,6 +366,52 @@ public boolean isEverything(ExpressionVisitor visitor) {
         return left.isEverything(visitor) && right.isEverything(visitor);
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        return left.isVectorizable(filter) && right.isVectorizable(filter);
+    }
+
+    @Override
+    public void filter(Session session, RowBatch batch) {
+        // rows where the condition is NULL are removed as well,
+        // so only the rows where it is true need to be known
+        if (andOrType == AND) {
+            left.filter(session, batch);
+            right.filter(session, batch);
+            return;
+        }
+        int[] sel = batch.getSelection();
+        int count = batch.getSelectionCount();
+        int[] all = Arrays.copyOf(sel, count);
+        left.filter(session, batch);
+        int leftCount = batch.getSelectionCount();
+        int[] matched = Arrays.copyOf(sel, leftCount);
+        // only test the right condition for the remaining rows
+        int n = 0;
+        for (int j = 0, k = 0; j < count; j++) {
+            int i = all[j];
+            if (k < leftCount && matched[k] == i) {
+                k++;
+            } else {
+                sel[n++] = i;
+            }
+        }
+        batch.setSelection(sel, n);
+        right.filter(session, batch);
+        int rightCount = batch.getSelectionCount();
+        int[] union = new int[leftCount + rightCount];
+        int j = 0, k = 0;
+        n = 0;
+        while (j < leftCount || k < rightCount) {
+            if (k >= rightCount || (j < leftCount && matched[j] < sel[k])) {
+                union[n++] = matched[j++];
+            } else {
+                union[n++] = sel[k++];
+            }
+        }
+        batch.setSelection(union, n);
+    }
+
     @Override
     public int getCost() {
         return left.getCost() + right.getCost();
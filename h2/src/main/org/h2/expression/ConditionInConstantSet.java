@@ -134,6 +134,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.GET_DEPENDENCIES:
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_GROUP_DATA:
             return true;
         default:
             throw DbException.throwInternalError("type=" + visitor.getType());
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.expression;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.h2.api.ErrorCode;
+import org.h2.command.Parser;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.fulltext.FullTextMVStore;
+import org.h2.index.IndexCondition;
+import org.h2.message.DbException;
+import org.h2.table.ColumnResolver;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueBoolean;
+import org.h2.value.ValueNull;
+
+/**
+ * A full text search condition on a table that is indexed using
+ * FullTextMVStore, as in WHERE MATCH(T, 'quick fox'). If the primary key of
+ * the table has only one column, the matching rows are looked up in the
+ * primary key index, like an IN(..) condition.
+ */
+public class ConditionMatch extends Condition {
+
+    private final String schemaName;
+    private final String tableAlias;
+    private Expression query;
+    private ColumnResolver resolver;
+    private int queryLevel;
+    private FullTextMVStore.Search search;
+
+    /**
+     * The primary key columns of the table, in the order of the key values
+     * of the index. Set when optimizing.
+     */
+    private Expression[] keys;
+
+    public ConditionMatch(String schemaName, String tableAlias,
+            Expression query) {
+        this.schemaName = schemaName;
+        this.tableAlias = tableAlias;
+        this.query = query;
+    }
+
+    @Override
+    public Value getValue(Session session) {
+        Value v = query.getValue(session);
+        if (v == ValueNull.INSTANCE) {
+            return ValueNull.INSTANCE;
+        }
+        Object[] keyValues = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keyValues[i] = keys[i].getValue(session).getObject();
+        }
+        try {
+            return ValueBoolean.get(search.matches(session, v.getString(),
+                    keyValues));
+        } catch (SQLException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    @Override
+    public void mapColumns(ColumnResolver resolver, int level) {
+        query.mapColumns(resolver, level);
+        if (this.resolver != null || resolver.getTableFilter() == null) {
+            return;
+        }
+        Database db = resolver.getTableFilter().getSession().getDatabase();
+        if (!db.equalsIdentifiers(tableAlias, resolver.getTableAlias())) {
+            return;
+        }
+        if (schemaName != null && !db.equalsIdentifiers(schemaName,
+                resolver.getSchemaName())) {
+            return;
+        }
+        this.resolver = resolver;
+        this.queryLevel = level;
+    }
+
+    @Override
+    public Expression optimize(Session session) {
+        query = query.optimize(session);
+        if (keys != null) {
+            return this;
+        }
+        if (resolver == null) {
+            throw DbException.get(ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1,
+                    tableAlias);
+        }
+        Table table = resolver.getTableFilter().getTable();
+        Connection conn = session.createConnection(false);
+        try {
+            search = FullTextMVStore.Search.get(conn,
+                    table.getSchema().getName(), table.getName());
+        } catch (SQLException e) {
+            throw DbException.convert(e);
+        }
+        String[] keyColumns = search.getKeyColumns();
+        Expression[] list = new Expression[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            Expression key = new ExpressionColumn(session.getDatabase(),
+                    resolver.getSchemaName(), resolver.getTableAlias(),
+                    keyColumns[i]);
+            key.mapColumns(resolver, queryLevel);
+            list[i] = key.optimize(session);
+        }
+        keys = list;
+        return this;
+    }
+
+    @Override
+    public void createIndexConditions(Session session, TableFilter filter) {
+        if (!session.getDatabase().getSettings().optimizeInList) {
+            return;
+        }
+        if (keys == null || keys.length != 1 ||
+                !(keys[0] instanceof ExpressionColumn)) {
+            return;
+        }
+        ExpressionColumn l = (ExpressionColumn) keys[0];
+        if (filter != l.getTableFilter()) {
+            return;
+        }
+        ExpressionVisitor visitor = ExpressionVisitor.getNotFromResolverVisitor(filter);
+        if (!query.isEverything(visitor)) {
+            return;
+        }
+        filter.addIndexCondition(IndexCondition.getInArray(l, new Keys()));
+    }
+
+    @Override
+    public void setEvaluatable(TableFilter tableFilter, boolean b) {
+        query.setEvaluatable(tableFilter, b);
+        if (keys != null) {
+            for (Expression e : keys) {
+                e.setEvaluatable(tableFilter, b);
+            }
+        }
+    }
+
+    @Override
+    public String getSQL() {
+        String alias = Parser.quoteIdentifier(tableAlias);
+        if (schemaName != null) {
+            alias = Parser.quoteIdentifier(schemaName) + "." + alias;
+        }
+        return "MATCH(" + alias + ", " + query.getSQL() + ")";
+    }
+
+    @Override
+    public void updateAggregate(Session session) {
+        query.updateAggregate(session);
+    }
+
+    @Override
+    public boolean isEverything(ExpressionVisitor visitor) {
+        if (!query.isEverything(visitor)) {
+            return false;
+        }
+        if (keys != null) {
+            for (Expression e : keys) {
+                if (!e.isEverything(visitor)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getCost() {
+        return query.getCost() + 10;
+    }
+
+    /**
+     * The primary key values of all rows that match, as an array.
+     */
+    private final class Keys extends Expression {
+
+        @Override
+        public Value getValue(Session session) {
+            Value v = query.getValue(session);
+            if (v == ValueNull.INSTANCE) {
+                return ValueNull.INSTANCE;
+            }
+            return ValueArray.get(search.getKeys(session, v.getString()));
+        }
+
+        @Override
+        public int getType() {
+            return Value.ARRAY;
+        }
+
+        @Override
+        public void mapColumns(ColumnResolver resolver, int level) {
+            // the condition is mapped already
+        }
+
+        @Override
+        public Expression optimize(Session session) {
+            return this;
+        }
+
+        @Override
+        public void setEvaluatable(TableFilter tableFilter, boolean value) {
+            // the condition is evaluatable already
+        }
+
+        @Override
+        public int getScale() {
+            return 0;
+        }
+
+        @Override
+        public long getPrecision() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int getDisplaySize() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public String getSQL() {
+            return ConditionMatch.this.getSQL();
+        }
+
+        @Override
+        public void updateAggregate(Session session) {
+            // nothing to do
+        }
+
+        @Override
+        public boolean isEverything(ExpressionVisitor visitor) {
+            // the result depends on the data of the table
+            return visitor.getType() != ExpressionVisitor.DETERMINISTIC &&
+                    query.isEverything(visitor);
+        }
+
+        @Override
+        public int getCost() {
+            return query.getCost() + 10;
+        }
+
+    }
+
+}
@@ -108,6 +108,44 @@ public abstract class Expression {
      */
     public abstract void updateAggregate(Session session);
 
+    /**
+     * Check whether this expression can be evaluated for a batch of rows of
+     * the given table filter, using vectors of primitive values. For
+     * conditions, this means the rows of a batch can be filtered using
+     * {@link #filter(Session, RowBatch)}; for other expressions,
+     * {@link #getVector(Session, RowBatch)} can be used.
+     *
+     * @param filter the table filter
+     * @return true if yes
+     */
+    public boolean isVectorizable(TableFilter filter) {
+        return false;
+    }
+
+    /**
+     * Evaluate the expression for the selected rows of the batch. This method
+     * is only called if the expression is vectorizable.
+     *
+     * @param session the session
+     * @param batch the batch
+     * @return the vector that contains the values of the selected rows
+     */
+    public ValueVector getVector(Session session, RowBatch batch) {
+        throw DbException.throwInternalError(toString());
+    }
+
+    /**
+     * Remove the rows from the selection of the batch for which this
+     * condition is not true. This method is only called if the condition is
+     * vectorizable.
+     *
+     * @param session the session
+     * @param batch the batch
+     */
+    public void filter(Session session, RowBatch batch) {
+        throw DbException.throwInternalError(toString());
+    }
+
     /**
      * Check if this expression and all sub-expressions can fulfill a criteria.
      * If any part returns false, the result is false.
@@ -174,6 +174,17 @@ public void updateAggregate(Session session) {
         }
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        return columnResolver == filter && column.getEnumerators() == null &&
+                ValueVector.isSupported(column.getType());
+    }
+
+    @Override
+    public ValueVector getVector(Session session, RowBatch batch) {
+        return batch.getVector(column);
+    }
+
     @Override
     public Value getValue(Session session) {
         Select select = columnResolver.getSelect();
@@ -314,6 +325,13 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.GET_COLUMNS:
             visitor.addColumn(column);
             return true;
+        case ExpressionVisitor.GET_GROUP_DATA:
+            if (visitor.getQueryLevel() < this.queryLevel) {
+                // a column of an outer query
+                return false;
+            }
+            visitor.addGroupData(this);
+            return true;
         default:
             throw DbException.throwInternalError("type=" + visitor.getType());
         }
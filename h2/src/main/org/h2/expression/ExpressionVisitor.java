@@ -5,6 +5,7 @@
  */
 package org.h2.expression;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import org.h2.engine.DbObject;
 import org.h2.table.Column;
@@ -100,6 +101,14 @@ public class ExpressionVisitor {
      */
     public static final int GET_COLUMNS = 9;
 
+    /**
+     * Request to get the expressions that keep data for each group of a
+     * group query (addGroupData). The result is false if the data of a group
+     * is kept in a way that is not known, for example because a subquery or
+     * a user defined aggregate is used.
+     */
+    public static final int GET_GROUP_DATA = 10;
+
     /**
      * The visitor singleton for the type QUERY_COMPARABLE.
      */
@@ -113,12 +122,13 @@ public class ExpressionVisitor {
     private final Table table;
     private final long[] maxDataModificationId;
     private final ColumnResolver resolver;
+    private final ArrayList<Expression> groupData;
 
     private ExpressionVisitor(int type,
             int queryLevel,
             HashSet<DbObject> dependencies,
             HashSet<Column> columns, Table table, ColumnResolver resolver,
-            long[] maxDataModificationId) {
+            long[] maxDataModificationId, ArrayList<Expression> groupData) {
         this.type = type;
         this.queryLevel = queryLevel;
         this.dependencies = dependencies;
@@ -126,6 +136,7 @@ private ExpressionVisitor(int type,
         this.table = table;
         this.resolver = resolver;
         this.maxDataModificationId = maxDataModificationId;
+        this.groupData = groupData;
     }
 
     private ExpressionVisitor(int type) {
@@ -136,6 +147,7 @@ private ExpressionVisitor(int type) {
         this.table = null;
         this.resolver = null;
         this.maxDataModificationId = null;
+        this.groupData = null;
     }
 
     /**
@@ -147,7 +159,7 @@ private ExpressionVisitor(int type) {
     public static ExpressionVisitor getDependenciesVisitor(
             HashSet<DbObject> dependencies) {
         return new ExpressionVisitor(GET_DEPENDENCIES, 0, dependencies, null,
-                null, null, null);
+                null, null, null, null);
     }
 
     /**
@@ -158,7 +170,7 @@ public static ExpressionVisitor getDependenciesVisitor(
      */
     public static ExpressionVisitor getOptimizableVisitor(Table table) {
         return new ExpressionVisitor(OPTIMIZABLE_MIN_MAX_COUNT_ALL, 0, null,
-                null, table, null, null);
+                null, table, null, null, null);
     }
 
     /**
@@ -170,7 +182,7 @@ public static ExpressionVisitor getOptimizableVisitor(Table table) {
      */
     public static ExpressionVisitor getNotFromResolverVisitor(ColumnResolver resolver) {
         return new ExpressionVisitor(NOT_FROM_RESOLVER, 0, null, null, null,
-                resolver, null);
+                resolver, null, null);
     }
 
     /**
@@ -180,12 +192,25 @@ public static ExpressionVisitor getNotFromResolverVisitor(ColumnResolver resolve
      * @return the new visitor
      */
     public static ExpressionVisitor getColumnsVisitor(HashSet<Column> columns) {
-        return new ExpressionVisitor(GET_COLUMNS, 0, null, columns, null, null, null);
+        return new ExpressionVisitor(GET_COLUMNS, 0, null, columns, null, null, null, null);
+    }
+
+    /**
+     * Create a new visitor to get the expressions that keep data for each
+     * group of a group query.
+     *
+     * @param groupData the list of expressions
+     * @return the new visitor
+     */
+    public static ExpressionVisitor getGroupDataVisitor(
+            ArrayList<Expression> groupData) {
+        return new ExpressionVisitor(GET_GROUP_DATA, 0, null, null, null,
+                null, null, groupData);
     }
 
     public static ExpressionVisitor getMaxModificationIdVisitor() {
         return new ExpressionVisitor(SET_MAX_DATA_MODIFICATION_ID, 0, null,
-                null, null, null, new long[1]);
+                null, null, null, new long[1], null);
     }
 
     /**
@@ -208,6 +233,21 @@ void addColumn(Column column) {
         columns.add(column);
     }
 
+    /**
+     * Add an expression that keeps data for each group, if it was not added
+     * yet. This is used for GET_GROUP_DATA visitors.
+     *
+     * @param expr the expression
+     */
+    void addGroupData(Expression expr) {
+        for (Expression e : groupData) {
+            if (e == expr) {
+                return;
+            }
+        }
+        groupData.add(expr);
+    }
+
     /**
      * Get the dependency set.
      * This is used for GET_DEPENDENCIES visitors.
@@ -226,7 +266,7 @@ public HashSet<DbObject> getDependencies() {
      */
     public ExpressionVisitor incrementQueryLevel(int offset) {
         return new ExpressionVisitor(type, queryLevel + offset, dependencies,
-                columns, table, resolver, maxDataModificationId);
+                columns, table, resolver, maxDataModificationId, groupData);
     }
 
     /**
@@ -2777,6 +2777,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
             case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
             case ExpressionVisitor.SET_MAX_DATA_MODIFICATION_ID:
             case ExpressionVisitor.GET_COLUMNS:
+            case ExpressionVisitor.GET_GROUP_DATA:
                 return true;
             default:
                 throw DbException.throwInternalError("type=" + visitor.getType());
@@ -99,6 +99,8 @@ public boolean isEverything(ExpressionVisitor visitor) {
             // know (no setting for that)
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
             // user defined aggregate functions can not be optimized
+        case ExpressionVisitor.GET_GROUP_DATA:
+            // and their data is not known
             return false;
         case ExpressionVisitor.GET_DEPENDENCIES:
             visitor.addDependency(userAggregate);
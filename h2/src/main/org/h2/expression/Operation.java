@@ -329,6 +329,171 @@ public boolean isEverything(ExpressionVisitor visitor) {
                 (right == null || right.isEverything(visitor));
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        switch (opType) {
+        case NEGATE:
+        case PLUS:
+        case MINUS:
+        case MULTIPLY:
+            break;
+        default:
+            return false;
+        }
+        if (!convertRight || !ValueVector.isSupported(dataType)) {
+            return false;
+        }
+        return isOperandVectorizable(left, filter) &&
+                (right == null || isOperandVectorizable(right, filter));
+    }
+
+    private boolean isOperandVectorizable(Expression e, TableFilter filter) {
+        int type = e.getType();
+        if (!ValueVector.isSupported(type)) {
+            return false;
+        }
+        if (ValueVector.isDouble(type) && !ValueVector.isDouble(dataType)) {
+            // only happens if the type of a parameter changed
+            return false;
+        }
+        return e.isVectorizable(filter);
+    }
+
+    @Override
+    public ValueVector getVector(Session session, RowBatch batch) {
+        ValueVector a = left.getVector(session, batch);
+        ValueVector b = right == null ? null : right.getVector(session, batch);
+        ValueVector result = batch.getResultVector(this, dataType);
+        int[] sel = batch.getSelection();
+        for (int j = 0, count = batch.getSelectionCount(); j < count; j++) {
+            int i = sel[j];
+            if (a.nulls[i] || (b != null && b.nulls[i])) {
+                result.nulls[i] = true;
+            } else {
+                result.nulls[i] = false;
+                if (result.doubles != null) {
+                    result.doubles[i] = calculateDouble(a, b, i);
+                } else {
+                    result.longs[i] = calculateLong(a, b, i);
+                }
+            }
+        }
+        return result;
+    }
+
+    private long calculateLong(ValueVector a, ValueVector b, int i) {
+        long x = a.longs[i];
+        long r;
+        // the checks are the same as in ValueLong; in case of an overflow,
+        // the value is calculated as usual, which throws the exception
+        switch (opType) {
+        case NEGATE:
+            if (x == Long.MIN_VALUE) {
+                return calculateValue(a, b, i).getLong();
+            }
+            r = -x;
+            break;
+        case PLUS: {
+            long y = b.longs[i];
+            r = x + y;
+            // if the operands have the same sign,
+            // and the result has a different sign, then it is an overflow
+            if (((x ^ r) & (y ^ r)) < 0) {
+                return calculateValue(a, b, i).getLong();
+            }
+            break;
+        }
+        case MINUS: {
+            long y = b.longs[i];
+            r = x - y;
+            // if the operands have different signs,
+            // and the result has the sign of the second operand,
+            // then it is an overflow
+            if (((x ^ y) & (x ^ r)) < 0) {
+                return calculateValue(a, b, i).getLong();
+            }
+            break;
+        }
+        default: {
+            long y = b.longs[i];
+            if (!isInteger(x) || !isInteger(y)) {
+                return calculateValue(a, b, i).getLong();
+            }
+            r = x * y;
+        }
+        }
+        boolean overflow;
+        switch (dataType) {
+        case Value.BYTE:
+            overflow = r != (byte) r;
+            break;
+        case Value.SHORT:
+            overflow = r != (short) r;
+            break;
+        case Value.INT:
+            overflow = r != (int) r;
+            break;
+        default:
+            overflow = false;
+        }
+        return overflow ? calculateValue(a, b, i).getLong() : r;
+    }
+
+    private static boolean isInteger(long a) {
+        return a >= Integer.MIN_VALUE && a <= Integer.MAX_VALUE;
+    }
+
+    private double calculateDouble(ValueVector a, ValueVector b, int i) {
+        if (dataType == Value.FLOAT) {
+            // same as ValueFloat, using float arithmetic
+            float x = a.doubles != null ? (float) a.doubles[i] : (float) a.longs[i];
+            float y = 0;
+            if (b != null) {
+                y = b.doubles != null ? (float) b.doubles[i] : (float) b.longs[i];
+            }
+            switch (opType) {
+            case NEGATE:
+                return -x;
+            case PLUS:
+                return x + y;
+            case MINUS:
+                return x - y;
+            default:
+                return x * y;
+            }
+        }
+        double x = a.getDouble(i);
+        switch (opType) {
+        case NEGATE:
+            return -x;
+        case PLUS:
+            return x + b.getDouble(i);
+        case MINUS:
+            return x - b.getDouble(i);
+        default:
+            return x * b.getDouble(i);
+        }
+    }
+
+    /**
+     * Calculate the result for one row using values. This is used if the
+     * result is out of range, so that the same exception is thrown as when
+     * not using vectors.
+     */
+    private Value calculateValue(ValueVector a, ValueVector b, int i) {
+        Value l = a.getValue(i).convertTo(dataType);
+        switch (opType) {
+        case NEGATE:
+            return l.negate();
+        case PLUS:
+            return l.add(b.getValue(i).convertTo(dataType));
+        case MINUS:
+            return l.subtract(b.getValue(i).convertTo(dataType));
+        default:
+            return l.multiply(b.getValue(i).convertTo(dataType));
+        }
+    }
+
     @Override
     public int getCost() {
         return left.getCost() + 1 + (right == null ? 0 : right.getCost());
@@ -59,6 +59,18 @@ public Value getValue(Session session) {
         return getParamValue();
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        return value != null && ValueVector.isSupported(value.getType());
+    }
+
+    @Override
+    public ValueVector getVector(Session session, RowBatch batch) {
+        ValueVector v = batch.getResultVector(this, value.getType());
+        v.fill(batch.getSelection(), batch.getSelectionCount(), value);
+        return v;
+    }
+
     @Override
     public int getType() {
         if (value != null) {
@@ -160,6 +172,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.READONLY:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_GROUP_DATA:
             return true;
         case ExpressionVisitor.INDEPENDENT:
             return value != null;
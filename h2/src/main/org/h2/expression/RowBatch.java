@@ -0,0 +1,157 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.expression;
+
+import java.util.IdentityHashMap;
+import org.h2.table.Column;
+import org.h2.table.TableFilter;
+
+/**
+ * A batch of rows of a table filter, with the values of the used columns
+ * stored as vectors. Conditions narrow down the selection of the batch (the
+ * indexes of the rows that are still of interest), and expressions are only
+ * evaluated for the selected rows.
+ */
+public class RowBatch {
+
+    private final int capacity;
+    private final Column[] columns;
+    private final ValueVector[] vectors;
+    private final int[] selection;
+    private final IdentityHashMap<Expression, ValueVector> results =
+            new IdentityHashMap<>();
+    private int size;
+    private int selectionCount;
+
+    /**
+     * Create a new batch.
+     *
+     * @param capacity the maximum number of rows
+     * @param columns the columns that are used
+     */
+    public RowBatch(int capacity, Column[] columns) {
+        this.capacity = capacity;
+        this.columns = columns;
+        vectors = new ValueVector[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            vectors[i] = new ValueVector(columns[i].getType(), capacity);
+        }
+        selection = new int[capacity];
+    }
+
+    /**
+     * Add the current row of the table filter to the batch.
+     *
+     * @param filter the table filter
+     */
+    public void add(TableFilter filter) {
+        for (int i = 0; i < columns.length; i++) {
+            vectors[i].set(size, filter.getValue(columns[i]));
+        }
+        size++;
+    }
+
+    /**
+     * Check whether the batch is full.
+     *
+     * @return true if yes
+     */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /**
+     * Get the number of rows in the batch.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Select all rows of the batch.
+     */
+    public void selectAll() {
+        for (int i = 0; i < size; i++) {
+            selection[i] = i;
+        }
+        selectionCount = size;
+    }
+
+    /**
+     * Remove all rows.
+     */
+    public void clear() {
+        size = 0;
+        selectionCount = 0;
+    }
+
+    /**
+     * Get the indexes of the selected rows, in ascending order. Only the
+     * first {@link #getSelectionCount()} entries are used.
+     *
+     * @return the indexes
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Get the number of selected rows.
+     *
+     * @return the number of rows
+     */
+    public int getSelectionCount() {
+        return selectionCount;
+    }
+
+    /**
+     * Set the selected rows.
+     *
+     * @param sel the indexes of the rows, in ascending order
+     * @param count the number of rows
+     */
+    void setSelection(int[] sel, int count) {
+        if (sel != selection) {
+            System.arraycopy(sel, 0, selection, 0, count);
+        }
+        selectionCount = count;
+    }
+
+    /**
+     * Get the vector of the given column.
+     *
+     * @param column the column
+     * @return the vector
+     */
+    ValueVector getVector(Column column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == column) {
+                return vectors[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the vector to store the result of the given expression. The same
+     * vector is re-used for all batches.
+     *
+     * @param expr the expression
+     * @param type the data type
+     * @return the vector
+     */
+    ValueVector getResultVector(Expression expr, int type) {
+        ValueVector v = results.get(expr);
+        if (v == null) {
+            v = new ValueVector(type, capacity);
+            results.put(expr, v);
+        }
+        return v;
+    }
+
+}
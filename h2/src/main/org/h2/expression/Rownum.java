@@ -84,6 +84,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.INDEPENDENT:
+        case ExpressionVisitor.GET_GROUP_DATA:
             return false;
         case ExpressionVisitor.EVALUATABLE:
         case ExpressionVisitor.READONLY:
@@ -89,6 +89,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.READONLY:
         case ExpressionVisitor.INDEPENDENT:
         case ExpressionVisitor.QUERY_COMPARABLE:
+        case ExpressionVisitor.GET_GROUP_DATA:
             return false;
         case ExpressionVisitor.SET_MAX_DATA_MODIFICATION_ID:
             visitor.addDataModificationId(sequence.getModificationId());
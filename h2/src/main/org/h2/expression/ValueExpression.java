@@ -78,6 +78,18 @@ public int getType() {
         return value.getType();
     }
 
+    @Override
+    public boolean isVectorizable(TableFilter filter) {
+        return ValueVector.isSupported(value.getType());
+    }
+
+    @Override
+    public ValueVector getVector(Session session, RowBatch batch) {
+        ValueVector v = batch.getResultVector(this, value.getType());
+        v.fill(batch.getSelection(), batch.getSelectionCount(), value);
+        return v;
+    }
+
     @Override
     public void createIndexConditions(Session session, TableFilter filter) {
         if (value.getType() == Value.BOOLEAN) {
@@ -160,6 +172,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.GET_DEPENDENCIES:
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_GROUP_DATA:
             return true;
         default:
             throw DbException.throwInternalError("type=" + visitor.getType());
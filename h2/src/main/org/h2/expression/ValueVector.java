@@ -0,0 +1,203 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.expression;
+
+import org.h2.message.DbException;
+import org.h2.value.Value;
+import org.h2.value.ValueByte;
+import org.h2.value.ValueDouble;
+import org.h2.value.ValueFloat;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueLong;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueShort;
+
+/**
+ * The values of one expression for a batch of rows, stored as primitive
+ * values. Integer types (TINYINT, SMALLINT, INT, BIGINT) are stored as long
+ * values, and floating point types (REAL, DOUBLE) as double values. Only the
+ * entries of the selected rows of the batch are set.
+ */
+public class ValueVector {
+
+    /**
+     * The data type of the values.
+     */
+    final int type;
+
+    /**
+     * The values if the data type is an integer type, otherwise null.
+     */
+    final long[] longs;
+
+    /**
+     * The values if the data type is a floating point type, otherwise null.
+     */
+    final double[] doubles;
+
+    /**
+     * Which values are NULL.
+     */
+    final boolean[] nulls;
+
+    /**
+     * Create a new vector.
+     *
+     * @param type the data type
+     * @param capacity the number of rows
+     */
+    ValueVector(int type, int capacity) {
+        this.type = type;
+        if (isDouble(type)) {
+            longs = null;
+            doubles = new double[capacity];
+        } else {
+            longs = new long[capacity];
+            doubles = null;
+        }
+        nulls = new boolean[capacity];
+    }
+
+    /**
+     * Check whether values of the given data type can be stored in a vector.
+     *
+     * @param type the data type
+     * @return true if yes
+     */
+    static boolean isSupported(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.FLOAT:
+        case Value.DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Check whether values of the given data type are stored as double values.
+     *
+     * @param type the data type
+     * @return true if yes
+     */
+    static boolean isDouble(int type) {
+        return type == Value.FLOAT || type == Value.DOUBLE;
+    }
+
+    /**
+     * Check whether the values are stored as double values.
+     *
+     * @return true if yes
+     */
+    boolean isDouble() {
+        return doubles != null;
+    }
+
+    /**
+     * Set the value at the given index.
+     *
+     * @param i the index
+     * @param v the value
+     */
+    void set(int i, Value v) {
+        if (v == ValueNull.INSTANCE) {
+            nulls[i] = true;
+            return;
+        }
+        nulls[i] = false;
+        if (doubles != null) {
+            doubles[i] = v.getDouble();
+        } else {
+            longs[i] = v.getLong();
+        }
+    }
+
+    /**
+     * Set the value at the given indexes.
+     *
+     * @param selection the indexes
+     * @param count the number of indexes
+     * @param v the value
+     */
+    void fill(int[] selection, int count, Value v) {
+        for (int j = 0; j < count; j++) {
+            set(selection[j], v);
+        }
+    }
+
+    /**
+     * Get the value at the given index as a double.
+     *
+     * @param i the index
+     * @return the value
+     */
+    double getDouble(int i) {
+        return doubles != null ? doubles[i] : longs[i];
+    }
+
+    /**
+     * Compare the values at the given indexes, in the same way as the values
+     * returned by getValue are compared by Value.compareTo. The values must
+     * not be NULL.
+     *
+     * @param i the index of the first value
+     * @param j the index of the second value
+     * @return -1 if the first value is smaller, 1 if bigger, 0 if equal
+     */
+    int compare(int i, int j) {
+        if (doubles == null) {
+            return Long.compare(longs[i], longs[j]);
+        }
+        return compare(doubles[i], doubles[j]);
+    }
+
+    /**
+     * Compare two double values in the same way as ValueDouble values are
+     * compared. ValueDouble.get and ValueFloat.get convert -0.0 to 0.0, so
+     * both are equal. NaN is larger than all other values, and equal to NaN,
+     * as in Double.compare.
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return -1 if the first value is smaller, 1 if bigger, 0 if equal
+     */
+    static int compare(double a, double b) {
+        return a == b ? 0 : Double.compare(a, b);
+    }
+
+    /**
+     * Get the value at the given index.
+     *
+     * @param i the index
+     * @return the value
+     */
+    Value getValue(int i) {
+        if (nulls[i]) {
+            return ValueNull.INSTANCE;
+        }
+        switch (type) {
+        case Value.BYTE:
+            return ValueByte.get((byte) longs[i]);
+        case Value.SHORT:
+            return ValueShort.get((short) longs[i]);
+        case Value.INT:
+            return ValueInt.get((int) longs[i]);
+        case Value.LONG:
+            return ValueLong.get(longs[i]);
+        case Value.FLOAT:
+            return ValueFloat.get((float) doubles[i]);
+        case Value.DOUBLE:
+            return ValueDouble.get(doubles[i]);
+        default:
+            throw DbException.throwInternalError("type=" + type);
+        }
+    }
+
+}
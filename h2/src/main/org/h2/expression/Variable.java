@@ -76,6 +76,7 @@ public boolean isEverything(ExpressionVisitor visitor) {
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.GET_DEPENDENCIES:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.GET_GROUP_DATA:
             return true;
         case ExpressionVisitor.DETERMINISTIC:
             return false;
@@ -0,0 +1,1338 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.fulltext;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.h2.api.Trigger;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.db.TransactionStore.Transaction;
+import org.h2.mvstore.db.TransactionStore.TransactionMap;
+import org.h2.mvstore.db.ValueDataType;
+import org.h2.tools.SimpleResultSet;
+import org.h2.util.IntArray;
+import org.h2.util.New;
+import org.h2.util.StatementBuilder;
+import org.h2.util.StringUtils;
+import org.h2.value.DataType;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueBytes;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueLong;
+import org.h2.value.ValueString;
+
+/**
+ * This class implements the native full text search using an inverted index
+ * that is stored in the MVStore. The index is changed within the transaction
+ * that changes the table, so it is committed together with the table, and
+ * other transactions don't see uncommitted changes. For each word, the index
+ * contains the list of rows with the positions of the word (delta and variable
+ * size encoded). The search supports phrases ("fast car"), prefixes (auto*),
+ * and ranks the rows using BM25. Most methods can be called using SQL
+ * statements as well. Within a query, the condition MATCH(tableAlias,
+ * searchQuery) selects the rows of an indexed table that match; the optimizer
+ * can use it to look up the rows by primary key, like an IN(..) condition.
+ * <p>
+ * The format of the maps is not kept compatible between versions. An index
+ * that was created with an older version of this class needs to be created
+ * again using FTM_REINDEX after an upgrade.
+ */
+public class FullTextMVStore extends FullText {
+
+    private static final String TRIGGER_PREFIX = "FTM_";
+    private static final String SCHEMA = "FTM";
+
+    /**
+     * The prefix of the names of the maps of an index.
+     */
+    private static final String MAP_PREFIX = "fulltext.";
+
+    /**
+     * The BM25 term frequency saturation.
+     */
+    private static final double K1 = 1.2;
+
+    /**
+     * The BM25 document length normalization.
+     */
+    private static final double B = 0.75;
+
+    /**
+     * The last used document id, per database and index.
+     */
+    private static final WeakHashMap<Database, HashMap<Integer, AtomicLong>>
+            DOCUMENT_IDS = new WeakHashMap<>();
+
+    /**
+     * Initializes full text search functionality for this database. This adds
+     * the following Java functions to the database:
+     * <ul>
+     * <li>FTM_CREATE_INDEX(schemaNameString, tableNameString,
+     * columnListString)</li>
+     * <li>FTM_SEARCH(queryString, limitInt, offsetInt): result set</li>
+     * <li>FTM_REINDEX()</li>
+     * <li>FTM_DROP_ALL()</li>
+     * </ul>
+     * It also adds a schema FTM to the database where bookkeeping information
+     * is stored. This function may be called from a Java application, or by
+     * using the SQL statements:
+     *
+     * <pre>
+     * CREATE ALIAS IF NOT EXISTS FTM_INIT FOR
+     *      &quot;org.h2.fulltext.FullTextMVStore.init&quot;;
+     * CALL FTM_INIT();
+     * </pre>
+     *
+     * @param conn the connection
+     */
+    public static void init(Connection conn) throws SQLException {
+        getSession(conn);
+        try (Statement stat = conn.createStatement()) {
+            stat.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+            stat.execute("CREATE TABLE IF NOT EXISTS " + SCHEMA +
+                    ".INDEXES(ID INT AUTO_INCREMENT PRIMARY KEY, " +
+                    "SCHEMA VARCHAR, TABLE VARCHAR, COLUMNS VARCHAR, " +
+                    "UNIQUE(SCHEMA, TABLE))");
+            stat.execute("CREATE ALIAS IF NOT EXISTS FTM_CREATE_INDEX FOR \"" +
+                    FullTextMVStore.class.getName() + ".createIndex\"");
+            stat.execute("CREATE ALIAS IF NOT EXISTS FTM_DROP_INDEX FOR \"" +
+                    FullTextMVStore.class.getName() + ".dropIndex\"");
+            stat.execute("CREATE ALIAS IF NOT EXISTS FTM_SEARCH FOR \"" +
+                    FullTextMVStore.class.getName() + ".search\"");
+            stat.execute("CREATE ALIAS IF NOT EXISTS FTM_SEARCH_DATA FOR \"" +
+                    FullTextMVStore.class.getName() + ".searchData\"");
+            stat.execute("CREATE ALIAS IF NOT EXISTS FTM_REINDEX FOR \"" +
+                    FullTextMVStore.class.getName() + ".reindex\"");
+            stat.execute("CREATE ALIAS IF NOT EXISTS FTM_DROP_ALL FOR \"" +
+                    FullTextMVStore.class.getName() + ".dropAll\"");
+        }
+    }
+
+    /**
+     * Create a new full text index for a table and column list. Each table may
+     * only have one index at any time.
+     *
+     * @param conn the connection
+     * @param schema the schema name of the table (case sensitive)
+     * @param table the table name (case sensitive)
+     * @param columnList the column list (null for all columns)
+     */
+    public static void createIndex(Connection conn, String schema,
+            String table, String columnList) throws SQLException {
+        init(conn);
+        PreparedStatement prep = conn.prepareStatement("INSERT INTO " + SCHEMA
+                + ".INDEXES(SCHEMA, TABLE, COLUMNS) VALUES(?, ?, ?)");
+        prep.setString(1, schema);
+        prep.setString(2, table);
+        prep.setString(3, columnList);
+        prep.execute();
+        createTrigger(conn, schema, table);
+        indexExistingRows(conn, schema, table);
+    }
+
+    /**
+     * Drop an existing full text index for a table. This method returns
+     * silently if no index for this table exists.
+     *
+     * @param conn the connection
+     * @param schema the schema name of the table (case sensitive)
+     * @param table the table name (case sensitive)
+     */
+    public static void dropIndex(Connection conn, String schema, String table)
+            throws SQLException {
+        init(conn);
+        PreparedStatement prep = conn.prepareStatement("SELECT ID FROM " +
+                SCHEMA + ".INDEXES WHERE SCHEMA=? AND TABLE=?");
+        prep.setString(1, schema);
+        prep.setString(2, table);
+        ResultSet rs = prep.executeQuery();
+        if (!rs.next()) {
+            return;
+        }
+        int indexId = rs.getInt(1);
+        prep = conn.prepareStatement("DELETE FROM " + SCHEMA +
+                ".INDEXES WHERE ID=?");
+        prep.setInt(1, indexId);
+        prep.execute();
+        createOrDropTrigger(conn, schema, table, false);
+        removeMaps(conn, indexId);
+    }
+
+    /**
+     * Re-creates the full text index for this database. Calling this method is
+     * usually not needed, as the index is kept up-to-date automatically, but
+     * it is required after an upgrade if the format of the index changed.
+     *
+     * @param conn the connection
+     */
+    public static void reindex(Connection conn) throws SQLException {
+        init(conn);
+        removeAllTriggers(conn, TRIGGER_PREFIX);
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT * FROM " + SCHEMA +
+                ".INDEXES");
+        while (rs.next()) {
+            int indexId = rs.getInt("ID");
+            String schema = rs.getString("SCHEMA");
+            String table = rs.getString("TABLE");
+            removeMaps(conn, indexId);
+            createTrigger(conn, schema, table);
+            indexExistingRows(conn, schema, table);
+        }
+    }
+
+    /**
+     * Drops all full text indexes from the database.
+     *
+     * @param conn the connection
+     */
+    public static void dropAll(Connection conn) throws SQLException {
+        init(conn);
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT ID FROM " + SCHEMA +
+                ".INDEXES");
+        while (rs.next()) {
+            removeMaps(conn, rs.getInt(1));
+        }
+        stat.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        removeAllTriggers(conn, TRIGGER_PREFIX);
+    }
+
+    /**
+     * Searches from the full text index for this database.
+     * The returned result set has the following column:
+     * <ul><li>QUERY (varchar): the query to use to get the data.
+     * The query does not include 'SELECT * FROM '. Example:
+     * PUBLIC.TEST WHERE ID = 1
+     * </li><li>SCORE (float) the BM25 relevance score.
+     * </li></ul>
+     * The rows are ordered by score, the best match first. All words of the
+     * search query need to match. Words within double quotes need to match
+     * as a phrase, and a word that ends with * matches all words that start
+     * with it.
+     *
+     * @param conn the connection
+     * @param text the search query
+     * @param limit the maximum number of rows or 0 for no limit
+     * @param offset the offset or 0 for no offset
+     * @return the result set
+     */
+    public static ResultSet search(Connection conn, String text, int limit,
+            int offset) throws SQLException {
+        return search(conn, text, limit, offset, false);
+    }
+
+    /**
+     * Searches from the full text index for this database. The result contains
+     * the primary key data as an array. The returned result set has the
+     * following columns:
+     * <ul>
+     * <li>SCHEMA (varchar): the schema name. Example: PUBLIC</li>
+     * <li>TABLE (varchar): the table name. Example: TEST</li>
+     * <li>COLUMNS (array of varchar): comma separated list of quoted column
+     * names. The column names are quoted if necessary. Example: (ID)</li>
+     * <li>KEYS (array of values): comma separated list of values.
+     * Example: (1)</li>
+     * <li>SCORE (float) the BM25 relevance score.</li>
+     * </ul>
+     *
+     * @param conn the connection
+     * @param text the search query
+     * @param limit the maximum number of rows or 0 for no limit
+     * @param offset the offset or 0 for no offset
+     * @return the result set
+     */
+    public static ResultSet searchData(Connection conn, String text, int limit,
+            int offset) throws SQLException {
+        return search(conn, text, limit, offset, true);
+    }
+
+    /**
+     * Do the search.
+     *
+     * @param conn the database connection
+     * @param text the query
+     * @param limit the limit
+     * @param offset the offset
+     * @param data whether the raw data should be returned
+     * @return the result set
+     */
+    protected static ResultSet search(Connection conn, String text,
+            int limit, int offset, boolean data) throws SQLException {
+        SimpleResultSet result = createResultSet(data);
+        if (conn.getMetaData().getURL().startsWith("jdbc:columnlist:")) {
+            // this is just to query the result set columns
+            return result;
+        }
+        if (text == null || text.trim().length() == 0) {
+            return result;
+        }
+        ResultSet rs = conn.getMetaData().getTables(null, SCHEMA, "INDEXES",
+                null);
+        if (!rs.next()) {
+            // not initialized
+            return result;
+        }
+        FullTextSettings setting = FullTextSettings.getInstance(conn);
+        ArrayList<Term> terms = parseQuery(setting, text);
+        if (terms.isEmpty()) {
+            return result;
+        }
+        Session session = getSession(conn);
+        ArrayList<Hit> hits = New.arrayList();
+        rs = conn.createStatement().executeQuery(
+                "SELECT ID, SCHEMA, TABLE FROM " + SCHEMA + ".INDEXES");
+        while (rs.next()) {
+            IndexMaps maps = new IndexMaps(session, rs.getInt(1));
+            search(maps, terms, rs.getString(2), rs.getString(3), hits);
+        }
+        Collections.sort(hits, new Comparator<Hit>() {
+            @Override
+            public int compare(Hit a, Hit b) {
+                return Double.compare(b.score, a.score);
+            }
+        });
+        int end = limit > 0 ? Math.min(hits.size(), offset + limit) :
+                hits.size();
+        for (int i = offset; i < end; i++) {
+            Hit hit = hits.get(i);
+            if (data) {
+                Object[][] columnData = parseKey(conn, hit.key);
+                result.addRow(hit.schema, hit.table, columnData[0],
+                        columnData[1], hit.score);
+            } else {
+                String query = StringUtils.quoteIdentifier(hit.schema) +
+                        "." + StringUtils.quoteIdentifier(hit.table) +
+                        " WHERE " + hit.key;
+                result.addRow(query, hit.score);
+            }
+        }
+        return result;
+    }
+
+    private static void search(IndexMaps maps, ArrayList<Term> terms,
+            String schema, String table, ArrayList<Hit> hits) {
+        long docCount = maps.docs.sizeAsLong();
+        if (docCount == 0) {
+            return;
+        }
+        int termCount = terms.size();
+        ArrayList<HashMap<Long, Integer>> matches = match(maps, terms);
+        if (matches == null) {
+            return;
+        }
+        double averageLength = Math.max(1.0,
+                (double) maps.getTotalLength() / docCount);
+        double[] idf = new double[termCount];
+        for (int i = 0; i < termCount; i++) {
+            int df = matches.get(i).size();
+            idf[i] = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+        }
+        for (Long docId : intersect(matches)) {
+            ValueArray doc = (ValueArray) maps.docs.get(ValueLong.get(docId));
+            if (doc == null) {
+                continue;
+            }
+            Value[] list = doc.getList();
+            double norm = K1 * (1 - B + B * list[1].getInt() / averageLength);
+            double score = 0;
+            for (int i = 0; i < termCount; i++) {
+                int tf = matches.get(i).get(docId);
+                score += idf[i] * tf * (K1 + 1) / (tf + norm);
+            }
+            hits.add(new Hit(schema, table, list[0].getString(), score));
+        }
+    }
+
+    /**
+     * Get the matching documents of each term.
+     *
+     * @param maps the maps of the index
+     * @param terms the terms
+     * @return a map of document id to term frequency for each term, or null
+     *         if one of the terms doesn't match
+     */
+    private static ArrayList<HashMap<Long, Integer>> match(IndexMaps maps,
+            ArrayList<Term> terms) {
+        ArrayList<HashMap<Long, Integer>> matches = New.arrayList();
+        for (Term term : terms) {
+            HashMap<Long, Integer> m = term.match(maps.postings);
+            if (m.isEmpty()) {
+                return null;
+            }
+            matches.add(m);
+        }
+        return matches;
+    }
+
+    /**
+     * Get the documents that match all terms.
+     *
+     * @param matches the matching documents of each term
+     * @return the document ids
+     */
+    private static ArrayList<Long> intersect(
+            ArrayList<HashMap<Long, Integer>> matches) {
+        ArrayList<Long> result = New.arrayList();
+        // start with the rarest term
+        HashMap<Long, Integer> rarest = matches.get(0);
+        for (HashMap<Long, Integer> m : matches) {
+            if (m.size() < rarest.size()) {
+                rarest = m;
+            }
+        }
+        loop:
+        for (Long docId : rarest.keySet()) {
+            for (HashMap<Long, Integer> m : matches) {
+                if (!m.containsKey(docId)) {
+                    continue loop;
+                }
+            }
+            result.add(docId);
+        }
+        return result;
+    }
+
+    /**
+     * Parse a search query.
+     *
+     * @param setting the fulltext settings
+     * @param text the query
+     * @return the terms
+     */
+    private static ArrayList<Term> parseQuery(FullTextSettings setting,
+            String text) {
+        ArrayList<Term> terms = New.arrayList();
+        int len = text.length();
+        for (int i = 0; i < len;) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = len;
+                }
+                ArrayList<String> words = getWords(setting,
+                        text.substring(i + 1, end));
+                // ignored words at the start and end don't matter
+                while (!words.isEmpty() && words.get(0) == null) {
+                    words.remove(0);
+                }
+                while (!words.isEmpty() &&
+                        words.get(words.size() - 1) == null) {
+                    words.remove(words.size() - 1);
+                }
+                if (words.size() == 1) {
+                    terms.add(new Term(words.get(0), false, null));
+                } else if (words.size() > 1) {
+                    terms.add(new Term(null, false,
+                            words.toArray(new String[0])));
+                }
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < len && text.charAt(end) != '"' &&
+                        !Character.isWhitespace(text.charAt(end))) {
+                    end++;
+                }
+                String token = text.substring(i, end);
+                boolean prefix = token.endsWith("*");
+                while (token.endsWith("*")) {
+                    token = token.substring(0, token.length() - 1);
+                }
+                ArrayList<String> words = getWords(setting, token);
+                for (int j = 0, size = words.size(); j < size; j++) {
+                    String word = words.get(j);
+                    if (word != null) {
+                        terms.add(new Term(word, prefix && j == size - 1,
+                                null));
+                    }
+                }
+                i = end;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Split the text into words. Ignored words are included as null, so that
+     * the list index is the position of the word.
+     *
+     * @param setting the fulltext settings
+     * @param text the text
+     * @return the words
+     */
+    static ArrayList<String> getWords(FullTextSettings setting, String text) {
+        ArrayList<String> words = New.arrayList();
+        StringTokenizer tokenizer = new StringTokenizer(text,
+                setting.getWhitespaceChars());
+        while (tokenizer.hasMoreTokens()) {
+            words.add(setting.convertWord(tokenizer.nextToken()));
+        }
+        return words;
+    }
+
+    /**
+     * Get the session of the connection. The MVStore needs to be used.
+     *
+     * @param conn the connection
+     * @return the session
+     */
+    static Session getSession(Connection conn) throws SQLException {
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        if (session.getDatabase().getMvStore() == null) {
+            throw throwException(
+                    "This full text search requires the MVStore");
+        }
+        return session;
+    }
+
+    /**
+     * Remove the maps of the given index.
+     *
+     * @param conn the connection
+     * @param indexId the index id
+     */
+    private static void removeMaps(Connection conn, int indexId)
+            throws SQLException {
+        Session session = getSession(conn);
+        IndexMaps maps = new IndexMaps(session, indexId);
+        Transaction t = session.getTransaction();
+        t.removeMap(maps.postings);
+        t.removeMap(maps.docs);
+        t.removeMap(maps.keys);
+        t.removeMap(maps.lengths);
+    }
+
+    /**
+     * Get the next document id of the given index.
+     *
+     * @param session the session
+     * @param maps the maps of the index
+     * @return the new document id
+     */
+    static long nextDocumentId(Session session, IndexMaps maps) {
+        AtomicLong id;
+        synchronized (DOCUMENT_IDS) {
+            Database db = session.getDatabase();
+            HashMap<Integer, AtomicLong> ids = DOCUMENT_IDS.get(db);
+            if (ids == null) {
+                ids = new HashMap<>();
+                DOCUMENT_IDS.put(db, ids);
+            }
+            id = ids.get(maps.indexId);
+            if (id == null) {
+                Value last = maps.docs.lastKey();
+                id = new AtomicLong(last == null ? 0 : last.getLong());
+                ids.put(maps.indexId, id);
+            }
+        }
+        return id.incrementAndGet();
+    }
+
+    /**
+     * Get the primary key columns of a table, in the order that is used for
+     * the key conditions.
+     *
+     * @param meta the database meta data
+     * @param schema the schema name
+     * @param table the table name
+     * @return the column names
+     */
+    static ArrayList<String> getKeyColumns(DatabaseMetaData meta,
+            String schema, String table) throws SQLException {
+        ArrayList<String> keyList = New.arrayList();
+        ResultSet rs = meta.getPrimaryKeys(null,
+                StringUtils.escapeMetaDataPattern(schema), table);
+        while (rs.next()) {
+            keyList.add(rs.getString("COLUMN_NAME"));
+        }
+        if (keyList.isEmpty()) {
+            throw throwException("No primary key for table " + table);
+        }
+        return keyList;
+    }
+
+    /**
+     * Get the key condition of a row, for example "ID"=1.
+     *
+     * @param columns the key column names
+     * @param types the SQL types of the key columns
+     * @param values the key values
+     * @return the key condition
+     */
+    static String getKey(String[] columns, int[] types, Object[] values)
+            throws SQLException {
+        StatementBuilder buff = new StatementBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            buff.appendExceptFirst(" AND ");
+            buff.append(StringUtils.quoteIdentifier(columns[i]));
+            Object o = values[i];
+            if (o == null) {
+                buff.append(" IS NULL");
+            } else {
+                buff.append('=').append(quoteSQL(o, types[i]));
+            }
+        }
+        return buff.toString();
+    }
+
+    private static void createTrigger(Connection conn, String schema,
+            String table) throws SQLException {
+        createOrDropTrigger(conn, schema, table, true);
+    }
+
+    private static void createOrDropTrigger(Connection conn,
+            String schema, String table, boolean create) throws SQLException {
+        try (Statement stat = conn.createStatement()) {
+            String trigger = StringUtils.quoteIdentifier(schema) + "." +
+                    StringUtils.quoteIdentifier(TRIGGER_PREFIX + table);
+            stat.execute("DROP TRIGGER IF EXISTS " + trigger);
+            if (create) {
+                // a rollback undoes the changes of the table as new
+                // operations, so the trigger needs to be called on rollback
+                // as well
+                StringBuilder buff = new StringBuilder(
+                        "CREATE TRIGGER IF NOT EXISTS ");
+                buff.append(trigger).
+                    append(" AFTER INSERT, UPDATE, DELETE, ROLLBACK ON ").
+                    append(StringUtils.quoteIdentifier(schema)).
+                    append('.').
+                    append(StringUtils.quoteIdentifier(table)).
+                    append(" FOR EACH ROW CALL \"").
+                    append(FullTextMVStore.FullTextTrigger.class.getName()).
+                    append('\"');
+                stat.execute(buff.toString());
+            }
+        }
+    }
+
+    private static void indexExistingRows(Connection conn, String schema,
+            String table) throws SQLException {
+        FullTextMVStore.FullTextTrigger existing =
+                new FullTextMVStore.FullTextTrigger();
+        existing.init(conn, schema, null, table, false, Trigger.INSERT);
+        String sql = "SELECT * FROM " + StringUtils.quoteIdentifier(schema)
+                + "." + StringUtils.quoteIdentifier(table);
+        ResultSet rs = conn.createStatement().executeQuery(sql);
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            existing.insert(conn, row);
+        }
+    }
+
+    /**
+     * Encode the positions of a word: the difference to the previous
+     * position, as a variable size int.
+     *
+     * @param positions the positions (ascending)
+     * @return the encoded positions
+     */
+    static byte[] encodePositions(IntArray positions) {
+        WriteBuffer buff = new WriteBuffer(positions.size() + 8);
+        int last = 0;
+        for (int i = 0, size = positions.size(); i < size; i++) {
+            int p = positions.get(i);
+            buff.putVarInt(p - last);
+            last = p;
+        }
+        ByteBuffer b = buff.getBuffer();
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    /**
+     * Decode the positions of a word.
+     *
+     * @param data the encoded positions
+     * @return the positions
+     */
+    static int[] decodePositions(byte[] data) {
+        int count = 0;
+        for (byte b : data) {
+            if (b >= 0) {
+                count++;
+            }
+        }
+        int[] positions = new int[count];
+        ByteBuffer buff = ByteBuffer.wrap(data);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            last += DataUtils.readVarInt(buff);
+            positions[i] = last;
+        }
+        return positions;
+    }
+
+    /**
+     * The maps of one index, opened within the transaction of a session.
+     * The key of a posting is the word and the document id, and the value
+     * the positions of the word. A document is the key condition, the length
+     * (the number of words), and the key values of a row.
+     */
+    static final class IndexMaps {
+
+        /**
+         * The index id.
+         */
+        final int indexId;
+
+        /**
+         * The session.
+         */
+        final Session session;
+
+        /**
+         * The transaction the maps were opened with.
+         */
+        final Transaction transaction;
+
+        /**
+         * The postings. Key: (word, document id), value: positions.
+         */
+        final TransactionMap<Value, Value> postings;
+
+        /**
+         * The documents. Key: document id, value: (key condition, length, key
+         * values).
+         */
+        final TransactionMap<Value, Value> docs;
+
+        /**
+         * The document id of a row. Key: key condition, value: document id.
+         */
+        final TransactionMap<Value, Value> keys;
+
+        /**
+         * The sum of the document lengths. Key: session id, value: sum. Each
+         * session uses its own entry, so that concurrent transactions don't
+         * conflict.
+         */
+        final TransactionMap<Value, Value> lengths;
+
+        IndexMaps(Session session, int indexId) {
+            this.session = session;
+            this.indexId = indexId;
+            Database db = session.getDatabase();
+            ValueDataType type = new ValueDataType(db.getCompareMode(), db,
+                    null);
+            Transaction t = session.getTransaction();
+            transaction = t;
+            String prefix = MAP_PREFIX + indexId;
+            postings = t.openMap(prefix + ".postings", type, type);
+            docs = t.openMap(prefix + ".docs", type, type);
+            keys = t.openMap(prefix + ".keys", type, type);
+            lengths = t.openMap(prefix + ".lengths", type, type);
+        }
+
+        /**
+         * Add to the sum of the document lengths.
+         *
+         * @param delta the value to add
+         */
+        void addLength(int delta) {
+            Value k = ValueInt.get(session.getId());
+            Value old = lengths.get(k);
+            lengths.put(k, ValueLong.get(
+                    (old == null ? 0 : old.getLong()) + delta));
+        }
+
+        /**
+         * Get the sum of the document lengths.
+         *
+         * @return the sum
+         */
+        long getTotalLength() {
+            long total = 0;
+            Iterator<Entry<Value, Value>> it = lengths.entryIterator(null,
+                    null);
+            while (it.hasNext()) {
+                total += it.next().getValue().getLong();
+            }
+            return total;
+        }
+
+        /**
+         * Get the key of a posting.
+         *
+         * @param word the word
+         * @param docId the document id
+         * @return the key
+         */
+        static Value getPostingKey(String word, long docId) {
+            return ValueArray.get(new Value[] { ValueString.get(word),
+                    ValueLong.get(docId) });
+        }
+
+    }
+
+    /**
+     * A term of a search query: a word, a prefix, or a phrase.
+     */
+    static final class Term {
+
+        private final String word;
+        private final boolean prefix;
+        private final String[] phrase;
+
+        Term(String word, boolean prefix, String[] phrase) {
+            this.word = word;
+            this.prefix = prefix;
+            this.phrase = phrase;
+        }
+
+        /**
+         * Get the matching documents.
+         *
+         * @param postings the postings map
+         * @return a map of document id to term frequency
+         */
+        HashMap<Long, Integer> match(TransactionMap<Value, Value> postings) {
+            HashMap<Long, Integer> result = new HashMap<>();
+            if (phrase == null) {
+                Iterator<Entry<Value, Value>> it = postings.entryIterator(
+                        IndexMaps.getPostingKey(word, Long.MIN_VALUE),
+                        prefix ? null :
+                        IndexMaps.getPostingKey(word, Long.MAX_VALUE));
+                while (it.hasNext()) {
+                    Entry<Value, Value> e = it.next();
+                    Value[] key = ((ValueArray) e.getKey()).getList();
+                    if (prefix && !key[0].getString().startsWith(word)) {
+                        break;
+                    }
+                    Long docId = key[1].getLong();
+                    int count = decodePositions(e.getValue().getBytesNoCopy())
+                            .length;
+                    Integer old = result.get(docId);
+                    result.put(docId, old == null ? count : old + count);
+                }
+                return result;
+            }
+            // the positions of each word of the phrase (null if ignored)
+            ArrayList<HashMap<Long, int[]>> list = New.arrayList();
+            for (String w : phrase) {
+                if (w == null) {
+                    list.add(null);
+                    continue;
+                }
+                HashMap<Long, int[]> positions = new HashMap<>();
+                Iterator<Entry<Value, Value>> it = postings.entryIterator(
+                        IndexMaps.getPostingKey(w, Long.MIN_VALUE),
+                        IndexMaps.getPostingKey(w, Long.MAX_VALUE));
+                while (it.hasNext()) {
+                    Entry<Value, Value> e = it.next();
+                    Value[] key = ((ValueArray) e.getKey()).getList();
+                    positions.put(key[1].getLong(), decodePositions(
+                            e.getValue().getBytesNoCopy()));
+                }
+                if (positions.isEmpty()) {
+                    return result;
+                }
+                list.add(positions);
+            }
+            loop:
+            for (Map.Entry<Long, int[]> e : list.get(0).entrySet()) {
+                Long docId = e.getKey();
+                int[][] docPositions = new int[list.size()][];
+                for (int i = 1; i < list.size(); i++) {
+                    if (list.get(i) != null) {
+                        docPositions[i] = list.get(i).get(docId);
+                        if (docPositions[i] == null) {
+                            continue loop;
+                        }
+                    }
+                }
+                docPositions[0] = e.getValue();
+                int count = countPhrase(docPositions);
+                if (count > 0) {
+                    result.put(docId, count);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Get the term frequency in one document.
+         *
+         * @param postings the postings map
+         * @param docId the document id
+         * @return the number of times the term occurs in the document
+         */
+        int count(TransactionMap<Value, Value> postings, long docId) {
+            if (phrase == null) {
+                if (!prefix) {
+                    Value v = postings.get(IndexMaps.getPostingKey(word,
+                            docId));
+                    return v == null ? 0 :
+                            decodePositions(v.getBytesNoCopy()).length;
+                }
+                int count = 0;
+                Value k = postings.ceilingKey(IndexMaps.getPostingKey(word,
+                        Long.MIN_VALUE));
+                while (k != null) {
+                    String w = ((ValueArray) k).getList()[0].getString();
+                    if (!w.startsWith(word)) {
+                        break;
+                    }
+                    Value v = postings.get(IndexMaps.getPostingKey(w, docId));
+                    if (v != null) {
+                        count += decodePositions(v.getBytesNoCopy()).length;
+                    }
+                    // skip the other documents of this word
+                    k = postings.higherKey(IndexMaps.getPostingKey(w,
+                            Long.MAX_VALUE));
+                }
+                return count;
+            }
+            int[][] docPositions = new int[phrase.length][];
+            for (int i = 0; i < phrase.length; i++) {
+                if (phrase[i] != null) {
+                    Value v = postings.get(IndexMaps.getPostingKey(phrase[i],
+                            docId));
+                    if (v == null) {
+                        return 0;
+                    }
+                    docPositions[i] = decodePositions(v.getBytesNoCopy());
+                }
+            }
+            return countPhrase(docPositions);
+        }
+
+        /**
+         * Count how often the words of a phrase occur one after the other.
+         *
+         * @param docPositions the positions of each word of the phrase in the
+         *            document (null for ignored words, except the first)
+         * @return the number of occurrences
+         */
+        private static int countPhrase(int[][] docPositions) {
+            int count = 0;
+            positions:
+            for (int p : docPositions[0]) {
+                for (int i = 1; i < docPositions.length; i++) {
+                    if (docPositions[i] != null && Arrays.binarySearch(
+                            docPositions[i], p + i) < 0) {
+                        continue positions;
+                    }
+                }
+                count++;
+            }
+            return count;
+        }
+
+    }
+
+    /**
+     * A row that matches a search query.
+     */
+    static final class Hit {
+
+        /**
+         * The schema name.
+         */
+        final String schema;
+
+        /**
+         * The table name.
+         */
+        final String table;
+
+        /**
+         * The key condition.
+         */
+        final String key;
+
+        /**
+         * The score.
+         */
+        final double score;
+
+        Hit(String schema, String table, String key, double score) {
+            this.schema = schema;
+            this.table = table;
+            this.key = key;
+            this.score = score;
+        }
+
+    }
+
+    /**
+     * INTERNAL.
+     * The full text index of one table, as used by the MATCH condition.
+     */
+    public static final class Search {
+
+        private final FullTextSettings setting;
+        private final int indexId;
+        private final String[] keyColumns;
+        private final int[] keyTypes;
+        private String lastText;
+        private ArrayList<Term> lastTerms;
+        private IndexMaps maps;
+
+        private Search(FullTextSettings setting, int indexId,
+                String[] keyColumns, int[] keyTypes) {
+            this.setting = setting;
+            this.indexId = indexId;
+            this.keyColumns = keyColumns;
+            this.keyTypes = keyTypes;
+        }
+
+        /**
+         * Get the full text index of a table.
+         *
+         * @param conn the connection
+         * @param schema the schema name
+         * @param table the table name
+         * @return the index
+         * @throws SQLException if the table has no full text index
+         */
+        public static Search get(Connection conn, String schema, String table)
+                throws SQLException {
+            getSession(conn);
+            DatabaseMetaData meta = conn.getMetaData();
+            ResultSet rs = meta.getTables(null, SCHEMA, "INDEXES", null);
+            int indexId = -1;
+            if (rs.next()) {
+                PreparedStatement prep = conn.prepareStatement(
+                        "SELECT ID FROM " + SCHEMA + ".INDEXES" +
+                        " WHERE SCHEMA=? AND TABLE=?");
+                prep.setString(1, schema);
+                prep.setString(2, table);
+                rs = prep.executeQuery();
+                if (rs.next()) {
+                    indexId = rs.getInt(1);
+                }
+            }
+            if (indexId < 0) {
+                throw throwException("No full text index for table " +
+                        table);
+            }
+            ArrayList<String> keyList = FullTextMVStore.getKeyColumns(meta,
+                    schema, table);
+            int[] keyTypes = new int[keyList.size()];
+            rs = meta.getColumns(null,
+                    StringUtils.escapeMetaDataPattern(schema),
+                    StringUtils.escapeMetaDataPattern(table), null);
+            while (rs.next()) {
+                int i = keyList.indexOf(rs.getString("COLUMN_NAME"));
+                if (i >= 0) {
+                    keyTypes[i] = rs.getInt("DATA_TYPE");
+                }
+            }
+            return new Search(FullTextSettings.getInstance(conn), indexId,
+                    keyList.toArray(new String[0]), keyTypes);
+        }
+
+        /**
+         * Get the primary key columns, in the order of the key values.
+         *
+         * @return the column names
+         */
+        public String[] getKeyColumns() {
+            return keyColumns;
+        }
+
+        /**
+         * Check whether a row matches the search query. Uncommitted changes
+         * of the session are seen.
+         *
+         * @param session the session
+         * @param text the search query
+         * @param keyValues the key values of the row
+         * @return true if all terms of the query match
+         */
+        public boolean matches(Session session, String text,
+                Object[] keyValues) throws SQLException {
+            ArrayList<Term> terms = getTerms(text);
+            if (terms.isEmpty()) {
+                return false;
+            }
+            IndexMaps m = getMaps(session);
+            Value id = m.keys.get(ValueString.get(
+                    getKey(keyColumns, keyTypes, keyValues)));
+            if (id == null) {
+                return false;
+            }
+            long docId = id.getLong();
+            for (Term term : terms) {
+                if (term.count(m.postings, docId) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the values of the first key column of the rows that match the
+         * search query. Uncommitted changes of the session are seen.
+         *
+         * @param session the session
+         * @param text the search query
+         * @return the key values
+         */
+        public Value[] getKeys(Session session, String text) {
+            ArrayList<Term> terms = getTerms(text);
+            if (terms.isEmpty()) {
+                return new Value[0];
+            }
+            IndexMaps m = getMaps(session);
+            ArrayList<HashMap<Long, Integer>> matches = match(m, terms);
+            if (matches == null) {
+                return new Value[0];
+            }
+            ArrayList<Value> keys = New.arrayList();
+            for (Long docId : intersect(matches)) {
+                ValueArray doc = (ValueArray) m.docs.get(ValueLong.get(docId));
+                if (doc != null) {
+                    keys.add(((ValueArray) doc.getList()[2]).getList()[0]);
+                }
+            }
+            return keys.toArray(new Value[0]);
+        }
+
+        private ArrayList<Term> getTerms(String text) {
+            if (!text.equals(lastText)) {
+                lastTerms = parseQuery(setting, text);
+                lastText = text;
+            }
+            return lastTerms;
+        }
+
+        private IndexMaps getMaps(Session session) {
+            IndexMaps m = maps;
+            if (m == null || m.session != session ||
+                    m.transaction != session.getTransaction()) {
+                m = new IndexMaps(session, indexId);
+                maps = m;
+            }
+            return m;
+        }
+
+    }
+
+    /**
+     * Trigger updates the index when a inserting, updating, or deleting a row.
+     */
+    public static final class FullTextTrigger implements Trigger {
+
+        private FullTextSettings setting;
+        private IndexInfo index;
+        private int[] columnTypes;
+        private String[] keyColumns;
+        private int[] keyTypes;
+
+        /**
+         * INTERNAL
+         */
+        @Override
+        public void init(Connection conn, String schemaName, String triggerName,
+                String tableName, boolean before, int type) throws SQLException {
+            setting = FullTextSettings.getInstance(conn);
+            DatabaseMetaData meta = conn.getMetaData();
+            ResultSet rs = meta.getColumns(null,
+                    StringUtils.escapeMetaDataPattern(schemaName),
+                    StringUtils.escapeMetaDataPattern(tableName),
+                    null);
+            ArrayList<String> columnList = New.arrayList();
+            while (rs.next()) {
+                columnList.add(rs.getString("COLUMN_NAME"));
+            }
+            columnTypes = new int[columnList.size()];
+            index = new IndexInfo();
+            index.schema = schemaName;
+            index.table = tableName;
+            index.columns = columnList.toArray(new String[0]);
+            rs = meta.getColumns(null,
+                    StringUtils.escapeMetaDataPattern(schemaName),
+                    StringUtils.escapeMetaDataPattern(tableName),
+                    null);
+            for (int i = 0; rs.next(); i++) {
+                columnTypes[i] = rs.getInt("DATA_TYPE");
+            }
+            ArrayList<String> keyList = getKeyColumns(meta, schemaName,
+                    tableName);
+            ArrayList<String> indexList = New.arrayList();
+            PreparedStatement prep = conn.prepareStatement(
+                    "SELECT ID, COLUMNS FROM " + SCHEMA + ".INDEXES" +
+                    " WHERE SCHEMA=? AND TABLE=?");
+            prep.setString(1, schemaName);
+            prep.setString(2, tableName);
+            rs = prep.executeQuery();
+            if (rs.next()) {
+                index.id = rs.getInt(1);
+                String columns = rs.getString(2);
+                if (columns != null) {
+                    Collections.addAll(indexList,
+                            StringUtils.arraySplit(columns, ',', true));
+                }
+            }
+            if (indexList.isEmpty()) {
+                indexList.addAll(columnList);
+            }
+            index.keys = new int[keyList.size()];
+            setColumns(index.keys, keyList, columnList);
+            keyColumns = new String[index.keys.length];
+            keyTypes = new int[index.keys.length];
+            for (int i = 0; i < index.keys.length; i++) {
+                keyColumns[i] = index.columns[index.keys[i]];
+                keyTypes[i] = columnTypes[index.keys[i]];
+            }
+            index.indexColumns = new int[indexList.size()];
+            setColumns(index.indexColumns, indexList, columnList);
+        }
+
+        /**
+         * INTERNAL
+         */
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+                throws SQLException {
+            if (oldRow != null) {
+                if (newRow != null) {
+                    // update
+                    if (hasChanged(oldRow, newRow, index.indexColumns)) {
+                        delete(conn, oldRow);
+                        insert(conn, newRow);
+                    }
+                } else {
+                    // delete
+                    delete(conn, oldRow);
+                }
+            } else if (newRow != null) {
+                // insert
+                insert(conn, newRow);
+            }
+        }
+
+        /**
+         * INTERNAL
+         */
+        @Override
+        public void close() {
+            // ignore
+        }
+
+        /**
+         * INTERNAL
+         */
+        @Override
+        public void remove() {
+            // ignore
+        }
+
+        /**
+         * Add a row to the index.
+         *
+         * @param conn the connection
+         * @param row the row
+         */
+        void insert(Connection conn, Object[] row) throws SQLException {
+            Session session = getSession(conn);
+            IndexMaps maps = new IndexMaps(session, index.id);
+            String key = getKey(row);
+            Value[] keyValues = new Value[index.keys.length];
+            for (int i = 0; i < keyValues.length; i++) {
+                keyValues[i] = DataType.convertToValue(session,
+                        row[index.keys[i]], Value.UNKNOWN);
+            }
+            ArrayList<String> words = getWords(row);
+            long docId = nextDocumentId(session, maps);
+            Value id = ValueLong.get(docId);
+            maps.keys.put(ValueString.get(key), id);
+            maps.docs.put(id, ValueArray.get(new Value[] {
+                    ValueString.get(key), ValueInt.get(words.size()),
+                    ValueArray.get(keyValues) }));
+            HashMap<String, IntArray> positions = new HashMap<>();
+            for (int i = 0, size = words.size(); i < size; i++) {
+                String word = words.get(i);
+                if (word != null) {
+                    IntArray p = positions.get(word);
+                    if (p == null) {
+                        p = new IntArray();
+                        positions.put(word, p);
+                    }
+                    p.add(i);
+                }
+            }
+            for (Entry<String, IntArray> e : positions.entrySet()) {
+                maps.postings.put(IndexMaps.getPostingKey(e.getKey(), docId),
+                        ValueBytes.getNoCopy(encodePositions(e.getValue())));
+            }
+            maps.addLength(words.size());
+        }
+
+        /**
+         * Delete a row from the index.
+         *
+         * @param conn the connection
+         * @param row the row
+         */
+        void delete(Connection conn, Object[] row) throws SQLException {
+            Session session = getSession(conn);
+            IndexMaps maps = new IndexMaps(session, index.id);
+            Value key = ValueString.get(getKey(row));
+            Value id = maps.keys.get(key);
+            if (id == null) {
+                return;
+            }
+            long docId = id.getLong();
+            ArrayList<String> words = getWords(row);
+            for (String word : words) {
+                if (word != null) {
+                    maps.postings.remove(IndexMaps.getPostingKey(word, docId));
+                }
+            }
+            maps.docs.remove(id);
+            maps.keys.remove(key);
+            maps.addLength(-words.size());
+        }
+
+        private ArrayList<String> getWords(Object[] row) throws SQLException {
+            ArrayList<String> words = New.arrayList();
+            for (int idx : index.indexColumns) {
+                String data = asString(row[idx], columnTypes[idx]);
+                words.addAll(FullTextMVStore.getWords(setting, data));
+            }
+            return words;
+        }
+
+        private String getKey(Object[] row) throws SQLException {
+            Object[] values = new Object[index.keys.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row[index.keys[i]];
+            }
+            return FullTextMVStore.getKey(keyColumns, keyTypes, values);
+        }
+
+    }
+
+}
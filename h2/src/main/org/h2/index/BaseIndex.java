@@ -10,6 +10,8 @@
 import org.h2.engine.Constants;
 import org.h2.engine.DbObject;
 import org.h2.engine.Session;
+import org.h2.expression.Comparison;
+import org.h2.expression.Expression;
 import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.result.Row;
@@ -17,11 +19,13 @@
 import org.h2.result.SortOrder;
 import org.h2.schema.SchemaObjectBase;
 import org.h2.table.Column;
+import org.h2.table.ColumnStatistics;
 import org.h2.table.IndexColumn;
 import org.h2.table.Table;
 import org.h2.table.TableFilter;
 import org.h2.util.StatementBuilder;
 import org.h2.util.StringUtils;
+import org.h2.value.CompareMode;
 import org.h2.value.Value;
 import org.h2.value.ValueNull;
 
@@ -33,6 +37,7 @@ public abstract class BaseIndex extends SchemaObjectBase implements Index {
     protected IndexColumn[] indexColumns;
     protected Column[] columns;
     protected int[] columnIds;
+    protected Column[] includeColumns;
     protected Table table;
     protected IndexType indexType;
     protected boolean isMultiVersion;
@@ -168,6 +173,12 @@ protected final long getCostRangeIndex(int[] masks, long rowCount,
         int totalSelectivity = 0;
         long rowsCost = rowCount;
         if (masks != null) {
+            TableFilter tableFilter = filters == null ? null : filters[filter];
+            // the estimated fraction of the rows that match the conditions
+            // of the columns so far, used if the statistics of at least one
+            // column could be used
+            double fraction = 1;
+            boolean estimated = false;
             for (int i = 0, len = columns.length; i < len; i++) {
                 Column column = columns[i];
                 int index = column.getColumnId();
@@ -184,14 +195,27 @@ protected final long getCostRangeIndex(int[] masks, long rowCount,
                         distinctRows = 1;
                     }
                     rowsCost = 2 + Math.max(rowCount / distinctRows, 1);
-                } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) {
-                    rowsCost = 2 + rowCount / 4;
-                    break;
-                } else if ((mask & IndexCondition.START) == IndexCondition.START) {
-                    rowsCost = 2 + rowCount / 3;
-                    break;
-                } else if ((mask & IndexCondition.END) == IndexCondition.END) {
-                    rowsCost = rowCount / 3;
+                    double f = getStatisticsFraction(tableFilter, column, true);
+                    if (f >= 0) {
+                        estimated = true;
+                        fraction *= f;
+                    } else {
+                        fraction *= 100.0 / column.getSelectivity() / rowCount;
+                    }
+                    if (estimated) {
+                        rowsCost = 2 + Math.max((long) (rowCount * fraction), 1);
+                    }
+                } else if ((mask & IndexCondition.RANGE) != 0) {
+                    double f = getStatisticsFraction(tableFilter, column, false);
+                    if (f >= 0) {
+                        rowsCost = 2 + (long) (rowCount * fraction * f);
+                    } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) {
+                        rowsCost = 2 + rowCount / 4;
+                    } else if ((mask & IndexCondition.START) == IndexCondition.START) {
+                        rowsCost = 2 + rowCount / 3;
+                    } else {
+                        rowsCost = rowCount / 3;
+                    }
                     break;
                 } else {
                     break;
@@ -250,7 +274,7 @@ protected final long getCostRangeIndex(int[] masks, long rowCount,
             boolean foundAllColumnsWeNeed = true;
             for (Column c : allColumnsSet) {
                 if (c.getTable() == getTable()) {
-                    boolean found = false;
+                    boolean found = isIncludeColumn(c);
                     for (Column c2 : columns) {
                         if (c == c2) {
                             found = true;
@@ -283,6 +307,102 @@ protected final long getCostRangeIndex(int[] masks, long rowCount,
         return rc;
     }
 
+    /**
+     * Estimate the fraction of the rows that match the conditions on the given
+     * column, using the statistics of the column. Only conditions that
+     * compare the column with a constant are used.
+     *
+     * @param filter the table filter, or null
+     * @param column the column
+     * @param equality whether to use the equality conditions (otherwise the
+     *            range conditions are used)
+     * @return the estimated fraction, or -1 if it can't be estimated
+     */
+    private double getStatisticsFraction(TableFilter filter, Column column,
+            boolean equality) {
+        ColumnStatistics statistics = column.getStatistics();
+        if (filter == null || statistics == null) {
+            return -1;
+        }
+        Session session = filter.getSession();
+        CompareMode compareMode = database.getCompareMode();
+        double result = -1;
+        Value min = null, max = null;
+        boolean range = false;
+        try {
+            for (IndexCondition condition : filter.getIndexConditions()) {
+                if (condition.getColumn() != column) {
+                    continue;
+                }
+                int compareType = condition.getCompareType();
+                if (equality) {
+                    double f;
+                    if (compareType == Comparison.IN_LIST) {
+                        f = 0;
+                        for (Expression e : condition.getExpressionList()) {
+                            if (!e.isConstant()) {
+                                f = -1;
+                                break;
+                            }
+                            f += statistics.getEqualFraction(
+                                    column.convert(e.getValue(session)),
+                                    compareMode);
+                        }
+                        if (f > 1) {
+                            f = 1;
+                        }
+                    } else if (compareType == Comparison.EQUAL ||
+                            compareType == Comparison.EQUAL_NULL_SAFE) {
+                        Expression e = condition.getExpression();
+                        if (!e.isConstant()) {
+                            continue;
+                        }
+                        Value v = e.getValue(session);
+                        if (v == ValueNull.INSTANCE &&
+                                compareType == Comparison.EQUAL) {
+                            f = 0;
+                        } else {
+                            f = statistics.getEqualFraction(
+                                    column.convert(v), compareMode);
+                        }
+                    } else {
+                        continue;
+                    }
+                    if (f >= 0 && (result < 0 || f < result)) {
+                        result = f;
+                    }
+                } else {
+                    boolean start = compareType == Comparison.BIGGER ||
+                            compareType == Comparison.BIGGER_EQUAL;
+                    boolean end = compareType == Comparison.SMALLER ||
+                            compareType == Comparison.SMALLER_EQUAL;
+                    Expression e = condition.getExpression();
+                    if (!start && !end || !e.isConstant()) {
+                        continue;
+                    }
+                    Value v = e.getValue(session);
+                    if (v == ValueNull.INSTANCE) {
+                        return 0;
+                    }
+                    v = column.convert(v);
+                    if (start && (min == null || v.compareTo(min, compareMode) > 0)) {
+                        min = v;
+                    } else if (end && (max == null || v.compareTo(max, compareMode) < 0)) {
+                        max = v;
+                    }
+                    range = true;
+                }
+            }
+        } catch (DbException e) {
+            // the value can't be converted to the type of the column
+            return -1;
+        }
+        if (range) {
+            result = statistics.getRangeFraction(min, max, compareMode);
+        }
+        return result;
+    }
+
     @Override
     public int compareRows(SearchRow rowData, SearchRow compare) {
         if (rowData == compare) {
@@ -411,6 +531,16 @@ public String getCreateSQLForCopy(Table targetTable, String quotedName) {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
         buff.append('(').append(getColumnListSQL()).append(')');
+        if (includeColumns != null) {
+            buff.append(" INCLUDE(");
+            for (int i = 0; i < includeColumns.length; i++) {
+                if (i > 0) {
+                    buff.append(", ");
+                }
+                buff.append(includeColumns[i].getSQL());
+            }
+            buff.append(')');
+        }
         return buff.toString();
     }
 
@@ -429,6 +559,29 @@ public Column[] getColumns() {
         return columns;
     }
 
+    @Override
+    public Column[] getIncludeColumns() {
+        return includeColumns;
+    }
+
+    /**
+     * Check whether the given column is stored in the index in addition to
+     * the indexed columns.
+     *
+     * @param column the column
+     * @return true if yes
+     */
+    protected boolean isIncludeColumn(Column column) {
+        if (includeColumns != null) {
+            for (Column c : includeColumns) {
+                if (c == column) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public IndexType getIndexType() {
         return indexType;
@@ -221,6 +221,15 @@ public interface Index extends SchemaObject {
      */
     Column[] getColumns();
 
+    /**
+     * Get the columns that are stored in the index in addition to the indexed
+     * columns, so that queries that only use these columns don't need to read
+     * the rows of the table.
+     *
+     * @return the columns, or null if there are none
+     */
+    Column[] getIncludeColumns();
+
     /**
      * Get the index type.
      *
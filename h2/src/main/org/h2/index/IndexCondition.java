@@ -7,6 +7,7 @@
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +24,8 @@
 import org.h2.util.StatementBuilder;
 import org.h2.value.CompareMode;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueNull;
 
 /**
  * A index condition object is made for each condition that can potentially use
@@ -75,6 +78,12 @@ public class IndexCondition {
     private List<Expression> expressionList;
     private Query expressionQuery;
 
+    /**
+     * Whether the values of an IN_LIST condition are the elements of the
+     * array that the only expression of the list returns.
+     */
+    private boolean expressionArray;
+
     /**
      * @param compareType the comparison type, see constants in
      *            {@link Comparison}
@@ -116,6 +125,22 @@ public static IndexCondition getInList(ExpressionColumn column,
         return cond;
     }
 
+    /**
+     * Create an index condition with the compare type IN_LIST, where the
+     * values are the elements of the array the given expression returns.
+     *
+     * @param column the column
+     * @param array the expression that returns an array
+     * @return the index condition
+     */
+    public static IndexCondition getInArray(ExpressionColumn column,
+            Expression array) {
+        IndexCondition cond = getInList(column,
+                Collections.singletonList(array));
+        cond.expressionArray = true;
+        return cond;
+    }
+
     /**
      * Create an index condition with the compare type IN_QUERY and with the
      * given parameters.
@@ -152,6 +177,14 @@ public Value[] getCurrentValueList(Session session) {
         HashSet<Value> valueSet = new HashSet<>();
         for (Expression e : expressionList) {
             Value v = e.getValue(session);
+            if (expressionArray) {
+                if (v != ValueNull.INSTANCE) {
+                    for (Value x : ((ValueArray) v).getList()) {
+                        valueSet.add(column.convert(x));
+                    }
+                }
+                continue;
+            }
             v = column.convert(v);
             valueSet.add(v);
         }
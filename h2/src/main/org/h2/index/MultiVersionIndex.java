@@ -245,6 +245,11 @@ public Column[] getColumns() {
         return base.getColumns();
     }
 
+    @Override
+    public Column[] getIncludeColumns() {
+        return base.getIncludeColumns();
+    }
+
     @Override
     public IndexColumn[] getIndexColumns() {
         return base.getIndexColumns();
@@ -1264,22 +1264,35 @@ public int[] executeBatch() throws SQLException {
             SQLException next = null;
             checkClosedForWrite();
             try {
-                for (int i = 0; i < size; i++) {
-                    Value[] set = batchParameters.get(i);
-                    ArrayList<? extends ParameterInterface> parameters =
-                            command.getParameters();
-                    for (int j = 0; j < set.length; j++) {
-                        Value value = set[j];
-                        ParameterInterface param = parameters.get(j);
-                        param.setValue(value, false);
+                Exception[] errors = new Exception[size];
+                if (!conn.scopeGeneratedKeys() && session.isSupportsGeneratedKeys()) {
+                    // all rows at once (in the server mode, in one round trip)
+                    executeBatchUpdate(result, errors);
+                } else {
+                    // the generated keys of each row are read using
+                    // SCOPE_IDENTITY(), so the rows are executed one by one
+                    for (int i = 0; i < size; i++) {
+                        Value[] set = batchParameters.get(i);
+                        ArrayList<? extends ParameterInterface> parameters =
+                                command.getParameters();
+                        for (int j = 0; j < set.length; j++) {
+                            Value value = set[j];
+                            ParameterInterface param = parameters.get(j);
+                            param.setValue(value, false);
+                        }
+                        try {
+                            result[i] = executeUpdateInternal();
+                            // Cannot use own implementation, it returns batch identities
+                            ResultSet rs = super.getGeneratedKeys();
+                            batchIdentities.add(rs);
+                        } catch (Exception re) {
+                            errors[i] = re;
+                        }
                     }
-                    try {
-                        result[i] = executeUpdateInternal();
-                        // Cannot use own implementation, it returns batch identities
-                        ResultSet rs = super.getGeneratedKeys();
-                        batchIdentities.add(rs);
-                    } catch (Exception re) {
-                        SQLException e = logAndConvert(re);
+                }
+                for (int i = 0; i < size; i++) {
+                    if (errors[i] != null) {
+                        SQLException e = logAndConvert(errors[i]);
                         if (next == null) {
                             next = e;
                         } else {
@@ -1303,6 +1316,36 @@ public int[] executeBatch() throws SQLException {
         }
     }
 
+    private void executeBatchUpdate(int[] result, Exception[] errors)
+            throws SQLException {
+        DbException[] exceptions = new DbException[result.length];
+        ResultWithGeneratedKeys[] results;
+        closeOldResultSet();
+        synchronized (session) {
+            try {
+                setExecutingStatement(command);
+                results = command.executeBatchUpdate(batchParameters,
+                        generatedKeysRequest, exceptions);
+            } finally {
+                setExecutingStatement(null);
+            }
+        }
+        for (int i = 0; i < result.length; i++) {
+            if (exceptions[i] != null) {
+                errors[i] = exceptions[i];
+                continue;
+            }
+            result[i] = updateCount = results[i].getUpdateCount();
+            ResultInterface gk = results[i].getGeneratedKeys();
+            if (gk != null) {
+                int id = getNextId(TraceObject.RESULT_SET);
+                generatedKeys = new JdbcResultSet(conn, this, command, gk, id,
+                        false, true, false);
+                batchIdentities.add(generatedKeys);
+            }
+        }
+    }
+
     @Override
     public ResultSet getGeneratedKeys() throws SQLException {
         if (batchIdentities != null) {
@@ -20,6 +20,8 @@
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.engine.Session;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
 import org.h2.store.PageStore;
 import org.h2.table.Table;
 
@@ -277,4 +279,29 @@ public String listSessions() {
         return buff.toString();
     }
 
+    @Override
+    public String listCacheStatistics() {
+        StringBuilder buff = new StringBuilder();
+        if (database.getMvStore() == null) {
+            return buff.toString();
+        }
+        MVStore store = database.getMvStore().getStore();
+        TreeMap<String, MVMap<?, ?>> maps = new TreeMap<>();
+        for (MVMap<?, ?> map : store.getOpenMaps()) {
+            String name = map.isClosed() ? null : map.getName();
+            if (name != null) {
+                maps.put(name, map);
+            }
+        }
+        for (Map.Entry<String, MVMap<?, ?>> e : maps.entrySet()) {
+            MVMap<?, ?> map = e.getValue();
+            buff.append(e.getKey()).
+                    append(" hits: ").append(map.getCacheHits()).
+                    append(" misses: ").append(map.getCacheMisses()).
+                    append(" evictions: ").append(map.getCacheEvictions()).
+                    append('\n');
+        }
+        return buff.toString();
+    }
+
 }
@@ -165,4 +165,13 @@ public interface DatabaseInfoMBean {
      */
     String listSessions();
 
+    /**
+     * List the page cache hits, misses, and evictions of each open map of
+     * the MVStore.
+     * @h2.resource
+     *
+     * @return the cache statistics
+     */
+    String listCacheStatistics();
+
 }
@@ -8,11 +8,13 @@
 import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
 
@@ -26,7 +28,7 @@
  * concurrently, and only then modify the data. The in-memory part of write
  * operations is synchronized. For scalable concurrent in-memory write
  * operations, the map should be split into multiple smaller sub-maps that are
- * then synchronized independently.
+ * then synchronized independently, or an MVMapConcurrent should be used.
  *
  * @param <K> the key class
  * @param <V> the value class
@@ -34,6 +36,10 @@
 public class MVMap<K, V> extends AbstractMap<K, V>
         implements ConcurrentMap<K, V> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MVMap, Page> ROOT_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MVMap.class, Page.class, "root");
+
     /**
      * The store.
      */
@@ -65,6 +71,22 @@
     private volatile boolean closed;
     private boolean readOnly;
     private boolean isVolatile;
+    private boolean isLogged;
+
+    /**
+     * The number of page reads that were served by the page cache.
+     */
+    private final StripedCounter cacheHits = new StripedCounter();
+
+    /**
+     * The number of page reads that needed to read from the file.
+     */
+    private final StripedCounter cacheMisses = new StripedCounter();
+
+    /**
+     * The number of pages of this map that were evicted from the page cache.
+     */
+    private final StripedCounter cacheEvictions = new StripedCounter();
 
     protected MVMap(DataType keyType, DataType valueType) {
         this.keyType = keyType;
@@ -194,6 +216,118 @@ protected Object put(Page p, long writeVersion, Object key, Object value) {
         return result;
     }
 
+    /**
+     * Append entries at the end of the map. The keys need to be sorted, and
+     * larger than all keys of the map. Instead of splitting full pages in the
+     * middle, the pages are filled up to the page split size, and new pages
+     * are added at the right edge of the tree, so that the pages are densely
+     * packed. This is much faster than adding the entries one by one.
+     *
+     * @param keys the keys
+     * @param values the values
+     * @param count the number of entries
+     */
+    public synchronized void appendSorted(Object[] keys, Object[] values,
+            int count) {
+        if (count == 0) {
+            return;
+        }
+        beforeWrite();
+        int limit = store.getPageSplitSize();
+        boolean persistent = store.getFileStore() != null;
+        while (true) {
+            // read the root before the write version, so that the write
+            // version is never older than the root
+            Page r = root;
+            long v = writeVersion;
+            // the pages at the right edge of the tree, from the leaf to the
+            // root, and the pages they replace
+            ArrayList<Page> path = new ArrayList<>();
+            ArrayList<Page> removed = new ArrayList<>();
+            Page old = r;
+            Page p = old.copyKeepOld(v);
+            removed.add(old);
+            path.add(p);
+            while (!p.isLeaf()) {
+                old = p.getChildPage(getChildPageCount(p) - 1);
+                p = old.copyKeepOld(v);
+                removed.add(old);
+                path.add(0, p);
+            }
+            Object last = p.getKeyCount() == 0 ? null :
+                    p.getKey(p.getKeyCount() - 1);
+            DataUtils.checkArgument(last == null || compare(last, keys[0]) < 0,
+                    "The key {0} is not larger than the last key {1}",
+                    keys[0], last);
+            for (int start = 0; start < count;) {
+                Page leaf = path.get(0);
+                int mem = leaf.getMemory();
+                if (mem >= limit) {
+                    appendPage(path, 0, Page.createEmpty(this, v), keys[start],
+                            v, limit);
+                    continue;
+                }
+                int end = start, added = 0;
+                while (end < count && mem + added < limit) {
+                    added += persistent ? keyType.getMemory(keys[end]) +
+                            valueType.getMemory(values[end]) : 1;
+                    end++;
+                }
+                leaf.appendLeaf(keys, values, start, end, added);
+                start = end;
+            }
+            for (int i = 1; i < path.size(); i++) {
+                path.get(i).setLastChild(path.get(i - 1));
+            }
+            if (compareAndSetRoot(r, path.get(path.size() - 1))) {
+                for (Page x : removed) {
+                    x.removePage();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add a new page at the right edge of the tree, after the given page of
+     * the path. If the parent page is full, a new parent page is added.
+     *
+     * @param path the pages at the right edge, from the leaf to the root
+     * @param level the level of the new page (0 for a leaf)
+     * @param page the new page
+     * @param key the smallest key of the new page
+     * @param v the write version
+     * @param limit the page split size
+     */
+    private void appendPage(ArrayList<Page> path, int level, Page page,
+            Object key, long v, int limit) {
+        Page old = path.get(level);
+        if (level == path.size() - 1) {
+            Page.PageReference[] children = {
+                    new Page.PageReference(old, old.getPos(),
+                            old.getTotalCount()),
+                    new Page.PageReference(page, page.getPos(),
+                            page.getTotalCount()) };
+            path.add(Page.create(this, v, new Object[] { key }, null,
+                    children, old.getTotalCount() + page.getTotalCount(), 0));
+        } else {
+            Page parent = path.get(level + 1);
+            parent.setLastChild(old);
+            if (parent.getMemory() >= limit) {
+                Page.PageReference[] children = {
+                        new Page.PageReference(page, page.getPos(),
+                                page.getTotalCount()) };
+                appendPage(path, level + 1, Page.create(this, v,
+                        new Object[0], null, children, page.getTotalCount(), 0),
+                        key, v, limit);
+            } else {
+                parent.insertNode(parent.getKeyCount(), key, old);
+                parent.setChild(getChildPageCount(parent) - 1, page);
+            }
+        }
+        path.set(level, page);
+    }
+
     /**
      * Get the first key, or null if the map is empty.
      *
@@ -642,21 +776,63 @@ protected Object remove(Page p, long writeVersion, Object key) {
     }
 
     /**
-     * Use the new root page from now on.
+     * Use the new root page from now on. This method must only be called
+     * while holding the lock of this map. The root is then not replaced by
+     * other threads, because MVMap only changes the root while holding this
+     * lock, and MVMapConcurrent, which changes it without the lock, does not
+     * use this method, but copies the changed pages again and retries
+     * compareAndSetRoot if another thread replaced the root.
      *
      * @param newRoot the new root page
      */
     protected void newRoot(Page newRoot) {
-        if (root != newRoot) {
+        Page r = root;
+        if (r == newRoot) {
+            return;
+        }
+        synchronized (oldRoots) {
             removeUnusedOldVersions();
-            if (root.getVersion() != newRoot.getVersion()) {
+        }
+        if (!compareAndSetRoot(r, newRoot)) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_INTERNAL,
+                    "The root of map {0} was replaced concurrently", id);
+        }
+    }
+
+    /**
+     * Use the new root page from now on, but only if the current root is
+     * still the expected page. If the version changes, the old root is
+     * remembered, so that the old version can still be read. If this map is
+     * not logged, the version of the change is tracked by the store.
+     *
+     * @param expectedRoot the root page the new root is based on
+     * @param newRoot the new root page
+     * @return whether the root was replaced
+     */
+    protected boolean compareAndSetRoot(Page expectedRoot, Page newRoot) {
+        if (expectedRoot.getVersion() == newRoot.getVersion()) {
+            if (!ROOT_UPDATER.compareAndSet(this, expectedRoot, newRoot)) {
+                return false;
+            }
+        } else {
+            // the old roots need to stay in version order
+            synchronized (oldRoots) {
+                if (!ROOT_UPDATER.compareAndSet(this, expectedRoot, newRoot)) {
+                    return false;
+                }
+                removeUnusedOldVersions();
                 Page last = oldRoots.peekLast();
-                if (last == null || last.getVersion() != root.getVersion()) {
-                    oldRoots.add(root);
+                if (last == null ||
+                        last.getVersion() != expectedRoot.getVersion()) {
+                    oldRoots.add(expectedRoot);
                 }
             }
-            root = newRoot;
         }
+        if (!isLogged) {
+            store.markUnlogged(newRoot.getVersion());
+        }
+        return true;
     }
 
     /**
@@ -921,6 +1097,52 @@ public int getId() {
         return id;
     }
 
+    /**
+     * Get the number of page reads of this map that were served by the page
+     * cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Get the number of page reads of this map that needed to read the page
+     * from the file.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Get the number of pages of this map that were evicted from the page
+     * cache because the cache was full.
+     *
+     * @return the number of evicted pages
+     */
+    public long getCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    /**
+     * Count a page read.
+     *
+     * @param hit whether the page was found in the cache
+     */
+    void countPageRead(boolean hit) {
+        (hit ? cacheHits : cacheMisses).increment();
+    }
+
+    /**
+     * Count a page that was evicted from the cache.
+     */
+    void countPageEviction() {
+        cacheEvictions.increment();
+    }
+
     /**
      * Rollback to the given version.
      *
@@ -931,16 +1153,22 @@ void rollbackTo(long version) {
         if (version <= createVersion) {
             // the map is removed later
         } else if (root.getVersion() >= version) {
-            while (true) {
-                Page last = oldRoots.peekLast();
-                if (last == null) {
-                    break;
-                }
-                // slow, but rollback is not a common operation
-                oldRoots.removeLast(last);
-                root = last;
-                if (root.getVersion() < version) {
-                    break;
+            // the old roots are changed with the same lock
+            // as in compareAndSetRoot
+            synchronized (oldRoots) {
+                while (true) {
+                    Page r = root;
+                    if (r.getVersion() < version) {
+                        break;
+                    }
+                    Page last = oldRoots.peekLast();
+                    if (last == null) {
+                        break;
+                    }
+                    // slow, but rollback is not a common operation
+                    if (ROOT_UPDATER.compareAndSet(this, r, last)) {
+                        oldRoots.removeLast(last);
+                    }
                 }
             }
         }
@@ -988,6 +1216,28 @@ public boolean isVolatile() {
         return isVolatile;
     }
 
+    /**
+     * Set the logged flag of the map.
+     *
+     * @param isLogged the logged flag
+     */
+    public void setLogged(boolean isLogged) {
+        this.isLogged = isLogged;
+    }
+
+    /**
+     * Whether the changes of this map are made durable without syncing the
+     * store, for example by writing them to a redo log, or because they don't
+     * need to be durable. The versions in which maps that are not logged were
+     * changed are tracked; see MVStore.hasUnloggedChanges. By default, maps
+     * are not logged.
+     *
+     * @return whether this map is logged
+     */
+    public boolean isLogged() {
+        return isLogged;
+    }
+
     /**
      * This method is called before writing to the map. The default
      * implementation checks whether writing is allowed, and tries
@@ -1172,7 +1422,7 @@ void setWriteVersion(long writeVersion) {
      *
      * @param sourceMap the source map
      */
-    void copyFrom(MVMap<K, V> sourceMap) {
+    synchronized void copyFrom(MVMap<K, V> sourceMap) {
         beforeWrite();
         newRoot(copy(sourceMap.root, null));
     }
@@ -5,21 +5,254 @@
  */
 package org.h2.mvstore;
 
+import java.util.ArrayList;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
 
 /**
- * A class used for backward compatibility.
+ * A stored map that supports concurrent write operations without locking.
+ * <p>
+ * Each write operation copies the path from the root to the affected leaf,
+ * based on the current root page, and then replaces the root using a
+ * compare-and-set operation. If another thread replaced the root in the
+ * meantime, the operation is repeated. Readers are never blocked, and writers
+ * only need to retry if they conflict with another writer.
  *
  * @param <K> the key type
  * @param <V> the value type
  */
 public class MVMapConcurrent<K, V> extends MVMap<K, V> {
 
+    /**
+     * Always apply the change.
+     */
+    private static final int ALWAYS = 0;
+
+    /**
+     * Only apply the change if there is no entry for the key.
+     */
+    private static final int IF_ABSENT = 1;
+
+    /**
+     * Only apply the change if there is an entry for the key.
+     */
+    private static final int IF_PRESENT = 2;
+
+    /**
+     * Only apply the change if the old value matches the expected value.
+     */
+    private static final int IF_EQUAL = 3;
+
     public MVMapConcurrent(DataType keyType, DataType valueType) {
         super(keyType, valueType);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return (V) update(key, null, value, ALWAYS);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return (V) update(key, null, value, IF_ABSENT);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        return (V) update(key, null, null, ALWAYS);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Object old = update(key, value, null, IF_EQUAL);
+        return old != null && areValuesEqual(old, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        DataUtils.checkArgument(newValue != null, "The value may not be null");
+        Object old = update(key, oldValue, newValue, IF_EQUAL);
+        return areValuesEqual(old, oldValue);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V replace(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return (V) update(key, null, value, IF_PRESENT);
+    }
+
+    @Override
+    public void clear() {
+        beforeWrite();
+        while (true) {
+            Page r = root;
+            Page p = Page.createEmpty(this, writeVersion);
+            if (compareAndSetRoot(r, p)) {
+                r.removeAllRecursive();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add, replace or remove an entry, if the condition is met. The change is
+     * applied to a copy of the current root, which is then published with a
+     * compare-and-set operation; this is repeated until it succeeds.
+     *
+     * @param key the key
+     * @param expected the expected old value (only used for IF_EQUAL)
+     * @param value the new value, or null to remove the entry
+     * @param condition the condition
+     * @return the old value (even if the change was not applied), or null
+     */
+    private Object update(Object key, Object expected, Object value,
+            int condition) {
+        beforeWrite();
+        while (true) {
+            // read the root before the write version, so that the write
+            // version is never older than the root
+            Page r = root;
+            long v = writeVersion;
+            Object old = binarySearch(r, key);
+            boolean apply;
+            switch (condition) {
+            case IF_ABSENT:
+                apply = old == null;
+                break;
+            case IF_PRESENT:
+                apply = old != null;
+                break;
+            case IF_EQUAL:
+                apply = areValuesEqual(old, expected);
+                break;
+            default:
+                apply = true;
+            }
+            if (!apply || (value == null && old == null)) {
+                return old;
+            }
+            // pages of the old root are only marked as removed
+            // once the new root is in use
+            ArrayList<Page> removed = new ArrayList<>();
+            Page p = r.copyKeepOld(v);
+            removed.add(r);
+            if (value == null) {
+                remove(p, v, key, removed);
+                if (!p.isLeaf() && p.getTotalCount() == 0) {
+                    removed.add(p);
+                    p = Page.createEmpty(this, p.getVersion());
+                }
+            } else {
+                p = splitRootIfNeeded(p, v);
+                put(p, v, key, value, removed);
+            }
+            if (compareAndSetRoot(r, p)) {
+                for (Page x : removed) {
+                    x.removePage();
+                }
+                return old;
+            }
+        }
+    }
+
+    /**
+     * Add or update a key-value pair in a page that is not yet visible to
+     * other threads.
+     *
+     * @param p the page
+     * @param writeVersion the write version
+     * @param key the key (may not be null)
+     * @param value the value (may not be null)
+     * @param removed the list of replaced pages
+     */
+    private void put(Page p, long writeVersion, Object key, Object value,
+            ArrayList<Page> removed) {
+        int index = p.binarySearch(key);
+        if (p.isLeaf()) {
+            if (index < 0) {
+                p.insertLeaf(-index - 1, key, value);
+            } else {
+                p.setValue(index, value);
+            }
+            return;
+        }
+        // p is a node
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            index++;
+        }
+        Page cOld = p.getChildPage(index);
+        Page c = cOld.copyKeepOld(writeVersion);
+        removed.add(cOld);
+        if (c.getMemory() > store.getPageSplitSize() && c.getKeyCount() > 1) {
+            // split on the way down
+            int at = c.getKeyCount() / 2;
+            Object k = c.getKey(at);
+            Page split = c.split(at);
+            p.setChild(index, split);
+            p.insertNode(index, k, c);
+            // now we are not sure where to add
+            put(p, writeVersion, key, value, removed);
+            return;
+        }
+        put(c, writeVersion, key, value, removed);
+        p.setChild(index, c);
+    }
+
+    /**
+     * Remove a key-value pair from a page that is not yet visible to other
+     * threads.
+     *
+     * @param p the page (may not be null)
+     * @param writeVersion the write version
+     * @param key the key
+     * @param removed the list of replaced pages
+     * @return the old value, or null if the key did not exist
+     */
+    private Object remove(Page p, long writeVersion, Object key,
+            ArrayList<Page> removed) {
+        int index = p.binarySearch(key);
+        Object result = null;
+        if (p.isLeaf()) {
+            if (index >= 0) {
+                result = p.getValue(index);
+                p.remove(index);
+            }
+            return result;
+        }
+        // node
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            index++;
+        }
+        Page cOld = p.getChildPage(index);
+        Page c = cOld.copyKeepOld(writeVersion);
+        removed.add(cOld);
+        result = remove(c, writeVersion, key, removed);
+        if (result == null || c.getTotalCount() != 0) {
+            // no change, or
+            // there are more nodes
+            p.setChild(index, c);
+        } else {
+            // this child was deleted
+            if (p.getKeyCount() == 0) {
+                p.setChild(index, c);
+                removed.add(c);
+            } else {
+                p.remove(index);
+            }
+        }
+        return result;
+    }
+
     /**
      * A builder for this class.
      *
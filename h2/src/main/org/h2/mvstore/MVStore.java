@@ -19,11 +19,15 @@
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 import org.h2.compress.CompressDeflate;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
 import org.h2.mvstore.Page.PageChildren;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
+import org.h2.mvstore.cache.CacheLongKeyOffHeap;
 import org.h2.mvstore.type.StringDataType;
 import org.h2.util.MathUtils;
 import org.h2.util.New;
@@ -143,6 +147,12 @@ public final class MVStore {
      */
     private static final int MARKED_FREE = 10_000_000;
 
+    /**
+     * The minimum estimated memory of the unsaved pages to compress them
+     * using multiple threads.
+     */
+    private static final int PARALLEL_WRITE_MIN_MEMORY = 1024 * 1024;
+
     /**
      * The background thread, if any.
      */
@@ -171,6 +181,12 @@ public final class MVStore {
      */
     private final CacheLongKeyLIRS<PageChildren> cacheChunkRef;
 
+    /**
+     * The second level page cache, which keeps the serialized pages in
+     * off-heap memory, or null if disabled.
+     */
+    private final CacheLongKeyOffHeap offHeapCache;
+
     /**
      * The newest chunk. If nothing was stored yet, this field is not set.
      */
@@ -222,6 +238,18 @@ public final class MVStore {
 
     private Compressor compressorHigh;
 
+    /**
+     * The number of threads that serialize and compress the changed pages
+     * when storing a large chunk (0 or 1 to use only the storing thread).
+     */
+    private final int writeThreads;
+
+    /**
+     * The threads that help the storing thread to serialize the pages, or
+     * null if not yet needed.
+     */
+    private ForkJoinPool writePool;
+
     private final UncaughtExceptionHandler backgroundExceptionHandler;
 
     private volatile long currentVersion;
@@ -231,6 +259,16 @@ public final class MVStore {
      */
     private long lastStoredVersion;
 
+    /**
+     * The last stored version that is known to be synced.
+     */
+    private volatile long lastSyncedVersion;
+
+    /**
+     * The last version in which a map that is not logged was changed, or -1.
+     */
+    private final AtomicLong lastUnloggedVersion = new AtomicLong(-1);
+
     /**
      * The estimated memory used by unsaved pages. This number is not accurate,
      * also because it may be changed concurrently, and because temporary pages
@@ -277,8 +315,43 @@ public final class MVStore {
     private final int autoCompactFillRate;
     private long autoCompactLastFileOpCount;
 
+    /**
+     * The maximum number of KB per second to re-write when compacting in the
+     * background, or 0 if unlimited.
+     */
+    private final int autoCompactRate;
+
+    /**
+     * The number of bytes that may be re-written by the background compaction
+     * at the moment. It is negative if more was written than allowed.
+     */
+    private long compactBudget;
+    private long compactBudgetTime;
+
+    private long compactChunkCount;
+    private long compactByteCount;
+
     private final Object compactSync = new Object();
 
+    /**
+     * The lock for group commit. Threads that want to sync wait on this
+     * object while another thread syncs.
+     */
+    private final Object groupCommitSync = new Object();
+
+    /**
+     * The number of calls to commitAndSync so far.
+     */
+    private long groupCommitRequested;
+
+    /**
+     * The number of calls to commitAndSync whose changes are synced.
+     */
+    private long groupCommitDone;
+
+    private boolean groupCommitRunning;
+    private long groupCommitSyncCount;
+
     private IllegalStateException panicException;
 
     private long lastTimeAbsolute;
@@ -295,6 +368,7 @@ public final class MVStore {
      */
     MVStore(Map<String, Object> config) {
         this.compressionLevel = DataUtils.getConfigParam(config, "compress", 0);
+        this.writeThreads = DataUtils.getConfigParam(config, "writeThreads", 0);
         String fileName = (String) config.get("fileName");
         FileStore fileStore = (FileStore) config.get("fileStore");
         fileStoreIsProvided = fileStore != null;
@@ -318,13 +392,26 @@ public final class MVStore {
             pgSplitSize = 16 * 1024;
         }
         if (cc != null) {
-            cache = new CacheLongKeyLIRS<>(cc);
+            cache = new CacheLongKeyLIRS<Page>(cc) {
+                @Override
+                protected void onEvict(long key, Page page) {
+                    page.getMap().countPageEviction();
+                }
+            };
             cc.maxMemory /= 4;
             cacheChunkRef = new CacheLongKeyLIRS<>(cc);
         } else {
             cache = null;
             cacheChunkRef = null;
         }
+        int offHeapMb = this.fileStore == null ? 0 :
+                DataUtils.getConfigParam(config, "offHeapCacheSize", 0);
+        if (offHeapMb > 0) {
+            offHeapCache = new CacheLongKeyOffHeap(offHeapMb * 1024L * 1024L,
+                    cc == null ? 16 : cc.segmentCount);
+        } else {
+            offHeapCache = null;
+        }
 
         pgSplitSize = DataUtils.getConfigParam(config, "pageSplitSize", pgSplitSize);
         // Make sure pages will fit into cache
@@ -337,12 +424,16 @@ public final class MVStore {
         meta = new MVMap<>(StringDataType.INSTANCE,
                 StringDataType.INSTANCE);
         meta.init(this, 0, currentVersion);
+        // the users of the maps mark the creation of a map if needed,
+        // so that creating a temporary map doesn't need a sync
+        meta.setLogged(true);
         if (this.fileStore != null) {
             retentionTime = this.fileStore.getDefaultRetentionTime();
             int kb = DataUtils.getConfigParam(config, "autoCommitBufferSize", 1024);
             // 19 KB memory is about 1 KB storage
             autoCommitMemory = kb * 1024 * 19;
             autoCompactFillRate = DataUtils.getConfigParam(config, "autoCompactFillRate", 40);
+            autoCompactRate = DataUtils.getConfigParam(config, "autoCompactRate", 0);
             char[] encryptionKey = (char[]) config.get("encryptionKey");
             try {
                 if (!fileStoreIsProvided) {
@@ -368,6 +459,9 @@ public final class MVStore {
                 }
             }
             lastCommitTime = getTimeSinceCreation();
+            // what was read from the file is durable; new changes use the
+            // current version
+            lastSyncedVersion = currentVersion - 1;
 
             // setAutoCommitDelay starts the thread, but only if
             // the parameter is different from the old value
@@ -376,6 +470,7 @@ public final class MVStore {
         } else {
             autoCommitMemory = 0;
             autoCompactFillRate = 0;
+            autoCompactRate = 0;
         }
     }
 
@@ -494,6 +589,15 @@ public synchronized Set<String> getMapNames() {
         return set;
     }
 
+    /**
+     * Get the list of maps that are currently open.
+     *
+     * @return the open maps
+     */
+    public ArrayList<MVMap<?, ?>> getOpenMaps() {
+        return new ArrayList<>(maps.values());
+    }
+
     /**
      * Get the metadata map. This data is for informational purposes only. The
      * data is subject to change in future versions.
@@ -880,6 +984,13 @@ private void closeStore(boolean shrinkIfPossible) {
             if (cacheChunkRef != null) {
                 cacheChunkRef.clear();
             }
+            if (offHeapCache != null) {
+                offHeapCache.clear();
+            }
+            if (writePool != null) {
+                writePool.shutdown();
+                writePool = null;
+            }
             for (MVMap<?, ?> m : new ArrayList<>(maps.values())) {
                 m.close();
             }
@@ -1099,13 +1210,23 @@ private long storeNowTry() {
         c.pageCountLive = 0;
         c.maxLen = 0;
         c.maxLenLive = 0;
+        if (writeThreads > 1 && compressionLevel > 0 &&
+                currentUnsavedPageCount >= PARALLEL_WRITE_MIN_MEMORY) {
+            writeUnsavedParallel(c, buff, changed);
+        } else {
+            for (MVMap<?, ?> m : changed) {
+                Page p = m.getRoot();
+                if (p.getTotalCount() > 0) {
+                    p.writeUnsavedRecursive(c, buff);
+                }
+            }
+        }
         for (MVMap<?, ?> m : changed) {
             Page p = m.getRoot();
             String key = MVMap.getMapRootKey(m.getId());
             if (p.getTotalCount() == 0) {
                 meta.put(key, "0");
             } else {
-                p.writeUnsavedRecursive(c, buff);
                 long root = p.getPos();
                 meta.put(key, Long.toHexString(root));
             }
@@ -1226,6 +1347,79 @@ private long storeNowTry() {
         return version;
     }
 
+    /**
+     * Serialize the changed pages of the given maps, compress them using
+     * multiple threads, and append them to the chunk. The root page and each
+     * changed subtree below the root are compressed separately, so that the
+     * work is also split if only one large map was changed.
+     *
+     * @param c the chunk
+     * @param buff the chunk buffer
+     * @param changed the changed maps
+     */
+    private void writeUnsavedParallel(Chunk c, WriteBuffer buff,
+            ArrayList<MVMap<?, ?>> changed) {
+        PageWriter[] writers = new PageWriter[writeThreads];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new PageWriter(compressionLevel);
+        }
+        int next = 0;
+        for (MVMap<?, ?> m : changed) {
+            Page p = m.getRoot();
+            if (p.getTotalCount() == 0) {
+                continue;
+            }
+            if (p.isLeaf()) {
+                writers[next++ % writers.length].add(p, true);
+                continue;
+            }
+            writers[next++ % writers.length].add(p, false);
+            for (int i = 0, size = p.getRawChildPageCount(); i < size; i++) {
+                Page child = p.getChildPageIfLoaded(i);
+                if (child != null) {
+                    writers[next++ % writers.length].add(child, true);
+                }
+            }
+        }
+        // the data types are only used by this thread
+        for (PageWriter w : writers) {
+            w.serialize();
+        }
+        if (writePool == null) {
+            writePool = new ForkJoinPool(writers.length - 1);
+        }
+        ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>(writers.length);
+        for (int i = 1; i < writers.length; i++) {
+            tasks.add(writePool.submit(writers[i]));
+        }
+        RuntimeException error = null;
+        try {
+            writers[0].call();
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        // the pages may only be used once all writers are done
+        for (ForkJoinTask<Void> t : tasks) {
+            try {
+                t.join();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        int[] offsets = new int[writers.length];
+        for (int i = 0; i < writers.length; i++) {
+            offsets[i] = writers[i].append(c, buff);
+        }
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].writeChildPositions(buff, offsets[i]);
+        }
+    }
+
     /**
      * Try to free unused chunks. This method doesn't directly write, but can
      * change the metadata, and therefore cause a background write.
@@ -1746,10 +1940,111 @@ public void sync() {
         checkOpen();
         FileStore f = fileStore;
         if (f != null) {
+            long v;
+            synchronized (this) {
+                v = lastStoredVersion;
+            }
             f.sync();
+            lastSyncedVersion = Math.max(lastSyncedVersion, v);
+        }
+    }
+
+    /**
+     * Get the last stored version that was synced to disk. Changes of maps
+     * with a newer version could be lost if the operating system crashes.
+     *
+     * @return the version
+     */
+    public long getLastSyncedVersion() {
+        return lastSyncedVersion;
+    }
+
+    /**
+     * Remember that a change was made in the given version that needs the
+     * store to be synced to be durable. This is done automatically when a map
+     * that is not logged is changed.
+     *
+     * @param v the version of the change
+     */
+    public void markUnlogged(long v) {
+        while (true) {
+            long last = lastUnloggedVersion.get();
+            if (last >= v || lastUnloggedVersion.compareAndSet(last, v)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check whether a map that is not logged was changed, or a change was
+     * marked with markUnlogged, in a version that was not synced yet.
+     *
+     * @return true if there are such changes
+     */
+    public boolean hasUnloggedChanges() {
+        return lastUnloggedVersion.get() > lastSyncedVersion;
+    }
+
+    /**
+     * Commit and save all changes, and force them to disk. Concurrent calls
+     * are grouped: while one thread stores and syncs, the other threads wait.
+     * Then one of the waiting threads stores and syncs once for all of them,
+     * and the others return as soon as this is done.
+     * <p>
+     * All changes made before calling this method are durable when this
+     * method returns.
+     */
+    public void commitAndSync() {
+        long ticket;
+        synchronized (groupCommitSync) {
+            ticket = ++groupCommitRequested;
+            while (true) {
+                if (groupCommitDone >= ticket) {
+                    // another thread synced the changes
+                    return;
+                }
+                if (!groupCommitRunning) {
+                    groupCommitRunning = true;
+                    break;
+                }
+                try {
+                    groupCommitSync.wait();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }
+        long done = ticket;
+        try {
+            synchronized (groupCommitSync) {
+                // the changes of all threads that arrived so far were made
+                // before they arrived, so they are stored as well
+                done = groupCommitRequested;
+            }
+            commit();
+            sync();
+            synchronized (groupCommitSync) {
+                groupCommitDone = Math.max(groupCommitDone, done);
+                groupCommitSyncCount++;
+            }
+        } finally {
+            synchronized (groupCommitSync) {
+                // if storing failed, another waiting thread tries again
+                groupCommitRunning = false;
+                groupCommitSync.notifyAll();
+            }
         }
     }
 
+    /**
+     * Get the number of times the file was synced by commitAndSync.
+     *
+     * @return the number of syncs
+     */
+    public long getGroupCommitSyncCount() {
+        return groupCommitSyncCount;
+    }
+
     /**
      * Try to increase the fill rate by re-writing partially full chunks. Chunks
      * with a low number of live items are re-written.
@@ -1769,8 +2064,23 @@ public void sync() {
      * @return if a chunk was re-written
      */
     public boolean compact(int targetFillRate, int write) {
+        return compactStep(targetFillRate, write) > 0;
+    }
+
+    /**
+     * Re-write the chunks with a low fill rate, until about the given number
+     * of bytes were written. The store lock is only held while selecting the
+     * chunks and while storing the changes; the live pages are moved like
+     * regular changes.
+     *
+     * @param targetFillRate the minimum percentage of live entries
+     * @param write the minimum number of bytes to write
+     * @return the number of live bytes in the re-written chunks, or 0 if
+     *         nothing was re-written
+     */
+    private long compactStep(int targetFillRate, long write) {
         if (!reuseSpace) {
-            return false;
+            return 0;
         }
         synchronized (compactSync) {
             checkOpen();
@@ -1779,13 +2089,63 @@ public boolean compact(int targetFillRate, int write) {
                 old = compactGetOldChunks(targetFillRate, write);
             }
             if (old == null || old.isEmpty()) {
-                return false;
+                return 0;
             }
-            compactRewrite(old);
-            return true;
+            long live = 0;
+            for (Chunk c : old) {
+                live += c.maxLenLive;
+            }
+            if (compactRewrite(old)) {
+                compactChunkCount += old.size();
+                compactByteCount += live;
+            }
+            // at least one byte, so that the caller knows something was
+            // written
+            return Math.max(live, 1);
         }
     }
 
+    /**
+     * Re-write chunks with a low fill rate in small steps, so that on average
+     * at most the configured number of bytes per second is written. Unused
+     * allowance is kept for at most one second, so that the compaction does
+     * not write a burst after an idle period.
+     *
+     * @param targetFillRate the minimum percentage of live entries
+     */
+    private void compactIncremental(int targetFillRate) {
+        long time = getTimeSinceCreation();
+        long rate = autoCompactRate * 1024L;
+        long elapsed = Math.max(0, time - compactBudgetTime);
+        compactBudget = Math.min(compactBudget + elapsed * rate / 1000, rate);
+        compactBudgetTime = time;
+        if (compactBudget > 0) {
+            // a chunk that is larger than the allowance is re-written as a
+            // whole; the following steps wait until it is paid back
+            compactBudget -= compactStep(targetFillRate, compactBudget);
+        }
+    }
+
+    /**
+     * Get the number of chunks that were re-written by compaction since the
+     * store was opened.
+     *
+     * @return the number of chunks
+     */
+    public long getCompactChunkCount() {
+        return compactChunkCount;
+    }
+
+    /**
+     * Get the number of live bytes that were moved by compaction since the
+     * store was opened.
+     *
+     * @return the number of bytes
+     */
+    public long getCompactByteCount() {
+        return compactByteCount;
+    }
+
     /**
      * Get the current fill rate (percentage of used space in the file). Unlike
      * the fill rate of the store, here we only account for chunk data; the fill
@@ -1819,7 +2179,7 @@ public int getCurrentFillRate() {
         return fillRate;
     }
 
-    private ArrayList<Chunk> compactGetOldChunks(int targetFillRate, int write) {
+    private ArrayList<Chunk> compactGetOldChunks(int targetFillRate, long write) {
         if (lastChunk == null) {
             // nothing to do
             return null;
@@ -1891,7 +2251,7 @@ public int compare(Chunk o1, Chunk o2) {
         return old;
     }
 
-    private void compactRewrite(ArrayList<Chunk> old) {
+    private boolean compactRewrite(ArrayList<Chunk> old) {
         HashSet<Integer> set = new HashSet<>();
         for (Chunk c : old) {
             set.add(c.id);
@@ -1900,14 +2260,15 @@ private void compactRewrite(ArrayList<Chunk> old) {
             @SuppressWarnings("unchecked")
             MVMap<Object, Object> map = (MVMap<Object, Object>) m;
             if (!map.rewrite(set)) {
-                return;
+                return false;
             }
         }
         if (!meta.rewrite(set)) {
-            return;
+            return false;
         }
         freeUnusedChunks();
         commitAndSave();
+        return true;
     }
 
     /**
@@ -1923,17 +2284,32 @@ Page readPage(MVMap<?, ?> map, long pos) {
                     DataUtils.ERROR_FILE_CORRUPT, "Position 0");
         }
         Page p = cache == null ? null : cache.get(pos);
+        map.countPageRead(p != null);
         if (p == null) {
-            Chunk c = getChunk(pos);
-            long filePos = c.block * BLOCK_SIZE;
-            filePos += DataUtils.getPageOffset(pos);
-            if (filePos < 0) {
-                throw DataUtils.newIllegalStateException(
-                        DataUtils.ERROR_FILE_CORRUPT,
-                        "Negative position {0}", filePos);
+            ByteBuffer buff = offHeapCache == null ? null : offHeapCache.get(pos);
+            if (buff == null) {
+                Chunk c = getChunk(pos);
+                long filePos = c.block * BLOCK_SIZE;
+                filePos += DataUtils.getPageOffset(pos);
+                if (filePos < 0) {
+                    throw DataUtils.newIllegalStateException(
+                            DataUtils.ERROR_FILE_CORRUPT,
+                            "Negative position {0}", filePos);
+                }
+                long maxPos = (c.block + c.len) * BLOCK_SIZE;
+                buff = Page.readBuffer(fileStore, pos, filePos, maxPos);
+                if (offHeapCache != null) {
+                    // the buffer can contain more than the page
+                    int start = buff.position();
+                    int pageLength = buff.getInt(start);
+                    if (pageLength >= 4 && pageLength <= buff.remaining()) {
+                        ByteBuffer data = buff.duplicate();
+                        data.limit(start + pageLength);
+                        offHeapCache.put(pos, data);
+                    }
+                }
             }
-            long maxPos = (c.block + c.len) * BLOCK_SIZE;
-            p = Page.read(fileStore, pos, map, filePos, maxPos);
+            p = Page.read(buff, pos, map);
             cachePage(pos, p, p.getMemory());
         }
         return p;
@@ -1969,6 +2345,11 @@ void removePage(MVMap<?, ?> map, long pos, int memory) {
                 cache.remove(pos);
             }
         }
+        if (offHeapCache != null) {
+            if (DataUtils.getPageType(pos) == DataUtils.PAGE_TYPE_LEAF) {
+                offHeapCache.remove(pos);
+            }
+        }
 
         Chunk c = getChunk(pos);
         long version = currentVersion;
@@ -2492,7 +2873,11 @@ void writeInBackground() {
                 }
                 // use a lower fill rate if there were any file operations
                 int targetFillRate = fileOps ? autoCompactFillRate / 3 : autoCompactFillRate;
-                compact(targetFillRate, autoCommitMemory);
+                if (autoCompactRate > 0) {
+                    compactIncremental(targetFillRate);
+                } else {
+                    compact(targetFillRate, autoCommitMemory);
+                }
                 autoCompactLastFileOpCount = fileStore.getWriteCount() + fileStore.getReadCount();
             }
         } catch (Throwable e) {
@@ -2629,7 +3014,10 @@ public int getUnsavedMemory() {
      */
     void cachePage(long pos, Page page, int memory) {
         if (cache != null) {
-            cache.put(pos, page, memory);
+            // inner nodes are used by every operation on the map,
+            // so they are kept in the cache even if many leaves are read
+            boolean node = DataUtils.getPageType(pos) == DataUtils.PAGE_TYPE_NODE;
+            cache.put(pos, page, memory, node);
         }
     }
 
@@ -2670,6 +3058,15 @@ public CacheLongKeyLIRS<Page> getCache() {
         return cache;
     }
 
+    /**
+     * Get the off-heap page cache.
+     *
+     * @return the off-heap cache, or null if disabled
+     */
+    public CacheLongKeyOffHeap getOffHeapCache() {
+        return offHeapCache;
+    }
+
     /**
      * Whether the store is read-only.
      *
@@ -2789,6 +3186,22 @@ public Builder autoCompactFillRate(int percent) {
             return set("autoCompactFillRate", percent);
         }
 
+        /**
+         * Set the maximum number of KB per second that the background thread
+         * re-writes when compacting. Chunks are then re-written in small steps,
+         * so that compaction does not delay concurrent commits for a long
+         * time.
+         * <p>
+         * The default value is 0, which means the background thread re-writes
+         * about as much as the auto-commit buffer in one step.
+         *
+         * @param kb the maximum number of KB per second
+         * @return this
+         */
+        public Builder autoCompactRate(int kb) {
+            return set("autoCompactRate", kb);
+        }
+
         /**
          * Use the following file name. If the file does not exist, it is
          * automatically created. The parent directory already must exist.
@@ -2852,6 +3265,23 @@ public Builder cacheConcurrency(int concurrency) {
             return set("cacheConcurrency", concurrency);
         }
 
+        /**
+         * Set the size of the off-heap page cache in MB. The default is 0,
+         * meaning this cache is disabled.
+         * <p>
+         * This second level cache keeps the serialized pages in the off-heap
+         * area of the main memory, so that pages that are no longer in the
+         * read cache don't need to be read from the file again. Its size is
+         * not limited by the Java heap, but by the JVM option
+         * -XX:MaxDirectMemorySize.
+         *
+         * @param mb the cache size in megabytes
+         * @return this
+         */
+        public Builder offHeapCacheSize(int mb) {
+            return set("offHeapCacheSize", mb);
+        }
+
         /**
          * Compress data before writing using the LZF algorithm. This will save
          * about 50% of the disk space, but will slow down read and write
@@ -2882,6 +3312,20 @@ public Builder compressHigh() {
             return set("compress", 2);
         }
 
+        /**
+         * Set the number of threads that compress the changed pages when
+         * storing a large chunk. The default is 0, meaning the pages are
+         * compressed by the thread that stores the chunk. The pages are always
+         * serialized by that thread, so this is only used if compression is
+         * enabled.
+         *
+         * @param threads the number of threads
+         * @return this
+         */
+        public Builder writeThreads(int threads) {
+            return set("writeThreads", threads);
+        }
+
         /**
          * Set the amount of memory a page should contain at most, in bytes,
          * before it is split. The default is 16 KB for persistent stores and 4
@@ -6,6 +6,7 @@
 package org.h2.mvstore;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
 import org.h2.compress.Compressor;
 import org.h2.mvstore.type.DataType;
@@ -152,16 +153,16 @@ public static Page create(MVMap<?, ?> map, long version, Page source) {
     }
 
     /**
-     * Read a page.
+     * Read the serialized data of a page from the file. The buffer may
+     * contain more data than the page.
      *
      * @param fileStore the file store
      * @param pos the position
-     * @param map the map
      * @param filePos the position in the file
      * @param maxPos the maximum position (the end of the chunk)
-     * @return the page
+     * @return the buffer
      */
-    static Page read(FileStore fileStore, long pos, MVMap<?, ?> map,
+    static ByteBuffer readBuffer(FileStore fileStore, long pos,
             long filePos, long maxPos) {
         ByteBuffer buff;
         int maxLength = DataUtils.getPageMaxLength(pos);
@@ -178,12 +179,23 @@ static Page read(FileStore fileStore, long pos, MVMap<?, ?> map,
                     "Illegal page length {0} reading at {1}; max pos {2} ",
                     length, filePos, maxPos);
         }
-        buff = fileStore.readFully(filePos, length);
+        return fileStore.readFully(filePos, length);
+    }
+
+    /**
+     * Read a page from the given buffer.
+     *
+     * @param buff the buffer, starting with the page
+     * @param pos the position
+     * @param map the map
+     * @return the page
+     */
+    static Page read(ByteBuffer buff, long pos, MVMap<?, ?> map) {
         Page p = new Page(map, 0);
         p.pos = pos;
         int chunkId = DataUtils.getPageChunkId(pos);
         int offset = DataUtils.getPageOffset(pos);
-        p.read(buff, chunkId, offset, maxLength);
+        p.read(buff, chunkId, offset, buff.remaining());
         return p;
     }
 
@@ -208,6 +220,16 @@ public Page getChildPage(int index) {
         return ref.page != null ? ref.page : map.readPage(ref.pos);
     }
 
+    /**
+     * Get the child page at the given index, if it is in memory.
+     *
+     * @param index the index
+     * @return the child page, or null if not in memory
+     */
+    Page getChildPageIfLoaded(int index) {
+        return children[index].page;
+    }
+
     /**
      * Get the position of the child.
      *
@@ -237,6 +259,15 @@ public int getKeyCount() {
         return keys.length;
     }
 
+    /**
+     * Get the map this page belongs to.
+     *
+     * @return the map
+     */
+    MVMap<?, ?> getMap() {
+        return map;
+    }
+
     /**
      * Check whether this is a leaf page.
      *
@@ -290,12 +321,26 @@ public String toString() {
      * @return a page with the given version
      */
     public Page copy(long version) {
+        Page newPage = copyKeepOld(version);
+        // mark the old as deleted
+        removePage();
+        return newPage;
+    }
+
+    /**
+     * Create a copy of this page, without marking this page as removed. This
+     * is used when the copy might be discarded (for example if another thread
+     * replaced the root concurrently); the caller needs to call removePage
+     * once the copy is in use.
+     *
+     * @param version the new version
+     * @return a page with the given version
+     */
+    Page copyKeepOld(long version) {
         Page newPage = create(map, version,
                 keys, values,
                 children, totalCount,
                 memory);
-        // mark the old as deleted
-        removePage();
         newPage.cachedCompare = cachedCompare;
         return newPage;
     }
@@ -568,6 +613,45 @@ public void insertLeaf(int index, Object key, Object value) {
         }
     }
 
+    /**
+     * Append key-value pairs at the end of this leaf.
+     *
+     * @param newKeys the keys
+     * @param newValues the values
+     * @param start the index of the first entry to append
+     * @param end the index after the last entry to append
+     * @param mem the memory used by the new entries
+     */
+    void appendLeaf(Object[] newKeys, Object[] newValues, int start, int end,
+            int mem) {
+        int len = keys.length, n = end - start;
+        Object[] k = Arrays.copyOf(keys, len + n);
+        System.arraycopy(newKeys, start, k, len, n);
+        keys = k;
+        Object[] v = Arrays.copyOf(values, len + n);
+        System.arraycopy(newValues, start, v, len, n);
+        values = v;
+        totalCount += n;
+        if (isPersistent()) {
+            addMemory(mem);
+        }
+    }
+
+    /**
+     * Replace the last child page of this node. Unlike setChild, the total
+     * count is also updated if the child page is the same object, but was
+     * changed in the meantime.
+     *
+     * @param c the new child page
+     */
+    void setLastChild(Page c) {
+        int index = children.length - 1;
+        long oldCount = children[index].count;
+        children = children.clone();
+        children[index] = new PageReference(c, c.pos, c.totalCount);
+        totalCount += c.totalCount - oldCount;
+    }
+
     /**
      * Insert a child page into this node.
      *
@@ -726,6 +810,33 @@ void read(ByteBuffer buff, int chunkId, int offset, int maxLength) {
      */
     private int write(Chunk chunk, WriteBuffer buff) {
         int start = buff.position();
+        MVStore store = map.getStore();
+        int compressionLevel = store.getCompressionLevel();
+        Compressor compressor = null;
+        if (compressionLevel == 1) {
+            compressor = store.getCompressorFast();
+        } else if (compressionLevel > 1) {
+            compressor = store.getCompressorHigh();
+        }
+        int compressStart = writeData(buff);
+        int typePos = getTypePos(start);
+        if (compressor != null) {
+            compress(buff, typePos, compressStart, compressor,
+                    compressionLevel);
+        }
+        setWritten(chunk, buff, start, buff.position() - start);
+        return typePos + 1;
+    }
+
+    /**
+     * Serialize the page to the current position of the buffer, without
+     * compressing it. The page length and check value are not yet set, and
+     * the positions of the child pages are not yet written.
+     *
+     * @param buff the target buffer
+     * @return the position of the data that may be compressed
+     */
+    int writeData(WriteBuffer buff) {
         int len = keys.length;
         int type = children != null ? DataUtils.PAGE_TYPE_NODE
                 : DataUtils.PAGE_TYPE_LEAF;
@@ -733,7 +844,6 @@ private int write(Chunk chunk, WriteBuffer buff) {
             putShort((byte) 0).
             putVarInt(map.getId()).
             putVarInt(len);
-        int typePos = buff.position();
         buff.put((byte) type);
         if (type == DataUtils.PAGE_TYPE_NODE) {
             writeChildren(buff);
@@ -746,35 +856,72 @@ private int write(Chunk chunk, WriteBuffer buff) {
         if (type == DataUtils.PAGE_TYPE_LEAF) {
             map.getValueType().write(buff, values, len, false);
         }
-        MVStore store = map.getStore();
+        return compressStart;
+    }
+
+    /**
+     * Get the position of the page type within the serialized page. The
+     * positions of the child pages follow the type.
+     *
+     * @param start the start of the serialized page
+     * @return the position of the type
+     */
+    int getTypePos(int start) {
+        return start + 4 + 2 + DataUtils.getVarIntLen(map.getId()) +
+                DataUtils.getVarIntLen(keys.length);
+    }
+
+    /**
+     * Compress the serialized page that ends at the current position of the
+     * buffer, if this makes the page smaller. This method only uses the
+     * buffer, so it may be called by another thread than the one that
+     * serialized the page.
+     *
+     * @param buff the buffer
+     * @param typePos the position of the page type
+     * @param compressStart the position of the data that may be compressed
+     * @param compressor the compressor
+     * @param compressionLevel the compression level (1 for fast, 2 for high)
+     */
+    static void compress(WriteBuffer buff, int typePos, int compressStart,
+            Compressor compressor, int compressionLevel) {
         int expLen = buff.position() - compressStart;
-        if (expLen > 16) {
-            int compressionLevel = store.getCompressionLevel();
-            if (compressionLevel > 0) {
-                Compressor compressor;
-                int compressType;
-                if (compressionLevel == 1) {
-                    compressor = map.getStore().getCompressorFast();
-                    compressType = DataUtils.PAGE_COMPRESSED;
-                } else {
-                    compressor = map.getStore().getCompressorHigh();
-                    compressType = DataUtils.PAGE_COMPRESSED_HIGH;
-                }
-                byte[] exp = new byte[expLen];
-                buff.position(compressStart).get(exp);
-                byte[] comp = new byte[expLen * 2];
-                int compLen = compressor.compress(exp, expLen, comp, 0);
-                int plus = DataUtils.getVarIntLen(compLen - expLen);
-                if (compLen + plus < expLen) {
-                    buff.position(typePos).
-                        put((byte) (type + compressType));
-                    buff.position(compressStart).
-                        putVarInt(expLen - compLen).
-                        put(comp, 0, compLen);
-                }
-            }
+        if (expLen <= 16) {
+            return;
         }
-        int pageLength = buff.position() - start;
+        int compressType;
+        if (compressionLevel == 1) {
+            compressType = DataUtils.PAGE_COMPRESSED;
+        } else {
+            compressType = DataUtils.PAGE_COMPRESSED_HIGH;
+        }
+        byte[] exp = new byte[expLen];
+        buff.position(compressStart).get(exp);
+        byte[] comp = new byte[expLen * 2];
+        int compLen = compressor.compress(exp, expLen, comp, 0);
+        int plus = DataUtils.getVarIntLen(compLen - expLen);
+        if (compLen + plus < expLen) {
+            int type = buff.getBuffer().get(typePos);
+            buff.position(typePos).
+                put((byte) (type + compressType));
+            buff.position(compressStart).
+                putVarInt(expLen - compLen).
+                put(comp, 0, compLen);
+        }
+    }
+
+    /**
+     * Set the length and check value of the serialized page, and assign the
+     * position of the page within the chunk.
+     *
+     * @param chunk the chunk
+     * @param buff the buffer that contains the page
+     * @param start the start of the page within the chunk
+     * @param pageLength the length of the page
+     */
+    void setWritten(Chunk chunk, WriteBuffer buff, int start, int pageLength) {
+        int type = children != null ? DataUtils.PAGE_TYPE_NODE
+                : DataUtils.PAGE_TYPE_LEAF;
         int chunkId = chunk.id;
         int check = DataUtils.getCheckValue(chunkId)
                 ^ DataUtils.getCheckValue(start)
@@ -786,6 +933,7 @@ private int write(Chunk chunk, WriteBuffer buff) {
                     DataUtils.ERROR_INTERNAL, "Page already stored");
         }
         pos = DataUtils.getPagePos(chunkId, start, pageLength, type);
+        MVStore store = map.getStore();
         store.cachePage(pos, this, getMemory());
         if (type == DataUtils.PAGE_TYPE_NODE) {
             // cache again - this will make sure nodes stays in the cache
@@ -803,7 +951,6 @@ private int write(Chunk chunk, WriteBuffer buff) {
             // when the next chunk is stored
             map.removePage(pos, memory);
         }
-        return typePos + 1;
     }
 
     private void writeChildren(WriteBuffer buff) {
@@ -832,14 +979,56 @@ void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff) {
                 Page p = children[i].page;
                 if (p != null) {
                     p.writeUnsavedRecursive(chunk, buff);
-                    children[i] = new PageReference(p, p.getPos(), p.totalCount);
                 }
             }
-            int old = buff.position();
-            buff.position(patch);
-            writeChildren(buff);
-            buff.position(old);
+            writeChildPositions(buff, patch);
+        }
+    }
+
+    /**
+     * Serialize this page and all children that are changed, without
+     * assigning the positions. This method may be called concurrently for
+     * pages of different subtrees.
+     *
+     * @param writer the writer
+     * @param recursive whether to serialize the changed children as well
+     */
+    void writeUnsavedData(PageWriter writer, boolean recursive) {
+        if (pos != 0) {
+            // already stored before
+            return;
+        }
+        writer.write(this);
+        if (recursive && !isLeaf()) {
+            int len = children.length;
+            for (int i = 0; i < len; i++) {
+                Page p = children[i].page;
+                if (p != null) {
+                    p.writeUnsavedData(writer, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the references to the children after they were written, and
+     * write their positions to the serialized page.
+     *
+     * @param buff the buffer that contains the page
+     * @param patch the position of the child page positions in the buffer
+     */
+    void writeChildPositions(WriteBuffer buff, int patch) {
+        int len = children.length;
+        for (int i = 0; i < len; i++) {
+            Page p = children[i].page;
+            if (p != null) {
+                children[i] = new PageReference(p, p.getPos(), p.totalCount);
+            }
         }
+        int old = buff.position();
+        buff.position(patch);
+        writeChildren(buff);
+        buff.position(old);
     }
 
     /**
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import org.h2.compress.CompressDeflate;
+import org.h2.compress.CompressLZF;
+import org.h2.compress.Compressor;
+import org.h2.util.IntArray;
+
+/**
+ * Compresses a part of the changed pages of a chunk in a separate buffer, so
+ * that the pages of multiple parts can be compressed concurrently. The pages
+ * are serialized by the thread that stores the chunk, because data types may
+ * not be thread safe (ObjectDataType for example remembers the last type).
+ * Once all parts are compressed, they are appended to the chunk one after
+ * the other, and the positions of the pages are assigned.
+ */
+class PageWriter implements Callable<Void> {
+
+    private final int compressionLevel;
+    private final Compressor compressor;
+
+    /**
+     * The serialized pages, and later the compressed pages.
+     */
+    private WriteBuffer buff = new WriteBuffer(64 * 1024);
+
+    /**
+     * The pages (only the given page if the flag is false, otherwise the
+     * changed pages of the subtree).
+     */
+    private final ArrayList<Page> roots = new ArrayList<>();
+    private final ArrayList<Boolean> recursive = new ArrayList<>();
+
+    /**
+     * The serialized pages, and their start, length, the position of the
+     * type (which is followed by the child page positions), and the start of
+     * the data that may be compressed within the buffer.
+     */
+    private final ArrayList<Page> pages = new ArrayList<>();
+    private IntArray starts = new IntArray();
+    private IntArray lengths = new IntArray();
+    private final IntArray typePositions = new IntArray();
+    private final IntArray compressStarts = new IntArray();
+
+    /**
+     * Create a new writer.
+     *
+     * @param compressionLevel the compression level (1 for fast, 2 for high)
+     */
+    PageWriter(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        if (compressionLevel == 1) {
+            compressor = new CompressLZF();
+        } else {
+            compressor = new CompressDeflate();
+        }
+    }
+
+    /**
+     * Add a page to be serialized.
+     *
+     * @param p the page
+     * @param withChildren whether the changed children should be serialized
+     *            as well
+     */
+    void add(Page p, boolean withChildren) {
+        roots.add(p);
+        recursive.add(withChildren);
+    }
+
+    /**
+     * Serialize the pages, without compressing them. This method is called
+     * by the thread that stores the chunk.
+     */
+    void serialize() {
+        for (int i = 0, size = roots.size(); i < size; i++) {
+            roots.get(i).writeUnsavedData(this, recursive.get(i));
+        }
+    }
+
+    /**
+     * Serialize a page. This method is called by the page.
+     *
+     * @param p the page
+     */
+    void write(Page p) {
+        int start = buff.position();
+        int compressStart = p.writeData(buff);
+        pages.add(p);
+        starts.add(start);
+        lengths.add(buff.position() - start);
+        typePositions.add(p.getTypePos(start) - start);
+        compressStarts.add(compressStart - start);
+    }
+
+    /**
+     * Compress the serialized pages into a new buffer. This method only uses
+     * the buffers, and not the pages, so it may be called by any thread.
+     */
+    @Override
+    public Void call() {
+        ByteBuffer source = buff.getBuffer();
+        WriteBuffer target = new WriteBuffer(Math.max(1024, source.position()));
+        int size = pages.size();
+        IntArray newStarts = new IntArray(size);
+        IntArray newLengths = new IntArray(size);
+        byte[] page = new byte[0];
+        for (int i = 0; i < size; i++) {
+            int len = lengths.get(i);
+            if (page.length < len) {
+                page = new byte[len];
+            }
+            source.position(starts.get(i));
+            source.get(page, 0, len);
+            int start = target.position();
+            target.put(page, 0, len);
+            Page.compress(target, start + typePositions.get(i),
+                    start + compressStarts.get(i), compressor,
+                    compressionLevel);
+            newStarts.add(start);
+            newLengths.add(target.position() - start);
+        }
+        buff = target;
+        starts = newStarts;
+        lengths = newLengths;
+        return null;
+    }
+
+    /**
+     * Append the compressed pages to the chunk, and assign the positions of
+     * the pages.
+     *
+     * @param chunk the chunk
+     * @param target the chunk buffer
+     * @return the offset of the pages within the chunk buffer
+     */
+    int append(Chunk chunk, WriteBuffer target) {
+        int offset = target.position();
+        ByteBuffer b = buff.getBuffer();
+        b.flip();
+        target.put(b);
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            pages.get(i).setWritten(chunk, target, offset + starts.get(i),
+                    lengths.get(i));
+        }
+        return offset;
+    }
+
+    /**
+     * Write the positions of the children of the nodes, once all pages of the
+     * chunk were appended.
+     *
+     * @param target the chunk buffer
+     * @param offset the offset of the pages within the chunk buffer
+     */
+    void writeChildPositions(WriteBuffer target, int offset) {
+        for (int i = 0, size = pages.size(); i < size; i++) {
+            Page p = pages.get(i);
+            if (!p.isLeaf()) {
+                p.writeChildPositions(target, offset + starts.get(i) +
+                        typePositions.get(i) + 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is incremented by many threads, and read rarely. As long as
+ * there is no contention, a single value is used. Once two threads increment
+ * the counter at the same time, each thread uses one of a number of separate
+ * values (stripes), which are added up when reading the counter. The stripes
+ * are spaced apart, so that they are in different cache lines.
+ */
+final class StripedCounter {
+
+    /**
+     * The number of array elements between two stripes (64 bytes).
+     */
+    private static final int SPACING = 8;
+
+    /**
+     * The number of stripes: the number of processors, rounded up to a power
+     * of two, at least 2 and at most 64.
+     */
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(
+            Math.max(2, Runtime.getRuntime().availableProcessors()) * 2 - 1));
+
+    private final AtomicLong base = new AtomicLong();
+
+    private volatile AtomicLongArray stripes;
+
+    /**
+     * Increment the counter.
+     */
+    void increment() {
+        AtomicLongArray s = stripes;
+        if (s == null) {
+            long x = base.get();
+            if (base.compareAndSet(x, x + 1)) {
+                return;
+            }
+            s = getStripes();
+        }
+        s.incrementAndGet(getStripe());
+    }
+
+    /**
+     * Get the current value. Increments that happen concurrently may or may
+     * not be included.
+     *
+     * @return the value
+     */
+    long get() {
+        long sum = base.get();
+        AtomicLongArray s = stripes;
+        if (s != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += s.get(i * SPACING);
+            }
+        }
+        return sum;
+    }
+
+    private synchronized AtomicLongArray getStripes() {
+        AtomicLongArray s = stripes;
+        if (s == null) {
+            s = new AtomicLongArray(STRIPES * SPACING);
+            stripes = s;
+        }
+        return s;
+    }
+
+    private static int getStripe() {
+        long id = Thread.currentThread().getId();
+        // spread the bits, as thread ids are usually consecutive
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return ((h >>> 16) & (STRIPES - 1)) * SPACING;
+    }
+
+}
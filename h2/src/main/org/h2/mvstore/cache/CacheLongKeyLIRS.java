@@ -38,6 +38,12 @@
  * of other entries have been moved to the front (8 per segment by default).
  * Write access and moving entries to the top of the stack is synchronized per
  * segment.
+ * <p>
+ * Each segment estimates how often keys were accessed recently, using a
+ * frequency sketch. A non-resident entry that is added again only becomes
+ * hot if it was accessed at least as often as the hot entry that would
+ * become cold instead. This prevents large scans, where each entry is used
+ * only once or twice, from replacing the frequently used entries.
  *
  * @author Thomas Mueller
  * @param <V> the value type
@@ -84,7 +90,7 @@ public CacheLongKeyLIRS(Config config) {
     public void clear() {
         long max = getMaxItemSize();
         for (int i = 0; i < segmentCount; i++) {
-            segments[i] = new Segment<>(
+            segments[i] = new Segment<>(this,
                     max, stackMoveDistance, 8, nonResidentQueueSize);
         }
     }
@@ -148,6 +154,23 @@ public V put(long key, V value) {
      * @return the old value, or null if there was no resident entry
      */
     public V put(long key, V value, int memory) {
+        return put(key, value, memory, false);
+    }
+
+    /**
+     * Add an entry to the cache. The entry may or may not exist in the
+     * cache yet. If the entry is hot, it is kept in the cache even if the
+     * cache is full, until it is converted to a cold entry because other
+     * entries were used more recently. This is useful for entries that are
+     * known to be used often, such as the inner nodes of a tree.
+     *
+     * @param key the key (may not be null)
+     * @param value the value (may not be null)
+     * @param memory the memory used for the given entry
+     * @param hot whether the entry is added as a hot entry
+     * @return the old value, or null if there was no resident entry
+     */
+    public V put(long key, V value, int memory, boolean hot) {
         int hash = getHash(key);
         int segmentIndex = getSegmentIndex(hash);
         Segment<V> s = segments[segmentIndex];
@@ -156,7 +179,7 @@ public V put(long key, V value, int memory) {
         // from the old segment)
         synchronized (s) {
             s = resizeIfNeeded(s, segmentIndex);
-            return s.put(key, hash, value, memory);
+            return s.put(key, hash, value, memory, hot);
         }
     }
 
@@ -187,6 +210,20 @@ protected int sizeOf(V value) {
         return 1;
     }
 
+    /**
+     * This method is called when a resident entry was evicted, that is, when
+     * it became non-resident because the cache is full. The default
+     * implementation does nothing. It is called while the segment is locked,
+     * so it should return quickly.
+     *
+     * @param key the key
+     * @param value the value that was evicted
+     */
+    @SuppressWarnings("unused")
+    protected void onEvict(long key, V value) {
+        // nothing to do
+    }
+
     /**
      * Remove an entry. Both resident and non-resident entries can be
      * removed.
@@ -382,13 +419,27 @@ public long getHits() {
      * @return the cache misses
      */
     public long getMisses() {
-        int x = 0;
+        long x = 0;
         for (Segment<V> s : segments) {
             x += s.misses;
         }
         return x;
     }
 
+    /**
+     * Get the number of entries that were evicted, that is, that became
+     * non-resident because the cache was full.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictions() {
+        long x = 0;
+        for (Segment<V> s : segments) {
+            x += s.evictions;
+        }
+        return x;
+    }
+
     /**
      * Get the number of resident entries.
      *
@@ -513,11 +564,27 @@ public void putAll(Map<Long, ? extends V> m) {
          */
         long misses;
 
+        /**
+         * The number of evicted entries.
+         */
+        long evictions;
+
         /**
          * The map array. The size is always a power of 2.
          */
         final Entry<V>[] entries;
 
+        /**
+         * The cache this segment belongs to.
+         */
+        private final CacheLongKeyLIRS<V> cache;
+
+        /**
+         * The estimated access frequency of the keys. It is used to decide
+         * whether an entry that was added again may replace a hot entry.
+         */
+        private final FrequencySketch sketch;
+
         /**
          * The currently used memory.
          */
@@ -583,14 +650,16 @@ public void putAll(Map<Long, ? extends V> m) {
         /**
          * Create a new cache segment.
          *
+         * @param cache the cache
          * @param maxMemory the maximum memory to use
          * @param stackMoveDistance the number of other entries to be moved to
          *        the top of the stack before moving an entry to the top
          * @param len the number of hash table buckets (must be a power of 2)
          * @param nonResidentQueueSize the non-resident queue size factor
          */
-        Segment(long maxMemory, int stackMoveDistance, int len,
-                int nonResidentQueueSize) {
+        Segment(CacheLongKeyLIRS<V> cache, long maxMemory,
+                int stackMoveDistance, int len, int nonResidentQueueSize) {
+            this.cache = cache;
             setMaxMemory(maxMemory);
             this.stackMoveDistance = stackMoveDistance;
             this.nonResidentQueueSize = nonResidentQueueSize;
@@ -609,6 +678,7 @@ public void putAll(Map<Long, ? extends V> m) {
             @SuppressWarnings("unchecked")
             Entry<V>[] e = new Entry[len];
             entries = e;
+            sketch = new FrequencySketch(len);
         }
 
         /**
@@ -620,9 +690,11 @@ public void putAll(Map<Long, ? extends V> m) {
          * @param len the number of hash table buckets (must be a power of 2)
          */
         Segment(Segment<V> old, int len) {
-            this(old.maxMemory, old.stackMoveDistance, len, old.nonResidentQueueSize);
+            this(old.cache, old.maxMemory, old.stackMoveDistance, len,
+                    old.nonResidentQueueSize);
             hits = old.hits;
             misses = old.misses;
+            evictions = old.evictions;
             Entry<V> s = old.stack.stackPrev;
             while (s != old.stack) {
                 Entry<V> e = copy(s);
@@ -650,6 +722,11 @@ public void putAll(Map<Long, ? extends V> m) {
                 addToQueue(queue2, e);
                 s = s.queuePrev;
             }
+            for (Entry<V> e : old.entries) {
+                for (; e != null; e = e.mapNext) {
+                    sketch.copy(old.sketch, getHash(e.key));
+                }
+            }
         }
 
         /**
@@ -709,6 +786,7 @@ int getMemory(long key, int hash) {
          * @return the value, or null if there is no resident entry
          */
         V get(long key, int hash) {
+            sketch.increment(hash);
             Entry<V> e = find(key, hash);
             if (e == null) {
                 // the entry was not found
@@ -791,9 +869,11 @@ private synchronized void access(long key, int hash) {
          * @param hash the hash
          * @param value the value (may not be null)
          * @param memory the memory used for the given entry
+         * @param hot whether the entry is added as a hot entry
          * @return the old value, or null if there was no resident entry
          */
-        synchronized V put(long key, int hash, V value, int memory) {
+        synchronized V put(long key, int hash, V value, int memory,
+                boolean hot) {
             if (value == null) {
                 throw DataUtils.newIllegalArgumentException(
                         "The value may not be null");
@@ -826,7 +906,7 @@ synchronized V put(long key, int hash, V value, int memory) {
                 evict();
                 // if the cache is full, the new entry is
                 // cold if possible
-                if (stackSize > 0) {
+                if (stackSize > 0 && !hot) {
                     // the new cold entry is at the top of the queue
                     addToQueue(queue, e);
                 }
@@ -834,13 +914,30 @@ synchronized V put(long key, int hash, V value, int memory) {
             mapSize++;
             // added entries are always added to the stack
             addToStack(e);
-            if (existed) {
+            if (existed && (e.isHot() || isAdmitted(hash))) {
                 // if it was there before (even non-resident), it becomes hot
                 access(key, hash);
             }
             return old;
         }
 
+        /**
+         * Check whether a cold entry that was added again may become hot. This
+         * is the case if it was accessed at least as often as the oldest hot
+         * entry, which would become cold instead.
+         *
+         * @param hash the hash of the new entry
+         * @return true if the entry may become hot
+         */
+        private boolean isAdmitted(int hash) {
+            Entry<V> last = stack.stackPrev;
+            if (last == stack) {
+                return true;
+            }
+            return sketch.frequency(hash) >=
+                    sketch.frequency(getHash(last.key));
+        }
+
         /**
          * Remove an entry. Both resident and non-resident entries can be
          * removed.
@@ -916,9 +1013,12 @@ private void evictBlock() {
                 Entry<V> e = queue.queuePrev;
                 usedMemory -= e.memory;
                 removeFromQueue(e);
+                V value = e.value;
                 e.value = null;
                 e.memory = 0;
                 addToQueue(queue2, e);
+                evictions++;
+                cache.onEvict(e.key, value);
                 // the size of the non-resident-cold entries needs to be limited
                 int maxQueue2Size = nonResidentQueueSize * (mapSize - queue2Size);
                 if (maxQueue2Size >= 0) {
@@ -1167,6 +1267,103 @@ boolean isHot() {
 
     }
 
+    /**
+     * A count-min sketch with small counters, to estimate how often a key was
+     * accessed recently. All counters are halved after a number of
+     * increments, so that old accesses are forgotten. The sketch is read and
+     * updated without synchronization; lost updates only make the estimate a
+     * bit less accurate.
+     */
+    static class FrequencySketch {
+
+        /**
+         * The number of counters per key.
+         */
+        private static final int DEPTH = 4;
+
+        /**
+         * The maximum value of a counter.
+         */
+        private static final int MAX_COUNT = 15;
+
+        private static final int[] SEEDS = {
+                0x97cb3127, 0x5b8a7c2d, 0x2f6a1e9b, 0xc3a5c85d };
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        /**
+         * Create a new sketch.
+         *
+         * @param width the number of counters per row (must be a power of 2)
+         */
+        FrequencySketch(int width) {
+            counters = new byte[DEPTH * width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        /**
+         * Record an access to the given key.
+         *
+         * @param hash the hash of the key
+         */
+        void increment(int hash) {
+            for (int i = 0; i < DEPTH; i++) {
+                int index = getIndex(hash, i);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        /**
+         * Estimate how often the given key was accessed recently.
+         *
+         * @param hash the hash of the key
+         * @return the estimated number of accesses
+         */
+        int frequency(int hash) {
+            int f = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                f = Math.min(f, counters[getIndex(hash, i)]);
+            }
+            return f;
+        }
+
+        /**
+         * Copy the estimated access frequency of the given key from another
+         * sketch.
+         *
+         * @param old the other sketch
+         * @param hash the hash of the key
+         */
+        void copy(FrequencySketch old, int hash) {
+            int f = old.frequency(hash);
+            for (int i = 0; i < DEPTH; i++) {
+                int index = getIndex(hash, i);
+                if (counters[index] < f) {
+                    counters[index] = (byte) f;
+                }
+            }
+        }
+
+        private int getIndex(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return row * (mask + 1) + (h & mask);
+        }
+
+    }
+
     /**
      * The cache configuration.
      */
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.cache;
+
+import java.nio.ByteBuffer;
+import org.h2.mvstore.DataUtils;
+
+/**
+ * A cache for byte sequences that uses keys of type long, and keeps the data
+ * in the off-heap area of the main memory. It is meant to be used as a second
+ * level cache for serialized data, so that a large cache does not need a
+ * large Java heap.
+ * <p>
+ * The off-heap memory is split into blocks of equal size, which are allocated
+ * in segments as needed. The data of an entry is stored in one or more
+ * blocks, which don't need to be adjacent. Which entries are kept is decided
+ * by a LIRS cache that only contains the block numbers of each entry.
+ * <p>
+ * This implementation is multi-threading safe. The size of the off-heap
+ * memory is limited by the JVM option -XX:MaxDirectMemorySize.
+ */
+public class CacheLongKeyOffHeap {
+
+    /**
+     * The size of a block in bytes.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    /**
+     * The number of blocks in a segment of off-heap memory (64 MB).
+     */
+    private static final int SEGMENT_BLOCKS = 64 * 1024;
+
+    private final CacheLongKeyLIRS<Item> cache;
+
+    private final ByteBuffer[] segments;
+
+    /**
+     * The number of blocks.
+     */
+    private final int blockCount;
+
+    /**
+     * The stack of free blocks that were used before.
+     */
+    private final int[] freeBlocks;
+
+    private int freeCount;
+
+    /**
+     * The number of blocks that were never used.
+     */
+    private int unusedStart;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxMemory the maximum off-heap memory to use, in bytes
+     * @param segmentCount the number of segments of the internal LIRS cache
+     *            (must be a power of 2)
+     */
+    public CacheLongKeyOffHeap(long maxMemory, int segmentCount) {
+        DataUtils.checkArgument(maxMemory >= BLOCK_SIZE,
+                "Max memory must be at least {0}, is {1}",
+                BLOCK_SIZE, maxMemory);
+        DataUtils.checkArgument(maxMemory / BLOCK_SIZE < Integer.MAX_VALUE,
+                "Max memory is too large: {0}", maxMemory);
+        blockCount = (int) (maxMemory / BLOCK_SIZE);
+        segments = new ByteBuffer[(blockCount + SEGMENT_BLOCKS - 1) /
+                SEGMENT_BLOCKS];
+        freeBlocks = new int[blockCount];
+        CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
+        // a few blocks are kept free, so that new entries can be written
+        // before the cache evicts old entries
+        cc.maxMemory = Math.max((long) blockCount * BLOCK_SIZE * 15 / 16,
+                BLOCK_SIZE);
+        cc.segmentCount = segmentCount;
+        cache = new CacheLongKeyLIRS<Item>(cc) {
+            @Override
+            protected void onEvict(long key, Item item) {
+                free(item);
+            }
+        };
+    }
+
+    /**
+     * Get a copy of the data for the given key if the entry is cached.
+     *
+     * @param key the key
+     * @return a heap buffer with the data, or null if there is no resident
+     *         entry
+     */
+    public ByteBuffer get(long key) {
+        Item item = cache.get(key);
+        if (item == null) {
+            return null;
+        }
+        byte[] data = new byte[item.length];
+        // the lock protects against reading blocks that were freed and
+        // re-used in the meantime
+        synchronized (item) {
+            int[] blocks = item.blocks;
+            if (blocks == null) {
+                return null;
+            }
+            for (int i = 0, pos = 0; i < blocks.length; i++) {
+                int len = Math.min(BLOCK_SIZE, data.length - pos);
+                getBlock(blocks[i]).get(data, pos, len);
+                pos += len;
+            }
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Add an entry to the cache. The data between the position and the limit
+     * of the buffer is copied; the position of the buffer is not changed. If
+     * there is not enough free memory at the moment, the entry is not added.
+     *
+     * @param key the key
+     * @param buff the data
+     */
+    public void put(long key, ByteBuffer buff) {
+        int length = buff.remaining();
+        int count = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int memory = count * BLOCK_SIZE;
+        if (count == 0 || memory > cache.getMaxItemSize()) {
+            return;
+        }
+        int[] blocks = allocate(count);
+        if (blocks == null) {
+            return;
+        }
+        ByteBuffer data = buff.duplicate();
+        for (int i = 0; i < count; i++) {
+            data.limit(data.position() + Math.min(BLOCK_SIZE, data.remaining()));
+            getBlock(blocks[i]).put(data);
+            data.limit(buff.limit());
+        }
+        Item old = cache.put(key, new Item(length, blocks), memory);
+        if (old != null) {
+            free(old);
+        }
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param key the key
+     */
+    public void remove(long key) {
+        Item old = cache.remove(key);
+        if (old != null) {
+            free(old);
+        }
+    }
+
+    /**
+     * Remove all entries. The off-heap memory is kept for later use.
+     */
+    public void clear() {
+        for (long key : cache.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Get the maximum off-heap memory to use.
+     *
+     * @return the maximum memory, in bytes
+     */
+    public long getMaxMemory() {
+        return (long) blockCount * BLOCK_SIZE;
+    }
+
+    /**
+     * Get the memory used by the cached entries.
+     *
+     * @return the used memory, in bytes
+     */
+    public long getUsedMemory() {
+        return cache.getUsedMemory();
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return the cache hits
+     */
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return the cache misses
+     */
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Get a buffer for the given block. The position is the start of the
+     * block.
+     *
+     * @param block the block number
+     * @return the buffer
+     */
+    private ByteBuffer getBlock(int block) {
+        ByteBuffer buff = segments[block / SEGMENT_BLOCKS].duplicate();
+        buff.position(block % SEGMENT_BLOCKS * BLOCK_SIZE);
+        return buff;
+    }
+
+    private synchronized int[] allocate(int count) {
+        if (freeCount + blockCount - unusedStart < count) {
+            return null;
+        }
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            int block;
+            if (freeCount > 0) {
+                block = freeBlocks[--freeCount];
+            } else {
+                block = unusedStart++;
+                int segment = block / SEGMENT_BLOCKS;
+                if (segments[segment] == null) {
+                    int len = Math.min(SEGMENT_BLOCKS,
+                            blockCount - segment * SEGMENT_BLOCKS);
+                    segments[segment] = ByteBuffer.allocateDirect(
+                            len * BLOCK_SIZE);
+                }
+            }
+            blocks[i] = block;
+        }
+        return blocks;
+    }
+
+    /**
+     * Free the blocks of the given entry.
+     *
+     * @param item the entry
+     */
+    void free(Item item) {
+        int[] blocks;
+        synchronized (item) {
+            blocks = item.blocks;
+            item.blocks = null;
+        }
+        if (blocks != null) {
+            synchronized (this) {
+                for (int b : blocks) {
+                    freeBlocks[freeCount++] = b;
+                }
+            }
+        }
+    }
+
+    /**
+     * A cache entry.
+     */
+    static class Item {
+
+        /**
+         * The length of the data in bytes.
+         */
+        final int length;
+
+        /**
+         * The blocks that contain the data, or null if the entry was freed.
+         */
+        int[] blocks;
+
+        Item(int length, int[] blocks) {
+            this.length = length;
+            this.blocks = blocks;
+        }
+
+    }
+
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import org.h2.api.ErrorCode;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.index.BaseIndex;
+import org.h2.index.Cursor;
+import org.h2.index.IndexCondition;
+import org.h2.index.IndexType;
+import org.h2.message.DbException;
+import org.h2.mvstore.db.TransactionStore.Transaction;
+import org.h2.mvstore.db.TransactionStore.TransactionMap;
+import org.h2.mvstore.db.TransactionStore.VersionedValue;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.TableFilter;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueLong;
+
+/**
+ * A persistent hash index for a table stored in a MVStore. The key of the map
+ * is the hash code of the indexed values, followed by the row key; the map
+ * value contains the indexed values. A lookup by all indexed columns only
+ * reads the entries with the same hash code, independent of the number of
+ * distinct values, and the entries are versioned like all other maps of the
+ * transaction store.
+ * <p>
+ * The hash code is persisted, so it must not change between runs, and it must
+ * be consistent with the comparison of the values. Therefore only some data
+ * types are supported; see {@link #isSupported(Database, IndexColumn[])}.
+ */
+public final class MVHashIndex extends BaseIndex implements MVIndex {
+
+    /**
+     * The multi-value table.
+     */
+    final MVTable mvTable;
+    private final TransactionMap<Value, Value> dataMap;
+
+    public MVHashIndex(Database db, MVTable table, int id, String indexName,
+            IndexColumn[] columns, IndexType indexType) {
+        this.mvTable = table;
+        initBaseIndex(table, id, indexName, columns, indexType);
+        if (!database.isStarting()) {
+            checkIndexColumnTypes(columns);
+        }
+        ValueDataType keyType = new ValueDataType(db.getCompareMode(), db,
+                new int[] { SortOrder.ASCENDING, SortOrder.ASCENDING });
+        ValueDataType valueType = new ValueDataType(null, null, null);
+        Transaction t = mvTable.getTransactionBegin();
+        dataMap = t.openMap(getMapName(id), keyType, valueType);
+        t.commit();
+        if (!keyType.equals(dataMap.getKeyType())) {
+            throw DbException.throwInternalError("Incompatible key type");
+        }
+    }
+
+    /**
+     * Get the name of the map of the hash index with the given id.
+     *
+     * @param id the object id of the index
+     * @return the map name
+     */
+    static String getMapName(int id) {
+        return "hash." + id;
+    }
+
+    /**
+     * Check whether a hash index can be used for the given columns. The hash
+     * code of the values of all columns must be stable and consistent with
+     * equality; for character strings, this is only the case if the database
+     * uses binary collation.
+     *
+     * @param db the database
+     * @param columns the indexed columns
+     * @return true if a hash index can be used
+     */
+    static boolean isSupported(Database db, IndexColumn[] columns) {
+        for (IndexColumn c : columns) {
+            switch (c.column.getType()) {
+            case Value.BOOLEAN:
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+            case Value.LONG:
+            case Value.BYTES:
+            case Value.UUID:
+            case Value.DATE:
+            case Value.TIME:
+            case Value.TIMESTAMP:
+                break;
+            case Value.STRING:
+            case Value.STRING_FIXED:
+                if (!CompareMode.OFF.equals(db.getCompareMode().getName())) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void addRowsToBuffer(List<Row> rows, String bufferName) {
+        throw DbException.throwInternalError();
+    }
+
+    @Override
+    public void addBufferedRows(List<String> bufferNames) {
+        throw DbException.throwInternalError();
+    }
+
+    @Override
+    public void close(Session session) {
+        // ok
+    }
+
+    @Override
+    public void add(Session session, Row row) {
+        TransactionMap<Value, Value> map = getMap(session);
+        ValueArray values = convertToValue(row);
+        int hash = getHash(values);
+        boolean unique = indexType.isUnique() && !mayHaveNullDuplicates(row);
+        if (unique) {
+            // this will detect committed entries, and the entries of this
+            // transaction
+            requireUnique(row, map, hash);
+        }
+        try {
+            map.put(convertToKey(hash, row.getKey()), values);
+        } catch (IllegalStateException e) {
+            throw mvTable.convertException(e);
+        }
+        if (unique) {
+            // this will detect uncommitted entries of other transactions
+            Iterator<Value> it = map.keyIterator(
+                    convertToKey(hash, Long.MIN_VALUE), true);
+            while (it.hasNext()) {
+                ValueArray k = (ValueArray) it.next();
+                if (getKeyHash(k) != hash) {
+                    break;
+                }
+                if (map.isSameTransaction(k) || map.get(k) != null) {
+                    continue;
+                }
+                VersionedValue latest = map.map.get(k);
+                if (latest != null && latest.value != null &&
+                        compareRows(row, convertToSearchRow(k,
+                                (Value) latest.value)) == 0) {
+                    throw DbException.get(ErrorCode.CONCURRENT_UPDATE_1,
+                            table.getName());
+                }
+            }
+        }
+    }
+
+    private void requireUnique(SearchRow row, TransactionMap<Value, Value> map,
+            int hash) {
+        Iterator<Entry<Value, Value>> it = map.entryIterator(
+                convertToKey(hash, Long.MIN_VALUE),
+                convertToKey(hash, Long.MAX_VALUE));
+        while (it.hasNext()) {
+            Entry<Value, Value> e = it.next();
+            if (compareRows(row, convertToSearchRow(
+                    (ValueArray) e.getKey(), e.getValue())) == 0) {
+                throw getDuplicateKeyException(e.getValue().toString());
+            }
+        }
+    }
+
+    @Override
+    public void remove(Session session, Row row) {
+        ValueArray key = convertToKey(getHash(convertToValue(row)),
+                row.getKey());
+        TransactionMap<Value, Value> map = getMap(session);
+        try {
+            Value old = map.remove(key);
+            if (old == null) {
+                throw DbException.get(ErrorCode.ROW_NOT_FOUND_WHEN_DELETING_1,
+                        getSQL() + ": " + row.getKey());
+            }
+        } catch (IllegalStateException e) {
+            throw mvTable.convertException(e);
+        }
+    }
+
+    @Override
+    public Cursor find(Session session, SearchRow first, SearchRow last) {
+        TransactionMap<Value, Value> map = getMap(session);
+        if (isEquality(first, last)) {
+            int hash = getHash(convertToValue(first));
+            return new MVStoreCursor(session,
+                    map.entryIterator(convertToKey(hash, Long.MIN_VALUE),
+                    convertToKey(hash, Long.MAX_VALUE)), first, last);
+        }
+        // the entries are not ordered by the values, so all of them need to
+        // be read; this is only used if there is no better index
+        return new MVStoreCursor(session, map.entryIterator(null, null),
+                first, last);
+    }
+
+    /**
+     * Check whether the range only contains rows with the given values for all
+     * indexed columns.
+     *
+     * @param first the first row of the range
+     * @param last the last row of the range
+     * @return true if the values of all indexed columns are known and equal
+     */
+    private boolean isEquality(SearchRow first, SearchRow last) {
+        if (first == null || last == null) {
+            return false;
+        }
+        for (int idx : columnIds) {
+            if (first.getValue(idx) == null || last.getValue(idx) == null) {
+                return false;
+            }
+        }
+        return compareRows(first, last) == 0;
+    }
+
+    /**
+     * Get the hash code of the indexed values. It only depends on the values,
+     * and not on the session or the process.
+     *
+     * @param values the indexed values, converted to the column types
+     * @return the hash code
+     */
+    private static int getHash(ValueArray values) {
+        int h = 0;
+        for (Value v : values.getList()) {
+            h = 31 * h + v.hashCode();
+        }
+        return h;
+    }
+
+    private static int getKeyHash(ValueArray key) {
+        return key.getList()[0].getInt();
+    }
+
+    private static ValueArray convertToKey(int hash, long rowKey) {
+        return ValueArray.get(new Value[] { ValueInt.get(hash),
+                ValueLong.get(rowKey) });
+    }
+
+    private ValueArray convertToValue(SearchRow r) {
+        Value[] array = new Value[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Column c = columns[i];
+            array[i] = r.getValue(c.getColumnId()).convertTo(c.getType());
+        }
+        return ValueArray.get(array);
+    }
+
+    /**
+     * Convert the map key and value to a row that contains the indexed
+     * columns and the row key.
+     *
+     * @param key the map key
+     * @param value the map value
+     * @return the row
+     */
+    SearchRow convertToSearchRow(ValueArray key, Value value) {
+        SearchRow searchRow = mvTable.getTemplateRow();
+        searchRow.setKey(key.getList()[1].getLong());
+        Value[] array = ((ValueArray) value).getList();
+        for (int i = 0; i < array.length; i++) {
+            searchRow.setValue(columnIds[i], array[i]);
+        }
+        return searchRow;
+    }
+
+    @Override
+    public MVTable getTable() {
+        return mvTable;
+    }
+
+    @Override
+    public double getCost(Session session, int[] masks,
+            TableFilter[] filters, int filter, SortOrder sortOrder,
+            HashSet<Column> allColumnsSet) {
+        if (masks == null) {
+            return Long.MAX_VALUE;
+        }
+        for (Column column : columns) {
+            int mask = masks[column.getColumnId()];
+            if ((mask & IndexCondition.EQUALITY) != IndexCondition.EQUALITY) {
+                return Long.MAX_VALUE;
+            }
+        }
+        try {
+            long rowCount = dataMap.sizeAsLongMax();
+            // the same estimate for the number of rows as for a b-tree
+            // index, but without the cost of the descent; the order of the
+            // rows is never the requested one
+            long cost = 9 * getCostRangeIndex(masks, rowCount, filters,
+                    filter, null, false, null);
+            if (sortOrder != null) {
+                cost += 100 + rowCount / 10;
+            }
+            return cost;
+        } catch (IllegalStateException e) {
+            throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
+        }
+    }
+
+    @Override
+    public void remove(Session session) {
+        TransactionMap<Value, Value> map = getMap(session);
+        if (!map.isClosed()) {
+            Transaction t = session.getTransaction();
+            t.removeMap(map);
+        }
+    }
+
+    @Override
+    public void truncate(Session session) {
+        TransactionMap<Value, Value> map = getMap(session);
+        map.clear();
+    }
+
+    @Override
+    public boolean canGetFirstOrLast() {
+        return false;
+    }
+
+    @Override
+    public Cursor findFirstOrLast(Session session, boolean first) {
+        throw DbException.getUnsupportedException("HASH");
+    }
+
+    @Override
+    public boolean canScan() {
+        return false;
+    }
+
+    @Override
+    public boolean needRebuild() {
+        try {
+            return dataMap.sizeAsLongMax() == 0;
+        } catch (IllegalStateException e) {
+            throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
+        }
+    }
+
+    @Override
+    public long getRowCount(Session session) {
+        TransactionMap<Value, Value> map = getMap(session);
+        return map.sizeAsLong();
+    }
+
+    @Override
+    public long getRowCountApproximation() {
+        try {
+            return dataMap.sizeAsLongMax();
+        } catch (IllegalStateException e) {
+            throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
+        }
+    }
+
+    @Override
+    public long getDiskSpaceUsed() {
+        // TODO estimate disk space usage
+        return 0;
+    }
+
+    @Override
+    public void checkRename() {
+        // ok
+    }
+
+    /**
+     * Get the map to store the data.
+     *
+     * @param session the session
+     * @return the map
+     */
+    private TransactionMap<Value, Value> getMap(Session session) {
+        if (session == null) {
+            return dataMap;
+        }
+        Transaction t = session.getTransaction();
+        return dataMap.getInstance(t, Long.MAX_VALUE);
+    }
+
+    /**
+     * A cursor. Entries with values outside of the range (in case of a hash
+     * collision) are skipped.
+     */
+    final class MVStoreCursor implements Cursor {
+
+        private final Session session;
+        private final Iterator<Entry<Value, Value>> it;
+        private final SearchRow first, last;
+        private SearchRow searchRow;
+        private Row row;
+
+        MVStoreCursor(Session session, Iterator<Entry<Value, Value>> it,
+                SearchRow first, SearchRow last) {
+            this.session = session;
+            this.it = it;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public Row get() {
+            if (row == null && searchRow != null) {
+                row = mvTable.getRow(session, searchRow.getKey());
+            }
+            return row;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return searchRow;
+        }
+
+        @Override
+        public boolean next() {
+            row = null;
+            while (it.hasNext()) {
+                Entry<Value, Value> e = it.next();
+                SearchRow r = convertToSearchRow((ValueArray) e.getKey(),
+                        e.getValue());
+                if (first != null && compareRows(r, first) < 0) {
+                    continue;
+                }
+                if (last != null && compareRows(r, last) > 0) {
+                    continue;
+                }
+                searchRow = r;
+                return true;
+            }
+            searchRow = null;
+            return false;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.getUnsupportedException("previous");
+        }
+
+    }
+
+}
@@ -5,11 +5,17 @@
  */
 package org.h2.mvstore.db;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicLong;
 import org.h2.api.ErrorCode;
 import org.h2.engine.Database;
@@ -37,6 +43,12 @@
  */
 public class MVPrimaryIndex extends BaseIndex {
 
+    /**
+     * The approximate number of rows of a range read by a worker thread of a
+     * parallel cursor.
+     */
+    private static final int PARALLEL_RANGE_ROWS = 4096;
+
     private final MVTable mvTable;
     private final String mapName;
     protected final TransactionMap<Value, Value> dataMap;
@@ -61,6 +73,14 @@ public MVPrimaryIndex(Database db, MVTable table, int id,
         if (!table.isPersistData()) {
             dataMap.map.setVolatile(true);
         }
+        readLastKey();
+    }
+
+    /**
+     * Read the last key from the map. This is needed if the map was changed
+     * directly, when applying the redo log.
+     */
+    void readLastKey() {
         Value k = dataMap.map.lastKey();    // include uncommitted keys as well
         lastKey.set(k == null ? 0 : k.getLong());
     }
@@ -299,6 +319,55 @@ public long getRowCountApproximation() {
         return getRowCountMax();
     }
 
+    /**
+     * Get the keys that split the rows into ranges of about the same size.
+     * The position of a key is found using the entry counts of the pages of
+     * the map, so that the rows don't need to be read. Uncommitted rows of all
+     * sessions are included.
+     *
+     * @param count the number of ranges
+     * @return the first key of each range except the first range (fewer keys
+     *         if the table only contains few rows)
+     */
+    public long[] getSplitKeys(int count) {
+        long size = dataMap.map.sizeAsLong();
+        long[] keys = new long[count - 1];
+        int len = 0;
+        for (int i = 1; i < count; i++) {
+            Value k = dataMap.map.getKey(size * i / count);
+            if (k == null) {
+                break;
+            }
+            long key = k.getLong();
+            if (len == 0 || key > keys[len - 1]) {
+                keys[len++] = key;
+            }
+        }
+        return Arrays.copyOf(keys, len);
+    }
+
+    /**
+     * Read all rows using multiple threads. The rows are split into ranges of
+     * keys. While the caller processes the rows of one range, the worker
+     * threads read and convert the rows of the next ranges. The rows are
+     * returned in the same order and with the same visibility as by a cursor
+     * of the session, but the worker threads don't use the session.
+     *
+     * @param session the session
+     * @param pool the pool of worker threads
+     * @param threads the maximum number of ranges that are read at the same
+     *            time
+     * @return the cursor
+     */
+    public Cursor findParallel(Session session, ForkJoinPool pool,
+            int threads) {
+        // the ranges should be small, as up to threads + 1 of them are kept
+        // in memory, but large enough to keep the overhead low
+        long count = Math.max(threads, getRowCountMax() / PARALLEL_RANGE_ROWS);
+        long[] splitKeys = getSplitKeys((int) Math.min(count, Integer.MAX_VALUE));
+        return new MVParallelCursor(getMap(session), pool, threads, splitKeys);
+    }
+
     @Override
     public long getDiskSpaceUsed() {
         // TODO estimate disk space usage
@@ -413,4 +482,102 @@ public boolean previous() {
 
     }
 
+    /**
+     * A cursor that reads the rows of ranges of keys in worker threads.
+     */
+    class MVParallelCursor implements Cursor {
+
+        private final TransactionMap<Value, Value> map;
+        private final ForkJoinPool pool;
+        private final int threads;
+        private final long[] splitKeys;
+        private final ArrayDeque<ForkJoinTask<ArrayList<Row>>> tasks =
+                new ArrayDeque<>();
+        private int nextRange;
+        private ArrayList<Row> rows;
+        private int index;
+        private Row current;
+
+        MVParallelCursor(TransactionMap<Value, Value> map, ForkJoinPool pool,
+                int threads, long[] splitKeys) {
+            this.map = map;
+            this.pool = pool;
+            this.threads = threads;
+            this.splitKeys = splitKeys;
+            submit();
+        }
+
+        private void submit() {
+            while (tasks.size() < threads && nextRange <= splitKeys.length) {
+                int i = nextRange++;
+                final ValueLong min = i == 0 ? ValueLong.MIN :
+                        ValueLong.get(splitKeys[i - 1]);
+                final ValueLong max = i == splitKeys.length ? ValueLong.MAX :
+                        ValueLong.get(splitKeys[i] - 1);
+                tasks.add(pool.submit(new Callable<ArrayList<Row>>() {
+                    @Override
+                    public ArrayList<Row> call() {
+                        return readRows(min, max);
+                    }
+                }));
+            }
+        }
+
+        /**
+         * Read the rows of a range. This method is called by a worker thread.
+         *
+         * @param min the smallest key
+         * @param max the largest key
+         * @return the rows
+         */
+        ArrayList<Row> readRows(ValueLong min, ValueLong max) {
+            Database db = mvTable.getDatabase();
+            ArrayList<Row> list = new ArrayList<>();
+            Iterator<Entry<Value, Value>> it = map.entryIterator(min, max);
+            while (it.hasNext()) {
+                Entry<Value, Value> e = it.next();
+                ValueArray array = (ValueArray) e.getValue();
+                Row row = db.createRow(array.getList(), 0);
+                row.setKey(e.getKey().getLong());
+                list.add(row);
+            }
+            return list;
+        }
+
+        @Override
+        public Row get() {
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return current;
+        }
+
+        @Override
+        public boolean next() {
+            while (rows == null || index >= rows.size()) {
+                ForkJoinTask<ArrayList<Row>> task = tasks.poll();
+                if (task == null) {
+                    rows = null;
+                    current = null;
+                    return false;
+                }
+                rows = task.join();
+                index = 0;
+                submit();
+            }
+            current = rows.get(index);
+            // the row is not needed by the cursor any longer
+            rows.set(index++, null);
+            return true;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.getUnsupportedException("previous");
+        }
+
+    }
+
 }
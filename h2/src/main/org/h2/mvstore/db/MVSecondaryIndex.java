@@ -6,10 +6,13 @@
 package org.h2.mvstore.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import org.h2.api.ErrorCode;
@@ -22,6 +25,7 @@
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.db.TransactionStore.Transaction;
 import org.h2.mvstore.db.TransactionStore.TransactionMap;
+import org.h2.mvstore.type.DataType;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
@@ -40,6 +44,12 @@
  */
 public final class MVSecondaryIndex extends BaseIndex implements MVIndex {
 
+    /**
+     * The number of entries that are appended to the map at once when the
+     * index is built.
+     */
+    private static final int BULK_LOAD_BATCH = 1024;
+
     /**
      * The multi-value table.
      */
@@ -49,10 +59,40 @@ public final class MVSecondaryIndex extends BaseIndex implements MVIndex {
 
     public MVSecondaryIndex(Database db, MVTable table, int id, String indexName,
                 IndexColumn[] columns, IndexType indexType) {
+        this(db, table, id, indexName, columns, null, indexType);
+    }
+
+    /**
+     * Create a new index that also stores the values of the given columns in
+     * the map value, so that queries that only need these columns and the
+     * indexed columns don't need to read the rows.
+     *
+     * @param db the database
+     * @param table the table
+     * @param id the object id
+     * @param indexName the index name
+     * @param columns the indexed columns
+     * @param includeColumns the additional columns, or null
+     * @param indexType the index type
+     */
+    public MVSecondaryIndex(Database db, MVTable table, int id, String indexName,
+                IndexColumn[] columns, Column[] includeColumns,
+                IndexType indexType) {
         this.mvTable = table;
         initBaseIndex(table, id, indexName, columns, indexType);
+        this.includeColumns = includeColumns;
         if (!database.isStarting()) {
             checkIndexColumnTypes(columns);
+            if (includeColumns != null) {
+                for (Column c : includeColumns) {
+                    int type = c.getType();
+                    if (type == Value.CLOB || type == Value.BLOB) {
+                        throw DbException.getUnsupportedException(
+                                "Index on BLOB or CLOB column: " +
+                                c.getCreateSQL());
+                    }
+                }
+            }
         }
         // always store the row key in the map key,
         // even for unique indexes, as some of the index columns could be null
@@ -77,25 +117,48 @@ public MVSecondaryIndex(Database db, MVTable table, int id, String indexName,
     @Override
     public void addRowsToBuffer(List<Row> rows, String bufferName) {
         MVMap<ValueArray, Value> map = openMap(bufferName);
-        for (Row row : rows) {
-            ValueArray key = convertToKey(row);
-            map.put(key, ValueNull.INSTANCE);
-        }
+        int size = rows.size();
+        final ValueArray[] keys = new ValueArray[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = convertToKey(rows.get(i));
+            order[i] = i;
+        }
+        // the rows are already sorted by the index columns, but the key of
+        // the map also contains the row key
+        final DataType keyType = map.getKeyType();
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keyType.compare(keys[a], keys[b]);
+            }
+        });
+        Object[] sortedKeys = new Object[size];
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            int x = order[i];
+            sortedKeys[i] = keys[x];
+            values[i] = convertToValue(rows.get(x));
+        }
+        map.appendSorted(sortedKeys, values, size);
     }
 
     private static final class Source {
-        private final Iterator<ValueArray> iterator;
+        private final org.h2.mvstore.Cursor<ValueArray, Value> cursor;
         ValueArray currentRowData;
+        Value currentValue;
 
-        public Source(Iterator<ValueArray> iterator) {
-            this.iterator = iterator;
-            this.currentRowData = iterator.next();
+        public Source(org.h2.mvstore.Cursor<ValueArray, Value> cursor) {
+            this.cursor = cursor;
+            this.currentRowData = cursor.next();
+            this.currentValue = cursor.getValue();
         }
 
         public boolean hasNext() {
-            boolean result = iterator.hasNext();
+            boolean result = cursor.hasNext();
             if(result) {
-                currentRowData = iterator.next();
+                currentRowData = cursor.next();
+                currentValue = cursor.getValue();
             }
             return result;
         }
@@ -105,15 +168,17 @@ public ValueArray next() {
         }
 
         public static final class Comparator implements java.util.Comparator<Source> {
-            private final CompareMode compareMode;
+            private final DataType keyType;
 
-            public Comparator(CompareMode compareMode) {
-                this.compareMode = compareMode;
+            public Comparator(DataType keyType) {
+                this.keyType = keyType;
             }
 
             @Override
             public int compare(Source one, Source two) {
-                return one.currentRowData.compareTo(two.currentRowData, compareMode);
+                // the same order as in the map, which also depends on the
+                // sort types of the index columns
+                return keyType.compare(one.currentRowData, two.currentRowData);
             }
         }
     }
@@ -121,39 +186,61 @@ public int compare(Source one, Source two) {
     @Override
     public void addBufferedRows(List<String> bufferNames) {
         ArrayList<String> mapNames = new ArrayList<>(bufferNames);
-        CompareMode compareMode = database.getCompareMode();
+        DataType keyType = dataMap.map.getKeyType();
         int buffersCount = bufferNames.size();
-        Queue<Source> queue = new PriorityQueue<>(buffersCount, new Source.Comparator(compareMode));
+        Queue<Source> queue = new PriorityQueue<>(buffersCount, new Source.Comparator(keyType));
         for (String bufferName : bufferNames) {
-            Iterator<ValueArray> iter = openMap(bufferName).keyIterator(null);
-            if (iter.hasNext()) {
-                queue.add(new Source(iter));
+            org.h2.mvstore.Cursor<ValueArray, Value> cursor =
+                    openMap(bufferName).cursor(null);
+            if (cursor.hasNext()) {
+                queue.add(new Source(cursor));
             }
         }
 
+        // if the index is empty, the merged rows are appended at the end,
+        // which builds densely packed pages; duplicates are then adjacent
+        boolean append = dataMap.map.isEmpty();
+        Object[] keys = new Object[BULK_LOAD_BATCH];
+        Object[] values = new Object[BULK_LOAD_BATCH];
+        int count = 0;
+        SearchRow last = null;
         try {
             while (!queue.isEmpty()) {
                 Source s = queue.remove();
                 ValueArray rowData = s.next();
 
                 if (indexType.isUnique()) {
-                    Value[] array = rowData.getList();
-                    // don't change the original value
-                    array = array.clone();
-                    array[keyColumns - 1] = ValueLong.MIN;
-                    ValueArray unique = ValueArray.get(array);
                     SearchRow row = convertToSearchRow(rowData);
                     if (!mayHaveNullDuplicates(row)) {
-                        requireUnique(row, dataMap, unique);
+                        if (!append) {
+                            Value[] array = rowData.getList();
+                            // don't change the original value
+                            array = array.clone();
+                            array[keyColumns - 1] = ValueLong.MIN;
+                            requireUnique(row, dataMap, ValueArray.get(array));
+                        } else if (last != null && compareRows(row, last) == 0) {
+                            throw getDuplicateKeyException(rowData.toString());
+                        }
+                        last = row;
                     }
                 }
 
-                dataMap.putCommitted(rowData, ValueNull.INSTANCE);
+                if (append) {
+                    keys[count] = rowData;
+                    values[count] = s.currentValue;
+                    if (++count == keys.length) {
+                        dataMap.appendCommitted(keys, values, count);
+                        count = 0;
+                    }
+                } else {
+                    dataMap.putCommitted(rowData, s.currentValue);
+                }
 
                 if (s.hasNext()) {
                     queue.offer(s);
                 }
             }
+            dataMap.appendCommitted(keys, values, count);
         } finally {
             for (String tempMapName : mapNames) {
                 MVMap<ValueArray, Value> map = openMap(tempMapName);
@@ -178,6 +265,8 @@ private MVMap<ValueArray, Value> openMap(String mapName) {
         if (!keyType.equals(map.getKeyType())) {
             throw DbException.throwInternalError("Incompatible key type");
         }
+        // temporary maps are removed when opening the store
+        map.setLogged(true);
         return map;
     }
 
@@ -203,7 +292,7 @@ public void add(Session session, Row row) {
             }
         }
         try {
-            map.put(array, ValueNull.INSTANCE);
+            map.put(array, convertToValue(row));
         } catch (IllegalStateException e) {
             throw mvTable.convertException(e);
         }
@@ -255,10 +344,17 @@ public void remove(Session session, Row row) {
 
     @Override
     public Cursor find(Session session, SearchRow first, SearchRow last) {
-        return find(session, first, false, last);
+        return find(session, first, false, last, false);
     }
 
-    private Cursor find(Session session, SearchRow first, boolean bigger, SearchRow last) {
+    @Override
+    public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
+        return find(filter.getSession(), first, false, last,
+                filter.isIndexOnly());
+    }
+
+    private Cursor find(Session session, SearchRow first, boolean bigger,
+            SearchRow last, boolean indexOnly) {
         ValueArray min = convertToKey(first);
         if (min != null) {
             min.getList()[keyColumns - 1] = ValueLong.MIN;
@@ -310,6 +406,10 @@ private Cursor find(Session session, SearchRow first, boolean bigger, SearchRow
                         Collections.<Value>emptyList().iterator(), null);
             }
         }
+        if (indexOnly) {
+            return new MVStoreCursor(session, null,
+                    map.entryIterator(min, null), last);
+        }
         return new MVStoreCursor(session, map.keyIterator(min), last);
     }
 
@@ -330,6 +430,49 @@ private ValueArray convertToKey(SearchRow r) {
         return ValueArray.get(array);
     }
 
+    /**
+     * Get the map value for the given row: the values of the include columns,
+     * or NULL if there are none.
+     *
+     * @param r the row
+     * @return the value
+     */
+    private Value convertToValue(SearchRow r) {
+        if (includeColumns == null) {
+            return ValueNull.INSTANCE;
+        }
+        Value[] array = new Value[includeColumns.length];
+        for (int i = 0; i < includeColumns.length; i++) {
+            array[i] = r.getValue(includeColumns[i].getColumnId());
+        }
+        return ValueArray.get(array);
+    }
+
+    /**
+     * Convert the map key and value to a row that contains the indexed
+     * columns, the include columns, and the row key. The values of the other
+     * columns are not set.
+     *
+     * @param key the index key
+     * @param value the map value
+     * @return the row
+     */
+    Row convertToRow(ValueArray key, Value value) {
+        Row row = mvTable.getTemplateRow();
+        Value[] array = key.getList();
+        row.setKey(array[array.length - 1].getLong());
+        for (int i = 0; i < array.length - 1; i++) {
+            row.setValue(columnIds[i], array[i]);
+        }
+        if (includeColumns != null) {
+            Value[] list = ((ValueArray) value).getList();
+            for (int i = 0; i < includeColumns.length; i++) {
+                row.setValue(includeColumns[i].getColumnId(), list[i]);
+            }
+        }
+        return row;
+    }
+
     /**
      * Convert array of values to a SearchRow.
      *
@@ -445,7 +588,7 @@ public boolean canFindNext() {
 
     @Override
     public Cursor findNext(Session session, SearchRow higherThan, SearchRow last) {
-        return find(session, higherThan, true, last);
+        return find(session, higherThan, true, last, false);
     }
 
     @Override
@@ -475,22 +618,41 @@ final class MVStoreCursor implements Cursor {
         private final Session session;
         private final Iterator<Value> it;
         private final SearchRow last;
+
+        /**
+         * The iterator over the keys and values, if the rows are read from the
+         * index only.
+         */
+        private final Iterator<Entry<Value, Value>> entries;
         private Value current;
+        private Value currentValue;
         private SearchRow searchRow;
         private Row row;
 
         MVStoreCursor(Session session, Iterator<Value> it, SearchRow last) {
+            this(session, it, null, last);
+        }
+
+        MVStoreCursor(Session session, Iterator<Value> it,
+                Iterator<Entry<Value, Value>> entries, SearchRow last) {
             this.session = session;
             this.it = it;
+            this.entries = entries;
             this.last = last;
         }
 
         @Override
         public Row get() {
             if (row == null) {
-                SearchRow r = getSearchRow();
-                if (r != null) {
-                    row = mvTable.getRow(session, r.getKey());
+                if (entries != null) {
+                    if (current != null) {
+                        row = convertToRow((ValueArray) current, currentValue);
+                    }
+                } else {
+                    SearchRow r = getSearchRow();
+                    if (r != null) {
+                        row = mvTable.getRow(session, r.getKey());
+                    }
                 }
             }
             return row;
@@ -508,7 +670,18 @@ public SearchRow getSearchRow() {
 
         @Override
         public boolean next() {
-            current = it.hasNext() ? it.next() : null;
+            if (entries != null) {
+                if (entries.hasNext()) {
+                    Entry<Value, Value> e = entries.next();
+                    current = e.getKey();
+                    currentValue = e.getValue();
+                } else {
+                    current = null;
+                    currentValue = null;
+                }
+            } else {
+                current = it.hasNext() ? it.next() : null;
+            }
             searchRow = null;
             if (current != null) {
                 if (last != null && compareRows(getSearchRow(), last) > 0) {
@@ -12,6 +12,8 @@
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 import org.h2.api.DatabaseEventListener;
 import org.h2.api.ErrorCode;
@@ -496,6 +498,18 @@ public Row getRow(Session session, long key) {
     public Index addIndex(Session session, String indexName, int indexId,
             IndexColumn[] cols, IndexType indexType, boolean create,
             String indexComment) {
+        return addIndex(session, indexName, indexId, cols, null, indexType,
+                create, indexComment);
+    }
+
+    @Override
+    public Index addIndex(Session session, String indexName, int indexId,
+            IndexColumn[] cols, Column[] includeColumns, IndexType indexType,
+            boolean create, String indexComment) {
+        if (includeColumns != null &&
+                (indexType.isPrimaryKey() || indexType.isSpatial())) {
+            throw DbException.getUnsupportedException("INCLUDE");
+        }
         if (indexType.isPrimaryKey()) {
             for (IndexColumn c : cols) {
                 Column column = c.column;
@@ -515,7 +529,9 @@ public Index addIndex(Session session, String indexName, int indexId,
         int mainIndexColumn;
         mainIndexColumn = getMainIndexColumn(indexType, cols);
         if (database.isStarting()) {
-            if (transactionStore.store.hasMap("index." + indexId)) {
+            if (transactionStore.store.hasMap("index." + indexId) ||
+                    transactionStore.store.hasMap(
+                            MVHashIndex.getMapName(indexId))) {
                 mainIndexColumn = -1;
             }
         } else if (primaryIndex.getRowCountMax() != 0) {
@@ -528,9 +544,16 @@ public Index addIndex(Session session, String indexName, int indexId,
         } else if (indexType.isSpatial()) {
             index = new MVSpatialIndex(session.getDatabase(), this, indexId,
                     indexName, cols, indexType);
+        } else if (indexType.isHash() && includeColumns == null &&
+                MVHashIndex.isSupported(database, cols) &&
+                !(database.isStarting() &&
+                transactionStore.store.hasMap("index." + indexId))) {
+            // hash indexes of older databases are b-tree indexes
+            index = new MVHashIndex(session.getDatabase(), this, indexId,
+                    indexName, cols, indexType);
         } else {
             index = new MVSecondaryIndex(session.getDatabase(), this, indexId,
-                    indexName, cols, indexType);
+                    indexName, cols, includeColumns, indexType);
         }
         if (index.needRebuild()) {
             rebuildIndex(session, index, indexName);
@@ -552,8 +575,9 @@ public Index addIndex(Session session, String indexName, int indexId,
     private void rebuildIndex(Session session, MVIndex index, String indexName) {
         try {
             if (session.getDatabase().getMvStore() == null ||
-                    index instanceof MVSpatialIndex) {
-                // in-memory
+                    index instanceof MVSpatialIndex ||
+                    index instanceof MVHashIndex) {
+                // in-memory, or the index doesn't support merge sort
                 rebuildIndexBuffered(session, index);
             } else {
                 rebuildIndexBlockMerge(session, index);
@@ -592,24 +616,46 @@ private void rebuildIndexBlockMerge(Session session, MVIndex index) {
         long i = 0;
         Store store = session.getDatabase().getMvStore();
 
-        int bufferSize = database.getMaxMemoryRows() / 2;
+        // the blocks are sorted and written in parallel, while the next
+        // block is read; the total number of buffered rows stays the same
+        ForkJoinPool pool = database.getWorkerPool();
+        int parallel = pool.getParallelism();
+        int bufferSize = Math.max(database.getMaxMemoryRows() / 2 / parallel, 1);
         ArrayList<Row> buffer = new ArrayList<>(bufferSize);
         String n = getName() + ":" + index.getName();
         int t = MathUtils.convertLongToInt(total);
         ArrayList<String> bufferNames = New.arrayList();
-        while (cursor.next()) {
-            Row row = cursor.get();
-            buffer.add(row);
-            database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
-                    MathUtils.convertLongToInt(i++), t);
-            if (buffer.size() >= bufferSize) {
-                sortRows(buffer, index);
-                String mapName = store.nextTemporaryMapName();
-                index.addRowsToBuffer(buffer, mapName);
-                bufferNames.add(mapName);
-                buffer.clear();
+        ArrayDeque<ForkJoinTask<?>> tasks = new ArrayDeque<>();
+        try {
+            while (cursor.next()) {
+                Row row = cursor.get();
+                buffer.add(row);
+                database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
+                        MathUtils.convertLongToInt(i++), t);
+                if (buffer.size() >= bufferSize) {
+                    if (tasks.size() >= parallel) {
+                        tasks.removeFirst().join();
+                    }
+                    String mapName = store.nextTemporaryMapName();
+                    tasks.add(addRowsToBuffer(pool, buffer, index, mapName));
+                    bufferNames.add(mapName);
+                    buffer = new ArrayList<>(bufferSize);
+                }
+                remaining--;
+            }
+        } finally {
+            // always wait for all blocks, as they write to the store
+            RuntimeException error = null;
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.join();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw DbException.convert(error);
             }
-            remaining--;
         }
         sortRows(buffer, index);
         if (!bufferNames.isEmpty()) {
@@ -677,6 +723,18 @@ private int getMainIndexColumn(IndexType indexType, IndexColumn[] cols) {
         return first.column.getColumnId();
     }
 
+    private static ForkJoinTask<?> addRowsToBuffer(ForkJoinPool pool,
+            final ArrayList<Row> list, final MVIndex index,
+            final String mapName) {
+        return pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                sortRows(list, index);
+                index.addRowsToBuffer(list, mapName);
+            }
+        });
+    }
+
     private static void addRowsToIndex(Session session, ArrayList<Row> list,
             Index index) {
         sortRows(list, index);
@@ -21,6 +21,7 @@
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.engine.Session;
+import org.h2.index.Index;
 import org.h2.message.DbException;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.FileStore;
@@ -83,10 +84,21 @@ public static Store init(final Database db) {
                 }
                 builder.encryptionKey(password);
             }
+            builder.autoCompactFillRate(db.getSettings().autoCompactFillRate);
+            int autoCompactRate = db.getSettings().autoCompactRate;
+            if (autoCompactRate > 0) {
+                builder.autoCompactRate(autoCompactRate);
+            }
+            int offHeapCacheSize = db.getSettings().offHeapCacheSize;
+            if (offHeapCacheSize > 0) {
+                builder.offHeapCacheSize(offHeapCacheSize);
+            }
             if (db.getSettings().compressData) {
                 builder.compress();
                 // use a larger page split size to improve the compression ratio
                 builder.pageSplitSize(64 * 1024);
+                // compress the pages of large chunks concurrently
+                builder.writeThreads(Runtime.getRuntime().availableProcessors());
             }
             builder.backgroundExceptionHandler(new UncaughtExceptionHandler() {
 
@@ -164,6 +176,13 @@ void open(Database db, MVStore.Builder builder, boolean encrypted) {
                         store,
                         new ValueDataType(db.getCompareMode(), db, null));
                 transactionStore.init();
+                transactionStore.setSyncOnCommit(db.getSettings().syncOnCommit);
+                if (db.getSettings().transactionLog && fs != null &&
+                        !fs.isReadOnly() && !encrypted) {
+                    // the log is not encrypted, so it is not used then
+                    transactionStore.setLog(
+                            new TransactionLog(db.getDatabasePath()));
+                }
             } catch (IllegalStateException e) {
                 throw convertIllegalStateException(e);
             }
@@ -220,6 +239,33 @@ public void removeTable(MVTable table) {
             tableMap.remove(table.getMapName());
         }
 
+        /**
+         * Get the index that stores its data in the given map.
+         *
+         * @param mapName the map name
+         * @return the index, or null if the map does not belong to an open
+         *         table
+         */
+        public Index getIndex(String mapName) {
+            for (MVTable table : tableMap.values()) {
+                if (mapName.equals(table.getMapName())) {
+                    return table.getScanIndex(null);
+                }
+                for (Index index : table.getIndexes()) {
+                    if (index instanceof MVHashIndex) {
+                        if (mapName.equals(
+                                MVHashIndex.getMapName(index.getId()))) {
+                            return index;
+                        }
+                    } else if (index instanceof MVIndex &&
+                            mapName.equals("index." + index.getId())) {
+                        return index;
+                    }
+                }
+            }
+            return null;
+        }
+
         /**
          * Store all pending changes.
          */
@@ -244,10 +290,17 @@ public void closeImmediately() {
         }
 
         /**
-         * Commit all transactions that are in the committing state, and
-         * rollback all open transactions.
+         * Apply the changes in the redo log (if used), commit all
+         * transactions that are in the committing state, and rollback all
+         * open transactions. The tables need to be open.
          */
         public void initTransactions() {
+            if (transactionStore.hasLog()) {
+                transactionStore.replayLog();
+                for (MVTable table : tableMap.values()) {
+                    ((MVPrimaryIndex) table.getScanIndex(null)).readLastKey();
+                }
+            }
             List<Transaction> list = transactionStore.getOpenTransactions();
             for (Transaction t : list) {
                 if (t.getStatus() == Transaction.STATUS_COMMITTING) {
@@ -268,7 +321,8 @@ public void removeTemporaryMaps(BitField objectIds) {
                 if (mapName.startsWith("temp.")) {
                     MVMap<?, ?> map = store.openMap(mapName);
                     store.removeMap(map);
-                } else if (mapName.startsWith("table.") || mapName.startsWith("index.")) {
+                } else if (mapName.startsWith("table.") || mapName.startsWith("index.") ||
+                        mapName.startsWith("hash.")) {
                     int id = Integer.parseInt(mapName.substring(1 + mapName.indexOf('.')));
                     if (!objectIds.get(id)) {
                         ValueDataType keyType = new ValueDataType(null, null, null);
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import org.h2.engine.Constants;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.store.fs.FileUtils;
+
+/**
+ * An append-only redo log of committed transactions. Each record contains the
+ * changes of one transaction; it is written sequentially, and synced before
+ * the commit is acknowledged. The store itself is then only written from time
+ * to time.
+ * <p>
+ * The log consists of numbered files. When the store was written (a
+ * checkpoint), a new file is started, and the older files are deleted.
+ * <p>
+ * The format of a record is: length (int), checksum (int), data. A record
+ * that is incomplete or has a wrong checksum ends the log, as it was not
+ * fully written.
+ */
+public class TransactionLog {
+
+    /**
+     * The size of the record header (length and checksum).
+     */
+    static final int HEADER_LENGTH = 8;
+
+    private final String fileNamePrefix;
+
+    private int fileId;
+    private FileChannel file;
+    private long filePos;
+
+    /**
+     * The number of bytes appended since the log was opened.
+     */
+    private long written;
+
+    private final Object syncSync = new Object();
+
+    /**
+     * The number of bytes appended since the log was opened that are synced.
+     */
+    private long synced;
+
+    private boolean syncRunning;
+    private long syncCount;
+
+    /**
+     * Create a new log object. No file is opened.
+     *
+     * @param fileNamePrefix the file name prefix (the database name)
+     */
+    public TransactionLog(String fileNamePrefix) {
+        this.fileNamePrefix = fileNamePrefix;
+    }
+
+    /**
+     * Get the file name of the given log file.
+     *
+     * @param id the file id
+     * @return the file name
+     */
+    String getFileName(int id) {
+        return fileNamePrefix + "." + id + Constants.SUFFIX_MV_LOG_FILE;
+    }
+
+    /**
+     * Read the records of the log, starting with the given file. Files with a
+     * lower id are deleted.
+     *
+     * @param firstFileId the id of the first file
+     * @return the records
+     */
+    ArrayList<ByteBuffer> read(int firstFileId) {
+        for (int id = firstFileId - 1; id >= 0; id--) {
+            String fileName = getFileName(id);
+            if (!FileUtils.exists(fileName)) {
+                break;
+            }
+            FileUtils.delete(fileName);
+        }
+        ArrayList<ByteBuffer> records = new ArrayList<>();
+        // the new file gets the next id, so that the ids are contiguous
+        fileId = firstFileId - 1;
+        for (int id = firstFileId;; id++) {
+            String fileName = getFileName(id);
+            if (!FileUtils.exists(fileName)) {
+                break;
+            }
+            fileId = id;
+            if (!readFile(fileName, records)) {
+                // the rest of the log was not completely written
+                break;
+            }
+        }
+        return records;
+    }
+
+    private static boolean readFile(String fileName,
+            ArrayList<ByteBuffer> records) {
+        try (FileChannel f = FileUtils.open(fileName, "r")) {
+            long size = f.size();
+            long pos = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (pos + HEADER_LENGTH <= size) {
+                header.clear();
+                DataUtils.readFully(f, pos, header);
+                int length = header.getInt(0);
+                int check = header.getInt(4);
+                if (length <= 0 || pos + HEADER_LENGTH + length > size) {
+                    return false;
+                }
+                ByteBuffer buff = ByteBuffer.allocate(length);
+                DataUtils.readFully(f, pos + HEADER_LENGTH, buff);
+                if (DataUtils.getFletcher32(buff.array(), 0, length) !=
+                        check) {
+                    return false;
+                }
+                buff.rewind();
+                records.add(buff);
+                pos += HEADER_LENGTH + length;
+            }
+            return pos == size;
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_READING_FAILED,
+                    "Could not read file {0}", fileName, e);
+        }
+    }
+
+    /**
+     * Close the current file, and start a new one. The records appended so
+     * far are synced.
+     *
+     * @return the id of the new file
+     */
+    int startNewFile() {
+        lockSync();
+        try {
+            long pos;
+            synchronized (this) {
+                closeFile(true);
+                fileId++;
+                String fileName = getFileName(fileId);
+                FileUtils.delete(fileName);
+                try {
+                    file = FileUtils.open(fileName, "rw");
+                } catch (IOException e) {
+                    throw DataUtils.newIllegalStateException(
+                            DataUtils.ERROR_WRITING_FAILED,
+                            "Could not open file {0}", fileName, e);
+                }
+                filePos = 0;
+                pos = written;
+            }
+            synchronized (syncSync) {
+                synced = Math.max(synced, pos);
+            }
+            return fileId;
+        } finally {
+            unlockSync();
+        }
+    }
+
+    /**
+     * Delete the files with a lower id than the given file.
+     *
+     * @param id the id of the first file that is needed
+     */
+    void deleteFilesBefore(int id) {
+        for (int i = id - 1; i >= 0; i--) {
+            String fileName = getFileName(i);
+            if (!FileUtils.exists(fileName)) {
+                break;
+            }
+            FileUtils.delete(fileName);
+        }
+    }
+
+    /**
+     * Append a record. The data is written, but not synced.
+     *
+     * @param buff the buffer, which starts with {@link #HEADER_LENGTH} unused
+     *            bytes
+     */
+    synchronized void append(WriteBuffer buff) {
+        int length = buff.position() - HEADER_LENGTH;
+        ByteBuffer b = buff.getBuffer();
+        int check = DataUtils.getFletcher32(b.array(), HEADER_LENGTH, length);
+        buff.putInt(0, length).putInt(4, check);
+        b.flip();
+        DataUtils.writeFully(file, filePos, b);
+        filePos += HEADER_LENGTH + length;
+        written += HEADER_LENGTH + length;
+    }
+
+    /**
+     * Create a buffer for a new record.
+     *
+     * @return the buffer
+     */
+    static WriteBuffer createBuffer() {
+        WriteBuffer buff = new WriteBuffer();
+        buff.putInt(0).putInt(0);
+        return buff;
+    }
+
+    /**
+     * Sync all records that were appended so far. Concurrent calls are
+     * grouped: only one thread syncs at a time, and one sync is enough for all
+     * records that were appended before it started.
+     */
+    void sync() {
+        long pos;
+        synchronized (this) {
+            pos = written;
+        }
+        synchronized (syncSync) {
+            while (true) {
+                if (synced >= pos) {
+                    return;
+                }
+                if (!syncRunning) {
+                    syncRunning = true;
+                    break;
+                }
+                try {
+                    syncSync.wait();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }
+        try {
+            FileChannel f;
+            long upTo;
+            synchronized (this) {
+                f = file;
+                upTo = written;
+            }
+            try {
+                f.force(false);
+            } catch (IOException e) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_WRITING_FAILED,
+                        "Could not sync file {0}", getFileName(fileId), e);
+            }
+            synchronized (syncSync) {
+                synced = Math.max(synced, upTo);
+                syncCount++;
+            }
+        } finally {
+            unlockSync();
+        }
+    }
+
+    private void lockSync() {
+        synchronized (syncSync) {
+            while (syncRunning) {
+                try {
+                    syncSync.wait();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            syncRunning = true;
+        }
+    }
+
+    private void unlockSync() {
+        synchronized (syncSync) {
+            syncRunning = false;
+            syncSync.notifyAll();
+        }
+    }
+
+    /**
+     * Get the size of the current file.
+     *
+     * @return the size in bytes
+     */
+    synchronized long getFileSize() {
+        return filePos;
+    }
+
+    /**
+     * Get the number of times the log was synced.
+     *
+     * @return the number of syncs
+     */
+    long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Close the current file and delete it. This is only allowed after the
+     * store was written and synced.
+     */
+    void close() {
+        lockSync();
+        try {
+            synchronized (this) {
+                closeFile(false);
+                FileUtils.delete(getFileName(fileId));
+                deleteFilesBefore(fileId);
+            }
+        } finally {
+            unlockSync();
+        }
+    }
+
+    private void closeFile(boolean sync) {
+        if (file == null) {
+            return;
+        }
+        try {
+            if (sync) {
+                file.force(false);
+            }
+            file.close();
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Could not close file {0}", getFileName(fileId), e);
+        } finally {
+            file = null;
+        }
+    }
+
+}
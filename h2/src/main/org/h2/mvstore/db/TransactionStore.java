@@ -12,10 +12,14 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.type.DataType;
@@ -66,10 +70,96 @@ public class TransactionStore {
 
     private final BitSet openTransactions = new BitSet();
 
+    /**
+     * The number of entries per map that were added by open transactions and
+     * don't have a committed value, so that they are not visible to other
+     * transactions. Key: mapId, value: the count.
+     * <p>
+     * The counts are changed after the map is changed, without holding the
+     * write lock, so that writers are not blocked; they are only reset while
+     * holding the write lock when the undo log is empty. As each change is
+     * logged (which needs the write lock) before the map and the counts are
+     * changed, no change can be lost by resetting the counts.
+     */
+    private final ConcurrentHashMap<Integer, AtomicLong> uncommittedKeys =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The changes of the map sizes made by open transactions. Key:
+     * transactionId, value: a map from mapId to [ the change of the number of
+     * entries that are visible to the transaction, the number of added
+     * entries that are not visible to other transactions ].
+     */
+    private final ConcurrentHashMap<Integer,
+            ConcurrentHashMap<Integer, AtomicLongArray>> sizeChanges =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Whether the entry counts are known. They are not known if there were
+     * open transactions when the store was opened, or if a map was cleared
+     * while there were open transactions. In this case, they are known again
+     * as soon as the undo log is empty.
+     */
+    private volatile boolean countsKnown = true;
+
     private boolean init;
 
     private int maxTransactionId = 0xffff;
 
+    /**
+     * Whether the caller syncs the changes of committed transactions.
+     */
+    private volatile boolean syncOnCommit;
+
+    /**
+     * The redo log, or null if not used.
+     */
+    private TransactionLog log;
+
+    /**
+     * The state of the redo log (the id of the first file that is needed).
+     */
+    private MVMap<String, Integer> logState;
+
+    private final Object checkpointSync = new Object();
+
+    /**
+     * The number of committed transactions that are not in the log, and
+     * therefore need a checkpoint. Only changed while holding the write lock.
+     */
+    private volatile long checkpointRequested;
+
+    /**
+     * The value of checkpointRequested when the last checkpoint started.
+     */
+    private volatile long checkpointDone;
+
+    /**
+     * Whether the redo log was replayed. Until then, no checkpoint may be
+     * made, as this would remove the log files that still need to be applied.
+     */
+    private volatile boolean logReplayed;
+
+    /**
+     * The log file size after which a checkpoint is made.
+     */
+    private static final long LOG_FILE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The log action: only the undo log entry is removed.
+     */
+    private static final byte LOG_NONE = 0;
+
+    /**
+     * The log action: the key is removed.
+     */
+    private static final byte LOG_REMOVE = 1;
+
+    /**
+     * The log action: the value is stored.
+     */
+    private static final byte LOG_PUT = 2;
+
     /**
      * The next id of a temporary map.
      */
@@ -95,6 +185,8 @@ public TransactionStore(MVStore store, DataType dataType) {
         this.dataType = dataType;
         preparedTransactions = store.openMap("openTransactions",
                 new MVMap.Builder<Integer, Object[]>());
+        // a checkpoint is requested when preparing a transaction
+        preparedTransactions.setLogged(true);
         VersionedValueType oldValueType = new VersionedValueType(dataType);
         ArrayType undoLogValueType = new ArrayType(new DataType[]{
                 new ObjectDataType(), dataType, oldValueType
@@ -103,6 +195,7 @@ public TransactionStore(MVStore store, DataType dataType) {
                 new MVMap.Builder<Long, Object[]>().
                 valueType(undoLogValueType);
         undoLog = store.openMap("undoLog", builder);
+        undoLog.setLogged(true);
         if (undoLog.getValueType() != undoLogValueType) {
             throw DataUtils.newIllegalStateException(
                     DataUtils.ERROR_TRANSACTION_CORRUPT,
@@ -131,6 +224,7 @@ public synchronized void init() {
                     int transactionId = getTransactionId(key);
                     openTransactions.set(transactionId);
                 }
+                countsKnown = false;
             }
         } finally {
             rwLock.writeLock().unlock();
@@ -148,6 +242,164 @@ public void setMaxTransactionId(int max) {
         this.maxTransactionId = max;
     }
 
+    /**
+     * Set whether the changes of committed transactions are synced by the
+     * caller, using MVStore.commitAndSync. If enabled, the store is not
+     * committed for each transaction when auto-commit is disabled.
+     *
+     * @param syncOnCommit the new value
+     */
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * Use a redo log for the changes of committed transactions. The store is
+     * then only written at checkpoints; see {@link #syncCommitted()}. After
+     * the maps of the store are open, {@link #replayLog()} needs to be called.
+     *
+     * @param log the log
+     */
+    public void setLog(TransactionLog log) {
+        this.log = log;
+        logState = store.openMap("transactionLog");
+        // only changed when making a checkpoint
+        logState.setLogged(true);
+    }
+
+    /**
+     * Whether a redo log is used.
+     *
+     * @return true if yes
+     */
+    public boolean hasLog() {
+        return log != null;
+    }
+
+    /**
+     * Get the number of times the redo log was synced.
+     *
+     * @return the number of syncs
+     */
+    public long getLogSyncCount() {
+        return log == null ? 0 : log.getSyncCount();
+    }
+
+    /**
+     * Apply the changes of the transactions in the redo log, make them
+     * durable in the store, and start a new log file. The maps need to be
+     * open (with the right data types) before calling this method.
+     */
+    public void replayLog() {
+        if (log == null) {
+            return;
+        }
+        Integer first = logState.get("firstFile");
+        ArrayList<ByteBuffer> records = log.read(first == null ? 1 : first);
+        if (!records.isEmpty()) {
+            rwLock.writeLock().lock();
+            try {
+                BitSet open = new BitSet();
+                for (Long undoKey : undoLog.keySet()) {
+                    open.set(getTransactionId(undoKey));
+                }
+                for (ByteBuffer buff : records) {
+                    replay(buff);
+                }
+                // transactions that are committed now
+                for (int id = open.nextSetBit(0); id >= 0;
+                        id = open.nextSetBit(id + 1)) {
+                    Long undoKey = undoLog.ceilingKey(getOperationId(id, 0));
+                    if (undoKey == null || getTransactionId(undoKey) != id) {
+                        openTransactions.clear(id);
+                    }
+                }
+                if (undoLog.isEmpty()) {
+                    uncommittedKeys.clear();
+                    sizeChanges.clear();
+                    countsKnown = true;
+                }
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+        }
+        checkpoint(true);
+        logReplayed = true;
+    }
+
+    private void replay(ByteBuffer buff) {
+        int count = buff.getInt();
+        for (int i = 0; i < count; i++) {
+            long undoKey = DataUtils.readVarLong(buff);
+            int mapId = DataUtils.readVarInt(buff);
+            Object key = dataType.read(buff);
+            byte action = buff.get();
+            Object value = action == LOG_PUT ? dataType.read(buff) : null;
+            MVMap<Object, VersionedValue> map = openMap(mapId);
+            if (map == null) {
+                continue;
+            }
+            if (action == LOG_REMOVE) {
+                map.remove(key);
+            } else if (action == LOG_PUT) {
+                map.put(key, new VersionedValue(0L, value));
+            }
+            // the undo log entry might already belong to a newer transaction
+            // with the same id, in which case it is kept
+            Object[] op = undoLog.get(undoKey);
+            if (op != null && (Integer) op[0] == mapId &&
+                    map.getKeyType().compare(op[1], key) == 0) {
+                undoLog.remove(undoKey);
+            }
+        }
+    }
+
+    /**
+     * Make the changes of the committed transactions durable. With a redo
+     * log, the log is synced, and if needed a checkpoint is made; otherwise
+     * the store is committed and synced. Concurrent calls are grouped. This
+     * method must not be called while holding a lock that a committing
+     * transaction needs.
+     */
+    public void syncCommitted() {
+        if (log == null) {
+            store.commitAndSync();
+            return;
+        }
+        log.sync();
+        if (!logReplayed) {
+            // the system session commits while opening the database
+            return;
+        }
+        if (checkpointDone < checkpointRequested ||
+                log.getFileSize() > LOG_FILE_SIZE) {
+            checkpoint(false);
+        }
+    }
+
+    /**
+     * Write and sync the store, so that the older log files are no longer
+     * needed, and start a new log file.
+     *
+     * @param force whether to make a checkpoint even if none is requested
+     */
+    private void checkpoint(boolean force) {
+        synchronized (checkpointSync) {
+            long requested = checkpointRequested;
+            if (!force && checkpointDone >= requested &&
+                    log.getFileSize() <= LOG_FILE_SIZE) {
+                // another thread did it already
+                return;
+            }
+            int id = log.startNewFile();
+            logState.put("firstFile", id);
+            store.commit();
+            store.sync();
+            log.deleteFilesBefore(id);
+            checkpointDone = requested;
+        }
+    }
+
     /**
      * Combine the transaction id and the log id to an operation id.
      *
@@ -226,6 +478,14 @@ public List<Transaction> getOpenTransactions() {
      * Close the transaction store.
      */
     public synchronized void close() {
+        if (log != null && !store.isClosed()) {
+            if (logReplayed) {
+                checkpoint(true);
+            }
+            // otherwise (if opening the database failed), the log files are
+            // kept, so that they are replayed the next time
+            log.close();
+        }
         store.commit();
     }
 
@@ -347,6 +607,18 @@ void commit(Transaction t, long maxLogId) {
         int oldStatus = t.getStatus();
         try {
             t.setStatus(Transaction.STATUS_COMMITTING);
+            WriteBuffer record = null;
+            int recordCount = 0;
+            if (log != null) {
+                if (t.checkpoint || oldStatus == Transaction.STATUS_PREPARED ||
+                        store.hasUnloggedChanges()) {
+                    checkpointRequested++;
+                } else {
+                    record = TransactionLog.createBuffer();
+                    // the operation count is patched when done
+                    record.putInt(0);
+                }
+            }
             for (long logId = 0; logId < maxLogId; logId++) {
                 Long undoKey = getOperationId(t.getId(), logId);
                 Object[] op = undoLog.get(undoKey);
@@ -362,6 +634,8 @@ void commit(Transaction t, long maxLogId) {
                 }
                 int mapId = (Integer) op[0];
                 MVMap<Object, VersionedValue> map = openMap(mapId);
+                byte action = LOG_NONE;
+                Object committed = null;
                 if (map != null) { // might be null if map was removed later
                     Object key = op[1];
                     VersionedValue value = map.get(key);
@@ -369,22 +643,158 @@ void commit(Transaction t, long maxLogId) {
                         // only commit (remove/update) value if we've reached
                         // last undoLog entry for a given key
                         if (value.operationId == undoKey) {
-                            if (value.value == null) {
+                            committed = value.value;
+                            if (committed == null) {
                                 map.remove(key);
+                                action = LOG_REMOVE;
                             } else {
-                                map.put(key, new VersionedValue(0L, value.value));
+                                map.put(key, new VersionedValue(0L, committed));
+                                action = LOG_PUT;
                             }
                         }
                     }
                 }
+                if (record != null) {
+                    record.putVarLong(undoKey).putVarInt(mapId);
+                    dataType.write(record, op[1]);
+                    record.put(action);
+                    if (action == LOG_PUT) {
+                        dataType.write(record, committed);
+                    }
+                    recordCount++;
+                }
                 undoLog.remove(undoKey);
             }
+            endCounts(t);
+            if (record != null && recordCount > 0) {
+                record.putInt(TransactionLog.HEADER_LENGTH, recordCount);
+                // appended while holding the lock, so that the order of the
+                // records matches the order of the changes
+                log.append(record);
+            }
         } finally {
             rwLock.writeLock().unlock();
         }
         endTransaction(t, oldStatus);
     }
 
+    /**
+     * Update the entry counts after an entry was changed by a transaction.
+     * This method is called after the change was logged and applied to the
+     * map; it does not need to hold the write lock.
+     *
+     * @param transactionId the transaction id
+     * @param mapId the map id
+     * @param sizeChange the change of the number of entries that are visible
+     *            to the transaction
+     * @param keyChange the change of the number of entries that were added by
+     *            the transaction and are not visible to other transactions
+     */
+    void updateCounts(int transactionId, int mapId, int sizeChange,
+            int keyChange) {
+        ConcurrentHashMap<Integer, AtomicLongArray> changes =
+                sizeChanges.get(transactionId);
+        if (changes == null) {
+            changes = new ConcurrentHashMap<>();
+            ConcurrentHashMap<Integer, AtomicLongArray> old =
+                    sizeChanges.putIfAbsent(transactionId, changes);
+            if (old != null) {
+                changes = old;
+            }
+        }
+        AtomicLongArray c = changes.get(mapId);
+        if (c == null) {
+            c = new AtomicLongArray(2);
+            AtomicLongArray old = changes.putIfAbsent(mapId, c);
+            if (old != null) {
+                c = old;
+            }
+        }
+        c.addAndGet(0, sizeChange);
+        if (keyChange != 0) {
+            c.addAndGet(1, keyChange);
+            AtomicLong u = uncommittedKeys.get(mapId);
+            if (u == null) {
+                u = new AtomicLong();
+                AtomicLong old = uncommittedKeys.putIfAbsent(mapId, u);
+                if (old != null) {
+                    u = old;
+                }
+            }
+            u.addAndGet(keyChange);
+        }
+    }
+
+    /**
+     * Remove the entry counts of a transaction that is committed or rolled
+     * back. This method must be called while holding the write lock.
+     *
+     * @param t the transaction
+     */
+    private void endCounts(Transaction t) {
+        ConcurrentHashMap<Integer, AtomicLongArray> changes =
+                sizeChanges.remove(t.getId());
+        if (changes != null) {
+            for (Entry<Integer, AtomicLongArray> e : changes.entrySet()) {
+                AtomicLong u = uncommittedKeys.get(e.getKey());
+                if (u != null) {
+                    u.addAndGet(-e.getValue().get(1));
+                }
+            }
+        }
+        if (undoLog.isEmpty()) {
+            // no uncommitted changes are left
+            uncommittedKeys.clear();
+            sizeChanges.clear();
+            countsKnown = true;
+        }
+    }
+
+    /**
+     * The entry counts of the given map are no longer known, because the map
+     * was changed directly. This method must be called while holding the
+     * write lock.
+     *
+     * @param mapId the map id
+     */
+    void resetCounts(int mapId) {
+        uncommittedKeys.remove(mapId);
+        if (!undoLog.isEmpty()) {
+            countsKnown = false;
+        }
+    }
+
+    /**
+     * Get the number of entries of the map that are visible to the given
+     * transaction, using the entry counts. This method must be called while
+     * holding the read lock.
+     *
+     * @param transactionId the transaction id
+     * @param mapId the map id
+     * @param rawSize the number of entries in the map, including uncommitted
+     *            and removed entries
+     * @return the number of entries, or -1 if not known
+     */
+    long getSize(int transactionId, int mapId, long rawSize) {
+        if (!countsKnown) {
+            return -1;
+        }
+        long size = rawSize;
+        AtomicLong u = uncommittedKeys.get(mapId);
+        if (u != null) {
+            size -= u.get();
+        }
+        ConcurrentHashMap<Integer, AtomicLongArray> changes =
+                sizeChanges.get(transactionId);
+        if (changes != null) {
+            AtomicLongArray c = changes.get(mapId);
+            if (c != null) {
+                size += c.get(0);
+            }
+        }
+        return size;
+    }
+
     /**
      * Open the map with the given name.
      *
@@ -404,10 +814,11 @@ synchronized <K> MVMap<K, VersionedValue> openMap(String name,
         }
         VersionedValueType vt = new VersionedValueType(valueType);
         MVMap<K, VersionedValue> map;
-        MVMap.Builder<K, VersionedValue> builder =
-                new MVMap.Builder<K, VersionedValue>().
+        MVMapConcurrent.Builder<K, VersionedValue> builder =
+                new MVMapConcurrent.Builder<K, VersionedValue>().
                 keyType(keyType).valueType(vt);
         map = store.openMap(name, builder);
+        setLogged(map);
         @SuppressWarnings("unchecked")
         MVMap<Object, VersionedValue> m = (MVMap<Object, VersionedValue>) map;
         maps.put(map.getId(), m);
@@ -431,14 +842,27 @@ synchronized MVMap<Object, VersionedValue> openMap(int mapId) {
             return null;
         }
         VersionedValueType vt = new VersionedValueType(dataType);
-        MVMap.Builder<Object, VersionedValue> mapBuilder =
-                new MVMap.Builder<Object, VersionedValue>().
+        MVMapConcurrent.Builder<Object, VersionedValue> mapBuilder =
+                new MVMapConcurrent.Builder<Object, VersionedValue>().
                 keyType(dataType).valueType(vt);
         map = store.openMap(mapName, mapBuilder);
+        setLogged(map);
         maps.put(mapId, map);
         return map;
     }
 
+    /**
+     * Mark a transactional map as logged. The changes are written to the redo
+     * log, if one is used, but the map itself needs to exist after a crash, so
+     * creating the map still needs a sync.
+     *
+     * @param map the map
+     */
+    void setLogged(MVMap<?, VersionedValue> map) {
+        map.setLogged(true);
+        store.markUnlogged(map.getCreateVersion());
+    }
+
     /**
      * Create a temporary map. Such maps are removed when opening the store.
      *
@@ -459,7 +883,10 @@ MVMap<Object, Integer> openTempMap(String mapName) {
         MVMap.Builder<Object, Integer> mapBuilder =
                 new MVMap.Builder<Object, Integer>().
                 keyType(dataType);
-        return store.openMap(mapName, mapBuilder);
+        MVMap<Object, Integer> map = store.openMap(mapName, mapBuilder);
+        // the map is removed when opening the store
+        map.setLogged(true);
+        return map;
     }
 
     /**
@@ -474,7 +901,9 @@ synchronized void endTransaction(Transaction t, int oldStatus) {
         }
         t.setStatus(Transaction.STATUS_CLOSED);
         openTransactions.clear(t.transactionId);
-        if (oldStatus == Transaction.STATUS_PREPARED || store.getAutoCommitDelay() == 0) {
+        if (oldStatus == Transaction.STATUS_PREPARED ||
+                store.getAutoCommitDelay() == 0 && !syncOnCommit &&
+                log == null) {
             store.commit();
             return;
         }
@@ -520,16 +949,25 @@ void rollbackTo(Transaction t, long maxLogId, long toLogId) {
                 if (map != null) {
                     Object key = op[1];
                     VersionedValue oldValue = (VersionedValue) op[2];
+                    VersionedValue value;
                     if (oldValue == null) {
                         // this transaction added the value
-                        map.remove(key);
+                        value = map.remove(key);
                     } else {
                         // this transaction updated the value
-                        map.put(key, oldValue);
+                        value = map.put(key, oldValue);
                     }
+                    int sizeChange = (oldValue == null ||
+                            oldValue.value == null ? 0 : 1) -
+                            (value == null || value.value == null ? 0 : 1);
+                    updateCounts(t.getId(), mapId, sizeChange,
+                            oldValue == null ? -1 : 0);
                 }
                 undoLog.remove(undoKey);
             }
+            if (toLogId == 0) {
+                endCounts(t);
+            }
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -683,6 +1121,11 @@ public static class Transaction {
 
         private String name;
 
+        /**
+         * Whether the commit needs a checkpoint instead of a log record.
+         */
+        boolean checkpoint;
+
         Transaction(TransactionStore store, int transactionId, int status,
                 String name, long logId) {
             this.store = store;
@@ -723,6 +1166,24 @@ public long setSavepoint() {
             return logId;
         }
 
+        /**
+         * Check whether this transaction changed any data.
+         *
+         * @return true if there are log entries
+         */
+        public boolean hasChanges() {
+            return logId > 0;
+        }
+
+        /**
+         * Write the store when committing, instead of appending the changes
+         * to the redo log. This is needed if the transaction also changed
+         * data that is not transactional, for example the schema.
+         */
+        public void requireCheckpoint() {
+            checkpoint = true;
+        }
+
         /**
          * Add a log entry.
          *
@@ -785,6 +1246,7 @@ public <K, V> TransactionMap<K, V> openMap(String name,
         public <K, V> TransactionMap<K, V> openMap(
                 MVMap<K, VersionedValue> map) {
             checkNotClosed();
+            store.setLogged(map);
             int mapId = map.getId();
             return new TransactionMap<>(this, map, mapId);
         }
@@ -952,6 +1414,15 @@ public long sizeAsLong() {
             transaction.store.rwLock.readLock().lock();
             try {
                 long sizeRaw = map.sizeAsLong();
+                if (readLogId >= transaction.logId) {
+                    // all changes of this transaction are visible, so the
+                    // entry counts can be used
+                    long size = transaction.store.getSize(
+                            transaction.transactionId, mapId, sizeRaw);
+                    if (size >= 0) {
+                        return size;
+                    }
+                }
                 MVMap<Long, Object[]> undo = transaction.store.undoLog;
                 long undoLogSize;
                 synchronized (undo) {
@@ -1057,6 +1528,23 @@ public V putCommitted(K key, V value) {
             return (V) (oldValue == null ? null : oldValue.value);
         }
 
+        /**
+         * Append entries at the end of the map, without adding undo log
+         * entries. The keys need to be sorted, and larger than all keys of
+         * the map.
+         *
+         * @param keys the keys
+         * @param values the values
+         * @param count the number of entries
+         */
+        public void appendCommitted(Object[] keys, Object[] values, int count) {
+            Object[] versioned = new Object[count];
+            for (int i = 0; i < count; i++) {
+                versioned[i] = new VersionedValue(0L, values[i]);
+            }
+            map.appendSorted(keys, versioned, count);
+        }
+
         private V set(K key, V value) {
             transaction.checkNotClosed();
             V old = get(key);
@@ -1134,6 +1622,7 @@ public boolean trySet(K key, V value, boolean onlyIfUnchanged) {
             VersionedValue newValue = new VersionedValue(
                     getOperationId(transaction.transactionId, transaction.logId),
                     value);
+            TransactionStore store = transaction.store;
             if (current == null) {
                 // a new value
                 transaction.log(mapId, key, current);
@@ -1142,6 +1631,8 @@ public boolean trySet(K key, V value, boolean onlyIfUnchanged) {
                     transaction.logUndo();
                     return false;
                 }
+                store.updateCounts(transaction.transactionId, mapId,
+                        value == null ? 0 : 1, 1);
                 return true;
             }
             long id = current.operationId;
@@ -1155,6 +1646,8 @@ public boolean trySet(K key, V value, boolean onlyIfUnchanged) {
                     transaction.logUndo();
                     return false;
                 }
+                store.updateCounts(transaction.transactionId, mapId,
+                        getSizeChange(current, value), 0);
                 return true;
             }
             int tx = getTransactionId(current.operationId);
@@ -1167,12 +1660,18 @@ public boolean trySet(K key, V value, boolean onlyIfUnchanged) {
                     transaction.logUndo();
                     return false;
                 }
+                store.updateCounts(transaction.transactionId, mapId,
+                        getSizeChange(current, value), 0);
                 return true;
             }
             // the transaction is not yet committed
             return false;
         }
 
+        private static int getSizeChange(VersionedValue current, Object value) {
+            return (value == null ? 0 : 1) - (current.value == null ? 0 : 1);
+        }
+
         /**
          * Get the value for the given key at the time when this map was opened.
          *
@@ -1302,7 +1801,13 @@ public boolean isClosed() {
          */
         public void clear() {
             // TODO truncate transactionally?
-            map.clear();
+            transaction.store.rwLock.writeLock().lock();
+            try {
+                map.clear();
+                transaction.store.resetCounts(mapId);
+            } finally {
+                transaction.store.rwLock.writeLock().unlock();
+            }
         }
 
         /**
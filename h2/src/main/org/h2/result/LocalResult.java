@@ -316,12 +316,36 @@ public void addRow(Value[] values) {
         rowCount++;
         if (rows.size() > maxMemoryRows) {
             if (external == null) {
-                external = new ResultTempTable(session, expressions, false, sort);
+                external = createSortedExternal(false);
             }
             addRowsToDisk();
         }
     }
 
+    /**
+     * Create the disk buffer for a result that doesn't need to remove
+     * duplicate rows (any more). If possible, the rows are written
+     * sequentially and sorted using an external merge sort, otherwise they
+     * are stored in a temporary table.
+     *
+     * @param distinct whether the rows need to be unique
+     * @return the disk buffer
+     */
+    private ResultExternal createSortedExternal(boolean distinct) {
+        boolean lobs = false;
+        for (Expression e : expressions) {
+            int type = e.getType();
+            if (type == Value.CLOB || type == Value.BLOB) {
+                lobs = true;
+                break;
+            }
+        }
+        if (randomAccess || lobs) {
+            return new ResultTempTable(session, expressions, distinct, sort);
+        }
+        return new ResultDiskBuffer(session, sort);
+    }
+
     private void addRowsToDisk() {
         rowCount = external.addRows(rows);
         rows.clear();
@@ -353,7 +377,7 @@ public void done() {
                             break;
                         }
                         if (external == null) {
-                            external = new ResultTempTable(session, expressions, true, sort);
+                            external = createSortedExternal(true);
                         }
                         rows.add(list);
                         if (rows.size() > maxMemoryRows) {
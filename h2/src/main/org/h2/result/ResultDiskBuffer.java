@@ -0,0 +1,403 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.message.DbException;
+import org.h2.store.Data;
+import org.h2.store.FileStore;
+import org.h2.util.New;
+import org.h2.value.Value;
+
+/**
+ * This class implements the disk buffer for the LocalResult class, if the
+ * result does not need to be distinct. The rows are written sequentially to
+ * a temporary file. If the result is sorted, each block of rows is sorted in
+ * memory before it is written (a run), and when reading, the runs are merged
+ * using a loser tree (an external merge sort). If there are too many runs to
+ * merge them at once, groups of runs are first merged into longer runs.
+ */
+class ResultDiskBuffer implements ResultExternal {
+
+    /**
+     * The size of the blocks the rows are written in.
+     */
+    private static final int BLOCK_SIZE = 16 * Constants.IO_BUFFER_SIZE;
+
+    /**
+     * The maximum number of runs that are merged at the same time. Each run
+     * needs a buffer of one block while it is merged, so this limits the
+     * memory used for reading to about 4 MB.
+     */
+    private static final int MAX_MERGE_RUNS = 64;
+
+    private final Session session;
+    private final SortOrder sort;
+    private final Data rowBuff;
+    private FileStore file;
+    private long writePos = FileStore.HEADER_LENGTH;
+    private ArrayList<Tape> tapes = New.arrayList();
+    private int rowCount;
+
+    /**
+     * The merge of all tapes, or null if reading did not start yet.
+     */
+    private Merge merge;
+
+    /**
+     * Create a new disk buffer.
+     *
+     * @param session the session
+     * @param sort the sort order, or null
+     */
+    ResultDiskBuffer(Session session, SortOrder sort) {
+        this.session = session;
+        this.sort = sort;
+        Database db = session.getDatabase();
+        rowBuff = Data.create(db, BLOCK_SIZE);
+        String fileName = db.createTempFile();
+        file = db.openFile(fileName, "rw", false);
+        file.setCheckedWriting(false);
+        file.autoDelete();
+    }
+
+    @Override
+    public int addRows(ArrayList<Value[]> rows) {
+        if (rows.isEmpty()) {
+            return rowCount;
+        }
+        if (sort != null) {
+            sort.sort(rows);
+        }
+        long start = writePos;
+        initBuffer(rowBuff);
+        for (Value[] row : rows) {
+            writeRow(row);
+        }
+        flushBuffer(rowBuff);
+        Tape last = tapes.isEmpty() ? null : tapes.get(tapes.size() - 1);
+        if (sort == null && last != null) {
+            // without sort order, all rows are read in the order they were
+            // added, so there is only one run
+            last.rowCount += rows.size();
+        } else {
+            tapes.add(new Tape(start, rows.size()));
+        }
+        rowCount += rows.size();
+        return rowCount;
+    }
+
+    @Override
+    public int addRow(Value[] values) {
+        ArrayList<Value[]> rows = New.arrayList();
+        rows.add(values);
+        return addRows(rows);
+    }
+
+    private static void initBuffer(Data buff) {
+        buff.reset();
+        buff.writeInt(0);
+    }
+
+    private void writeRow(Value[] row) {
+        Data buff = rowBuff;
+        if (buff.length() > BLOCK_SIZE) {
+            flushBuffer(buff);
+            initBuffer(buff);
+        }
+        buff.checkCapacity(1 + Data.LENGTH_INT);
+        buff.writeByte((byte) 1);
+        // the rows don't always have the same number of columns
+        buff.writeInt(row.length);
+        for (Value v : row) {
+            buff.checkCapacity(buff.getValueLen(v));
+            buff.writeValue(v);
+        }
+    }
+
+    private void flushBuffer(Data buff) {
+        buff.checkCapacity(1);
+        buff.writeByte((byte) 0);
+        buff.fillAligned();
+        buff.setInt(0, buff.length() / Constants.FILE_BLOCK_SIZE);
+        // the runs that are merged are read from the same file
+        file.seek(writePos);
+        file.write(buff.getBytes(), 0, buff.length());
+        writePos += buff.length();
+    }
+
+    @Override
+    public void done() {
+        // nothing to do
+    }
+
+    @Override
+    public void reset() {
+        while (tapes.size() > MAX_MERGE_RUNS) {
+            mergeRuns();
+        }
+        for (Tape t : tapes) {
+            t.reset();
+        }
+        merge = new Merge(tapes);
+    }
+
+    /**
+     * Merge each group of MAX_MERGE_RUNS runs into one longer run. The rows
+     * of the new runs are appended to the file; the space of the old runs is
+     * not reused.
+     */
+    private void mergeRuns() {
+        ArrayList<Tape> merged = New.arrayList();
+        for (int i = 0, size = tapes.size(); i < size; i += MAX_MERGE_RUNS) {
+            ArrayList<Tape> group = New.arrayList();
+            group.addAll(tapes.subList(i, Math.min(size, i + MAX_MERGE_RUNS)));
+            int count = 0;
+            for (Tape t : group) {
+                t.reset();
+                count += t.rowCount;
+            }
+            long start = writePos;
+            initBuffer(rowBuff);
+            Merge m = new Merge(group);
+            while (true) {
+                Value[] row = m.next();
+                if (row == null) {
+                    break;
+                }
+                writeRow(row);
+            }
+            flushBuffer(rowBuff);
+            merged.add(new Tape(start, count));
+            session.checkCanceled();
+        }
+        tapes = merged;
+    }
+
+    @Override
+    public Value[] next() {
+        if (merge == null) {
+            reset();
+        }
+        return merge.next();
+    }
+
+    private Value[] readRow(Tape t) {
+        if (t.remaining == 0) {
+            return null;
+        }
+        if (t.buffer == null || t.buffer.readByte() == 0) {
+            readBlock(t);
+            t.buffer.readByte();
+        }
+        Value[] row = new Value[t.buffer.readInt()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = t.buffer.readValue();
+        }
+        if (--t.remaining == 0) {
+            // the buffer is no longer needed
+            t.buffer = null;
+        }
+        return row;
+    }
+
+    private void readBlock(Tape t) {
+        Data buff = t.buffer;
+        if (buff == null) {
+            buff = t.buffer = Data.create(session.getDatabase(), BLOCK_SIZE);
+        }
+        buff.reset();
+        int min = Constants.FILE_BLOCK_SIZE;
+        file.seek(t.pos);
+        file.readFully(buff.getBytes(), 0, min);
+        int len = buff.readInt() * Constants.FILE_BLOCK_SIZE;
+        buff.checkCapacity(len);
+        if (len - min > 0) {
+            file.readFully(buff.getBytes(), min, len - min);
+        }
+        t.pos += len;
+    }
+
+    @Override
+    public void close() {
+        if (file != null) {
+            file.autoDelete();
+            file.closeAndDeleteSilently();
+            file = null;
+        }
+    }
+
+    @Override
+    public int removeRow(Value[] values) {
+        throw DbException.getUnsupportedException("removeRow");
+    }
+
+    @Override
+    public boolean contains(Value[] values) {
+        throw DbException.getUnsupportedException("contains");
+    }
+
+    @Override
+    public ResultExternal createShallowCopy() {
+        // the file can't be shared, as each tape has its own position
+        return null;
+    }
+
+    /**
+     * The merge of a list of tapes.
+     */
+    private final class Merge {
+
+        private final ArrayList<Tape> list;
+
+        /**
+         * The current row of each tape, or null if the tape is at the end.
+         */
+        private final Value[][] heads;
+
+        /**
+         * The loser tree: the winning tape at index 0, and the losers of the
+         * inner nodes in the other elements.
+         */
+        private final int[] tree;
+
+        /**
+         * Start to merge the given tapes. The tapes must be at the first row.
+         *
+         * @param list the tapes
+         */
+        Merge(ArrayList<Tape> list) {
+            this.list = list;
+            int k = list.size();
+            heads = new Value[k][];
+            for (int i = 0; i < k; i++) {
+                heads[i] = readRow(list.get(i));
+            }
+            tree = new int[Math.max(k, 1)];
+            // initially, all nodes contain a virtual tape that wins against
+            // all other tapes
+            Arrays.fill(tree, k);
+            for (int i = k - 1; i >= 0; i--) {
+                adjust(i);
+            }
+        }
+
+        /**
+         * Get the next row in sort order.
+         *
+         * @return the row, or null if all tapes are at the end
+         */
+        Value[] next() {
+            if (list.isEmpty()) {
+                return null;
+            }
+            int winner = tree[0];
+            Value[] row = heads[winner];
+            if (row != null) {
+                heads[winner] = readRow(list.get(winner));
+                adjust(winner);
+            }
+            return row;
+        }
+
+        /**
+         * Move the given tape up the tree, after its current row changed.
+         *
+         * @param tape the index of the tape
+         */
+        private void adjust(int tape) {
+            int winner = tape;
+            for (int node = (winner + list.size()) >> 1; node > 0; node >>= 1) {
+                if (isBefore(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        /**
+         * Check whether the current row of the first tape comes before the
+         * current row of the second tape. Tapes that are at the end come
+         * last, and if the rows are equal, the tape with the lower index
+         * comes first, so that rows with the same sort key are returned in
+         * the order they were added.
+         *
+         * @param a the index of the first tape
+         * @param b the index of the second tape
+         * @return true if yes
+         */
+        private boolean isBefore(int a, int b) {
+            int k = list.size();
+            if (a == k) {
+                return true;
+            } else if (b == k) {
+                return false;
+            }
+            Value[] x = heads[a], y = heads[b];
+            if (x == null) {
+                return false;
+            } else if (y == null) {
+                return true;
+            }
+            int comp = sort == null ? 0 : sort.compare(x, y);
+            return comp < 0 || comp == 0 && a < b;
+        }
+
+    }
+
+    /**
+     * A run of rows in the file.
+     */
+    private static final class Tape {
+
+        /**
+         * The position of the first block.
+         */
+        final long start;
+
+        /**
+         * The number of rows.
+         */
+        int rowCount;
+
+        /**
+         * The position of the next block to read.
+         */
+        long pos;
+
+        /**
+         * The number of rows that were not read yet.
+         */
+        int remaining;
+
+        /**
+         * The current block, or null if no block was read yet.
+         */
+        Data buffer;
+
+        Tape(long start, int rowCount) {
+            this.start = start;
+            this.rowCount = rowCount;
+        }
+
+        /**
+         * Go back to the first row.
+         */
+        void reset() {
+            pos = start;
+            remaining = rowCount;
+            buffer = null;
+        }
+
+    }
+
+}
@@ -9,6 +9,7 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -72,6 +73,15 @@ public class TcpServer implements Service {
     private Thread listenerThread;
     private int nextThreadId;
     private String key, keyDatabase;
+    private int workers;
+    private boolean virtualThreads;
+
+    /**
+     * The maximum time in milliseconds a worker waits for the rest of a
+     * request, or 0 for no limit.
+     */
+    private int readTimeout = 30000;
+    private TcpServerDispatcher dispatcher;
 
     /**
      * Get the database name of the management database.
@@ -188,6 +198,12 @@ public void init(String... args) {
                 isDaemon = true;
             } else if (Tool.isOption(a, "-ifExists")) {
                 ifExists = true;
+            } else if (Tool.isOption(a, "-tcpWorkers")) {
+                workers = Integer.decode(args[++i]);
+            } else if (Tool.isOption(a, "-tcpVirtualThreads")) {
+                virtualThreads = true;
+            } else if (Tool.isOption(a, "-tcpReadTimeout")) {
+                readTimeout = Integer.decode(args[++i]);
             }
         }
         org.h2.Driver.load();
@@ -226,10 +242,10 @@ boolean allow(Socket socket) {
     public synchronized void start() throws SQLException {
         stop = false;
         try {
-            serverSocket = NetUtils.createServerSocket(port, ssl);
+            serverSocket = createServerSocket(port);
         } catch (DbException e) {
             if (!portIsSet) {
-                serverSocket = NetUtils.createServerSocket(0, ssl);
+                serverSocket = createServerSocket(0);
             } else {
                 throw e;
             }
@@ -238,19 +254,36 @@ public synchronized void start() throws SQLException {
         initManagementDb();
     }
 
+    private ServerSocket createServerSocket(int p) {
+        if ((workers > 0 || virtualThreads) && !ssl) {
+            // connections are served by a worker pool,
+            // which needs a selectable channel
+            return NetUtils.createServerSocketChannel(p).socket();
+        }
+        return NetUtils.createServerSocket(p, ssl);
+    }
+
     @Override
     public void listen() {
         listenerThread = Thread.currentThread();
         String threadName = listenerThread.getName();
         try {
-            while (!stop) {
-                Socket s = serverSocket.accept();
-                TcpServerThread c = new TcpServerThread(s, this, nextThreadId++);
-                running.add(c);
-                Thread thread = new Thread(c, threadName + " thread");
-                thread.setDaemon(isDaemon);
-                c.setThread(thread);
-                thread.start();
+            ServerSocketChannel channel = serverSocket.getChannel();
+            if (channel != null) {
+                int n = workers > 0 ? workers :
+                    Runtime.getRuntime().availableProcessors() * 2;
+                dispatcher = new TcpServerDispatcher(this, channel, n,
+                        virtualThreads, readTimeout, threadName);
+                dispatcher.run();
+            } else {
+                while (!stop) {
+                    Socket s = serverSocket.accept();
+                    TcpServerThread c = newConnection(s);
+                    Thread thread = new Thread(c, threadName + " thread");
+                    thread.setDaemon(isDaemon);
+                    c.setThread(thread);
+                    thread.start();
+                }
             }
             serverSocket = NetUtils.closeSilently(serverSocket);
         } catch (Exception e) {
@@ -261,6 +294,18 @@ public void listen() {
         stopManagementDb();
     }
 
+    /**
+     * Create a new connection for an accepted socket.
+     *
+     * @param s the socket
+     * @return the connection
+     */
+    TcpServerThread newConnection(Socket s) {
+        TcpServerThread c = new TcpServerThread(s, this, nextThreadId++);
+        running.add(c);
+        return c;
+    }
+
     @Override
     public synchronized boolean isRunning(boolean traceError) {
         if (serverSocket == null) {
@@ -297,6 +342,9 @@ public void stop() {
                 }
                 serverSocket = null;
             }
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
             if (listenerThread != null) {
                 try {
                     listenerThread.join(1000);
@@ -309,8 +357,13 @@ public void stop() {
         for (TcpServerThread c : new ArrayList<>(running)) {
             if (c != null) {
                 c.close();
+                Thread thread = c.getThread();
+                if (thread == null) {
+                    // served by the worker pool
+                    continue;
+                }
                 try {
-                    c.getThread().join(100);
+                    thread.join(100);
                 } catch (Exception e) {
                     DbException.traceThrowable(e);
                 }
@@ -364,6 +417,63 @@ public static void stopServer(int port, String password, int shutdownMode) {
      */
     void remove(TcpServerThread t) {
         running.remove(t);
+        if (stop && dispatcher != null) {
+            dispatcher.wakeup();
+        }
+    }
+
+    /**
+     * Check whether the server was stopped, or should stop after all
+     * connections are closed.
+     *
+     * @return true if the server was stopped
+     */
+    boolean isStopped() {
+        return stop;
+    }
+
+    /**
+     * Get the number of open connections.
+     *
+     * @return the number of connections
+     */
+    int getConnectionCount() {
+        return running.size();
+    }
+
+    /**
+     * Get the number of connections that wait for a worker thread to process
+     * their request. This is always 0 if the server does not use a worker
+     * pool (option -tcpWorkers).
+     *
+     * @return the queue depth
+     */
+    public int getWorkerQueueSize() {
+        TcpServerDispatcher d = dispatcher;
+        return d == null ? 0 : d.getQueueSize();
+    }
+
+    /**
+     * Get the number of worker threads that currently process a request. This
+     * is always 0 if the server does not use a worker pool.
+     *
+     * @return the number of active workers
+     */
+    public int getActiveWorkerCount() {
+        TcpServerDispatcher d = dispatcher;
+        return d == null ? 0 : d.getActiveCount();
+    }
+
+    /**
+     * Get the number of open connections that wait for the next request
+     * without using a thread. This is always 0 if the server does not use a
+     * worker pool.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleConnectionCount() {
+        TcpServerDispatcher d = dispatcher;
+        return d == null ? 0 : d.getIdleCount();
     }
 
     /**
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.message.DbException;
+
+/**
+ * Serves the connections of a TCP server with a limited number of worker
+ * threads. Idle connections don't use a thread: they are registered with a
+ * selector, and only once a request arrives, the connection is handed to a
+ * worker. The worker processes the request, and then gives the connection
+ * back to the selector.
+ * <p>
+ * A worker reads the request using blocking reads. So that a client that
+ * stops sending in the middle of a request can't block a worker forever, the
+ * connection is closed if no data arrives within the read timeout. A
+ * statement that waits for a lock blocks its worker at most until the lock
+ * timeout of the session.
+ */
+class TcpServerDispatcher {
+
+    private final TcpServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService executor;
+    private final SelectionKey acceptKey;
+    private final int readTimeout;
+
+    /**
+     * The connections that were processed and need to be registered with the
+     * selector again.
+     */
+    private final ConcurrentLinkedQueue<TcpServerThread> parkQueue =
+            new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile int idle;
+    private volatile boolean closed;
+
+    /**
+     * Create a new dispatcher.
+     *
+     * @param server the server
+     * @param serverChannel the bound server channel
+     * @param workers the number of worker threads
+     * @param virtualThreads whether to use a new virtual thread for each
+     *            request, if supported by the JVM
+     * @param readTimeout the maximum time in milliseconds to wait for the
+     *            rest of a request, or 0 for no limit
+     * @param threadName the name prefix of the worker threads
+     */
+    TcpServerDispatcher(TcpServer server, ServerSocketChannel serverChannel,
+            int workers, boolean virtualThreads, int readTimeout,
+            String threadName) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.readTimeout = readTimeout;
+        ExecutorService e = null;
+        if (virtualThreads) {
+            e = createVirtualThreadExecutor();
+            if (e == null) {
+                server.trace("Virtual threads are not supported, " +
+                        "using " + workers + " worker threads");
+            }
+        }
+        if (e == null) {
+            e = Executors.newFixedThreadPool(workers,
+                    new WorkerThreadFactory(threadName, server.isDaemon()));
+        }
+        executor = e;
+        selector = Selector.open();
+        serverChannel.configureBlocking(false);
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each task. The
+     * method is called using reflection, as it is only available in Java 21
+     * and newer.
+     *
+     * @return the executor, or null if not supported
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Accept new connections and dispatch incoming requests until the server
+     * is stopped and all connections are closed, or until the dispatcher is
+     * closed.
+     */
+    void run() {
+        try {
+            ArrayList<TcpServerThread> ready = new ArrayList<>();
+            while (!closed) {
+                if (server.isStopped()) {
+                    if (serverChannel.isOpen()) {
+                        serverChannel.close();
+                    }
+                    if (server.getConnectionCount() == 0) {
+                        break;
+                    }
+                }
+                selector.select();
+                TcpServerThread c;
+                while ((c = parkQueue.poll()) != null) {
+                    park(c);
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        SocketChannel channel = serverChannel.accept();
+                        if (channel != null) {
+                            // only used while the channel is blocking
+                            channel.socket().setSoTimeout(readTimeout);
+                            dispatch(server.newConnection(channel.socket()));
+                        }
+                    } else if (key.isReadable()) {
+                        key.cancel();
+                        ready.add((TcpServerThread) key.attachment());
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    // deregister the cancelled keys, so that the channels
+                    // can be switched to blocking mode
+                    selector.selectNow();
+                    for (TcpServerThread r : ready) {
+                        try {
+                            r.getChannel().configureBlocking(true);
+                            dispatch(r);
+                        } catch (Exception e) {
+                            // the connection was closed in the meantime
+                            server.traceError(e);
+                            r.close();
+                        }
+                    }
+                    ready.clear();
+                }
+                int keys = selector.keys().size();
+                idle = acceptKey.isValid() ? keys - 1 : keys;
+            }
+        } catch (Exception e) {
+            if (!closed) {
+                DbException.traceThrowable(e);
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                DbException.traceThrowable(e);
+            }
+        }
+    }
+
+    private void dispatch(final TcpServerThread c) {
+        queued.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    if (c.processAvailable()) {
+                        parkQueue.add(c);
+                        selector.wakeup();
+                    }
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void park(TcpServerThread c) {
+        try {
+            SocketChannel channel = c.getChannel();
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, c);
+        } catch (Exception e) {
+            // the connection was closed in the meantime
+            server.traceError(e);
+            c.close();
+        }
+    }
+
+    /**
+     * Wake up the selector, so that the dispatcher checks whether the server
+     * is stopped.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * Stop dispatching requests and stop the worker threads. Connections that
+     * are still open are not closed.
+     */
+    void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Get the number of requests that wait for a worker thread.
+     *
+     * @return the number of requests
+     */
+    int getQueueSize() {
+        return queued.get();
+    }
+
+    /**
+     * Get the number of worker threads that currently process a request.
+     *
+     * @return the number of workers
+     */
+    int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Get the number of open connections that currently wait for the next
+     * request and don't use a thread.
+     *
+     * @return the number of connections
+     */
+    int getIdleCount() {
+        return idle;
+    }
+
+    /**
+     * Creates the worker threads.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final boolean daemon;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String name, boolean daemon) {
+            this.name = name;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + " worker " + count.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        }
+
+    }
+
+}
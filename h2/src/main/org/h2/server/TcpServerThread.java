@@ -12,6 +12,7 @@
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Objects;
@@ -51,6 +52,7 @@ public class TcpServerThread implements Runnable {
     private Session session;
     private boolean stop;
     private Thread thread;
+    private boolean connected;
     private Command commit;
     private final SmallMap cache =
             new SmallMap(SysProperties.SERVER_CACHED_OBJECTS);
@@ -75,97 +77,9 @@ private void trace(String s) {
     @Override
     public void run() {
         try {
-            transfer.init();
-            trace("Connect");
-            // TODO server: should support a list of allowed databases
-            // and a list of allowed clients
-            try {
-                Socket socket = transfer.getSocket();
-                if (socket == null) {
-                    // the transfer is already closed, prevent NPE in TcpServer#allow(Socket)
-                    return;
-                }
-                if (!server.allow(transfer.getSocket())) {
-                    throw DbException.get(ErrorCode.REMOTE_CONNECTION_NOT_ALLOWED);
-                }
-                int minClientVersion = transfer.readInt();
-                int maxClientVersion = transfer.readInt();
-                if (maxClientVersion < Constants.TCP_PROTOCOL_VERSION_MIN_SUPPORTED) {
-                    throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
-                            "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_MIN_SUPPORTED);
-                } else if (minClientVersion > Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED) {
-                    throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
-                            "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED);
-                }
-                if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED) {
-                    clientVersion = Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED;
-                } else {
-                    clientVersion = maxClientVersion;
-                }
-                transfer.setVersion(clientVersion);
-                String db = transfer.readString();
-                String originalURL = transfer.readString();
-                if (db == null && originalURL == null) {
-                    String targetSessionId = transfer.readString();
-                    int command = transfer.readInt();
-                    stop = true;
-                    if (command == SessionRemote.SESSION_CANCEL_STATEMENT) {
-                        // cancel a running statement
-                        int statementId = transfer.readInt();
-                        server.cancelStatement(targetSessionId, statementId);
-                    } else if (command == SessionRemote.SESSION_CHECK_KEY) {
-                        // check if this is the correct server
-                        db = server.checkKeyAndGetDatabaseName(targetSessionId);
-                        if (!targetSessionId.equals(db)) {
-                            transfer.writeInt(SessionRemote.STATUS_OK);
-                        } else {
-                            transfer.writeInt(SessionRemote.STATUS_ERROR);
-                        }
-                    }
-                }
-                String baseDir = server.getBaseDir();
-                if (baseDir == null) {
-                    baseDir = SysProperties.getBaseDir();
-                }
-                db = server.checkKeyAndGetDatabaseName(db);
-                ConnectionInfo ci = new ConnectionInfo(db);
-                ci.setOriginalURL(originalURL);
-                ci.setUserName(transfer.readString());
-                ci.setUserPasswordHash(transfer.readBytes());
-                ci.setFilePasswordHash(transfer.readBytes());
-                int len = transfer.readInt();
-                for (int i = 0; i < len; i++) {
-                    ci.setProperty(transfer.readString(), transfer.readString());
-                }
-                // override client's requested properties with server settings
-                if (baseDir != null) {
-                    ci.setBaseDir(baseDir);
-                }
-                if (server.getIfExists()) {
-                    ci.setProperty("IFEXISTS", "TRUE");
-                }
-                transfer.writeInt(SessionRemote.STATUS_OK);
-                transfer.writeInt(clientVersion);
-                transfer.flush();
-                if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_13) {
-                    if (ci.getFilePasswordHash() != null) {
-                        ci.setFileEncryptionKey(transfer.readBytes());
-                    }
-                }
-                session = Engine.getInstance().createSession(ci);
-                transfer.setSession(session);
-                server.addConnection(threadId, originalURL, ci.getUserName());
-                trace("Connected");
-            } catch (Throwable e) {
-                sendError(e);
-                stop = true;
-            }
+            connect();
             while (!stop) {
-                try {
-                    process();
-                } catch (Throwable e) {
-                    sendError(e);
-                }
+                processRequest();
             }
             trace("Disconnect");
         } catch (Throwable e) {
@@ -175,6 +89,134 @@ public void run() {
         }
     }
 
+    /**
+     * Process the next requests of this connection. This method is used if
+     * the connection does not have its own thread, but is served by a worker
+     * thread of the server whenever data is available. The first call
+     * initializes the connection; later calls process all requests that were
+     * received so far, but at least one. If the connection is no longer used
+     * afterwards, it is closed.
+     *
+     * @return true if the connection is still open
+     */
+    boolean processAvailable() {
+        try {
+            if (!connected) {
+                connected = true;
+                connect();
+            } else {
+                do {
+                    processRequest();
+                } while (!stop && transfer.available() > 0);
+            }
+            if (!stop) {
+                return true;
+            }
+            trace("Disconnect");
+        } catch (Throwable e) {
+            server.traceError(e);
+        }
+        close();
+        return false;
+    }
+
+    private void connect() throws IOException {
+        transfer.init();
+        trace("Connect");
+        // TODO server: should support a list of allowed databases
+        // and a list of allowed clients
+        try {
+            Socket socket = transfer.getSocket();
+            if (socket == null) {
+                // the transfer is already closed, prevent NPE in TcpServer#allow(Socket)
+                stop = true;
+                return;
+            }
+            if (!server.allow(transfer.getSocket())) {
+                throw DbException.get(ErrorCode.REMOTE_CONNECTION_NOT_ALLOWED);
+            }
+            int minClientVersion = transfer.readInt();
+            int maxClientVersion = transfer.readInt();
+            if (maxClientVersion < Constants.TCP_PROTOCOL_VERSION_MIN_SUPPORTED) {
+                throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
+                        "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_MIN_SUPPORTED);
+            } else if (minClientVersion > Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED) {
+                throw DbException.get(ErrorCode.DRIVER_VERSION_ERROR_2,
+                        "" + clientVersion, "" + Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED);
+            }
+            if (maxClientVersion >= Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED) {
+                clientVersion = Constants.TCP_PROTOCOL_VERSION_MAX_SUPPORTED;
+            } else {
+                clientVersion = maxClientVersion;
+            }
+            transfer.setVersion(clientVersion);
+            String db = transfer.readString();
+            String originalURL = transfer.readString();
+            if (db == null && originalURL == null) {
+                String targetSessionId = transfer.readString();
+                int command = transfer.readInt();
+                stop = true;
+                if (command == SessionRemote.SESSION_CANCEL_STATEMENT) {
+                    // cancel a running statement
+                    int statementId = transfer.readInt();
+                    server.cancelStatement(targetSessionId, statementId);
+                } else if (command == SessionRemote.SESSION_CHECK_KEY) {
+                    // check if this is the correct server
+                    db = server.checkKeyAndGetDatabaseName(targetSessionId);
+                    if (!targetSessionId.equals(db)) {
+                        transfer.writeInt(SessionRemote.STATUS_OK);
+                    } else {
+                        transfer.writeInt(SessionRemote.STATUS_ERROR);
+                    }
+                }
+            }
+            String baseDir = server.getBaseDir();
+            if (baseDir == null) {
+                baseDir = SysProperties.getBaseDir();
+            }
+            db = server.checkKeyAndGetDatabaseName(db);
+            ConnectionInfo ci = new ConnectionInfo(db);
+            ci.setOriginalURL(originalURL);
+            ci.setUserName(transfer.readString());
+            ci.setUserPasswordHash(transfer.readBytes());
+            ci.setFilePasswordHash(transfer.readBytes());
+            int len = transfer.readInt();
+            for (int i = 0; i < len; i++) {
+                ci.setProperty(transfer.readString(), transfer.readString());
+            }
+            // override client's requested properties with server settings
+            if (baseDir != null) {
+                ci.setBaseDir(baseDir);
+            }
+            if (server.getIfExists()) {
+                ci.setProperty("IFEXISTS", "TRUE");
+            }
+            transfer.writeInt(SessionRemote.STATUS_OK);
+            transfer.writeInt(clientVersion);
+            transfer.flush();
+            if (clientVersion >= Constants.TCP_PROTOCOL_VERSION_13) {
+                if (ci.getFilePasswordHash() != null) {
+                    ci.setFileEncryptionKey(transfer.readBytes());
+                }
+            }
+            session = Engine.getInstance().createSession(ci);
+            transfer.setSession(session);
+            server.addConnection(threadId, originalURL, ci.getUserName());
+            trace("Connected");
+        } catch (Throwable e) {
+            sendError(e);
+            stop = true;
+        }
+    }
+
+    private void processRequest() {
+        try {
+            process();
+        } catch (Throwable e) {
+            sendError(e);
+        }
+    }
+
     private void closeSession() {
         if (session != null) {
             RuntimeException closeError = null;
@@ -224,23 +266,9 @@ void close() {
 
     private void sendError(Throwable t) {
         try {
-            SQLException e = DbException.convert(t).getSQLException();
-            StringWriter writer = new StringWriter();
-            e.printStackTrace(new PrintWriter(writer));
-            String trace = writer.toString();
-            String message;
-            String sql;
-            if (e instanceof JdbcSQLException) {
-                JdbcSQLException j = (JdbcSQLException) e;
-                message = j.getOriginalMessage();
-                sql = j.getSQL();
-            } else {
-                message = e.getMessage();
-                sql = null;
-            }
-            transfer.writeInt(SessionRemote.STATUS_ERROR).
-                    writeString(e.getSQLState()).writeString(message).
-                    writeString(sql).writeInt(e.getErrorCode()).writeString(trace).flush();
+            transfer.writeInt(SessionRemote.STATUS_ERROR);
+            writeError(t);
+            transfer.flush();
         } catch (Exception e2) {
             if (!transfer.isClosed()) {
                 server.traceError(e2);
@@ -250,6 +278,69 @@ private void sendError(Throwable t) {
         }
     }
 
+    private void writeError(Throwable t) throws IOException {
+        SQLException e = DbException.convert(t).getSQLException();
+        StringWriter writer = new StringWriter();
+        e.printStackTrace(new PrintWriter(writer));
+        String trace = writer.toString();
+        String message;
+        String sql;
+        if (e instanceof JdbcSQLException) {
+            JdbcSQLException j = (JdbcSQLException) e;
+            message = j.getOriginalMessage();
+            sql = j.getSQL();
+        } else {
+            message = e.getMessage();
+            sql = null;
+        }
+        transfer.writeString(e.getSQLState()).writeString(message).
+                writeString(sql).writeInt(e.getErrorCode()).writeString(trace);
+    }
+
+    private Object readGeneratedKeysRequest() throws IOException {
+        int mode = transfer.readInt();
+        switch (mode) {
+        case GeneratedKeysMode.NONE:
+            return false;
+        case GeneratedKeysMode.AUTO:
+            return true;
+        case GeneratedKeysMode.COLUMN_NUMBERS: {
+            int len = transfer.readInt();
+            int[] keys = new int[len];
+            for (int i = 0; i < len; i++) {
+                keys[i] = transfer.readInt();
+            }
+            return keys;
+        }
+        case GeneratedKeysMode.COLUMN_NAMES: {
+            int len = transfer.readInt();
+            String[] keys = new String[len];
+            for (int i = 0; i < len; i++) {
+                keys[i] = transfer.readString();
+            }
+            return keys;
+        }
+        default:
+            throw DbException.get(ErrorCode.CONNECTION_BROKEN_1,
+                    "Unsupported generated keys' mode " + mode);
+        }
+    }
+
+    private void writeGeneratedKeys(ResultInterface generatedKeys)
+            throws IOException {
+        int columnCount = generatedKeys.getVisibleColumnCount();
+        transfer.writeInt(columnCount);
+        int rowCount = generatedKeys.getRowCount();
+        transfer.writeInt(rowCount);
+        for (int i = 0; i < columnCount; i++) {
+            ResultColumn.writeColumn(transfer, generatedKeys, i);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            sendRow(generatedKeys);
+        }
+        generatedKeys.close();
+    }
+
     private void setParameters(Command command) throws IOException {
         int len = transfer.readInt();
         ArrayList<? extends ParameterInterface> params = command.getParameters();
@@ -356,43 +447,9 @@ private void process() throws IOException {
             Command command = (Command) cache.getObject(id, false);
             setParameters(command);
             boolean supportsGeneratedKeys = clientVersion >= Constants.TCP_PROTOCOL_VERSION_17;
-            boolean writeGeneratedKeys = supportsGeneratedKeys;
-            Object generatedKeysRequest;
-            if (supportsGeneratedKeys) {
-                int mode = transfer.readInt();
-                switch (mode) {
-                case GeneratedKeysMode.NONE:
-                    generatedKeysRequest = false;
-                    writeGeneratedKeys = false;
-                    break;
-                case GeneratedKeysMode.AUTO:
-                    generatedKeysRequest = true;
-                    break;
-                case GeneratedKeysMode.COLUMN_NUMBERS: {
-                    int len = transfer.readInt();
-                    int[] keys = new int[len];
-                    for (int i = 0; i < len; i++) {
-                        keys[i] = transfer.readInt();
-                    }
-                    generatedKeysRequest = keys;
-                    break;
-                }
-                case GeneratedKeysMode.COLUMN_NAMES: {
-                    int len = transfer.readInt();
-                    String[] keys = new String[len];
-                    for (int i = 0; i < len; i++) {
-                        keys[i] = transfer.readString();
-                    }
-                    generatedKeysRequest = keys;
-                    break;
-                }
-                default:
-                    throw DbException.get(ErrorCode.CONNECTION_BROKEN_1,
-                            "Unsupported generated keys' mode " + mode);
-                }
-            } else {
-                generatedKeysRequest = false;
-            }
+            Object generatedKeysRequest = supportsGeneratedKeys ?
+                    readGeneratedKeysRequest() : false;
+            boolean writeGeneratedKeys = !Boolean.FALSE.equals(generatedKeysRequest);
             int old = session.getModificationId();
             ResultWithGeneratedKeys result;
             synchronized (session) {
@@ -408,19 +465,52 @@ private void process() throws IOException {
             transfer.writeInt(status).writeInt(result.getUpdateCount()).
                     writeBoolean(session.getAutoCommit());
             if (writeGeneratedKeys) {
-                ResultInterface generatedKeys = result.getGeneratedKeys();
-                int columnCount = generatedKeys.getVisibleColumnCount();
-                transfer.writeInt(columnCount);
-                int rowCount = generatedKeys.getRowCount();
-                transfer.writeInt(rowCount);
-                for (int i = 0; i < columnCount; i++) {
-                    ResultColumn.writeColumn(transfer, generatedKeys, i);
+                writeGeneratedKeys(result.getGeneratedKeys());
+            }
+            transfer.flush();
+            break;
+        }
+        case SessionRemote.COMMAND_EXECUTE_BATCH_UPDATE: {
+            int id = transfer.readInt();
+            Command command = (Command) cache.getObject(id, false);
+            int size = transfer.readInt();
+            ArrayList<Value[]> batchParameters = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Value[] set = new Value[transfer.readInt()];
+                for (int j = 0; j < set.length; j++) {
+                    set[j] = transfer.readValue();
                 }
-                for (int i = 0; i < rowCount; i++) {
-                    sendRow(generatedKeys);
+                batchParameters.add(set);
+            }
+            Object generatedKeysRequest = readGeneratedKeysRequest();
+            boolean writeGeneratedKeys = !Boolean.FALSE.equals(generatedKeysRequest);
+            int old = session.getModificationId();
+            DbException[] errors = new DbException[size];
+            ResultWithGeneratedKeys[] results;
+            synchronized (session) {
+                results = command.executeBatchUpdate(batchParameters,
+                        generatedKeysRequest, errors);
+            }
+            int status;
+            if (session.isClosed()) {
+                status = SessionRemote.STATUS_CLOSED;
+                stop = true;
+            } else {
+                status = getState(old);
+            }
+            transfer.writeInt(status);
+            for (int i = 0; i < size; i++) {
+                if (errors[i] != null) {
+                    transfer.writeBoolean(false);
+                    writeError(errors[i]);
+                    continue;
+                }
+                transfer.writeBoolean(true).writeInt(results[i].getUpdateCount());
+                if (writeGeneratedKeys) {
+                    writeGeneratedKeys(results[i].getGeneratedKeys());
                 }
-                generatedKeys.close();
             }
+            transfer.writeBoolean(session.getAutoCommit());
             transfer.flush();
             break;
         }
@@ -588,6 +678,16 @@ Thread getThread() {
         return thread;
     }
 
+    /**
+     * Get the channel of the socket of this connection.
+     *
+     * @return the channel, or null if the socket is closed
+     */
+    SocketChannel getChannel() {
+        Socket socket = transfer.getSocket();
+        return socket == null ? null : socket.getChannel();
+    }
+
     /**
      * Cancel a running statement.
      *
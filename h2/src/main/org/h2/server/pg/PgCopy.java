@@ -0,0 +1,672 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.server.pg;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import org.h2.api.ErrorCode;
+import org.h2.message.DbException;
+import org.h2.util.StatementBuilder;
+import org.h2.util.StringUtils;
+
+/**
+ * A COPY statement of the PostgreSQL protocol. Supported are
+ * <code>COPY table [(column, ...)] FROM STDIN</code> and
+ * <code>COPY {table [(column, ...)] | (query)} TO STDOUT</code>, with the
+ * text and the CSV format. The options can be set using the list syntax
+ * <code>WITH (FORMAT csv, HEADER, ...)</code> and the syntax used before
+ * PostgreSQL 9.0.
+ */
+class PgCopy {
+
+    /**
+     * The table name, or null if a query is used.
+     */
+    String table;
+
+    /**
+     * The column names, or null for all columns.
+     */
+    String[] columns;
+
+    /**
+     * The query (only for COPY TO).
+     */
+    String query;
+
+    /**
+     * Whether the data is copied from the client into a table.
+     */
+    boolean from;
+
+    /**
+     * Whether the CSV format is used (the text format otherwise).
+     */
+    boolean csv;
+
+    /**
+     * Whether the first line contains the column names (only for CSV).
+     */
+    boolean header;
+
+    /**
+     * The field separator.
+     */
+    char delimiter = '\t';
+
+    /**
+     * The string that represents NULL.
+     */
+    String nullString;
+
+    /**
+     * The quote character (only for CSV).
+     */
+    char quote = '"';
+
+    /**
+     * The character used to escape the quote character (only for CSV).
+     */
+    char escape;
+
+    private final String sql;
+    private int index;
+    private boolean delimiterSet;
+
+    /**
+     * The number of lines read so far (only for COPY FROM).
+     */
+    private int line;
+
+    /**
+     * The line where the last row starts.
+     */
+    private int rowLine;
+
+    private PgCopy(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Check if the statement is a COPY statement.
+     *
+     * @param sql the statement
+     * @return true if it is
+     */
+    static boolean isCopy(String sql) {
+        sql = sql.trim();
+        return sql.length() > 4 && sql.regionMatches(true, 0, "COPY", 0, 4) &&
+                (Character.isWhitespace(sql.charAt(4)) || sql.charAt(4) == '(');
+    }
+
+    /**
+     * Parse a COPY statement.
+     *
+     * @param sql the statement
+     * @return the parsed statement
+     * @throws DbException if the statement is not valid or not supported
+     */
+    static PgCopy parse(String sql) {
+        PgCopy copy = new PgCopy(sql);
+        copy.parse();
+        return copy;
+    }
+
+    private void parse() {
+        read("COPY");
+        if (readIf("(")) {
+            int start = index;
+            for (int level = 1; level > 0;) {
+                String token = readToken();
+                if (token == null) {
+                    throw DbException.getSyntaxError(sql, index, ")");
+                } else if (token.equals("(")) {
+                    level++;
+                } else if (token.equals(")")) {
+                    level--;
+                }
+            }
+            query = sql.substring(start, index - 1);
+        } else {
+            table = readIdentifier();
+            if (readIf("(")) {
+                ArrayList<String> list = new ArrayList<>();
+                do {
+                    list.add(readIdentifier());
+                } while (readIf(","));
+                read(")");
+                columns = list.toArray(new String[0]);
+            }
+        }
+        if (readIf("FROM")) {
+            if (query != null) {
+                throw DbException.getSyntaxError(sql, index, "TO");
+            }
+            from = true;
+            read("STDIN");
+        } else {
+            read("TO");
+            read("STDOUT");
+        }
+        readIf("WITH");
+        if (readIf("(")) {
+            do {
+                parseOption();
+            } while (readIf(","));
+            read(")");
+        } else {
+            parseLegacyOptions();
+        }
+        readIf(";");
+        if (index < sql.length() && readToken() != null) {
+            throw DbException.getSyntaxError(sql, index);
+        }
+        if (csv && !delimiterSet) {
+            delimiter = ',';
+        }
+        if (nullString == null) {
+            nullString = csv ? "" : "\\N";
+        }
+        if (!csv) {
+            if (header) {
+                throw DbException.getUnsupportedException(
+                        "COPY HEADER is only available in CSV mode");
+            }
+        } else if (escape == 0) {
+            escape = quote;
+        }
+    }
+
+    private void parseOption() {
+        String name = readIdentifier();
+        if (equals(name, "FORMAT")) {
+            String format = readIdentifier();
+            if (equals(format, "CSV")) {
+                csv = true;
+            } else if (equals(format, "TEXT")) {
+                csv = false;
+            } else {
+                throw DbException.getUnsupportedException("COPY FORMAT " + format);
+            }
+        } else if (equals(name, "DELIMITER")) {
+            delimiter = readChar();
+            delimiterSet = true;
+        } else if (equals(name, "NULL")) {
+            nullString = readString();
+        } else if (equals(name, "HEADER")) {
+            header = readBooleanOption();
+        } else if (equals(name, "QUOTE")) {
+            quote = readChar();
+        } else if (equals(name, "ESCAPE")) {
+            escape = readChar();
+        } else if (equals(name, "ENCODING")) {
+            // the client encoding is used
+            readString();
+        } else {
+            throw DbException.getUnsupportedException("COPY option " + name);
+        }
+    }
+
+    private void parseLegacyOptions() {
+        while (true) {
+            if (readIf("BINARY")) {
+                throw DbException.getUnsupportedException("COPY BINARY");
+            } else if (readIf("DELIMITER")) {
+                readIf("AS");
+                delimiter = readChar();
+                delimiterSet = true;
+            } else if (readIf("NULL")) {
+                readIf("AS");
+                nullString = readString();
+            } else if (readIf("CSV")) {
+                csv = true;
+            } else if (readIf("HEADER")) {
+                header = true;
+            } else if (readIf("QUOTE")) {
+                readIf("AS");
+                quote = readChar();
+            } else if (readIf("ESCAPE")) {
+                readIf("AS");
+                escape = readChar();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private boolean readBooleanOption() {
+        int start = index;
+        String token = readToken();
+        if (token == null || token.equals(",") || token.equals(")")) {
+            index = start;
+            return true;
+        }
+        if (equals(token, "TRUE") || equals(token, "ON") || token.equals("1")) {
+            return true;
+        } else if (equals(token, "FALSE") || equals(token, "OFF") ||
+                token.equals("0")) {
+            return false;
+        }
+        throw DbException.getSyntaxError(sql, index, "TRUE, FALSE");
+    }
+
+    private static boolean equals(String token, String keyword) {
+        return token.equalsIgnoreCase(keyword) ||
+                token.equalsIgnoreCase("\"" + keyword + "\"");
+    }
+
+    private void read(String keyword) {
+        if (!readIf(keyword)) {
+            throw DbException.getSyntaxError(sql, index, keyword);
+        }
+    }
+
+    private boolean readIf(String keyword) {
+        int start = index;
+        String token = readToken();
+        if (token != null && token.equalsIgnoreCase(keyword)) {
+            return true;
+        }
+        index = start;
+        return false;
+    }
+
+    private String readIdentifier() {
+        String token = readToken();
+        if (token == null || token.startsWith("'") ||
+                "(),;".contains(token)) {
+            throw DbException.getSyntaxError(sql, index, "identifier");
+        }
+        return token;
+    }
+
+    private String readString() {
+        String token = readToken();
+        if (token == null || !token.startsWith("'")) {
+            throw DbException.getSyntaxError(sql, index, "string");
+        }
+        return StringUtils.replaceAll(
+                token.substring(1, token.length() - 1), "''", "'");
+    }
+
+    private char readChar() {
+        String s = readString();
+        if (s.length() != 1) {
+            throw DbException.getSyntaxError(sql, index, "single character");
+        }
+        return s.charAt(0);
+    }
+
+    /**
+     * Read the next token. Identifiers may be qualified and quoted, and are
+     * returned as they are written. String literals are returned including
+     * the quotes.
+     *
+     * @return the token, or null at the end of the statement
+     */
+    private String readToken() {
+        int len = sql.length();
+        while (index < len && Character.isWhitespace(sql.charAt(index))) {
+            index++;
+        }
+        if (index >= len) {
+            return null;
+        }
+        int start = index;
+        char c = sql.charAt(index);
+        if ("(),;".indexOf(c) >= 0) {
+            index++;
+        } else if (c == '\'') {
+            while (true) {
+                index = sql.indexOf('\'', index + 1);
+                if (index < 0) {
+                    index = len;
+                    throw DbException.getSyntaxError(sql, start, "'");
+                }
+                index++;
+                if (index >= len || sql.charAt(index) != '\'') {
+                    break;
+                }
+            }
+        } else {
+            while (index < len) {
+                c = sql.charAt(index);
+                if (c == '"') {
+                    int end = sql.indexOf('"', index + 1);
+                    if (end < 0) {
+                        throw DbException.getSyntaxError(sql, index, "\"");
+                    }
+                    index = end + 1;
+                } else if (Character.isWhitespace(c) || "(),;'".indexOf(c) >= 0) {
+                    break;
+                } else {
+                    index++;
+                }
+            }
+        }
+        return sql.substring(start, index);
+    }
+
+    /**
+     * Get the query that returns the rows to copy to the client.
+     *
+     * @return the query
+     */
+    String getSelect() {
+        if (query != null) {
+            return query;
+        }
+        return "SELECT " + getColumnList("*") + " FROM " + table;
+    }
+
+    /**
+     * Get the statement that inserts one row into the table.
+     *
+     * @param columnCount the number of columns
+     * @return the statement
+     */
+    String getInsert(int columnCount) {
+        StatementBuilder buff = new StatementBuilder("INSERT INTO ");
+        buff.append(table);
+        if (columns != null) {
+            buff.append('(').append(getColumnList(null)).append(')');
+        }
+        buff.append(" VALUES(");
+        for (int i = 0; i < columnCount; i++) {
+            buff.appendExceptFirst(", ");
+            buff.append('?');
+        }
+        return buff.append(')').toString();
+    }
+
+    private String getColumnList(String all) {
+        if (columns == null) {
+            return all;
+        }
+        StatementBuilder buff = new StatementBuilder();
+        for (String c : columns) {
+            buff.appendExceptFirst(", ");
+            buff.append(c);
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Read the next row sent by the client. In the CSV format, the header
+     * line is skipped.
+     *
+     * @param reader the reader
+     * @param columnCount the number of columns
+     * @return the values, or null if there are no more rows
+     * @throws DbException if the row does not have one field for each column
+     */
+    String[] readRow(Reader reader, int columnCount) throws IOException {
+        if (csv && header && line == 0 && readCsvFields(reader) == null) {
+            return null;
+        }
+        ArrayList<String> fields = csv ? readCsvFields(reader)
+                : readTextFields(reader);
+        if (fields == null) {
+            return null;
+        }
+        if (fields.size() != columnCount) {
+            // the same error as for INSERT, with the line of the data
+            throw DbException.get(ErrorCode.COLUMN_COUNT_DOES_NOT_MATCH)
+                    .addSQL(sql + ", line " + rowLine);
+        }
+        return fields.toArray(new String[columnCount]);
+    }
+
+    /**
+     * Read a row in the text format. Backslash escape sequences are decoded.
+     *
+     * @param reader the reader
+     * @return the values, or null if there are no more rows
+     */
+    private ArrayList<String> readTextFields(Reader reader) throws IOException {
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder buff = new StringBuilder();
+        while (true) {
+            int ch = reader.read();
+            if (ch < 0) {
+                if (fields.isEmpty() && buff.length() == 0) {
+                    return null;
+                }
+                break;
+            } else if (ch == '\n') {
+                int last = buff.length() - 1;
+                if (last >= 0 && buff.charAt(last) == '\r') {
+                    buff.setLength(last);
+                }
+                break;
+            } else if (ch == '\\') {
+                buff.append('\\');
+                ch = reader.read();
+                if (ch >= 0) {
+                    buff.append((char) ch);
+                }
+            } else if (ch == delimiter) {
+                fields.add(buff.toString());
+                buff.setLength(0);
+            } else {
+                buff.append((char) ch);
+            }
+        }
+        fields.add(buff.toString());
+        rowLine = ++line;
+        if (fields.size() == 1 && fields.get(0).equals("\\.")) {
+            // end of data marker
+            return null;
+        }
+        for (int i = 0, size = fields.size(); i < size; i++) {
+            String f = fields.get(i);
+            fields.set(i, f.equals(nullString) ? null : unescapeText(f));
+        }
+        return fields;
+    }
+
+    /**
+     * Read a row in the CSV format. Quoted values may contain line breaks. An
+     * unquoted value that matches the null string is NULL.
+     *
+     * @param reader the reader
+     * @return the values, or null if there are no more rows
+     */
+    private ArrayList<String> readCsvFields(Reader reader) throws IOException {
+        int ch = reader.read();
+        if (ch < 0) {
+            return null;
+        }
+        rowLine = ++line;
+        ArrayList<String> fields = new ArrayList<>();
+        StringBuilder buff = new StringBuilder();
+        boolean inQuotes = false, quoted = false;
+        while (true) {
+            if (inQuotes) {
+                if (ch < 0) {
+                    // missing closing quote
+                    inQuotes = false;
+                } else if (ch == escape && escape != quote) {
+                    ch = reader.read();
+                    if (ch != quote && ch != escape) {
+                        buff.append(escape);
+                    } else {
+                        buff.append((char) ch);
+                        ch = reader.read();
+                    }
+                } else if (ch == quote) {
+                    ch = reader.read();
+                    if (ch == quote && escape == quote) {
+                        buff.append(quote);
+                        ch = reader.read();
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    if (ch == '\n') {
+                        line++;
+                    }
+                    buff.append((char) ch);
+                    ch = reader.read();
+                }
+                continue;
+            }
+            if (ch < 0 || ch == '\n' || ch == delimiter) {
+                String v = buff.toString();
+                if (ch != delimiter && fields.isEmpty() && !quoted &&
+                        v.equals("\\.")) {
+                    // end of data marker
+                    return null;
+                }
+                fields.add(!quoted && v.equals(nullString) ? null : v);
+                buff.setLength(0);
+                quoted = false;
+                if (ch != delimiter) {
+                    break;
+                }
+            } else if (ch == quote) {
+                inQuotes = true;
+                quoted = true;
+            } else if (ch != '\r') {
+                buff.append((char) ch);
+            }
+            ch = reader.read();
+        }
+        return fields;
+    }
+
+    private static String unescapeText(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder buff = new StringBuilder(s.length());
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= len) {
+                buff.append(c);
+                continue;
+            }
+            c = s.charAt(++i);
+            switch (c) {
+            case 'b':
+                buff.append('\b');
+                break;
+            case 'f':
+                buff.append('\f');
+                break;
+            case 'n':
+                buff.append('\n');
+                break;
+            case 'r':
+                buff.append('\r');
+                break;
+            case 't':
+                buff.append('\t');
+                break;
+            case 'v':
+                buff.append('\u000b');
+                break;
+            case 'x': {
+                int end = i + 1;
+                while (end < len && end < i + 3 &&
+                        Character.digit(s.charAt(end), 16) >= 0) {
+                    end++;
+                }
+                if (end == i + 1) {
+                    buff.append(c);
+                } else {
+                    buff.append((char) Integer.parseInt(s.substring(i + 1, end), 16));
+                    i = end - 1;
+                }
+                break;
+            }
+            default:
+                if (c >= '0' && c <= '7') {
+                    int end = i + 1;
+                    while (end < len && end < i + 3 &&
+                            s.charAt(end) >= '0' && s.charAt(end) <= '7') {
+                        end++;
+                    }
+                    buff.append((char) Integer.parseInt(s.substring(i, end), 8));
+                    i = end - 1;
+                } else {
+                    buff.append(c);
+                }
+            }
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Format a row in the text or CSV format, including the line terminator.
+     *
+     * @param values the values
+     * @return the formatted row
+     */
+    String formatRow(String[] values) {
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                buff.append(delimiter);
+            }
+            String v = values[i];
+            if (v == null) {
+                buff.append(nullString);
+            } else if (csv) {
+                appendCsv(buff, v);
+            } else {
+                appendText(buff, v);
+            }
+        }
+        return buff.append('\n').toString();
+    }
+
+    private void appendCsv(StringBuilder buff, String v) {
+        boolean quoted = v.isEmpty() || v.equals(nullString) ||
+                v.indexOf(delimiter) >= 0 || v.indexOf(quote) >= 0 ||
+                v.indexOf('\r') >= 0 || v.indexOf('\n') >= 0;
+        if (!quoted) {
+            buff.append(v);
+            return;
+        }
+        buff.append(quote);
+        for (int i = 0, len = v.length(); i < len; i++) {
+            char c = v.charAt(i);
+            if (c == quote || c == escape) {
+                buff.append(escape);
+            }
+            buff.append(c);
+        }
+        buff.append(quote);
+    }
+
+    private void appendText(StringBuilder buff, String v) {
+        for (int i = 0, len = v.length(); i < len; i++) {
+            char c = v.charAt(i);
+            switch (c) {
+            case '\\':
+                buff.append("\\\\");
+                break;
+            case '\n':
+                buff.append("\\n");
+                break;
+            case '\r':
+                buff.append("\\r");
+                break;
+            case '\t':
+                buff.append("\\t");
+                break;
+            default:
+                if (c == delimiter) {
+                    buff.append('\\');
+                }
+                buff.append(c);
+            }
+        }
+    }
+
+}
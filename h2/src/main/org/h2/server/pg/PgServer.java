@@ -64,7 +64,9 @@ public class PgServer implements Service {
     public static final int PG_TYPE_DATE = 1082;
     public static final int PG_TYPE_TIME = 1083;
     public static final int PG_TYPE_TIMESTAMP_NO_TMZONE = 1114;
+    public static final int PG_TYPE_TIMESTAMP_TZ = 1184;
     public static final int PG_TYPE_NUMERIC = 1700;
+    public static final int PG_TYPE_UUID = 2950;
 
     private final HashSet<Integer> typeSet = new HashSet<>();
 
@@ -534,6 +536,8 @@ public static int convertType(final int type) {
             return PG_TYPE_DATE;
         case Types.TIMESTAMP:
             return PG_TYPE_TIMESTAMP_NO_TMZONE;
+        case 2014: // Types.TIMESTAMP_WITH_TIMEZONE
+            return PG_TYPE_TIMESTAMP_TZ;
         case Types.VARBINARY:
             return PG_TYPE_BYTEA;
         case Types.BLOB:
@@ -5,6 +5,7 @@
  */
 package org.h2.server.pg;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -16,6 +17,9 @@
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.net.Socket;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -25,6 +29,7 @@
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.HashMap;
@@ -34,6 +39,7 @@
 import org.h2.command.CommandInterface;
 import org.h2.engine.ConnectionInfo;
 import org.h2.engine.Constants;
+import org.h2.engine.Session;
 import org.h2.engine.SysProperties;
 import org.h2.jdbc.JdbcConnection;
 import org.h2.jdbc.JdbcPreparedStatement;
@@ -48,16 +54,33 @@
 import org.h2.util.Utils;
 import org.h2.value.CaseInsensitiveMap;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueBoolean;
+import org.h2.value.ValueBytes;
 import org.h2.value.ValueDate;
+import org.h2.value.ValueDecimal;
+import org.h2.value.ValueDouble;
+import org.h2.value.ValueFloat;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueLong;
 import org.h2.value.ValueNull;
+import org.h2.value.ValueShort;
+import org.h2.value.ValueString;
 import org.h2.value.ValueTime;
 import org.h2.value.ValueTimestamp;
+import org.h2.value.ValueTimestampTimeZone;
+import org.h2.value.ValueUuid;
 
 /**
  * One server thread is opened for each client.
  */
 public class PgServerThread implements Runnable {
     private static final boolean INTEGER_DATE_TYPES = false;
+    private static final int COPY_BATCH_SIZE = 1000;
+    private static final int NUMERIC_POSITIVE = 0x0000;
+    private static final int NUMERIC_NEGATIVE = 0x4000;
+    private static final BigInteger NUMERIC_BASE = BigInteger.valueOf(10_000);
+    private static final long MICROS_PER_DAY = 86_400_000_000L;
 
     private final PgServer server;
     private Socket socket;
@@ -276,6 +299,7 @@ private void process() throws IOException {
             server.trace("Bind");
             Portal portal = new Portal();
             portal.name = readString();
+            dropPortal(portals.remove(portal.name));
             String prepName = readString();
             Prepared prep = prepared.get(prepName);
             if (prep == null) {
@@ -283,6 +307,12 @@ private void process() throws IOException {
                 break;
             }
             portal.prep = prep;
+            try {
+                portal.stat = getPortalStatement(prep);
+            } catch (Exception e) {
+                sendErrorResponse(e);
+                break;
+            }
             portals.put(portal.name, portal);
             int formatCodeCount = readShort();
             int[] formatCodes = new int[formatCodeCount];
@@ -292,7 +322,7 @@ private void process() throws IOException {
             int paramCount = readShort();
             try {
                 for (int i = 0; i < paramCount; i++) {
-                    setParameter(prep.prep, prep.paramType[i], i, formatCodes);
+                    setParameter(portal.stat, prep.paramType[i], i, formatCodes);
                 }
             } catch (Exception e) {
                 sendErrorResponse(e);
@@ -316,7 +346,7 @@ private void process() throws IOException {
                     JdbcUtils.closeSilently(p.prep);
                 }
             } else if (type == 'P') {
-                portals.remove(name);
+                dropPortal(portals.remove(name));
             } else {
                 server.trace("expected S or P, got " + type);
                 sendErrorResponse("expected S or P");
@@ -346,9 +376,8 @@ private void process() throws IOException {
                 if (p == null) {
                     sendErrorResponse("Portal not found: " + name);
                 } else {
-                    PreparedStatement prep = p.prep.prep;
                     try {
-                        ResultSetMetaData meta = prep.getMetaData();
+                        ResultSetMetaData meta = p.stat.getMetaData();
                         sendRowDescription(meta);
                     } catch (Exception e) {
                         sendErrorResponse(e);
@@ -368,23 +397,37 @@ private void process() throws IOException {
                 sendErrorResponse("Portal not found: " + name);
                 break;
             }
-            int maxRows = readShort();
-            Prepared prepared = p.prep;
-            JdbcPreparedStatement prep = prepared.prep;
-            server.trace(prepared.sql);
+            int maxRows = readInt();
+            JdbcPreparedStatement prep = p.stat;
+            server.trace(p.prep.sql);
+            if (p.result != null) {
+                // resume a suspended portal
+                try {
+                    sendDataRows(p, maxRows);
+                } catch (Exception e) {
+                    closePortal(p);
+                    sendErrorResponse(e);
+                }
+                break;
+            }
+            Session session = (Session) ((JdbcConnection) conn).getSession();
+            boolean lazy = session.isLazyQueryExecution();
             try {
-                prep.setMaxRows(maxRows);
+                prep.setMaxRows(0);
                 setActiveRequest(prep);
+                if (maxRows > 0) {
+                    // the rows are fetched in batches,
+                    // so they don't need to be kept in memory
+                    session.setLazyQueryExecution(true);
+                }
                 boolean result = prep.execute();
                 if (result) {
                     try {
-                        ResultSet rs = prep.getResultSet();
+                        p.result = prep.getResultSet();
                         // the meta-data is sent in the prior 'Describe'
-                        while (rs.next()) {
-                            sendDataRow(rs, p.resultColumnFormat);
-                        }
-                        sendCommandComplete(prep, 0);
+                        sendDataRows(p, maxRows);
                     } catch (Exception e) {
+                        closePortal(p);
                         sendErrorResponse(e);
                     }
                 } else {
@@ -397,6 +440,7 @@ private void process() throws IOException {
                     sendErrorResponse(e);
                 }
             } finally {
+                session.setLazyQueryExecution(lazy);
                 setActiveRequest(null);
             }
             break;
@@ -417,6 +461,10 @@ private void process() throws IOException {
                     if (s == null) {
                         break;
                     }
+                    if (PgCopy.isCopy(s)) {
+                        copy(s);
+                        continue;
+                    }
                     s = getSQL(s);
                     stat = (JdbcStatement) conn.createStatement();
                     setActiveRequest(stat);
@@ -426,8 +474,10 @@ private void process() throws IOException {
                         ResultSetMetaData meta = rs.getMetaData();
                         try {
                             sendRowDescription(meta);
+                            int[] pgTypes = getColumnTypes(meta);
+                            boolean[] text = getColumnFormats(pgTypes, null);
                             while (rs.next()) {
-                                sendDataRow(rs, null);
+                                sendDataRow(rs, pgTypes, text);
                             }
                             sendCommandComplete(stat, 0);
                         } catch (Exception e) {
@@ -463,6 +513,168 @@ private void process() throws IOException {
         }
     }
 
+    private void copy(String sql) throws SQLException, IOException {
+        PgCopy copy;
+        try {
+            copy = PgCopy.parse(sql);
+        } catch (DbException e) {
+            throw e.getSQLException();
+        }
+        if (copy.from) {
+            copyIn(copy);
+        } else {
+            copyOut(copy);
+        }
+    }
+
+    /**
+     * Copy the rows sent by the client into the table. The rows are inserted
+     * in batches, and if auto-commit is enabled, within one transaction. If
+     * the copy fails, all rows are rolled back, but not the changes the
+     * current transaction made before.
+     *
+     * @param copy the COPY statement
+     */
+    private void copyIn(PgCopy copy) throws SQLException, IOException {
+        int columnCount;
+        try (PreparedStatement prep = conn.prepareStatement(copy.getSelect())) {
+            columnCount = prep.getMetaData().getColumnCount();
+        }
+        PreparedStatement prep = conn.prepareStatement(copy.getInsert(columnCount));
+        boolean autoCommit = conn.getAutoCommit();
+        CopyInputStream in = new CopyInputStream();
+        long rowCount = 0;
+        boolean success = false;
+        Savepoint savepoint = null;
+        try {
+            sendCopyResponse('G', columnCount);
+            if (autoCommit) {
+                conn.setAutoCommit(false);
+            } else {
+                savepoint = conn.setSavepoint();
+            }
+            Reader reader = new BufferedReader(new InputStreamReader(in,
+                    getEncoding()), Constants.IO_BUFFER_SIZE);
+            while (true) {
+                String[] row = copy.readRow(reader, columnCount);
+                if (row == null) {
+                    break;
+                }
+                for (int i = 0; i < columnCount; i++) {
+                    prep.setString(i + 1, row[i]);
+                }
+                rowCount = addCopyBatch(prep, rowCount);
+            }
+            prep.executeBatch();
+            if (autoCommit) {
+                conn.commit();
+            }
+            success = true;
+        } catch (DbException e) {
+            throw e.getSQLException();
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null).getSQLException();
+        } finally {
+            // the rest of the data is ignored
+            in.skipRemaining();
+            if (autoCommit) {
+                if (!success) {
+                    conn.rollback();
+                }
+                conn.setAutoCommit(true);
+            } else if (savepoint != null) {
+                if (success) {
+                    conn.releaseSavepoint(savepoint);
+                } else {
+                    conn.rollback(savepoint);
+                }
+            }
+            JdbcUtils.closeSilently(prep);
+        }
+        sendCopyComplete(rowCount);
+    }
+
+    private static long addCopyBatch(PreparedStatement prep, long rowCount)
+            throws SQLException {
+        prep.addBatch();
+        if (++rowCount % COPY_BATCH_SIZE == 0) {
+            prep.executeBatch();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Send the result of the query to the client. The query is run with lazy
+     * query execution, so that large results are streamed.
+     *
+     * @param copy the COPY statement
+     */
+    private void copyOut(PgCopy copy) throws SQLException, IOException {
+        JdbcStatement stat = (JdbcStatement) conn.createStatement();
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        boolean lazy = session.isLazyQueryExecution();
+        try {
+            setActiveRequest(stat);
+            session.setLazyQueryExecution(true);
+            ResultSet rs = stat.executeQuery(copy.getSelect());
+            ResultSetMetaData meta = rs.getMetaData();
+            int columnCount = meta.getColumnCount();
+            sendCopyResponse('H', columnCount);
+            String[] row = new String[columnCount];
+            if (copy.header) {
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = meta.getColumnLabel(i + 1);
+                }
+                sendCopyData(copy.formatRow(row));
+            }
+            long rowCount = 0;
+            while (rs.next()) {
+                for (int i = 0; i < columnCount; i++) {
+                    Value v = ((JdbcResultSet) rs).get(i + 1);
+                    if (v == ValueNull.INSTANCE) {
+                        row[i] = null;
+                    } else if (v.getType() == Value.BOOLEAN) {
+                        row[i] = v.getBoolean() ? "t" : "f";
+                    } else {
+                        row[i] = v.getString();
+                    }
+                }
+                sendCopyData(copy.formatRow(row));
+                rowCount++;
+            }
+            startMessage('c');
+            sendMessage();
+            sendCopyComplete(rowCount);
+        } finally {
+            session.setLazyQueryExecution(lazy);
+            setActiveRequest(null);
+            JdbcUtils.closeSilently(stat);
+        }
+    }
+
+    private void sendCopyResponse(char type, int columnCount) throws IOException {
+        startMessage(type);
+        // text format
+        write(0);
+        writeShort(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            writeShort(0);
+        }
+        sendMessage();
+    }
+
+    private void sendCopyData(String row) throws IOException {
+        startMessage('d');
+        write(row.getBytes(getEncoding()));
+        sendMessage();
+    }
+
+    private void sendCopyComplete(long rowCount) throws IOException {
+        startMessage('C');
+        writeString("COPY " + rowCount);
+        sendMessage();
+    }
+
     private String getSQL(String s) {
         String lower = StringUtils.toLowerEnglish(s);
         if (lower.startsWith("show max_identifier_length")) {
@@ -477,6 +689,76 @@ private String getSQL(String s) {
         return s;
     }
 
+    /**
+     * Send the rows of the open result set of the portal. If the row limit is
+     * reached before the end of the result, the portal is suspended, and the
+     * next 'Execute' continues with the following row.
+     *
+     * @param p the portal
+     * @param maxRows the maximum number of rows to send, or 0 for all rows
+     */
+    private void sendDataRows(Portal p, int maxRows) throws Exception {
+        ResultSet rs = p.result;
+        int[] pgTypes = getColumnTypes(rs.getMetaData());
+        boolean[] text = getColumnFormats(pgTypes, p.resultColumnFormat);
+        for (int i = 0; maxRows <= 0 || i < maxRows; i++) {
+            if (!rs.next()) {
+                closePortal(p);
+                sendCommandComplete(p.stat, 0);
+                return;
+            }
+            sendDataRow(rs, pgTypes, text);
+        }
+        sendPortalSuspended();
+    }
+
+    private static void closePortal(Portal p) {
+        if (p != null && p.result != null) {
+            JdbcUtils.closeSilently(p.result);
+            p.result = null;
+        }
+    }
+
+    /**
+     * Close the portal, and its statement if the portal has its own.
+     *
+     * @param p the portal, or null
+     */
+    private static void dropPortal(Portal p) {
+        if (p != null) {
+            closePortal(p);
+            if (p.stat != p.prep.prep) {
+                JdbcUtils.closeSilently(p.stat);
+            }
+        }
+    }
+
+    /**
+     * Get the statement to run a new portal of the given prepared object. A
+     * statement keeps the parameter values of the portal, and executing it
+     * closes its open result (with lazy query execution, the parameters are
+     * read while the rows are fetched). So if another portal uses the
+     * statement of the prepared object, the new portal gets a statement of
+     * its own.
+     *
+     * @param prep the prepared object
+     * @return the statement
+     */
+    private JdbcPreparedStatement getPortalStatement(Prepared prep)
+            throws SQLException {
+        for (Portal p : portals.values()) {
+            if (p.stat == prep.prep) {
+                return (JdbcPreparedStatement) conn.prepareStatement(prep.sql);
+            }
+        }
+        return prep.prep;
+    }
+
+    private void sendPortalSuspended() throws IOException {
+        startMessage('s');
+        sendMessage();
+    }
+
     private void sendCommandComplete(JdbcStatement stat, int updateCount)
             throws IOException {
         startMessage('C');
@@ -508,24 +790,63 @@ private void sendCommandComplete(JdbcStatement stat, int updateCount)
         sendMessage();
     }
 
-    private void sendDataRow(ResultSet rs, int[] formatCodes) throws Exception {
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columns = metaData.getColumnCount();
-        startMessage('D');
-        writeShort(columns);
-        for (int i = 1; i <= columns; i++) {
-            int pgType = PgServer.convertType(metaData.getColumnType(i));
-            boolean text = formatAsText(pgType);
+    /**
+     * Get the PostgreSQL types of the columns of a result.
+     *
+     * @param meta the result set meta data
+     * @return the types
+     */
+    private static int[] getColumnTypes(ResultSetMetaData meta)
+            throws SQLException {
+        int columns = meta.getColumnCount();
+        int[] pgTypes = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            pgTypes[i] = getPgType(meta, i + 1);
+        }
+        return pgTypes;
+    }
+
+    private static int getPgType(ResultSetMetaData meta, int column)
+            throws SQLException {
+        int type = meta.getColumnType(column);
+        if (type == Types.BINARY && "UUID".equals(meta.getColumnTypeName(column))) {
+            return PgServer.PG_TYPE_UUID;
+        }
+        return PgServer.convertType(type);
+    }
+
+    /**
+     * Get the formats of the columns of a result.
+     *
+     * @param pgTypes the column types
+     * @param formatCodes the format codes requested by the client, or null
+     * @return for each column, true for text and false for binary
+     */
+    private static boolean[] getColumnFormats(int[] pgTypes, int[] formatCodes) {
+        boolean[] text = new boolean[pgTypes.length];
+        for (int i = 0; i < pgTypes.length; i++) {
+            boolean t = formatAsText(pgTypes[i]);
             if (formatCodes != null) {
                 if (formatCodes.length == 0) {
-                    text = true;
+                    t = true;
                 } else if (formatCodes.length == 1) {
-                    text = formatCodes[0] == 0;
-                } else if (i - 1 < formatCodes.length) {
-                    text = formatCodes[i - 1] == 0;
+                    t = formatCodes[0] == 0;
+                } else if (i < formatCodes.length) {
+                    t = formatCodes[i] == 0;
                 }
             }
-            writeDataColumn(rs, i, pgType, text);
+            text[i] = t;
+        }
+        return text;
+    }
+
+    private void sendDataRow(ResultSet rs, int[] pgTypes, boolean[] text)
+            throws Exception {
+        JdbcResultSet result = (JdbcResultSet) rs;
+        startMessage('D');
+        writeShort(pgTypes.length);
+        for (int i = 0; i < pgTypes.length; i++) {
+            writeDataColumn(result.get(i + 1), pgTypes[i], text[i]);
         }
         sendMessage();
     }
@@ -534,9 +855,8 @@ private static long toPostgreDays(long dateValue) {
         return DateTimeUtils.prolepticGregorianAbsoluteDayFromDateValue(dateValue) - 10_957;
     }
 
-    private void writeDataColumn(ResultSet rs, int column, int pgType, boolean text)
-            throws Exception {
-        Value v = ((JdbcResultSet) rs).get(column);
+    private void writeDataColumn(Value v, int pgType, boolean text)
+            throws IOException {
         if (v == ValueNull.INSTANCE) {
             writeInt(-1);
             return;
@@ -554,72 +874,204 @@ private void writeDataColumn(ResultSet rs, int column, int pgType, boolean text)
                 write(data);
             }
         } else {
-            // binary
-            switch (pgType) {
-            case PgServer.PG_TYPE_INT2:
-                writeInt(2);
-                writeShort(v.getShort());
-                break;
-            case PgServer.PG_TYPE_INT4:
-                writeInt(4);
-                writeInt(v.getInt());
-                break;
-            case PgServer.PG_TYPE_INT8:
-                writeInt(8);
-                dataOut.writeLong(v.getLong());
-                break;
-            case PgServer.PG_TYPE_FLOAT4:
-                writeInt(4);
-                dataOut.writeFloat(v.getFloat());
-                break;
-            case PgServer.PG_TYPE_FLOAT8:
-                writeInt(8);
-                dataOut.writeDouble(v.getDouble());
-                break;
-            case PgServer.PG_TYPE_BYTEA: {
-                byte[] data = v.getBytesNoCopy();
-                writeInt(data.length);
-                write(data);
-                break;
+            writeBinaryValue(v, pgType);
+        }
+    }
+
+    /**
+     * Write a value in the binary format, including the length.
+     *
+     * @param v the value (not null)
+     * @param pgType the PostgreSQL type
+     */
+    private void writeBinaryValue(Value v, int pgType) throws IOException {
+        switch (pgType) {
+        case PgServer.PG_TYPE_BOOL:
+            writeInt(1);
+            dataOut.writeByte(v.getBoolean() ? 1 : 0);
+            break;
+        case PgServer.PG_TYPE_INT2:
+            writeInt(2);
+            writeShort(v.getShort());
+            break;
+        case PgServer.PG_TYPE_INT4:
+            writeInt(4);
+            writeInt(v.getInt());
+            break;
+        case PgServer.PG_TYPE_INT8:
+            writeInt(8);
+            dataOut.writeLong(v.getLong());
+            break;
+        case PgServer.PG_TYPE_FLOAT4:
+            writeInt(4);
+            dataOut.writeFloat(v.getFloat());
+            break;
+        case PgServer.PG_TYPE_FLOAT8:
+            writeInt(8);
+            dataOut.writeDouble(v.getDouble());
+            break;
+        case PgServer.PG_TYPE_NUMERIC:
+            writeNumeric(v.getBigDecimal());
+            break;
+        case PgServer.PG_TYPE_BYTEA: {
+            byte[] data = v.getBytesNoCopy();
+            writeInt(data.length);
+            write(data);
+            break;
+        }
+        case PgServer.PG_TYPE_DATE: {
+            ValueDate d = (ValueDate) v.convertTo(Value.DATE);
+            writeInt(4);
+            writeInt((int) (toPostgreDays(d.getDateValue())));
+            break;
+        }
+        case PgServer.PG_TYPE_TIME: {
+            ValueTime t = (ValueTime) v.convertTo(Value.TIME);
+            writeInt(8);
+            long m = t.getNanos();
+            if (INTEGER_DATE_TYPES) {
+                // long format
+                m /= 1_000;
+            } else {
+                // double format
+                m = Double.doubleToLongBits(m * 0.000_000_001);
             }
-            case PgServer.PG_TYPE_DATE: {
-                ValueDate d = (ValueDate) v.convertTo(Value.DATE);
-                writeInt(4);
-                writeInt((int) (toPostgreDays(d.getDateValue())));
-                break;
+            dataOut.writeLong(m);
+            break;
+        }
+        case PgServer.PG_TYPE_TIMESTAMP_NO_TMZONE: {
+            ValueTimestamp t = (ValueTimestamp) v.convertTo(Value.TIMESTAMP);
+            writeInt(8);
+            writeTimestamp(t.getDateValue(), t.getTimeNanos(), 0);
+            break;
+        }
+        case PgServer.PG_TYPE_TIMESTAMP_TZ: {
+            ValueTimestampTimeZone t = (ValueTimestampTimeZone) v.convertTo(
+                    Value.TIMESTAMP_TZ);
+            writeInt(8);
+            // the value is sent in UTC
+            writeTimestamp(t.getDateValue(), t.getTimeNanos(),
+                    t.getTimeZoneOffsetMins());
+            break;
+        }
+        case PgServer.PG_TYPE_UUID: {
+            ValueUuid u = (ValueUuid) v.convertTo(Value.UUID);
+            writeInt(16);
+            dataOut.writeLong(u.getHigh());
+            dataOut.writeLong(u.getLow());
+            break;
+        }
+        case PgServer.PG_TYPE_TEXTARRAY:
+            writeArray((ValueArray) v.convertTo(Value.ARRAY));
+            break;
+        default:
+            // the binary format of text is the same as the text format
+            byte[] data = v.getString().getBytes(getEncoding());
+            writeInt(data.length);
+            write(data);
+        }
+    }
+
+    private void writeTimestamp(long dateValue, long timeNanos,
+            int timeZoneOffsetMins) throws IOException {
+        long m = toPostgreDays(dateValue) * 86_400 - timeZoneOffsetMins * 60L;
+        if (INTEGER_DATE_TYPES) {
+            // long format
+            m = m * 1_000_000 + timeNanos / 1_000;
+        } else {
+            // double format
+            m = Double.doubleToLongBits(m + timeNanos * 0.000_000_001);
+        }
+        dataOut.writeLong(m);
+    }
+
+    /**
+     * Write a numeric value in the binary format: the number of digits, the
+     * weight of the first digit, the sign, and the display scale, followed by
+     * the digits in base 10000.
+     *
+     * @param d the value
+     */
+    private void writeNumeric(BigDecimal d) throws IOException {
+        BigInteger unscaled = d.unscaledValue().abs();
+        int scale = d.scale();
+        if (scale < 0) {
+            unscaled = unscaled.multiply(BigInteger.TEN.pow(-scale));
+            scale = 0;
+        }
+        // the fraction digits are aligned to base 10000 digits
+        int pad = (4 - scale % 4) % 4;
+        if (pad > 0) {
+            unscaled = unscaled.multiply(BigInteger.TEN.pow(pad));
+        }
+        int fractionDigits = (scale + pad) / 4;
+        // 10000 is a bit more than 2^13
+        short[] digits = new short[unscaled.bitLength() / 13 + 1];
+        int count = 0;
+        if (unscaled.bitLength() < 63) {
+            for (long x = unscaled.longValue(); x != 0; x /= 10_000) {
+                digits[count++] = (short) (x % 10_000);
             }
-            case PgServer.PG_TYPE_TIME: {
-                ValueTime t = (ValueTime) v.convertTo(Value.TIME);
-                writeInt(8);
-                long m = t.getNanos();
-                if (INTEGER_DATE_TYPES) {
-                    // long format
-                    m /= 1_000;
-                } else {
-                    // double format
-                    m = Double.doubleToLongBits(m * 0.000_000_001);
-                }
-                dataOut.writeLong(m);
-                break;
+        } else {
+            while (unscaled.signum() != 0) {
+                BigInteger[] qr = unscaled.divideAndRemainder(NUMERIC_BASE);
+                digits[count++] = qr[1].shortValue();
+                unscaled = qr[0];
+            }
+        }
+        // the digits are stored least significant first;
+        // trailing zero digits are not sent
+        int last = 0;
+        while (last < count && digits[last] == 0) {
+            last++;
+        }
+        int len = count - last;
+        writeInt(8 + 2 * len);
+        writeShort(len);
+        writeShort(len == 0 ? 0 : count - fractionDigits - 1);
+        writeShort(d.signum() < 0 ? NUMERIC_NEGATIVE : NUMERIC_POSITIVE);
+        writeShort(scale);
+        for (int i = count - 1; i >= last; i--) {
+            writeShort(digits[i]);
+        }
+    }
+
+    /**
+     * Write a one-dimensional array in the binary format. The elements are
+     * sent as text, as the column type is text[].
+     *
+     * @param array the array
+     */
+    private void writeArray(ValueArray array) throws IOException {
+        Value[] list = array.getList();
+        DataOutputStream old = dataOut;
+        ByteArrayOutputStream buff = new ByteArrayOutputStream();
+        dataOut = new DataOutputStream(buff);
+        try {
+            boolean hasNull = false;
+            for (Value v : list) {
+                hasNull |= v == ValueNull.INSTANCE;
+            }
+            writeInt(list.length == 0 ? 0 : 1);
+            writeInt(hasNull ? 1 : 0);
+            writeInt(PgServer.PG_TYPE_TEXT);
+            if (list.length > 0) {
+                writeInt(list.length);
+                // lower bound
+                writeInt(1);
             }
-            case PgServer.PG_TYPE_TIMESTAMP_NO_TMZONE: {
-                ValueTimestamp t = (ValueTimestamp) v.convertTo(Value.TIMESTAMP);
-                writeInt(8);
-                long m = toPostgreDays(t.getDateValue()) * 86_400;
-                long nanos = t.getTimeNanos();
-                if (INTEGER_DATE_TYPES) {
-                    // long format
-                    m = m * 1_000_000 + nanos / 1_000;
+            for (Value v : list) {
+                if (v == ValueNull.INSTANCE) {
+                    writeInt(-1);
                 } else {
-                    // double format
-                    m = Double.doubleToLongBits(m + nanos * 0.000_000_001);
+                    writeBinaryValue(v, PgServer.PG_TYPE_TEXT);
                 }
-                dataOut.writeLong(m);
-                break;
-            }
-            default: throw new IllegalStateException("output binary format is undefined");
             }
+        } finally {
+            dataOut = old;
         }
+        writeInt(buff.size());
+        write(buff.toByteArray());
     }
 
     private Charset getEncoding() {
@@ -631,7 +1083,13 @@ private Charset getEncoding() {
 
     private void setParameter(PreparedStatement prep,
             int pgType, int i, int[] formatCodes) throws SQLException, IOException {
-        boolean text = (i >= formatCodes.length) || (formatCodes[i] == 0);
+        boolean text;
+        if (formatCodes.length == 1) {
+            // one format code applies to all parameters
+            text = formatCodes[0] == 0;
+        } else {
+            text = (i >= formatCodes.length) || (formatCodes[i] == 0);
+        }
         int col = i + 1;
         int paramLen = readInt();
         if (paramLen == -1) {
@@ -665,41 +1123,202 @@ private void setParameter(PreparedStatement prep,
             prep.setString(col, str);
         } else {
             // binary
-            switch (pgType) {
-            case PgServer.PG_TYPE_INT2:
-                checkParamLength(2, paramLen);
-                prep.setShort(col, readShort());
-                break;
-            case PgServer.PG_TYPE_INT4:
-                checkParamLength(4, paramLen);
-                prep.setInt(col, readInt());
-                break;
-            case PgServer.PG_TYPE_INT8:
-                checkParamLength(8, paramLen);
-                prep.setLong(col, dataIn.readLong());
-                break;
-            case PgServer.PG_TYPE_FLOAT4:
-                checkParamLength(4, paramLen);
-                prep.setFloat(col, dataIn.readFloat());
-                break;
-            case PgServer.PG_TYPE_FLOAT8:
-                checkParamLength(8, paramLen);
-                prep.setDouble(col, dataIn.readDouble());
-                break;
-            case PgServer.PG_TYPE_BYTEA:
-                byte[] d1 = Utils.newBytes(paramLen);
-                readFully(d1);
-                prep.setBytes(col, d1);
-                break;
-            default:
-                server.trace("Binary format for type: "+pgType+" is unsupported");
-                byte[] d2 = Utils.newBytes(paramLen);
-                readFully(d2);
-                prep.setString(col, new String(d2, getEncoding()));
+            Value v = readBinaryValue(pgType, paramLen);
+            if (v.getType() == Value.ARRAY) {
+                prep.setObject(col, v.getObject());
+            } else {
+                v.set(prep, col);
             }
         }
     }
 
+    /**
+     * Read a value in the binary format.
+     *
+     * @param pgType the PostgreSQL type
+     * @param len the length in bytes
+     * @return the value
+     */
+    private Value readBinaryValue(int pgType, int len) throws IOException {
+        switch (pgType) {
+        case PgServer.PG_TYPE_BOOL:
+            checkParamLength(1, len);
+            return ValueBoolean.get(readByte() != 0);
+        case PgServer.PG_TYPE_INT2:
+            checkParamLength(2, len);
+            return ValueShort.get(readShort());
+        case PgServer.PG_TYPE_INT4:
+            checkParamLength(4, len);
+            return ValueInt.get(readInt());
+        case PgServer.PG_TYPE_INT8:
+            checkParamLength(8, len);
+            return ValueLong.get(dataIn.readLong());
+        case PgServer.PG_TYPE_FLOAT4:
+            checkParamLength(4, len);
+            return ValueFloat.get(dataIn.readFloat());
+        case PgServer.PG_TYPE_FLOAT8:
+            checkParamLength(8, len);
+            return ValueDouble.get(dataIn.readDouble());
+        case PgServer.PG_TYPE_NUMERIC:
+            return ValueDecimal.get(readNumeric(len));
+        case PgServer.PG_TYPE_BYTEA: {
+            byte[] data = Utils.newBytes(len);
+            readFully(data);
+            return ValueBytes.getNoCopy(data);
+        }
+        case PgServer.PG_TYPE_DATE:
+            checkParamLength(4, len);
+            return ValueDate.fromDateValue(
+                    DateTimeUtils.dateValueFromAbsoluteDay(readInt() + 10_957L));
+        case PgServer.PG_TYPE_TIME:
+            checkParamLength(8, len);
+            return ValueTime.fromNanos(readMicros() * 1_000);
+        case PgServer.PG_TYPE_TIMESTAMP_NO_TMZONE:
+        case PgServer.PG_TYPE_TIMESTAMP_TZ: {
+            checkParamLength(8, len);
+            long micros = readMicros();
+            long days = micros / MICROS_PER_DAY;
+            if (micros < 0 && days * MICROS_PER_DAY != micros) {
+                days--;
+            }
+            long dateValue = DateTimeUtils.dateValueFromAbsoluteDay(days + 10_957);
+            long nanos = (micros - days * MICROS_PER_DAY) * 1_000;
+            if (pgType == PgServer.PG_TYPE_TIMESTAMP_TZ) {
+                // the value is sent in UTC
+                return ValueTimestampTimeZone.fromDateValueAndNanos(
+                        dateValue, nanos, (short) 0);
+            }
+            return ValueTimestamp.fromDateValueAndNanos(dateValue, nanos);
+        }
+        case PgServer.PG_TYPE_UUID:
+            checkParamLength(16, len);
+            return ValueUuid.get(dataIn.readLong(), dataIn.readLong());
+        default:
+            if (isArrayType(pgType)) {
+                return readArray();
+            }
+            if (pgType != PgServer.PG_TYPE_TEXT &&
+                    pgType != PgServer.PG_TYPE_VARCHAR &&
+                    pgType != PgServer.PG_TYPE_BPCHAR &&
+                    pgType != PgServer.PG_TYPE_UNKNOWN) {
+                server.trace("Binary format for type: " + pgType + " is unsupported");
+            }
+            byte[] data = Utils.newBytes(len);
+            readFully(data);
+            return ValueString.get(new String(data, getEncoding()));
+        }
+    }
+
+    /**
+     * Read a time or timestamp, as the number of microseconds.
+     *
+     * @return the number of microseconds
+     */
+    private long readMicros() throws IOException {
+        long m = dataIn.readLong();
+        if (INTEGER_DATE_TYPES) {
+            // long format
+            return m;
+        }
+        // double format
+        return Math.round(Double.longBitsToDouble(m) * 1_000_000);
+    }
+
+    private BigDecimal readNumeric(int len) throws IOException {
+        int count = readShort();
+        int weight = readShort();
+        int sign = readShort() & 0xffff;
+        int scale = readShort();
+        checkParamLength(8 + 2 * count, len);
+        if (sign != NUMERIC_POSITIVE && sign != NUMERIC_NEGATIVE) {
+            throw DbException.getInvalidValueException("numeric sign", sign);
+        }
+        BigInteger unscaled;
+        if (count <= 4) {
+            long x = 0;
+            for (int i = 0; i < count; i++) {
+                x = x * 10_000 + readShort();
+            }
+            unscaled = BigInteger.valueOf(x);
+        } else {
+            unscaled = BigInteger.ZERO;
+            for (int i = 0; i < count; i++) {
+                unscaled = unscaled.multiply(NUMERIC_BASE).add(
+                        BigInteger.valueOf(readShort()));
+            }
+        }
+        BigDecimal d = new BigDecimal(unscaled, (count - 1 - weight) * 4);
+        if (sign == NUMERIC_NEGATIVE) {
+            d = d.negate();
+        }
+        return d.setScale(scale, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Read an array in the binary format. Arrays with more than one dimension
+     * are converted to nested arrays.
+     *
+     * @return the array
+     */
+    private ValueArray readArray() throws IOException {
+        int dimensions = readInt();
+        // flags (whether the array contains null)
+        readInt();
+        int elementType = readInt();
+        int[] lengths = new int[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            lengths[i] = readInt();
+            // lower bound
+            readInt();
+        }
+        if (dimensions == 0) {
+            return ValueArray.get(new Value[0]);
+        }
+        return readArray(lengths, 0, elementType);
+    }
+
+    private ValueArray readArray(int[] lengths, int dimension, int elementType)
+            throws IOException {
+        Value[] list = new Value[lengths[dimension]];
+        for (int i = 0; i < list.length; i++) {
+            if (dimension + 1 < lengths.length) {
+                list[i] = readArray(lengths, dimension + 1, elementType);
+            } else {
+                int len = readInt();
+                list[i] = len == -1 ? ValueNull.INSTANCE :
+                    readBinaryValue(elementType, len);
+            }
+        }
+        return ValueArray.get(list);
+    }
+
+    private static boolean isArrayType(int pgType) {
+        switch (pgType) {
+        // bool[], bytea[], int2[], int4[], text[], bpchar[], varchar[],
+        // int8[], float4[], float8[], timestamp[], date[], time[],
+        // timestamptz[], numeric[], uuid[]
+        case 1000:
+        case 1001:
+        case 1005:
+        case 1007:
+        case PgServer.PG_TYPE_TEXTARRAY:
+        case 1014:
+        case 1015:
+        case 1016:
+        case 1021:
+        case 1022:
+        case 1115:
+        case 1182:
+        case 1183:
+        case 1185:
+        case 1231:
+        case 2951:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     private static void checkParamLength(int expected, int got) {
         if (expected != got) {
             throw DbException.getInvalidValueException("paramLen", got);
@@ -770,7 +1389,7 @@ private void sendRowDescription(ResultSetMetaData meta) throws Exception {
                 String name = meta.getColumnName(i + 1);
                 names[i] = name;
                 int type = meta.getColumnType(i + 1);
-                int pgType = PgServer.convertType(type);
+                int pgType = getPgType(meta, i + 1);
                 // the ODBC client needs the column pg_catalog.pg_index
                 // to be of type 'int2vector'
                 // if (name.equalsIgnoreCase("indkey") &&
@@ -1096,6 +1715,95 @@ static class Prepared {
         int[] paramType;
     }
 
+    /**
+     * An input stream that returns the data of the CopyData messages sent by
+     * the client, until the client sends CopyDone.
+     */
+    private class CopyInputStream extends InputStream {
+
+        private byte[] buffer;
+        private int pos;
+        private boolean end;
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer[pos++] & 255;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.length - pos);
+            System.arraycopy(buffer, pos, b, off, len);
+            pos += len;
+            return len;
+        }
+
+        private boolean fill() throws IOException {
+            while (buffer == null || pos >= buffer.length) {
+                if (end) {
+                    return false;
+                }
+                readMessage();
+            }
+            return true;
+        }
+
+        private void readMessage() throws IOException {
+            int x = dataInRaw.read();
+            if (x < 0) {
+                throw new EOFException();
+            }
+            int len = dataInRaw.readInt() - 4;
+            byte[] data = Utils.newBytes(len);
+            dataInRaw.readFully(data, 0, len);
+            switch (x) {
+            case 'd':
+                buffer = data;
+                pos = 0;
+                break;
+            case 'c':
+                end = true;
+                break;
+            case 'f':
+                end = true;
+                throw new IOException("COPY failed: " +
+                        new String(data, 0, Math.max(0, len - 1), getEncoding()));
+            case 'H':
+            case 'S':
+                // ignored during COPY
+                break;
+            default:
+                end = true;
+                throw new IOException("Unexpected message during COPY: " + (char) x);
+            }
+        }
+
+        /**
+         * Read and ignore the remaining messages until the end of the data.
+         */
+        void skipRemaining() throws IOException {
+            buffer = null;
+            while (!end) {
+                try {
+                    readMessage();
+                } catch (EOFException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
     /**
      * Represents a PostgreSQL Portal object.
      */
@@ -1115,5 +1823,17 @@ static class Portal {
          * The prepared object.
          */
         Prepared prep;
+
+        /**
+         * The statement that runs the portal. This is the statement of the
+         * prepared object, unless another portal used it when this portal
+         * was bound.
+         */
+        JdbcPreparedStatement stat;
+
+        /**
+         * The open result set, if the portal is suspended.
+         */
+        ResultSet result;
     }
 }
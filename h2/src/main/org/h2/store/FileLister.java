@@ -102,6 +102,8 @@ public static ArrayList<String> getDatabaseFiles(String dir, String db,
                 ok = true;
             } else if (f.endsWith(Constants.SUFFIX_MV_FILE)) {
                 ok = true;
+            } else if (f.endsWith(Constants.SUFFIX_MV_LOG_FILE)) {
+                ok = true;
             } else if (all) {
                 if (f.endsWith(Constants.SUFFIX_LOCK_FILE)) {
                     ok = true;
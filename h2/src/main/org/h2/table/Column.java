@@ -80,6 +80,7 @@ public class Column {
     private boolean isComputed;
     private TableFilter computeTableFilter;
     private int selectivity;
+    private ColumnStatistics statistics;
     private SingleColumnResolver resolver;
     private String comment;
     private boolean primaryKey;
@@ -622,6 +623,9 @@ private String getCreateSQL(boolean includeName) {
         if (selectivity != 0) {
             buff.append(" SELECTIVITY ").append(selectivity);
         }
+        if (statistics != null) {
+            buff.append(' ').append(statistics.getSQL());
+        }
         if (comment != null) {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
@@ -714,6 +718,25 @@ public void setSelectivity(int selectivity) {
         this.selectivity = selectivity;
     }
 
+    /**
+     * Get the distribution of the values of the column, as calculated by
+     * ANALYZE.
+     *
+     * @return the statistics, or null if not calculated
+     */
+    public ColumnStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Set the distribution of the values of the column.
+     *
+     * @param statistics the statistics, or null
+     */
+    public void setStatistics(ColumnStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     /**
      * Add a check constraint expression to this column. An existing check
      * constraint constraint is added using AND.
@@ -924,6 +947,7 @@ public void copy(Column source) {
         computeTableFilter = source.computeTableFilter;
         isComputed = source.isComputed;
         selectivity = source.selectivity;
+        statistics = source.statistics;
         primaryKey = source.primaryKey;
         visible = source.visible;
     }
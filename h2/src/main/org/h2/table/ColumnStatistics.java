@@ -0,0 +1,313 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.h2.engine.Constants;
+import org.h2.util.DateTimeUtils;
+import org.h2.util.New;
+import org.h2.util.StatementBuilder;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueDate;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueTimestamp;
+
+/**
+ * The distribution of the values of a column, as calculated by ANALYZE. It
+ * consists of the most common values with their number of rows, and an
+ * equi-depth histogram of the remaining values: each bucket between two
+ * bounds contains about the same number of rows. It is used to estimate the
+ * number of rows that match a condition.
+ */
+public class ColumnStatistics {
+
+    /**
+     * Values with a larger precision are not kept, so that the statistics
+     * don't get too large.
+     */
+    private static final int MAX_VALUE_PRECISION = 256;
+
+    private final long rowCount;
+    private final long nullCount;
+    private final long distinctCount;
+    private final Value[] bounds;
+    private final Value[] commonValues;
+    private final long[] commonCounts;
+    private final long histogramCount;
+
+    /**
+     * Create a new statistics object.
+     *
+     * @param rowCount the number of rows that were sampled
+     * @param nullCount the number of rows with NULL
+     * @param distinctCount the number of distinct values in the histogram
+     * @param bounds the bounds of the histogram buckets
+     * @param commonValues the most common values
+     * @param commonCounts the number of rows of each common value
+     */
+    public ColumnStatistics(long rowCount, long nullCount, long distinctCount,
+            Value[] bounds, Value[] commonValues, long[] commonCounts) {
+        this.rowCount = rowCount;
+        this.nullCount = nullCount;
+        this.distinctCount = distinctCount;
+        this.bounds = bounds;
+        this.commonValues = commonValues;
+        this.commonCounts = commonCounts;
+        long count = rowCount - nullCount;
+        for (long c : commonCounts) {
+            count -= c;
+        }
+        histogramCount = Math.max(count, 0);
+    }
+
+    /**
+     * Calculate the statistics from the result of the HISTOGRAM aggregate.
+     *
+     * @param rowCount the number of rows that were sampled
+     * @param nullCount the number of rows with NULL
+     * @param histogram the distinct values and their number of rows, sorted
+     *            by value (each element is an array of the value and the
+     *            count)
+     * @return the statistics, or null if they can't be calculated
+     */
+    public static ColumnStatistics create(long rowCount, long nullCount,
+            Value[] histogram) {
+        if (rowCount <= 0) {
+            return null;
+        }
+        ArrayList<Value> values = New.arrayList();
+        ArrayList<Long> counts = New.arrayList();
+        long tracked = 0;
+        for (Value v : histogram) {
+            Value[] entry = ((ValueArray) v).getList();
+            if (entry[0] == ValueNull.INSTANCE) {
+                continue;
+            }
+            if (entry[0].getPrecision() > MAX_VALUE_PRECISION) {
+                return null;
+            }
+            values.add(entry[0]);
+            counts.add(entry[1].getLong());
+            tracked += entry[1].getLong();
+        }
+        int size = values.size();
+        if (size == 0) {
+            return new ColumnStatistics(rowCount, nullCount, 0, new Value[0],
+                    new Value[0], new long[0]);
+        }
+        // the values that did not fit in the histogram aggregate are assumed
+        // to be distinct
+        long untracked = Math.max(rowCount - nullCount - tracked, 0);
+        boolean[] common = new boolean[size];
+        int commonSize = 0;
+        if (size <= Constants.STATISTICS_COMMON_VALUES && untracked == 0) {
+            Arrays.fill(common, true);
+            commonSize = size;
+        } else {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            final ArrayList<Long> c = counts;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(c.get(b), c.get(a));
+                }
+            });
+            // only values that are clearly more common than the average
+            double average = (double) (tracked + untracked) / (size + untracked);
+            for (int i = 0; i < Constants.STATISTICS_COMMON_VALUES &&
+                    i < size; i++) {
+                long count = counts.get(order[i]);
+                if (count <= 1 || count * 4 <= average * 5) {
+                    break;
+                }
+                common[order[i]] = true;
+                commonSize++;
+            }
+        }
+        Value[] commonValues = new Value[commonSize];
+        long[] commonCounts = new long[commonSize];
+        ArrayList<Value> rest = New.arrayList();
+        ArrayList<Long> restCounts = New.arrayList();
+        long total = 0;
+        for (int i = 0, j = 0; i < size; i++) {
+            if (common[i]) {
+                commonValues[j] = values.get(i);
+                commonCounts[j++] = counts.get(i);
+            } else {
+                rest.add(values.get(i));
+                restCounts.add(counts.get(i));
+                total += counts.get(i);
+            }
+        }
+        Value[] bounds;
+        int restSize = rest.size();
+        if (restSize == 0) {
+            bounds = new Value[0];
+        } else if (restSize == 1) {
+            bounds = new Value[] { rest.get(0), rest.get(0) };
+        } else {
+            int buckets = Math.min(Constants.STATISTICS_HISTOGRAM_BUCKETS,
+                    restSize - 1);
+            bounds = new Value[buckets + 1];
+            bounds[0] = rest.get(0);
+            bounds[buckets] = rest.get(restSize - 1);
+            long sum = 0;
+            int p = 0;
+            for (int i = 1; i < buckets; i++) {
+                long target = total * i / buckets;
+                while (sum + restCounts.get(p) < target) {
+                    sum += restCounts.get(p++);
+                }
+                bounds[i] = rest.get(p);
+            }
+        }
+        return new ColumnStatistics(rowCount, nullCount, restSize + untracked,
+                bounds, commonValues, commonCounts);
+    }
+
+    /**
+     * Estimate the fraction of rows where the column is equal to the given
+     * value.
+     *
+     * @param v the value, converted to the type of the column
+     * @param compareMode the compare mode
+     * @return the estimated fraction of rows
+     */
+    public double getEqualFraction(Value v, CompareMode compareMode) {
+        if (v == ValueNull.INSTANCE) {
+            return (double) nullCount / rowCount;
+        }
+        for (int i = 0; i < commonValues.length; i++) {
+            if (commonValues[i].compareTo(v, compareMode) == 0) {
+                return (double) commonCounts[i] / rowCount;
+            }
+        }
+        if (distinctCount == 0) {
+            return 0;
+        }
+        return (double) histogramCount / distinctCount / rowCount;
+    }
+
+    /**
+     * Estimate the fraction of rows where the column is within the given
+     * range.
+     *
+     * @param min the lower bound, converted to the type of the column, or
+     *            null if there is none
+     * @param max the upper bound, converted to the type of the column, or
+     *            null if there is none
+     * @param compareMode the compare mode
+     * @return the estimated fraction of rows
+     */
+    public double getRangeFraction(Value min, Value max,
+            CompareMode compareMode) {
+        double count = 0;
+        int buckets = bounds.length - 1;
+        if (buckets > 0) {
+            double from = min == null ? 0 : getPosition(min, compareMode);
+            double to = max == null ? buckets : getPosition(max, compareMode);
+            if (to > from) {
+                count = (to - from) / buckets * histogramCount;
+            }
+        }
+        for (int i = 0; i < commonValues.length; i++) {
+            Value v = commonValues[i];
+            if ((min == null || v.compareTo(min, compareMode) >= 0) &&
+                    (max == null || v.compareTo(max, compareMode) <= 0)) {
+                count += commonCounts[i];
+            }
+        }
+        return count / rowCount;
+    }
+
+    /**
+     * Get the number of buckets that contain values smaller than the given
+     * value. Within a bucket, the position is interpolated if possible.
+     *
+     * @param v the value
+     * @param compareMode the compare mode
+     * @return the number of buckets
+     */
+    private double getPosition(Value v, CompareMode compareMode) {
+        int buckets = bounds.length - 1;
+        if (v.compareTo(bounds[0], compareMode) <= 0) {
+            return 0;
+        } else if (v.compareTo(bounds[buckets], compareMode) >= 0) {
+            return buckets;
+        }
+        // bounds[low] < v <= bounds[high]
+        int low = 0, high = buckets;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid].compareTo(v, compareMode) < 0) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        double a = toDouble(bounds[low]), b = toDouble(bounds[high]);
+        double x = toDouble(v);
+        if (Double.isNaN(a) || Double.isNaN(b) || Double.isNaN(x) || b <= a) {
+            return low + 0.5;
+        }
+        return low + Math.min(Math.max((x - a) / (b - a), 0), 1);
+    }
+
+    private static double toDouble(Value v) {
+        switch (v.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT:
+            return v.getDouble();
+        case Value.DATE:
+            return DateTimeUtils.absoluteDayFromDateValue(
+                    ((ValueDate) v).getDateValue());
+        case Value.TIMESTAMP: {
+            ValueTimestamp ts = (ValueTimestamp) v;
+            return DateTimeUtils.absoluteDayFromDateValue(ts.getDateValue()) *
+                    (double) DateTimeUtils.NANOS_PER_DAY + ts.getTimeNanos();
+        }
+        default:
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Get the SQL snippet of the statistics, as used in the column definition.
+     *
+     * @return the SQL snippet
+     */
+    public String getSQL() {
+        StatementBuilder buff = new StatementBuilder("STATISTICS(ROWS ");
+        buff.append(rowCount).append(" NULLS ").append(nullCount).
+                append(" DISTINCT ").append(distinctCount).
+                append(" HISTOGRAM(");
+        for (Value v : bounds) {
+            buff.appendExceptFirst(", ");
+            buff.append(v.getSQL());
+        }
+        buff.append(") MOST_COMMON(");
+        buff.resetCount();
+        for (int i = 0; i < commonValues.length; i++) {
+            buff.appendExceptFirst(", ");
+            buff.append('(').append(commonValues[i].getSQL()).append(", ").
+                    append(commonCounts[i]).append(')');
+        }
+        return buff.append("))").toString();
+    }
+
+}
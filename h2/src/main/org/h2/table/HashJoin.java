@@ -0,0 +1,320 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.table;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.expression.Expression;
+import org.h2.index.Cursor;
+import org.h2.index.IndexCondition;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.db.MVTableEngine.Store;
+import org.h2.mvstore.db.ValueDataType;
+import org.h2.result.Row;
+import org.h2.util.StatementBuilder;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueLong;
+import org.h2.value.ValueNull;
+
+/**
+ * A hash table of the rows of a joined table, keyed by the columns of the
+ * equality conditions of the join. It is used if there is no index that
+ * could be used to look up the rows: instead of reading all rows of the table
+ * for each row of the outer tables, the table is read once, and then only the
+ * rows with matching values are returned. If the table has too many rows,
+ * they are stored in a temporary map of the MVStore.
+ */
+class HashJoin {
+
+    private final TableFilter filter;
+    private final IndexCondition[] conditions;
+    private final int[] columnIds;
+
+    /**
+     * The rows in memory, or null if not built yet or stored in a map.
+     */
+    private HashMap<Value, ArrayList<Row>> rows;
+
+    /**
+     * The rows, if stored in a temporary map. The key is the key values
+     * followed by a sequence number, and the value is the row data followed
+     * by the row key.
+     */
+    private MVMap<ValueArray, ValueArray> map;
+
+    /**
+     * Whether the table has too many rows and can't be stored in a map.
+     */
+    private boolean disabled;
+
+    private ArrayList<Row> current;
+    private int currentIndex;
+    private org.h2.mvstore.Cursor<ValueArray, ValueArray> mapCursor;
+    private Value[] currentKey;
+
+    /**
+     * Create a new hash join.
+     *
+     * @param filter the table filter of the joined table
+     * @param conditions the equality conditions
+     */
+    HashJoin(TableFilter filter, ArrayList<IndexCondition> conditions) {
+        this.filter = filter;
+        this.conditions = conditions.toArray(
+                new IndexCondition[conditions.size()]);
+        columnIds = new int[this.conditions.length];
+        for (int i = 0; i < columnIds.length; i++) {
+            columnIds[i] = this.conditions[i].getColumn().getColumnId();
+        }
+    }
+
+    /**
+     * Check whether the rows can be looked up in a hash table using the given
+     * condition. This is only the case if the expression has the same data
+     * type as the column, and the values of this type are equal exactly when
+     * they compare as equal.
+     *
+     * @param session the session
+     * @param column the column
+     * @param expression the expression the column is compared with
+     * @return true if yes
+     */
+    static boolean isSupported(Session session, Column column,
+            Expression expression) {
+        int type = column.getType();
+        if (expression.getType() != type) {
+            return false;
+        }
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+            return CompareMode.OFF.equals(
+                    session.getDatabase().getCompareMode().getName());
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Look up the rows that match the current values of the outer tables.
+     * The hash table is built on the first call.
+     *
+     * @param session the session
+     * @return false if the table has too many rows, and the rows need to be
+     *         read using the index
+     */
+    boolean find(Session session) {
+        if (disabled) {
+            return false;
+        }
+        if (rows == null && (map == null || map.isClosed())) {
+            build(session);
+            if (disabled) {
+                return false;
+            }
+        }
+        current = null;
+        mapCursor = null;
+        currentKey = null;
+        Value[] key = new Value[conditions.length];
+        for (int i = 0; i < key.length; i++) {
+            Value v = conditions[i].getCurrentValue(session);
+            if (v == ValueNull.INSTANCE) {
+                // NULL never matches
+                return true;
+            }
+            key[i] = filter.getTable().getColumn(columnIds[i]).convert(v);
+        }
+        if (rows != null) {
+            current = rows.get(key.length == 1 ? key[0] : ValueArray.get(key));
+            currentIndex = 0;
+        } else {
+            Value[] from = new Value[key.length + 1];
+            System.arraycopy(key, 0, from, 0, key.length);
+            from[key.length] = ValueLong.MIN;
+            mapCursor = map.cursor(ValueArray.get(from));
+            currentKey = key;
+        }
+        return true;
+    }
+
+    /**
+     * Get the next matching row.
+     *
+     * @param session the session
+     * @return the row, or null if there are no more rows
+     */
+    Row next(Session session) {
+        if (current != null) {
+            if (currentIndex < current.size()) {
+                return current.get(currentIndex++);
+            }
+            current = null;
+        } else if (mapCursor != null) {
+            if (mapCursor.hasNext()) {
+                Value[] k = mapCursor.next().getList();
+                boolean match = true;
+                for (int i = 0; i < currentKey.length; i++) {
+                    if (!currentKey[i].equals(k[i])) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) {
+                    Value[] data = mapCursor.getValue().getList();
+                    Value[] values = new Value[data.length - 1];
+                    System.arraycopy(data, 0, values, 0, values.length);
+                    Row row = session.createRow(values, Row.MEMORY_CALCULATE);
+                    row.setKey(data[values.length].getLong());
+                    return row;
+                }
+            }
+            mapCursor = null;
+        }
+        return null;
+    }
+
+    private void build(Session session) {
+        Database db = session.getDatabase();
+        Store store = db.getMvStore();
+        int maxMemoryRows = db.getMaxMemoryRows();
+        HashMap<Value, ArrayList<Row>> hash = new HashMap<>();
+        MVMap<ValueArray, ValueArray> m = null;
+        long count = 0, added = 0;
+        Cursor cursor = filter.getTable().getScanIndex(session).find(session,
+                null, null);
+        while (cursor.next()) {
+            if ((++count & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get();
+            Value[] key = new Value[columnIds.length];
+            boolean hasNull = false;
+            for (int i = 0; i < key.length; i++) {
+                Value v = row.getValue(columnIds[i]);
+                if (v == ValueNull.INSTANCE) {
+                    hasNull = true;
+                    break;
+                }
+                key[i] = v;
+            }
+            if (hasNull) {
+                continue;
+            }
+            if (m != null) {
+                put(m, key, row, added++);
+                continue;
+            }
+            Value k = key.length == 1 ? key[0] : ValueArray.get(key);
+            ArrayList<Row> list = hash.get(k);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                hash.put(k, list);
+            }
+            list.add(row);
+            if (++added > maxMemoryRows) {
+                if (store == null) {
+                    disabled = true;
+                    return;
+                }
+                m = openMap(session, store);
+                added = 0;
+                for (ArrayList<Row> l : hash.values()) {
+                    for (Row r : l) {
+                        Value[] rk = new Value[columnIds.length];
+                        for (int i = 0; i < rk.length; i++) {
+                            rk[i] = r.getValue(columnIds[i]);
+                        }
+                        put(m, rk, r, added++);
+                    }
+                }
+                hash = null;
+            }
+        }
+        if (m != null) {
+            map = m;
+        } else {
+            rows = hash;
+        }
+    }
+
+    private static void put(MVMap<ValueArray, ValueArray> m, Value[] key,
+            Row row, long seq) {
+        Value[] k = new Value[key.length + 1];
+        System.arraycopy(key, 0, k, 0, key.length);
+        k[key.length] = ValueLong.get(seq);
+        int len = row.getColumnCount();
+        Value[] data = new Value[len + 1];
+        for (int i = 0; i < len; i++) {
+            data[i] = row.getValue(i);
+        }
+        data[len] = ValueLong.get(row.getKey());
+        m.put(ValueArray.get(k), ValueArray.get(data));
+    }
+
+    private static MVMap<ValueArray, ValueArray> openMap(Session session,
+            Store store) {
+        Database db = session.getDatabase();
+        ValueDataType keyType = new ValueDataType(db.getCompareMode(), db, null);
+        ValueDataType valueType = new ValueDataType(db.getCompareMode(), db,
+                null);
+        MVMap.Builder<ValueArray, ValueArray> builder =
+                new MVMap.Builder<ValueArray, ValueArray>().
+                keyType(keyType).valueType(valueType);
+        MVMap<ValueArray, ValueArray> m = store.getStore().openMap(
+                store.nextTemporaryMapName(), builder);
+        // temporary maps are removed when opening the store
+        m.setLogged(true);
+        session.addTemporaryMap(m);
+        return m;
+    }
+
+    /**
+     * Remove the hash table, so that it is built again when the query is
+     * executed the next time.
+     */
+    void reset() {
+        rows = null;
+        current = null;
+        mapCursor = null;
+        disabled = false;
+        if (map != null) {
+            if (!map.isClosed()) {
+                map.getStore().removeMap(map);
+            }
+            map = null;
+        }
+    }
+
+    /**
+     * Get the conditions as used in the query plan.
+     *
+     * @return the SQL snippet
+     */
+    String getPlanSQL() {
+        StatementBuilder buff = new StatementBuilder();
+        for (IndexCondition condition : conditions) {
+            buff.appendExceptFirst(" AND ");
+            buff.append(condition.getSQL());
+        }
+        return buff.toString();
+    }
+
+}
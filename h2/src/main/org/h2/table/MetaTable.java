@@ -28,6 +28,7 @@
 import org.h2.engine.DbObject;
 import org.h2.engine.FunctionAlias;
 import org.h2.engine.FunctionAlias.JavaMethod;
+import org.h2.engine.PlanCache;
 import org.h2.engine.QueryStatisticsData;
 import org.h2.engine.Right;
 import org.h2.engine.Role;
@@ -44,6 +45,9 @@
 import org.h2.jdbc.JdbcSQLException;
 import org.h2.message.DbException;
 import org.h2.mvstore.FileStore;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.cache.CacheLongKeyLIRS;
+import org.h2.mvstore.cache.CacheLongKeyOffHeap;
 import org.h2.mvstore.db.MVTableEngine.Store;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
@@ -113,7 +117,8 @@ public class MetaTable extends Table {
     private static final int TABLE_CONSTRAINTS = 30;
     private static final int KEY_COLUMN_USAGE = 31;
     private static final int REFERENTIAL_CONSTRAINTS = 32;
-    private static final int META_TABLE_TYPE_COUNT = REFERENTIAL_CONSTRAINTS + 1;
+    private static final int CACHE_STATISTICS = 33;
+    private static final int META_TABLE_TYPE_COUNT = CACHE_STATISTICS + 1;
 
     private final int type;
     private final int indexColumn;
@@ -608,6 +613,19 @@ public MetaTable(Schema schema, int id, int type) {
             );
             break;
         }
+        case CACHE_STATISTICS: {
+            setObjectName("CACHE_STATISTICS");
+            cols = createColumns(
+                    "MAP_NAME",
+                    "TABLE_SCHEMA",
+                    "TABLE_NAME",
+                    "INDEX_NAME",
+                    "HITS BIGINT",
+                    "MISSES BIGINT",
+                    "EVICTIONS BIGINT"
+            );
+            break;
+        }
         default:
             throw DbException.throwInternalError("type="+type);
         }
@@ -1098,8 +1116,43 @@ public ArrayList<Row> generateRows(Session session, SearchRow first,
                             mvStore.getStore().getCacheSize());
                     add(rows, "info.CACHE_SIZE", "" +
                             mvStore.getStore().getCacheSizeUsed());
+                    CacheLongKeyLIRS<?> cache = mvStore.getStore().getCache();
+                    if (cache != null) {
+                        add(rows, "info.CACHE_HITS", "" + cache.getHits());
+                        add(rows, "info.CACHE_MISSES", "" + cache.getMisses());
+                        add(rows, "info.CACHE_EVICTIONS", "" +
+                                cache.getEvictions());
+                    }
+                    add(rows, "info.GROUP_COMMIT_SYNCS", "" +
+                            mvStore.getStore().getGroupCommitSyncCount());
+                    add(rows, "info.TRANSACTION_LOG_SYNCS", "" +
+                            mvStore.getTransactionStore().getLogSyncCount());
+                    add(rows, "info.COMPACT_FILL_RATE", "" +
+                            mvStore.getStore().getCurrentFillRate());
+                    add(rows, "info.COMPACT_CHUNKS", "" +
+                            mvStore.getStore().getCompactChunkCount());
+                    add(rows, "info.COMPACT_BYTES", "" +
+                            mvStore.getStore().getCompactByteCount());
+                    CacheLongKeyOffHeap offHeapCache =
+                            mvStore.getStore().getOffHeapCache();
+                    if (offHeapCache != null) {
+                        add(rows, "info.OFF_HEAP_CACHE_MAX_SIZE", "" +
+                                offHeapCache.getMaxMemory() / 1024 / 1024);
+                        add(rows, "info.OFF_HEAP_CACHE_SIZE", "" +
+                                offHeapCache.getUsedMemory() / 1024 / 1024);
+                        add(rows, "info.OFF_HEAP_CACHE_HITS", "" +
+                                offHeapCache.getHits());
+                        add(rows, "info.OFF_HEAP_CACHE_MISSES", "" +
+                                offHeapCache.getMisses());
+                    }
                 }
             }
+            PlanCache planCache = database.getPlanCache();
+            if (planCache != null) {
+                add(rows, "info.PLAN_CACHE_SIZE", "" + planCache.getSize());
+                add(rows, "info.PLAN_CACHE_HITS", "" + planCache.getHits());
+                add(rows, "info.PLAN_CACHE_MISSES", "" + planCache.getMisses());
+            }
             break;
         }
         case TYPE_INFO: {
@@ -2111,6 +2164,49 @@ public ArrayList<Row> generateRows(Session session, SearchRow first,
             }
             break;
         }
+        case CACHE_STATISTICS: {
+            Store mvStore = database.getMvStore();
+            if (mvStore == null) {
+                break;
+            }
+            for (MVMap<?, ?> map : mvStore.getStore().getOpenMaps()) {
+                String mapName = map.isClosed() ? null : map.getName();
+                if (mapName == null) {
+                    // the map was removed in the meantime
+                    continue;
+                }
+                Index index = mvStore.getIndex(mapName);
+                String schemaName = null, tableName = null, indexName = null;
+                if (index != null) {
+                    Table table = index.getTable();
+                    if (hideTable(table, session)) {
+                        continue;
+                    }
+                    schemaName = identifier(table.getSchema().getName());
+                    tableName = identifier(table.getName());
+                    indexName = identifier(index.getName());
+                } else if (!admin) {
+                    continue;
+                }
+                add(rows,
+                        // MAP_NAME
+                        mapName,
+                        // TABLE_SCHEMA
+                        schemaName,
+                        // TABLE_NAME
+                        tableName,
+                        // INDEX_NAME
+                        indexName,
+                        // HITS
+                        "" + map.getCacheHits(),
+                        // MISSES
+                        "" + map.getCacheMisses(),
+                        // EVICTIONS
+                        "" + map.getCacheEvictions()
+                );
+            }
+            break;
+        }
         default:
             DbException.throwInternalError("type="+type);
         }
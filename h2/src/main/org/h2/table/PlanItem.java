@@ -5,7 +5,9 @@
  */
 package org.h2.table;
 
+import java.util.ArrayList;
 import org.h2.index.Index;
+import org.h2.index.IndexCondition;
 
 /**
  * The plan item describes the index to be used, and the estimated cost when
@@ -22,6 +24,8 @@ public class PlanItem {
     private Index index;
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
+    private ArrayList<IndexCondition> hashJoinConditions;
+    private boolean indexOnly;
 
     void setMasks(int[] masks) {
         this.masks = masks;
@@ -55,4 +59,20 @@ void setNestedJoinPlan(PlanItem nestedJoinPlan) {
         this.nestedJoinPlan = nestedJoinPlan;
     }
 
+    ArrayList<IndexCondition> getHashJoinConditions() {
+        return hashJoinConditions;
+    }
+
+    void setHashJoinConditions(ArrayList<IndexCondition> hashJoinConditions) {
+        this.hashJoinConditions = hashJoinConditions;
+    }
+
+    boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    void setIndexOnly(boolean indexOnly) {
+        this.indexOnly = indexOnly;
+    }
+
 }
@@ -153,6 +153,31 @@ public abstract Index addIndex(Session session, String indexName,
             int indexId, IndexColumn[] cols, IndexType indexType,
             boolean create, String indexComment);
 
+    /**
+     * Create an index for this table that also stores the values of the given
+     * columns. Only some table types support such indexes.
+     *
+     * @param session the session
+     * @param indexName the name of the index
+     * @param indexId the id
+     * @param cols the index columns
+     * @param includeColumns the columns to store in addition to the index
+     *            columns, or null
+     * @param indexType the index type
+     * @param create whether this is a new index
+     * @param indexComment the comment
+     * @return the index
+     */
+    public Index addIndex(Session session, String indexName, int indexId,
+            IndexColumn[] cols, Column[] includeColumns, IndexType indexType,
+            boolean create, String indexComment) {
+        if (includeColumns != null) {
+            throw DbException.getUnsupportedException("INCLUDE");
+        }
+        return addIndex(session, indexName, indexId, cols, indexType, create,
+                indexComment);
+    }
+
     /**
      * Get the given row.
      *
@@ -597,10 +622,20 @@ public void dropMultipleColumnsConstraintsAndIndexes(Session session,
                     if (index.getCreateSQL() == null) {
                         continue;
                     }
-                    if (index.getColumnIndex(col) < 0) {
+                    boolean included = false;
+                    Column[] includeColumns = index.getIncludeColumns();
+                    if (includeColumns != null) {
+                        for (Column c : includeColumns) {
+                            if (c == col) {
+                                included = true;
+                                break;
+                            }
+                        }
+                    }
+                    if (index.getColumnIndex(col) < 0 && !included) {
                         continue;
                     }
-                    if (index.getColumns().length == 1) {
+                    if (index.getColumns().length == 1 && !included) {
                         indexesToDrop.add(index);
                     } else {
                         throw DbException.get(
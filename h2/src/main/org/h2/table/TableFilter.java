@@ -11,6 +11,7 @@
 import org.h2.api.ErrorCode;
 import org.h2.command.Parser;
 import org.h2.command.dml.Select;
+import org.h2.engine.Constants;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.engine.SysProperties;
@@ -114,12 +115,24 @@ public class TableFilter implements ColumnResolver {
 
     private ArrayList<Column> naturalJoinColumns;
     private boolean foundOne;
+    private boolean hashRows;
     private Expression fullCondition;
     private final int hashCode;
     private final int orderInFrom;
 
     private HashMap<Column, String> derivedColumnMap;
 
+    /**
+     * The hash table of the rows, if the table is joined using a hash join.
+     */
+    private HashJoin hashJoin;
+
+    /**
+     * Whether all columns of this table that are used by the query are stored
+     * in the index, so that the rows don't need to be read from the table.
+     */
+    private boolean indexOnly;
+
     /**
      * Create a new table filter object.
      *
@@ -237,6 +250,17 @@ public PlanItem getBestPlanItem(Session s, TableFilter[] filters, int filter,
             item = item1;
         }
 
+        if (filter > 0 && filters[filter] == this && nestedJoin == null) {
+            PlanItem hashItem = getHashJoinPlanItem(s, filters, filter,
+                    sortOrder, allColumnsSet, item);
+            if (hashItem != null) {
+                item = hashItem;
+            }
+        }
+        if (item.getHashJoinConditions() == null) {
+            item.setIndexOnly(isCovering(item.getIndex(), allColumnsSet));
+        }
+
         if (nestedJoin != null) {
             setEvaluatable(true);
             item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, filters, filter, allColumnsSet));
@@ -257,6 +281,107 @@ public PlanItem getBestPlanItem(Session s, TableFilter[] filters, int filter,
         return item;
     }
 
+    /**
+     * Check whether all columns of this table that are used by the query are
+     * stored in the given index. This is only the case for queries that don't
+     * need to lock or change the rows.
+     *
+     * @param idx the index
+     * @param allColumnsSet the set of all columns used by the query
+     * @return true if yes
+     */
+    private boolean isCovering(Index idx, HashSet<Column> allColumnsSet) {
+        if (select == null || select.isForUpdate() || allColumnsSet == null ||
+                idx.getIndexType().isScan() || idx.getColumns() == null) {
+            return false;
+        }
+        Column[] include = idx.getIncludeColumns();
+        for (Column c : allColumnsSet) {
+            if (c.getTable() != table || c.getColumnId() < 0 ||
+                    idx.getColumnIndex(c) >= 0) {
+                // the row key is always available
+                continue;
+            }
+            boolean found = false;
+            if (include != null) {
+                for (Column c2 : include) {
+                    if (c == c2) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the plan item for a hash join, if the table can be joined using
+     * equality conditions, there is no index that could be used for them, and
+     * the hash join is cheaper.
+     *
+     * @param s the session
+     * @param filters all joined table filters
+     * @param filter the current table filter index
+     * @param sortOrder the sort order
+     * @param allColumnsSet the set of all columns
+     * @param item the best plan item without a hash join
+     * @return the plan item, or null
+     */
+    private PlanItem getHashJoinPlanItem(Session s, TableFilter[] filters,
+            int filter, SortOrder sortOrder, HashSet<Column> allColumnsSet,
+            PlanItem item) {
+        if (!s.getDatabase().getSettings().hashJoin ||
+                !table.isDeterministic() ||
+                table.isView() && ((TableView) table).isRecursive()) {
+            return null;
+        }
+        ArrayList<IndexCondition> list = null;
+        int totalSelectivity = 0;
+        for (IndexCondition condition : indexConditions) {
+            if (condition.getCompareType() != Comparison.EQUAL ||
+                    !condition.isEvaluatable()) {
+                continue;
+            }
+            Column column = condition.getColumn();
+            if (column.getColumnId() < 0 ||
+                    !HashJoin.isSupported(s, column, condition.getExpression())) {
+                continue;
+            }
+            if (item.getIndex().getColumnIndex(column) == 0) {
+                // an index can be used
+                return null;
+            }
+            if (list == null) {
+                list = New.arrayList();
+            }
+            list.add(condition);
+            totalSelectivity = 100 - ((100 - totalSelectivity) *
+                    (100 - column.getSelectivity()) / 100);
+        }
+        if (list == null) {
+            return null;
+        }
+        // the same as the cost of a lookup in a covering index,
+        // as the table is only read once
+        long rowCount = table.getRowCountApproximation() +
+                Constants.COST_ROW_OFFSET;
+        long distinctRows = Math.max(rowCount * totalSelectivity / 100, 1);
+        double cost = 10 * (2 + Math.max(rowCount / distinctRows, 1) + 20);
+        if (cost >= item.cost) {
+            return null;
+        }
+        PlanItem hashItem = new PlanItem();
+        hashItem.setIndex(table.getScanIndex(s, null, filters, filter,
+                sortOrder, allColumnsSet));
+        hashItem.cost = cost;
+        hashItem.setHashJoinConditions(list);
+        return hashItem;
+    }
+
     /**
      * Set what plan item (index, cost, masks) to use.
      *
@@ -269,7 +394,12 @@ public void setPlanItem(PlanItem item) {
             return;
         }
         setIndex(item.getIndex());
+        indexOnly = item.isIndexOnly();
         masks = item.getMasks();
+        ArrayList<IndexCondition> hashJoinConditions =
+                item.getHashJoinConditions();
+        hashJoin = hashJoinConditions == null ? null :
+                new HashJoin(this, hashJoinConditions);
         if (nestedJoin != null) {
             if (item.getNestedJoinPlan() != null) {
                 nestedJoin.setPlanItem(item.getNestedJoinPlan());
@@ -348,6 +478,9 @@ public void prepare() {
     public void startQuery(Session s) {
         this.session = s;
         scanCount = 0;
+        if (hashJoin != null) {
+            hashJoin.reset();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -447,6 +580,8 @@ public JoinBatch prepareJoinBatch(JoinBatch jb, TableFilter[] filters, int filte
                 }
             }
             jb.register(this, lookupBatch);
+            // the rows are read using the lookup batch
+            hashJoin = null;
         }
         return jb;
     }
@@ -473,8 +608,13 @@ public boolean next() {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
-            if (!cursor.isAlwaysFalse()) {
+            if (hashJoin == null || !hashJoin.find(session)) {
+                hashRows = false;
+                cursor.find(session, indexConditions);
+            } else {
+                hashRows = true;
+            }
+            if (hashRows || !cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
                 }
@@ -494,7 +634,7 @@ public boolean next() {
             if (state == NULL_ROW) {
                 break;
             }
-            if (cursor.isAlwaysFalse()) {
+            if (!hashRows && cursor.isAlwaysFalse()) {
                 state = AFTER_LAST;
             } else if (nestedJoin != null) {
                 if (state == BEFORE_FIRST) {
@@ -504,7 +644,11 @@ public boolean next() {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (hashRows) {
+                    current = hashJoin.next(session);
+                    currentSearchRow = current;
+                    state = current == null ? AFTER_LAST : FOUND;
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -829,6 +973,10 @@ public String getPlanSQL(boolean isJoin) {
                     planBuff.append(condition.getSQL());
                 }
             }
+            if (hashJoin != null) {
+                planBuff.append("\n    hash join: ").
+                        append(hashJoin.getPlanSQL());
+            }
             String plan = StringUtils.quoteRemarkSQL(planBuff.toString());
             if (plan.indexOf('\n') >= 0) {
                 plan += "\n";
@@ -884,9 +1032,22 @@ public Index getIndex() {
 
     public void setIndex(Index index) {
         this.index = index;
+        indexOnly = false;
         cursor.setIndex(index);
     }
 
+    /**
+     * Whether the rows can be read from the index only, because all columns
+     * of this table that are used by the query are stored in the index. If
+     * yes, the rows returned by the index cursor only contain the values of
+     * these columns.
+     *
+     * @return true if yes
+     */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
     public void setUsed(boolean used) {
         this.used = used;
     }
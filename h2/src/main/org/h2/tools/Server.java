@@ -88,6 +88,12 @@ public Server(Service service, String... args) throws SQLException {
      * <td>Stop the TCP server; example: tcp://localhost</td></tr>
      * <tr><td>[-tcpShutdownForce]</td>
      * <td>Do not wait until all connections are closed</td></tr>
+     * <tr><td>[-tcpWorkers &lt;n&gt;]</td>
+     * <td>Serve all connections with n worker threads</td></tr>
+     * <tr><td>[-tcpVirtualThreads]</td>
+     * <td>Use virtual threads as workers (Java 21)</td></tr>
+     * <tr><td>[-tcpReadTimeout &lt;ms&gt;]</td>
+     * <td>Close stalled connections of workers (default: 30000)</td></tr>
      * <tr><td>[-pg]</td>
      * <td>Start the PG server</td></tr>
      * <tr><td>[-pgAllowOthers]</td>
@@ -157,6 +163,12 @@ private void verifyArgs(String... args) throws SQLException {
                     i++;
                 } else if ("-tcpShutdownForce".equals(arg)) {
                     // ok
+                } else if ("-tcpWorkers".equals(arg)) {
+                    i++;
+                } else if ("-tcpVirtualThreads".equals(arg)) {
+                    // no parameters
+                } else if ("-tcpReadTimeout".equals(arg)) {
+                    i++;
                 } else {
                     throwUnsupportedOption(arg);
                 }
@@ -258,6 +270,12 @@ public void runTool(String... args) throws SQLException {
                     tcpShutdownServer = args[++i];
                 } else if ("-tcpShutdownForce".equals(arg)) {
                     tcpShutdownForce = true;
+                } else if ("-tcpWorkers".equals(arg)) {
+                    i++;
+                } else if ("-tcpVirtualThreads".equals(arg)) {
+                    // no parameters
+                } else if ("-tcpReadTimeout".equals(arg)) {
+                    i++;
                 } else {
                     showUsageAndThrowUnsupportedOption(arg);
                 }
@@ -429,7 +447,8 @@ public static Server createWebServer(String... args) throws SQLException {
      * </pre>
      * Supported options are:
      * -tcpPort, -tcpSSL, -tcpPassword, -tcpAllowOthers, -tcpDaemon,
-     * -trace, -ifExists, -baseDir, -key.
+     * -tcpWorkers, -tcpVirtualThreads, -tcpReadTimeout, -trace, -ifExists,
+     * -baseDir, -key.
      * See the main method for details.
      * <p>
      * If no port is specified, the default port is used if possible,
@@ -13,6 +13,7 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.TimeUnit;
 
 import org.h2.api.ErrorCode;
@@ -184,6 +185,29 @@ private static ServerSocket createServerSocketTry(int port, boolean ssl) {
         }
     }
 
+    /**
+     * Create a server socket channel in blocking mode. The system property
+     * h2.bindAddress is used if set.
+     *
+     * @param port the port to listen on
+     * @return the server socket channel
+     */
+    public static ServerSocketChannel createServerSocketChannel(int port) {
+        ServerSocketChannel channel = null;
+        try {
+            channel = ServerSocketChannel.open();
+            channel.socket().bind(new InetSocketAddress(getBindAddress(), port));
+            return channel;
+        } catch (BindException be) {
+            IOUtils.closeSilently(channel);
+            throw DbException.get(ErrorCode.EXCEPTION_OPENING_PORT_2,
+                    be, "" + port, be.toString());
+        } catch (IOException e) {
+            IOUtils.closeSilently(channel);
+            throw DbException.convertIOException(e, "port: " + port);
+        }
+    }
+
     /**
      * Check if a socket is connected to a local address.
      *
@@ -736,6 +736,15 @@ public void setVersion(int version) {
         this.version = version;
     }
 
+    /**
+     * Get the number of bytes that can be read without blocking.
+     *
+     * @return the number of bytes
+     */
+    public int available() throws IOException {
+        return in == null ? 0 : in.available();
+    }
+
     public synchronized boolean isClosed() {
         return socket == null || socket.isClosed();
     }
@@ -134,6 +134,7 @@
 import org.h2.test.store.TestCacheConcurrentLIRS;
 import org.h2.test.store.TestCacheLIRS;
 import org.h2.test.store.TestCacheLongKeyLIRS;
+import org.h2.test.store.TestCacheLongKeyOffHeap;
 import org.h2.test.store.TestConcurrent;
 import org.h2.test.store.TestConcurrentLinkedList;
 import org.h2.test.store.TestDataUtils;
@@ -883,6 +884,7 @@ private void testUnit() {
         addTest(new TestCacheConcurrentLIRS());
         addTest(new TestCacheLIRS());
         addTest(new TestCacheLongKeyLIRS());
+        addTest(new TestCacheLongKeyOffHeap());
         addTest(new TestConcurrentLinkedList());
         addTest(new TestDataUtils());
         addTest(new TestFreeSpace());
@@ -38,7 +38,9 @@ public void test() throws SQLException {
         testLargeUpdateDelete();
         testCloseConnectionDelete();
         testOrderGroup();
+        testLargeGroup();
         testLimitBufferedResult();
+        testLargeOrderBy();
         deleteDb("bigResult");
     }
 
@@ -97,6 +99,51 @@ private void testCloseConnectionDelete() throws SQLException {
         }
     }
 
+    private void testLargeGroup() throws SQLException {
+        deleteDb("bigResult");
+        Connection conn = getConnection("bigResult");
+        Statement stat = conn.createStatement();
+        int len = getSize(1000, 10000);
+        stat.execute("SET MAX_MEMORY_ROWS " + (len / 20));
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, K INT, V INT)");
+        stat.execute("INSERT INTO TEST SELECT X, MOD(X, " + (len / 2) +
+                "), X FROM SYSTEM_RANGE(1, " + len + ")");
+        stat.execute("CREATE TABLE NAMES(K INT PRIMARY KEY, NAME VARCHAR)");
+        stat.execute("INSERT INTO NAMES SELECT X, 'N' || X " +
+                "FROM SYSTEM_RANGE(0, " + (len / 2) + ")");
+        // the groups don't fit in memory
+        ResultSet rs = stat.executeQuery("SELECT T.K, N.NAME, COUNT(*), SUM(V), " +
+                "MIN(T.ID), GROUP_CONCAT(V ORDER BY V) " +
+                "FROM TEST T LEFT JOIN NAMES N ON T.K = N.K " +
+                "GROUP BY T.K, N.NAME ORDER BY T.K");
+        for (int k = 0; k < len / 2; k++) {
+            assertTrue(rs.next());
+            int v1 = k == 0 ? len / 2 : k;
+            int v2 = v1 + len / 2;
+            assertEquals(k, rs.getInt(1));
+            assertEquals("N" + k, rs.getString(2));
+            assertEquals(2, rs.getInt(3));
+            assertEquals(v1 + v2, rs.getLong(4));
+            assertEquals(v1, rs.getInt(5));
+            assertEquals(v1 + "," + v2, rs.getString(6));
+        }
+        assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT COUNT(*) FROM (SELECT K, SUM(V) S " +
+                "FROM TEST GROUP BY K HAVING MOD(S, 2) = 0)");
+        rs.next();
+        assertEquals(len % 4 == 0 ? len / 2 : 0, rs.getInt(1));
+        rs = stat.executeQuery("EXPLAIN ANALYZE SELECT K, COUNT(*) " +
+                "FROM TEST GROUP BY K");
+        rs.next();
+        assertContains(rs.getString(1), "/* spilled groups: ");
+        // only reported after the statement was executed
+        rs = stat.executeQuery("EXPLAIN SELECT K, COUNT(*) " +
+                "FROM TEST GROUP BY K");
+        rs.next();
+        assertFalse(rs.getString(1).contains("/* spilled groups: "));
+        conn.close();
+    }
+
     private void testLimitBufferedResult() throws SQLException {
         deleteDb("bigResult");
         Connection conn = getConnection("bigResult");
@@ -123,6 +170,59 @@ private void testLimitBufferedResult() throws SQLException {
         conn.close();
     }
 
+    private void testLargeOrderBy() throws SQLException {
+        deleteDb("bigResult");
+        Connection conn = getConnection("bigResult");
+        Statement stat = conn.createStatement();
+        int len = getSize(2000, 20000);
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, K INT, V VARCHAR)");
+        stat.execute("INSERT INTO TEST SELECT X, MOD(X * 7, 101), 'v' || X " +
+                "FROM SYSTEM_RANGE(1, " + len + ")");
+        // the rows are sorted in 10 runs that are then merged
+        stat.execute("SET MAX_MEMORY_ROWS " + (len / 10));
+        checkLargeOrderBy(stat, len);
+        // too many runs to merge them at once: the runs are first merged
+        // into longer runs
+        stat.execute("SET MAX_MEMORY_ROWS 10");
+        checkLargeOrderBy(stat, len);
+        stat.execute("SET MAX_MEMORY_ROWS " + (len / 10));
+        ResultSet rs = stat.executeQuery("SELECT ID FROM TEST ORDER BY ID DESC " +
+                "LIMIT 10 OFFSET " + (len / 2));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rs.next());
+            assertEquals(len - len / 2 - i, rs.getInt(1));
+        }
+        assertFalse(rs.next());
+        // the unsorted rows are returned in the order they were added
+        rs = stat.executeQuery("SELECT ID, K FROM TEST WHERE K >= 0");
+        for (int i = 1; i <= len; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
+
+    private void checkLargeOrderBy(Statement stat, int len)
+            throws SQLException {
+        ResultSet rs = stat.executeQuery(
+                "SELECT K, ID, V FROM TEST ORDER BY K DESC, ID");
+        int count = 0, lastK = Integer.MAX_VALUE, lastId = 0;
+        while (rs.next()) {
+            int k = rs.getInt(1), id = rs.getInt(2);
+            assertTrue(k <= lastK);
+            if (k == lastK) {
+                assertTrue(id > lastId);
+            }
+            assertEquals(k, id * 7 % 101);
+            assertEquals("v" + id, rs.getString(3));
+            lastK = k;
+            lastId = id;
+            count++;
+        }
+        assertEquals(len, count);
+    }
+
     private void testOrderGroup() throws SQLException {
         deleteDb("bigResult");
         Connection conn = getConnection("bigResult");
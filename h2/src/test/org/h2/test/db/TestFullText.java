@@ -20,6 +20,7 @@
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import org.h2.api.ErrorCode;
 import org.h2.fulltext.FullText;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
@@ -61,6 +62,9 @@ public void test() throws Exception {
         testPerformance(false);
         testReopen(false);
         testDropIndex(false);
+        if (config.mvStore) {
+            testMVStore();
+        }
         if (!config.reopen) {
             try {
                 Class.forName(LUCENE_FULLTEXT_CLASS_NAME);
@@ -245,6 +249,145 @@ private void testTransaction(boolean lucene) throws SQLException {
         FileUtils.deleteRecursive(getBaseDir() + "/fullTextTransaction", false);
     }
 
+    private void testMVStore() throws SQLException {
+        deleteDb("fullTextMVStore");
+        ArrayList<Connection> connList = new ArrayList<>();
+        Connection conn = getConnection("fullTextMVStore", connList);
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE ALIAS IF NOT EXISTS FTM_INIT " +
+                "FOR \"org.h2.fulltext.FullTextMVStore.init\"");
+        stat.execute("CALL FTM_INIT()");
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, NAME VARCHAR)");
+        stat.execute("INSERT INTO TEST VALUES(1, 'the quick brown fox')");
+        stat.execute("CALL FTM_CREATE_INDEX('PUBLIC', 'TEST', NULL)");
+        stat.execute("INSERT INTO TEST VALUES(2, 'the brown dog and the fox')");
+        stat.execute("INSERT INTO TEST VALUES(3, 'fox fox fox')");
+        stat.execute("INSERT INTO TEST VALUES(4, 'quickly')");
+        assertEquals("1,2,3", searchIds(stat, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        // ranked by term frequency
+        ResultSet rs = stat.executeQuery(
+                "SELECT KEYS[0], SCORE FROM FTM_SEARCH_DATA('fox', 0, 0)");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        double score = rs.getDouble(2);
+        assertTrue(rs.next());
+        assertTrue(rs.getDouble(2) < score);
+        assertEquals("1,2", searchIds(stat, "FTM_SEARCH_DATA('brown fox', 0, 0)"));
+        assertEquals("1", searchIds(stat,
+                "FTM_SEARCH_DATA('\"brown fox\"', 0, 0)"));
+        assertEquals("1,4", searchIds(stat, "FTM_SEARCH_DATA('quick*', 0, 0)"));
+        assertEquals("", searchIds(stat, "FTM_SEARCH_DATA('cat', 0, 0)"));
+        rs = stat.executeQuery("SELECT * FROM FTM_SEARCH('fox', 1, 1)");
+        assertTrue(rs.next());
+        assertEquals("\"PUBLIC\".\"TEST\" WHERE \"ID\"=1", rs.getString(1));
+        assertFalse(rs.next());
+        // combined with a regular condition
+        rs = stat.executeQuery("SELECT T.ID FROM " +
+                "FTM_SEARCH_DATA('fox', 0, 0) FT, TEST T " +
+                "WHERE FT.TABLE='TEST' AND T.ID=FT.KEYS[0] AND T.ID > 2");
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        assertFalse(rs.next());
+
+        // the MATCH condition
+        assertEquals("1,2,3", queryIds(stat, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'fox') ORDER BY ID"));
+        assertEquals("3", queryIds(stat, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'fox') AND ID > 2"));
+        assertEquals("2", queryIds(stat, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'fox') AND ID = 2"));
+        assertEquals("1", queryIds(stat, "SELECT ID FROM TEST " +
+                "WHERE MATCH(PUBLIC.TEST, '\"brown fox\"')"));
+        rs = stat.executeQuery("EXPLAIN SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'fox')");
+        rs.next();
+        assertContains(rs.getString(1), "ID IN(MATCH(T, 'fox'))");
+        // evaluated for each row if the index can't be used
+        assertEquals("1,3,4", queryIds(stat, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'quick*') OR ID = 3 ORDER BY ID"));
+        stat.execute("CREATE TABLE TEST2(ID INT PRIMARY KEY, TEST_ID INT)");
+        stat.execute("INSERT INTO TEST2 VALUES(1, 2), (2, 3), (3, 4)");
+        assertEquals("1,2", queryIds(stat, "SELECT X.ID FROM TEST2 X, TEST T " +
+                "WHERE X.TEST_ID = T.ID AND MATCH(T, 'fox') ORDER BY X.ID"));
+        assertEquals("2", queryIds(stat, "SELECT X.ID FROM TEST2 X " +
+                "WHERE EXISTS(SELECT * FROM TEST T " +
+                "WHERE T.ID = X.TEST_ID AND MATCH(T, '\"fox fox\"'))"));
+        PreparedStatement prep = conn.prepareStatement(
+                "SELECT COUNT(*) FROM TEST T WHERE MATCH(T, ?)");
+        prep.setString(1, "brown");
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        prep.setString(1, "quickly");
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        assertThrows(ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1, stat).
+                executeQuery("SELECT * FROM TEST WHERE MATCH(X, 'fox')");
+        try {
+            stat.executeQuery("SELECT * FROM TEST2 T WHERE MATCH(T, 'fox')");
+            fail();
+        } catch (SQLException e) {
+            assertContains(e.getMessage(), "No full text index");
+        }
+        stat.execute("DROP TABLE TEST2");
+
+        // the index is transactional
+        stat.execute("UPDATE TEST SET NAME='a lazy cat' WHERE ID=3");
+        assertEquals("1,2", searchIds(stat, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        assertEquals("3", searchIds(stat, "FTM_SEARCH_DATA('lazy', 0, 0)"));
+        conn.setAutoCommit(false);
+        stat.execute("INSERT INTO TEST VALUES(5, 'a lazy fox')");
+        stat.execute("DELETE FROM TEST WHERE ID=1");
+        assertEquals("2,5", searchIds(stat, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        assertEquals("2,5", queryIds(stat, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'fox') ORDER BY ID"));
+        assertEquals("5", queryIds(stat, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'lazy fox') OR ID < 0"));
+        Connection conn2 = getConnection("fullTextMVStore", connList);
+        Statement stat2 = conn2.createStatement();
+        assertEquals("1,2", searchIds(stat2, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        assertEquals("1,2", queryIds(stat2, "SELECT ID FROM TEST T " +
+                "WHERE MATCH(T, 'fox') ORDER BY ID"));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        assertEquals("1,2", searchIds(stat, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        assertEquals("3", searchIds(stat, "FTM_SEARCH_DATA('lazy', 0, 0)"));
+
+        if (!config.memory) {
+            close(connList);
+            conn = getConnection("fullTextMVStore", connList);
+            stat = conn.createStatement();
+            assertEquals("1,2", searchIds(stat,
+                    "FTM_SEARCH_DATA('fox', 0, 0)"));
+        }
+        stat.execute("CALL FTM_REINDEX()");
+        assertEquals("1,2", searchIds(stat, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        stat.execute("CALL FTM_DROP_INDEX('PUBLIC', 'TEST')");
+        assertEquals("", searchIds(stat, "FTM_SEARCH_DATA('fox', 0, 0)"));
+        stat.execute("CALL FTM_DROP_ALL()");
+        close(connList);
+        deleteDb("fullTextMVStore");
+    }
+
+    private String searchIds(Statement stat, String search)
+            throws SQLException {
+        return queryIds(stat, "SELECT KEYS[0] FROM " + search +
+                " ORDER BY KEYS[0]");
+    }
+
+    private String queryIds(Statement stat, String sql) throws SQLException {
+        ResultSet rs = stat.executeQuery(sql);
+        StringBuilder buff = new StringBuilder();
+        while (rs.next()) {
+            if (buff.length() > 0) {
+                buff.append(',');
+            }
+            buff.append(rs.getString(1));
+        }
+        return buff.toString();
+    }
+
     private void testMultiThreaded(boolean lucene) throws Exception {
         final String prefix = lucene ? "FTL" : "FT";
         trace("Testing multithreaded " + prefix);
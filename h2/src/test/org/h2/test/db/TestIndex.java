@@ -47,6 +47,7 @@ public void test() throws SQLException {
         deleteDb("index");
         testOrderIndex();
         testIndexTypes();
+        testIncludeColumns();
         testHashIndexOnMemoryTable();
         testErrorMessage();
         testDuplicateKeyException();
@@ -141,6 +142,79 @@ private void testIndexTypes() throws SQLException {
         deleteDb("index");
     }
 
+    private void testIncludeColumns() throws SQLException {
+        if (!config.mvStore) {
+            return;
+        }
+        Connection conn = getConnection("index");
+        stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, " +
+                "a int, b varchar, c int, d varchar)");
+        stat.execute("insert into test select x, mod(x, 10), 'b' || x, " +
+                "x * 2, 'd' || x from system_range(1, 100)");
+        stat.execute("create table copy as select * from test");
+        stat.execute("create index idx_test_a on test(a) include(b, c)");
+        String[] queries = {
+                "select b, c from # where a = 3 order by c",
+                "select id, a, b from # where a between 2 and 4 order by id",
+                "select d from # where a = 5 order by id",
+                "select x.b, y.d from # x left join # y " +
+                        "on y.a = x.a and y.d = 'd' || x.id " +
+                        "where x.a = 7 order by x.id",
+                "select count(*), sum(c) from # where a = 1",
+        };
+        assertSameResult(conn, queries);
+        stat.execute("update test set b = 'x' || id, c = -c where a = 3");
+        stat.execute("update copy set b = 'x' || id, c = -c where a = 3");
+        stat.execute("delete from test where id between 40 and 60");
+        stat.execute("delete from copy where id between 40 and 60");
+        assertSameResult(conn, queries);
+        conn.setAutoCommit(false);
+        stat.execute("update test set b = 'y', c = 0 where a = 2");
+        conn.rollback();
+        conn.setAutoCommit(true);
+        assertSameResult(conn, queries);
+        ResultSet rs = stat.executeQuery("select sql " +
+                "from information_schema.indexes where index_name = 'IDX_TEST_A'");
+        rs.next();
+        assertContains(rs.getString(1), "INCLUDE(B, C)");
+        conn.close();
+        conn = getConnection("index");
+        stat = conn.createStatement();
+        assertSameResult(conn, queries);
+        assertThrows(ErrorCode.DUPLICATE_COLUMN_NAME_1, stat).
+                execute("create index idx_test_b on test(b) include(c, b)");
+        assertThrows(ErrorCode.COLUMN_NOT_FOUND_1, stat).
+                execute("create index idx_test_b on test(b) include(x)");
+        assertThrows(ErrorCode.COLUMN_IS_REFERENCED_1, stat).
+                execute("alter table test drop column c");
+        stat.execute("alter table test alter column c bigint");
+        assertSameResult(conn, queries);
+        stat.execute("alter table test drop column a");
+        stat.execute("alter table test drop column c");
+        stat.execute("drop table test, copy");
+        conn.close();
+        deleteDb("index");
+    }
+
+    private void assertSameResult(Connection conn, String... queries)
+            throws SQLException {
+        Statement stat1 = conn.createStatement();
+        Statement stat2 = conn.createStatement();
+        for (String query : queries) {
+            ResultSet rs1 = stat1.executeQuery(query.replace("#", "test"));
+            ResultSet rs2 = stat2.executeQuery(query.replace("#", "copy"));
+            int columnCount = rs1.getMetaData().getColumnCount();
+            while (rs2.next()) {
+                assertTrue(query, rs1.next());
+                for (int i = 1; i <= columnCount; i++) {
+                    assertEquals(query, rs2.getString(i), rs1.getString(i));
+                }
+            }
+            assertFalse(query, rs1.next());
+        }
+    }
+
     private void testErrorMessage() throws SQLException {
         reconnect();
         stat.execute("create table test(id int primary key, name varchar)");
@@ -15,8 +15,14 @@
 import java.util.HashMap;
 import java.util.Random;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.api.DatabaseEventListener;
 import org.h2.api.ErrorCode;
+import org.h2.engine.Session;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.db.MVTableEngine.Store;
 import org.h2.test.TestBase;
 import org.h2.tools.SimpleResultSet;
 import org.h2.util.StringUtils;
@@ -45,14 +51,17 @@ public void test() throws Exception {
         testExplainRoundTrip();
         testOrderByExpression();
         testGroupSubquery();
+        testParallelGroup();
+        testVectorized();
+        testHashJoin();
         testAnalyzeLob();
+        testColumnStatistics();
         testLike();
         testExistsSubquery();
         testQueryCacheConcurrentUse();
         testQueryCacheResetParams();
         testRowId();
         testSortIndex();
-        testAutoAnalyze();
         testInAndBetween();
         testNestedIn();
         testConstantIn1();
@@ -67,6 +76,7 @@ public void test() throws Exception {
         if (config.networked) {
             return;
         }
+        testAutoAnalyze();
         testOptimizeInJoinSelect();
         testOptimizeInJoin();
         testMultiColumnRangeQuery();
@@ -169,6 +179,336 @@ private void testGroupSubquery() throws Exception {
         conn.close();
     }
 
+    private void testParallelGroup() throws Exception {
+        if (!config.mvStore) {
+            return;
+        }
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, k int, v int)");
+        stat.execute("insert into test select x, mod(x, 10), x " +
+                "from system_range(1, 10000)");
+        conn.close();
+        String url = "optimizations;" +
+                "PARALLEL_SCAN_THREADS=4;PARALLEL_SCAN_MIN_ROWS=100";
+        assertSameResults(new String[] {
+                "select k, count(*), sum(v), min(v), max(v), avg(v) " +
+                "from test where v > ? group by k order by k",
+                "select count(*), sum(v), max(k) from test where v > ?",
+                "select k, sum(v) from test where v > ? " +
+                "group by k having count(*) > 900 order by k",
+                // the rows are processed in the order of the table
+                "select k, group_concat(v) from test where v > ? " +
+                "group by k order by k",
+        }, "optimizations", url);
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        ForkJoinPool pool = ((Session) ((JdbcConnection) conn).getSession()).
+                getDatabase().getWorkerPool();
+        assertEquals(0, pool.getPoolSize());
+        ResultSet rs = stat.executeQuery("explain analyze " +
+                "select k, sum(v) from test group by k");
+        rs.next();
+        assertContains(rs.getString(1), "/* parallel scan: 4 threads */");
+        assertTrue(pool.getPoolSize() > 0);
+        // uncommitted changes of the session are visible
+        conn.setAutoCommit(false);
+        stat.execute("delete from test where k = 1");
+        stat.execute("insert into test values(20000, 1, 1)");
+        rs = stat.executeQuery("select count(*), sum(v) from test where k = 1");
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        assertEquals(1, rs.getInt(2));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        // an index is used
+        rs = stat.executeQuery("explain analyze " +
+                "select k, sum(v) from test where id < 100 group by k");
+        rs.next();
+        assertFalse(rs.getString(1).contains("/* parallel scan: "));
+        // how the rows were read is only reported by EXPLAIN ANALYZE,
+        // even if the query of the view was executed before
+        stat.execute("create view v as select k, sum(v) s from test group by k");
+        rs = stat.executeQuery("select * from v");
+        while (rs.next()) {
+            // ignore
+        }
+        rs = stat.executeQuery("explain select * from v");
+        rs.next();
+        assertFalse(rs.getString(1).contains("parallel scan: "));
+        stat.execute("drop view v");
+        stat.execute("drop table test");
+        conn.close();
+    }
+
+    private void testVectorized() throws Exception {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, a int, b bigint, " +
+                "c double, d real, e smallint, s varchar)");
+        stat.execute("insert into test select x, " +
+                "case when mod(x, 7) = 0 then null else mod(x, 100) - 50 end, " +
+                "x * 1000000007, x / 3.0, case when mod(x, 11) = 0 then null " +
+                "else x / 7.0 end, mod(x, 300), 'x' || x " +
+                "from system_range(1, 5000)");
+        conn.close();
+        assertSameResults(new String[] {
+                "select count(*), count(a), sum(a), min(a), max(a), avg(a), " +
+                "sum(b), avg(b), min(b), max(b), sum(c), avg(c), min(c), " +
+                "max(c), sum(d), avg(d), min(d), max(d), sum(e), avg(e) " +
+                "from test where id > ?",
+                "select sum(a * 2 + b), sum(-a), max(c * d - a), " +
+                "min(d + e), count(a - e), sum(e * 100) from test " +
+                "where a > ? and (c < 1000 or d > 600 or a is null)",
+                "select count(*), sum(a) + 1 from test where a <> ? " +
+                "or b <= 2000000014 or e = 5",
+                "select count(*), sum(b) from test where d is not null " +
+                "and id >= ? and c * 3 < 4000",
+                "select count(*), max(a) from test where id > ? and a > 1000",
+        }, "optimizations", "optimizations;VECTOR_SIZE=7");
+        // NaN is larger than all other values, and -0.0 is equal to 0.0;
+        // NaN can't be stored, but "c * 10 * 0" is NaN for the largest value
+        // and -0.0 for negative values
+        conn = getConnection("optimizations");
+        stat = conn.createStatement();
+        stat.execute("create table test2(id int primary key, c double, d real)");
+        stat.execute("insert into test2 values(1, 0, 0), (2, 1e308, 3e38), " +
+                "(3, 1.5, 1.5), (4, -2, -2), (5, null, null), (6, -0.5, -0.5)");
+        conn.close();
+        assertSameResults(new String[] {
+                "select min(c * 10 * 0), max(c * 10 * 0), min(d * 10 * 0), " +
+                "max(d * 10 * 0), min(-c), max(-c), min(-d), max(-d) " +
+                "from test2 where id > ?",
+                "select min(c * 10 * 0), max(d * 10 * 0) from test2 " +
+                "where id > ? and c < 1",
+                "select count(*), sum(id) from test2 where -c = 0 or id < ?",
+                "select count(*), sum(id) from test2 " +
+                "where c * 10 * 0 >= 0 and id > ?",
+                "select count(*), sum(id) from test2 " +
+                "where d * 10 * 0 <= -d and id > ?",
+        }, "optimizations", "optimizations;VECTOR_SIZE=7");
+        conn = getConnection("optimizations;VECTOR_SIZE=7");
+        stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("select min(c * 10 * 0), " +
+                "max(c * 10 * 0), max(d * 10 * 0), count(*) from test2 " +
+                "where c * 10 * 0 >= 0");
+        rs.next();
+        assertEquals("0.0", rs.getString(1));
+        assertTrue(Double.isNaN(rs.getDouble(2)));
+        assertTrue(Float.isNaN(rs.getFloat(3)));
+        assertEquals(5, rs.getInt(4));
+        stat.execute("drop table test2");
+        rs = stat.executeQuery("explain analyze " +
+                "select sum(a) from test where c > 10 or d < 5");
+        rs.next();
+        assertContains(rs.getString(1), "/* vectorized */");
+        // not evaluated in batches
+        rs = stat.executeQuery("explain analyze " +
+                "select sum(a) from test where s like 'x1%'");
+        rs.next();
+        assertFalse(rs.getString(1).contains("/* vectorized */"));
+        rs = stat.executeQuery("explain analyze " +
+                "select a, sum(b) from test group by a");
+        rs.next();
+        assertFalse(rs.getString(1).contains("/* vectorized */"));
+        // an overflow is detected as when evaluating row by row
+        assertThrows(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, stat).
+                executeQuery("select sum(b * 10000000000) from test");
+        assertThrows(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, stat).
+                executeQuery("select sum(a * 100000 * 100000) from test");
+        assertThrows(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, stat).
+                executeQuery("select sum(b + 9223372036854775000) from test");
+        assertThrows(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, stat).
+                executeQuery("select sum(-9223372036854775000 - b) from test");
+        // the progress is reported (and the statement can be canceled) while
+        // the rows are read in batches
+        stat.execute("set database_event_listener '" +
+                ProgressListener.class.getName() + "'");
+        ProgressListener.COUNT.set(0);
+        rs = stat.executeQuery("select sum(a) from test where c > 10 or d < 5");
+        rs.next();
+        assertTrue(ProgressListener.COUNT.get() >= 5000 / 128);
+        stat.execute("set database_event_listener ''");
+        stat.execute("drop table test");
+        conn.close();
+    }
+
+    /**
+     * A database event listener that counts the statement progress events.
+     */
+    public static class ProgressListener implements DatabaseEventListener {
+
+        /**
+         * The number of statement progress events.
+         */
+        static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public void init(String url) {
+            // ignore
+        }
+
+        @Override
+        public void opened() {
+            // ignore
+        }
+
+        @Override
+        public void exceptionThrown(SQLException e, String sql) {
+            // ignore
+        }
+
+        @Override
+        public void setProgress(int state, String name, int x, int max) {
+            if (state == DatabaseEventListener.STATE_STATEMENT_PROGRESS) {
+                COUNT.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void closingDatabase() {
+            // ignore
+        }
+
+    }
+
+    private void testHashJoin() throws Exception {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table a(id int primary key, x int, s varchar)");
+        stat.execute("create table b(id int primary key, x int, s varchar)");
+        stat.execute("insert into a select x, mod(x, 300), 'v' || mod(x, 7) " +
+                "from system_range(1, 1000)");
+        stat.execute("insert into b select x, case when mod(x, 10) = 0 " +
+                "then null else mod(x, 500) end, 'v' || mod(x, 5) " +
+                "from system_range(1, 600)");
+        conn.close();
+        String[] queries = {
+                "select count(*), sum(a.id + b.id) from a join b on a.x = b.x " +
+                "where a.id > ?",
+                "select count(*), sum(a.id), sum(b.id) from a left join b " +
+                "on a.x = b.x and a.s = b.s where a.id > ?",
+                "select count(*), sum(a.id) from a, (select x, count(*) c " +
+                "from b group by x) v where v.x = a.x and v.c > ?",
+        };
+        if (config.mvStore) {
+            assertSameResults(queries, "optimizations;HASH_JOIN=FALSE",
+                    "optimizations", "optimizations;MAX_MEMORY_ROWS=100");
+        } else {
+            // the rows are not stored in a temporary map, and the hash join
+            // is not used if there are too many rows
+            assertSameResults(queries, "optimizations;HASH_JOIN=FALSE",
+                    "optimizations");
+        }
+        conn = getConnection("optimizations");
+        stat = conn.createStatement();
+        // the table without a usable index is the inner table of the join
+        ResultSet rs = stat.executeQuery("explain " +
+                "select count(*) from a join b on a.x = b.x");
+        rs.next();
+        assertEquals("SELECT\n" +
+                "    COUNT(*)\n" +
+                "FROM PUBLIC.B\n" +
+                "    /* PUBLIC.B.tableScan */\n" +
+                "INNER JOIN PUBLIC.A\n" +
+                "    /* PUBLIC.A.tableScan\n" +
+                "        hash join: X = B.X\n" +
+                "     */\n" +
+                "    ON 1=1\n" +
+                "WHERE A.X = B.X", rs.getString(1));
+        conn.close();
+        if (config.mvStore && !config.networked) {
+            // the hash table is only stored in a temporary map if there are
+            // too many rows
+            conn = getConnection("optimizations;MAX_MEMORY_ROWS=10000");
+            assertEquals(0, getTemporaryMapCount(conn,
+                    "select count(*) from a join b on a.x = b.x"));
+            conn.close();
+            conn = getConnection("optimizations;MAX_MEMORY_ROWS=100");
+            assertEquals(1, getTemporaryMapCount(conn,
+                    "select count(*) from a join b on a.x = b.x"));
+            conn.close();
+        }
+        conn = getConnection("optimizations");
+        stat = conn.createStatement();
+        stat.execute("create index idx_b_x on b(x)");
+        rs = stat.executeQuery("explain select count(*) from a join b " +
+                "on a.x = b.x");
+        rs.next();
+        assertFalse(rs.getString(1).contains("hash join"));
+        stat.execute("drop table a, b");
+        conn.close();
+    }
+
+    /**
+     * Get the number of temporary maps of the MVStore that are created when
+     * running the query.
+     *
+     * @param conn the connection to an embedded database
+     * @param sql the query
+     * @return the number of temporary maps
+     */
+    private static int getTemporaryMapCount(Connection conn, String sql)
+            throws SQLException {
+        Store store = ((Session) ((JdbcConnection) conn).getSession()).
+                getDatabase().getMvStore();
+        int first = getTemporaryMapId(store);
+        conn.createStatement().executeQuery(sql).close();
+        return getTemporaryMapId(store) - first - 1;
+    }
+
+    private static int getTemporaryMapId(Store store) {
+        String name = store.nextTemporaryMapName();
+        return Integer.parseInt(name.substring(name.indexOf('.') + 1));
+    }
+
+    /**
+     * Check that the queries return the same results when using different
+     * database settings. Each query has one parameter, which is set to 0 and
+     * to 1000.
+     *
+     * @param queries the queries
+     * @param expectedUrl the database URL used to get the expected results
+     * @param urls the database URLs that are compared with it
+     */
+    private void assertSameResults(String[] queries, String expectedUrl,
+            String... urls) throws SQLException {
+        String[] expected = new String[queries.length];
+        Connection conn = getConnection(expectedUrl);
+        for (int i = 0; i < queries.length; i++) {
+            expected[i] = getQueryResult(conn, queries[i]);
+        }
+        conn.close();
+        for (String url : urls) {
+            conn = getConnection(url);
+            for (int i = 0; i < queries.length; i++) {
+                assertEquals(expected[i], getQueryResult(conn, queries[i]));
+            }
+            conn.close();
+        }
+    }
+
+    private String getQueryResult(Connection conn, String sql)
+            throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(sql);
+        StringBuilder buff = new StringBuilder();
+        for (int v = 0; v < 2000; v += 1000) {
+            prep.setInt(1, v);
+            ResultSet rs = prep.executeQuery();
+            int columnCount = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    buff.append(rs.getString(i)).append(' ');
+                }
+                buff.append('\n');
+            }
+        }
+        return buff.toString();
+    }
+
     private void testAnalyzeLob() throws Exception {
         Connection conn = getConnection("optimizations");
         Statement stat = conn.createStatement();
@@ -193,6 +533,70 @@ private void testAnalyzeLob() throws Exception {
         conn.close();
     }
 
+    private void testColumnStatistics() throws Exception {
+        deleteDb("optimizations");
+        // the background analysis would replace the statistics with a
+        // smaller sample
+        Connection conn = getConnection("optimizations;ANALYZE_AUTO=0");
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, a int, b varchar)");
+        stat.execute("create index idx_a on test(a)");
+        stat.execute("create index idx_b on test(b)");
+        // 90% of the rows have a = 1, half of the rows have b = 'x'
+        stat.execute("insert into test select x, " +
+                "case when x <= 9000 then 1 else x end, " +
+                "case when mod(x, 2) = 0 then 'x' else 'y' || x end " +
+                "from system_range(1, 10000)");
+        stat.execute("analyze");
+        ResultSet rs = stat.executeQuery("select sql from " +
+                "information_schema.tables where table_name = 'TEST'");
+        rs.next();
+        assertContains(rs.getString(1), "MOST_COMMON((1, 9000))");
+        assertContains(rs.getString(1), "MOST_COMMON(('x', 5000))");
+        checkColumnStatisticsPlans(stat);
+        stat.execute("analyze sample_size 0");
+        checkColumnStatisticsPlans(stat);
+        if (!config.memory) {
+            conn.close();
+            conn = getConnection("optimizations");
+            stat = conn.createStatement();
+            checkColumnStatisticsPlans(stat);
+        }
+        stat.execute("drop table test");
+        conn.close();
+    }
+
+    private void checkColumnStatisticsPlans(Statement stat)
+            throws SQLException {
+        assertContains(getPlan(stat, "select * from test where a = 1"),
+                "tableScan");
+        assertContains(getPlan(stat, "select * from test where a = 9500"),
+                "IDX_A");
+        assertContains(getPlan(stat, "select * from test where a in(1, 2)"),
+                "tableScan");
+        assertContains(getPlan(stat, "select * from test where a > 9900"),
+                "IDX_A");
+        assertContains(getPlan(stat, "select * from test where a < 5000"),
+                "tableScan");
+        assertContains(getPlan(stat,
+                "select * from test where a between 2 and 9500"), "IDX_A");
+        assertContains(getPlan(stat, "select * from test where b = 'x'"),
+                "tableScan");
+        assertContains(getPlan(stat, "select * from test where b = 'y3'"),
+                "IDX_B");
+        assertContains(getPlan(stat,
+                "select * from test where a = 1 and b = 'y3'"), "IDX_B");
+        assertContains(getPlan(stat,
+                "select * from test where a = 9500 and b = 'x'"), "IDX_A");
+    }
+
+    private static String getPlan(Statement stat, String sql)
+            throws SQLException {
+        ResultSet rs = stat.executeQuery("explain " + sql);
+        rs.next();
+        return rs.getString(1);
+    }
+
     private void testLike() throws Exception {
         Connection conn = getConnection("optimizations");
         Statement stat = conn.createStatement();
@@ -356,7 +760,7 @@ private void testSortIndex() throws SQLException {
         conn.close();
     }
 
-    private void testAutoAnalyze() throws SQLException {
+    private void testAutoAnalyze() throws Exception {
         deleteDb("optimizations");
         Connection conn = getConnection("optimizations");
         Statement stat = conn.createStatement();
@@ -373,6 +777,13 @@ private void testAutoAnalyze() throws SQLException {
             stat2.execute("insert into test select x " +
                     "from system_range(1, " + (auto + 10) + ")");
             conn2.close();
+            // the table is analyzed in the background
+            ((Session) ((JdbcConnection) conn).getSession()).getDatabase().
+                    waitForBackgroundAnalyze();
+            rs = stat.executeQuery("select selectivity from " +
+                    "information_schema.columns where table_name = 'TEST'");
+            rs.next();
+            assertEquals(100, rs.getInt(1));
         }
         conn.close();
     }
@@ -32,6 +32,7 @@ public void test() throws Exception {
         deleteDb("queryCache");
         test1();
         testClearingCacheWithTableStructureChanges();
+        testPlanCache();
         deleteDb("queryCache");
     }
 
@@ -108,4 +109,98 @@ private void testClearingCacheWithTableStructureChanges() throws Exception {
                     prepareStatement("SELECT * FROM TEST");
         }
     }
+
+    private void testPlanCache() throws Exception {
+        deleteDb("queryCache");
+        String url = "queryCache;QUERY_CACHE_SIZE=1";
+        // opening a connection may run SET statements,
+        // which clear the cache
+        Connection conn = getConnection(url);
+        Connection conn2 = getConnection(url);
+        Connection conn3 = getConnection(url);
+        Connection conn4 = getConnection(url);
+        Connection conn5 = getConnection(url);
+        Connection conn6 = getConnection(url);
+        Connection conn7 = getConnection(url);
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, name varchar)");
+        stat.execute("insert into test values(1, 'Hello')");
+        long hits = getPlanCacheHits(stat);
+        PreparedStatement prep = conn.prepareStatement(
+                "select name from test where id = ?");
+        prep.setInt(1, 1);
+        ResultSet rs = prep.executeQuery();
+        assertTrue(rs.next());
+        assertEquals("Hello", rs.getString(1));
+        prep.close();
+        // evicts the statement from the query cache of this session
+        prep = conn.prepareStatement("update test set name = ? where id = ?");
+        prep.close();
+
+        conn2.setAutoCommit(false);
+        conn2.createStatement().execute("insert into test values(2, 'World')");
+        prep = conn2.prepareStatement("select name from test where id = ?");
+        prep.setInt(1, 2);
+        rs = prep.executeQuery();
+        assertTrue(rs.next());
+        assertEquals("World", rs.getString(1));
+        prep.close();
+        assertTrue(getPlanCacheHits(stat) > hits);
+
+        // the statement is now bound to the other session
+        if (config.mvcc || config.mvStore) {
+            prep = conn.prepareStatement("select name from test where id = ?");
+            prep.setInt(1, 2);
+            assertFalse(prep.executeQuery().next());
+            prep.close();
+        }
+        conn2.rollback();
+        conn2.close();
+
+        // statements of closed sessions can be used by other sessions
+        conn.close();
+        stat = conn3.createStatement();
+        hits = getPlanCacheHits(stat);
+        prep = conn3.prepareStatement("update test set name = ? where id = ?");
+        prep.setString(1, "Hi");
+        prep.setInt(2, 1);
+        assertEquals(1, prep.executeUpdate());
+        prep.close();
+        assertTrue(getPlanCacheHits(stat) > hits);
+        rs = stat.executeQuery("select name from test where id = 1");
+        assertTrue(rs.next());
+        assertEquals("Hi", rs.getString(1));
+
+        // statements are not cloned: a session that needs a statement
+        // while another session uses it prepares its own copy, and both
+        // copies are kept in the cache
+        String sql = "select count(*) from test where id > ?";
+        conn4.prepareStatement(sql).close();
+        conn5.prepareStatement(sql).close();
+        conn4.close();
+        conn5.close();
+        hits = getPlanCacheHits(stat);
+        conn6.prepareStatement(sql).close();
+        conn7.prepareStatement(sql).close();
+        assertEquals(hits + 2, getPlanCacheHits(stat));
+        conn6.close();
+        conn7.close();
+
+        // the cache is cleared when the meta data changes
+        stat.execute("alter table test add column x int");
+        rs = stat.executeQuery("select * from information_schema.settings " +
+                "where name = 'info.PLAN_CACHE_SIZE'");
+        assertTrue(rs.next());
+        assertEquals("0", rs.getString("VALUE"));
+        stat.execute("drop table test");
+        conn3.close();
+    }
+
+    private static long getPlanCacheHits(Statement stat) throws Exception {
+        ResultSet rs = stat.executeQuery("select value " +
+                "from information_schema.settings " +
+                "where name = 'info.PLAN_CACHE_HITS'");
+        rs.next();
+        return rs.getLong(1);
+    }
 }
@@ -64,6 +64,7 @@ public void test() throws SQLException {
         testRootCause();
         testExecuteCall();
         testException();
+        testPartialFailure();
         testCoffee();
         deleteDb("batchUpdates");
     }
@@ -162,6 +163,58 @@ private void testException() throws SQLException {
         conn.close();
     }
 
+    private void testPartialFailure() throws SQLException {
+        deleteDb("batchUpdates");
+        conn = getConnection("batchUpdates");
+        stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, name varchar)");
+        prep = conn.prepareStatement("insert into test values(?, ?)");
+        int[] ids = { 1, 2, 1, 3, 2, 4 };
+        for (int id : ids) {
+            prep.setInt(1, id);
+            prep.setString(2, "Hello " + id);
+            prep.addBatch();
+        }
+        try {
+            prep.executeBatch();
+            fail();
+        } catch (BatchUpdateException e) {
+            int[] counts = e.getUpdateCounts();
+            assertEquals(ids.length, counts.length);
+            assertEquals(1, counts[0]);
+            assertEquals(1, counts[1]);
+            assertEquals(Statement.EXECUTE_FAILED, counts[2]);
+            assertEquals(1, counts[3]);
+            assertEquals(Statement.EXECUTE_FAILED, counts[4]);
+            assertEquals(1, counts[5]);
+            assertEquals(ErrorCode.DUPLICATE_KEY_1, e.getErrorCode());
+            assertEquals(ErrorCode.DUPLICATE_KEY_1,
+                    e.getNextException().getErrorCode());
+        }
+        ResultSet rs = stat.executeQuery("select id, name from test order by id");
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+            assertEquals("Hello " + i, rs.getString(2));
+        }
+        assertFalse(rs.next());
+        // the batch is cleared after it was executed
+        assertEquals(0, prep.executeBatch().length);
+        prep = conn.prepareStatement("update test set name = ? where id = ?");
+        for (int i = 0; i < 5; i++) {
+            prep.setString(1, "Hi " + i);
+            prep.setInt(2, i);
+            prep.addBatch();
+        }
+        int[] counts = prep.executeBatch();
+        assertEquals(5, counts.length);
+        assertEquals(0, counts[0]);
+        for (int i = 1; i < 5; i++) {
+            assertEquals(1, counts[i]);
+        }
+        conn.close();
+    }
+
     private void testCoffee() throws SQLException {
         deleteDb("batchUpdates");
         conn = getConnection("batchUpdates");
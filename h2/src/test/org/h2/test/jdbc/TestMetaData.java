@@ -1058,6 +1058,8 @@ private void testGeneral() throws SQLException {
         rs = meta.getTables(null, "INFORMATION_SCHEMA",
                 null, new String[] { "TABLE", "SYSTEM TABLE" });
         rs.next();
+        assertEquals("CACHE_STATISTICS", rs.getString("TABLE_NAME"));
+        rs.next();
         assertEquals("CATALOGS", rs.getString("TABLE_NAME"));
         rs.next();
         assertEquals("COLLATIONS", rs.getString("TABLE_NAME"));
@@ -5,6 +5,7 @@
  */
 package org.h2.test.store;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,6 +44,9 @@ private void testCache() {
         testLimitNonResident();
         testLimitMemory();
         testScanResistance();
+        testRepeatedScan();
+        testHotPut();
+        testEvictions();
         testRandomOperations();
     }
 
@@ -407,6 +411,81 @@ private void testScanResistance() {
         }
     }
 
+    private void testRepeatedScan() {
+        CacheLongKeyLIRS<Integer> test = createCache(20);
+        // frequently used entries
+        for (int i = 0; i < 10; i++) {
+            test.put(i, i * 10);
+        }
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 10; i++) {
+                test.get(i);
+            }
+        }
+        // scan twice over more entries than fit in the cache: in the second
+        // scan, the non-resident entries are added again, but as they were
+        // used less often, they should not replace the hot entries
+        for (int j = 0; j < 2; j++) {
+            for (int i = 100; i < 130; i++) {
+                if (test.get(i) == null) {
+                    test.put(i, i * 10);
+                }
+                verify(test, null);
+            }
+        }
+        int resident = 0;
+        for (int i = 0; i < 10; i++) {
+            if (test.peek(i) != null) {
+                resident++;
+            }
+        }
+        assertTrue("resident: " + resident, resident > 5);
+    }
+
+    private void testHotPut() {
+        CacheLongKeyLIRS<Integer> test = createCache(4);
+        test.put(1, 10);
+        test.put(2, 20);
+        test.put(3, 30);
+        test.put(4, 40);
+        verify(test, "mem: 4 stack: 4 3 2 1 cold: non-resident:");
+        // a hot entry is not added to the cold queue
+        test.put(5, 50, 1, true);
+        verify(test, "mem: 4 stack: 5 4 3 2 cold: non-resident: 1");
+        test.put(6, 60);
+        verify(test, "mem: 4 stack: 6 5 4 3 cold: 6 non-resident: 2 1");
+        // the cold entry is evicted first
+        test.put(7, 70);
+        verify(test, "mem: 4 stack: 7 6 5 4 3 cold: 7 non-resident: 6 2 1");
+        assertEquals(50, test.peek(5).intValue());
+    }
+
+    private void testEvictions() {
+        CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
+        cc.maxMemory = 4;
+        cc.segmentCount = 1;
+        final ArrayList<Long> evicted = new ArrayList<>();
+        CacheLongKeyLIRS<Integer> test = new CacheLongKeyLIRS<Integer>(cc) {
+            @Override
+            protected void onEvict(long key, Integer value) {
+                assertEquals(key * 10, value.intValue());
+                evicted.add(key);
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            test.put(i, i * 10);
+        }
+        assertEquals(6, test.getEvictions());
+        assertEquals(6, evicted.size());
+        for (long key : evicted) {
+            assertNull(test.peek(key));
+        }
+        assertNull(test.get(0));
+        assertEquals(30, test.get(3).intValue());
+        assertEquals(1, test.getHits());
+        assertEquals(1, test.getMisses());
+    }
+
     private void testRandomOperations() {
         boolean log = false;
         int size = 10;
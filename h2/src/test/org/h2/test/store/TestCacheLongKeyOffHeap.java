@@ -0,0 +1,146 @@
+/*
+ * Copyright 2004-2018 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.test.store;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.h2.mvstore.cache.CacheLongKeyOffHeap;
+import org.h2.test.TestBase;
+
+/**
+ * Tests the off-heap cache.
+ */
+public class TestCacheLongKeyOffHeap extends TestBase {
+
+    /**
+     * Run just this test.
+     *
+     * @param a ignored
+     */
+    public static void main(String... a) throws Exception {
+        TestBase.createCaller().init().test();
+    }
+
+    @Override
+    public void test() throws Exception {
+        testGetPutRemove();
+        testEviction();
+        testConcurrent();
+    }
+
+    private void testGetPutRemove() {
+        CacheLongKeyOffHeap cache = new CacheLongKeyOffHeap(1024 * 1024, 1);
+        assertEquals(1024 * 1024, cache.getMaxMemory());
+        assertNull(cache.get(1));
+        int[] lengths = { 1, 100, 1023, 1024, 1025, 5000 };
+        for (int len : lengths) {
+            cache.put(len, createData(len, len));
+        }
+        // empty data is not cached
+        cache.put(0, ByteBuffer.allocate(0));
+        assertNull(cache.get(0));
+        for (int len : lengths) {
+            checkData(cache.get(len), len, len);
+        }
+        // the position of the buffer is not changed
+        ByteBuffer buff = createData(2, 10);
+        buff.position(5);
+        cache.put(2, buff);
+        assertEquals(5, buff.position());
+        assertEquals(5, cache.get(2).remaining());
+        // replace an entry
+        cache.put(100, createData(101, 200));
+        checkData(cache.get(100), 101, 200);
+        cache.remove(100);
+        assertNull(cache.get(100));
+        assertTrue(cache.getUsedMemory() > 0);
+        cache.clear();
+        assertEquals(0, cache.getUsedMemory());
+        for (int len : lengths) {
+            assertNull(cache.get(len));
+        }
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getMisses() > 0);
+    }
+
+    private void testEviction() {
+        CacheLongKeyOffHeap cache = new CacheLongKeyOffHeap(64 * 1024, 1);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, createData(i, 1000 + i % 3000));
+            assertTrue(cache.getUsedMemory() <= cache.getMaxMemory());
+        }
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer buff = cache.get(i);
+            if (buff != null) {
+                checkData(buff, i, 1000 + i % 3000);
+                found++;
+            }
+        }
+        assertTrue(found > 0);
+        assertTrue(found < 64);
+        // the entries that were written last are cached
+        assertTrue(cache.get(999) != null);
+    }
+
+    private void testConcurrent() throws Exception {
+        final CacheLongKeyOffHeap cache =
+                new CacheLongKeyOffHeap(256 * 1024, 4);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Random r = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            int key = r.nextInt(500);
+                            int len = 1 + key * 7 % 3000;
+                            ByteBuffer buff = cache.get(key);
+                            if (buff == null) {
+                                cache.put(key, createData(key, len));
+                            } else {
+                                checkData(buff, key, len);
+                            }
+                            if (r.nextInt(50) == 0) {
+                                cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
+
+    private static ByteBuffer createData(int key, int len) {
+        ByteBuffer buff = ByteBuffer.allocate(len);
+        for (int i = 0; i < len; i++) {
+            buff.put((byte) (key * 31 + i));
+        }
+        buff.flip();
+        return buff;
+    }
+
+    private void checkData(ByteBuffer buff, int key, int len) {
+        assertEquals(len, buff.remaining());
+        for (int i = 0; i < len; i++) {
+            assertEquals((byte) (key * 31 + i), buff.get());
+        }
+    }
+
+}
@@ -21,6 +21,7 @@
 import java.util.concurrent.atomic.AtomicInteger;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.type.ObjectDataType;
@@ -59,6 +60,8 @@ public void test() throws Exception {
         testConcurrentStoreAndClose();
         testConcurrentOnlineBackup();
         testConcurrentMap();
+        testConcurrentMapLockFree();
+        testConcurrentAppendSorted();
         testConcurrentIterate();
         testConcurrentWrite();
         testConcurrentRead();
@@ -682,6 +685,114 @@ public void call() throws Exception {
     }
 
 
+    /**
+     * Test that concurrent changes to an MVMapConcurrent are not lost, by
+     * adding and removing entries and incrementing a shared counter from
+     * multiple threads, also while the store is committed in the background.
+     */
+    private void testConcurrentMapLockFree() throws Exception {
+        String fileName = "memFS:" + getTestName();
+        FileUtils.delete(fileName);
+        final int threadCount = 4;
+        final int count = 5000;
+        final MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                autoCommitBufferSize(1).
+                open();
+        try {
+            final MVMap<Integer, Integer> map = s.openMap("data",
+                    new MVMapConcurrent.Builder<Integer, Integer>());
+            map.put(-1, 0);
+            Task[] tasks = new Task[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                final int offset = t * count;
+                tasks[t] = new Task() {
+                    @Override
+                    public void call() throws Exception {
+                        for (int i = 0; i < count; i++) {
+                            map.put(offset + i, i);
+                            // increment the shared counter
+                            while (true) {
+                                Integer old = map.get(-1);
+                                if (map.replace(-1, old, old + 1)) {
+                                    break;
+                                }
+                            }
+                            if (i % 2 == 0) {
+                                map.remove(offset + i);
+                            }
+                        }
+                    }
+                };
+                tasks[t].execute();
+            }
+            for (Task t : tasks) {
+                t.get();
+            }
+            assertEquals(threadCount * count, map.get(-1).intValue());
+            assertEquals(1 + threadCount * count / 2, map.size());
+            for (int i = 0; i < threadCount * count; i++) {
+                if (i % 2 == 0) {
+                    assertNull(map.get(i));
+                } else {
+                    assertEquals(i % count, map.get(i).intValue());
+                }
+            }
+            s.commit();
+        } finally {
+            s.close();
+        }
+        MVStore s2 = new MVStore.Builder().fileName(fileName).open();
+        try {
+            MVMap<Integer, Integer> map = s2.openMap("data",
+                    new MVMapConcurrent.Builder<Integer, Integer>());
+            assertEquals(1 + threadCount * count / 2, map.size());
+        } finally {
+            s2.close();
+        }
+    }
+
+    /**
+     * Test that entries appended in sorted order are not lost if other
+     * entries are added to a concurrent map at the same time, and the other
+     * way around.
+     */
+    private void testConcurrentAppendSorted() throws Exception {
+        MVStore s = openStore(null);
+        try {
+            final MVMap<Integer, Integer> map = s.openMap("data",
+                    new MVMapConcurrent.Builder<Integer, Integer>());
+            final int count = 20000;
+            final int batchSize = 100;
+            Task task = new Task() {
+                @Override
+                public void call() throws Exception {
+                    for (int i = 1; i <= count; i++) {
+                        map.put(-i, i);
+                    }
+                }
+            };
+            task.execute();
+            Object[] keys = new Object[batchSize];
+            Object[] values = new Object[batchSize];
+            for (int i = 0; i < count; i += batchSize) {
+                for (int j = 0; j < batchSize; j++) {
+                    keys[j] = i + j;
+                    values[j] = i + j;
+                }
+                map.appendSorted(keys, values, batchSize);
+            }
+            task.get();
+            assertEquals(2 * count, map.size());
+            for (int i = 1; i <= count; i++) {
+                assertEquals(i, map.get(-i).intValue());
+                assertEquals(i - 1, map.get(i - 1).intValue());
+            }
+        } finally {
+            s.close();
+        }
+    }
+
     /**
      * Test what happens on concurrent write. Concurrent write may corrupt the
      * map, so that keys and values may become null.
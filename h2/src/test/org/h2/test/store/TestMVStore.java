@@ -9,6 +9,7 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -57,9 +58,12 @@ public void test() throws Exception {
         testEntrySet();
         testCompressEmptyPage();
         testCompressed();
+        testParallelWrite();
         testFileFormatExample();
         testMaxChunkLength();
         testCacheInfo();
+        testOffHeapCache();
+        testCommitAndSync();
         testRollback();
         testVersionsToKeep();
         testVersionsToKeep2();
@@ -68,6 +72,7 @@ public void test() throws Exception {
         testOffHeapStorage();
         testNewerWriteVersion();
         testCompactFully();
+        testAutoCompactRate();
         testBackgroundExceptionListener();
         testOldVersion();
         testAtomicOperations();
@@ -83,6 +88,7 @@ public void test() throws Exception {
         testFileHeader();
         testFileHeaderCorruption();
         testIndexSkip();
+        testAppendSorted();
         testMinMaxNextKey();
         testStoreVersion();
         testIterateOldVersion();
@@ -256,6 +262,67 @@ private void testCompressed() {
         }
     }
 
+    private void testParallelWrite() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        String data = new String(new char[100]).replace((char) 0, 'x');
+        for (int level = 0; level <= 2; level++) {
+            FileUtils.delete(fileName);
+            MVStore.Builder builder = new MVStore.Builder().fileName(fileName).
+                    autoCommitDisabled().writeThreads(4);
+            if (level == 1) {
+                builder.compress();
+            } else if (level == 2) {
+                builder.compressHigh();
+            }
+            MVStore s = builder.open();
+            for (int m = 0; m < 3; m++) {
+                MVMap<Integer, String> map = s.openMap("data" + m);
+                for (int i = 0; i < 10000; i++) {
+                    map.put(i, data + i);
+                }
+            }
+            // the data type remembers the type of the last value
+            MVMap<Integer, Object> mixed = s.openMap("mixed");
+            for (int i = 0; i < 10000; i++) {
+                mixed.put(i, getMixedValue(i));
+            }
+            s.commit();
+            // only some pages of one map changed
+            MVMap<Integer, String> map = s.openMap("data1");
+            for (int i = 0; i < 10000; i += 7) {
+                map.put(i, "y" + i);
+            }
+            s.commit();
+            s.close();
+            s = new MVStore.Builder().fileName(fileName).open();
+            for (int m = 0; m < 3; m++) {
+                map = s.openMap("data" + m);
+                assertEquals(10000, map.size());
+                for (int i = 0; i < 10000; i++) {
+                    String expected = m == 1 && i % 7 == 0 ?
+                            "y" + i : data + i;
+                    assertEquals(expected, map.get(i));
+                }
+            }
+            mixed = s.openMap("mixed");
+            for (int i = 0; i < 10000; i++) {
+                assertEquals(getMixedValue(i), mixed.get(i));
+            }
+            s.close();
+        }
+    }
+
+    private static Object getMixedValue(int i) {
+        switch (i % 3) {
+        case 0:
+            return i;
+        case 1:
+            return "v" + i;
+        default:
+            return (long) i * i;
+        }
+    }
+
     private void testFileFormatExample() {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
@@ -313,6 +380,94 @@ private void testCacheInfo() {
         s.close();
     }
 
+    private void testOffHeapCache() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        MVStore s = new MVStore.Builder().fileName(fileName).open();
+        MVMap<Integer, String> map = s.openMap("data");
+        for (int i = 0; i < 2000; i++) {
+            map.put(i, new String(new char[1000]) + i);
+        }
+        s.close();
+        s = new MVStore.Builder().fileName(fileName).
+                cacheSize(1).offHeapCacheSize(8).open();
+        map = s.openMap("data");
+        long reads = s.getFileStore().getReadCount();
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(new String(new char[1000]) + i, map.get(i));
+        }
+        long firstReads = s.getFileStore().getReadCount() - reads;
+        reads = s.getFileStore().getReadCount();
+        // the data does not fit in the read cache, but in the off-heap cache
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(new String(new char[1000]) + i, map.get(i));
+        }
+        long secondReads = s.getFileStore().getReadCount() - reads;
+        assertTrue("first: " + firstReads + " second: " + secondReads,
+                secondReads * 10 < firstReads);
+        assertTrue(s.getOffHeapCache().getHits() > 0);
+        map.clear();
+        s.close();
+    }
+
+    private void testCommitAndSync() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        final AtomicInteger syncCount = new AtomicInteger();
+        FileStore fileStore = new FileStore() {
+            @Override
+            public void sync() {
+                syncCount.incrementAndGet();
+                // a slow disk, so that commits have to wait
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                super.sync();
+            }
+        };
+        fileStore.open(fileName, false, null);
+        final MVStore s = new MVStore.Builder().
+                fileStore(fileStore).
+                autoCommitDisabled().
+                open();
+        final MVMap<Integer, Integer> map = s.openMap("data");
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int x = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            map.put(x * 1000 + i, i);
+                            s.commitAndSync();
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertEquals(syncCount.get(), s.getGroupCommitSyncCount());
+        assertTrue("syncs: " + syncCount.get(), syncCount.get() < 200);
+        // the changes are stored, even if the store is not closed
+        s.closeImmediately();
+        fileStore.close();
+        MVStore s2 = new MVStore.Builder().fileName(fileName).open();
+        assertEquals(400, s2.openMap("data").size());
+        s2.close();
+    }
+
     private void testVersionsToKeep() throws Exception {
         MVStore s = new MVStore.Builder().open();
         MVMap<Integer, Integer> map;
@@ -498,6 +653,48 @@ private void testCompactFully() throws Exception {
         s.close();
     }
 
+    private void testAutoCompactRate() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        int rate = 64;
+        MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                autoCompactFillRate(90).
+                autoCompactRate(rate).
+                open();
+        s.setRetentionTime(0);
+        s.setAutoCommitDelay(10);
+        MVMap<Integer, String> m = s.openMap("data");
+        String data = new String(new char[1000]);
+        for (int j = 0; j < 20; j++) {
+            for (int i = 0; i < 200; i++) {
+                if (i % 20 == j) {
+                    m.put(i, data + j);
+                } else if (j == 0) {
+                    m.put(i, data);
+                }
+            }
+            s.commit();
+        }
+        assertTrue(s.getCurrentFillRate() < 90);
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < 100 && bytes == 0; i++) {
+            Thread.sleep(50);
+            bytes = s.getCompactByteCount();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(s.getCompactChunkCount() > 0);
+        // the allowance of one second, plus one chunk (less than 256 KB),
+        // which may be larger than the allowance
+        assertTrue("bytes: " + bytes + " millis: " + millis, bytes <=
+                rate * 1024L * (millis + 1000) / 1000 + 256 * 1024);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(m.get(i).startsWith(data));
+        }
+        s.close();
+    }
+
     private void testBackgroundExceptionListener() throws Exception {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
@@ -830,7 +1027,7 @@ private void testCacheSize() {
         }
         s.close();
         int[] expectedReadsForCacheSize = {
-                3407, 2590, 1924, 1440, 1330, 956, 918
+                3407, 2590, 1924, 1440, 1087, 956, 918
         };
         for (int cacheSize = 0; cacheSize <= 6; cacheSize += 4) {
             int cacheMB = 1 + 3 * cacheSize;
@@ -1002,6 +1199,44 @@ private void testFileHeaderCorruption() throws Exception {
         }
     }
 
+    private void testAppendSorted() {
+        MVStore s = openStore(null, 4);
+        MVMap<Integer, String> map = s.openMap("test");
+        map.put(0, "0");
+        int count = 1000;
+        Object[] keys = new Object[count];
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i + 1;
+            values[i] = "" + (i + 1);
+        }
+        map.appendSorted(keys, values, count - 10);
+        assertEquals(count - 9, map.size());
+        try {
+            map.appendSorted(keys, values, 10);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        map.appendSorted(Arrays.copyOfRange(keys, count - 10, count),
+                Arrays.copyOfRange(values, count - 10, count), 10);
+        assertEquals(count + 1, map.size());
+        for (int i = 0; i <= count; i++) {
+            assertEquals("" + i, map.get(i));
+            assertEquals(i, map.getKeyIndex(i));
+        }
+        Cursor<Integer, String> c = map.cursor(null);
+        for (int i = 0; i <= count; i++) {
+            assertEquals(i, c.next().intValue());
+        }
+        assertFalse(c.hasNext());
+        map.put(count + 1, "x");
+        map.remove(500);
+        assertEquals(count + 1, map.size());
+        assertEquals(count + 1, map.lastKey().intValue());
+        s.close();
+    }
+
     private void testIndexSkip() {
         MVStore s = openStore(null, 4);
         MVMap<Integer, Integer> map = s.openMap("test");
@@ -27,6 +27,7 @@
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.db.TransactionStore;
+import org.h2.store.FileLister;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
 import org.h2.tools.Recover;
@@ -61,6 +62,11 @@ public void test() throws Exception {
         testTemporaryTables();
         testUniqueIndex();
         testSecondaryIndex();
+        testHashIndex();
+        testBulkIndex();
+        testCacheStatistics();
+        testSyncOnCommit();
+        testTransactionLog();
         testGarbageCollectionForLOB();
         testSpatial();
         testCount();
@@ -436,6 +442,316 @@ private void testSecondaryIndex() throws SQLException {
         conn.close();
     }
 
+    private void testHashIndex() throws SQLException {
+        Connection conn;
+        Statement stat;
+        deleteDb(getTestName());
+        String url = getTestName() + ";MV_STORE=TRUE";
+        url = getURL(url, true);
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, name varchar)");
+        stat.execute("insert into test select x, 'n' || mod(x, 100) " +
+                "from system_range(1, 1000)");
+        stat.execute("create hash index idx_name on test(name)");
+        stat.execute("create unique hash index idx_id on test(id)");
+        ResultSet rs = stat.executeQuery(
+                "explain select * from test where name = 'n1'");
+        rs.next();
+        assertContains(rs.getString(1), "IDX_NAME");
+        rs = stat.executeQuery("select count(*) from test where name = 'n1'");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        rs = stat.executeQuery("select count(*) from test where name < 'n1'");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("insert into test values(1, 'x')");
+        conn.setAutoCommit(false);
+        stat.execute("delete from test where name = 'n2'");
+        stat.execute("update test set name = 'n1' where id = 3");
+        rs = stat.executeQuery("select count(*) from test where name = 'n1'");
+        rs.next();
+        assertEquals(11, rs.getInt(1));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        stat.execute("insert into test values(1001, 'n1')");
+        if (!config.memory) {
+            conn.close();
+            conn = getConnection(url);
+            stat = conn.createStatement();
+        }
+        rs = stat.executeQuery("select count(*) from test where name = 'n2'");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        rs = stat.executeQuery("select id from test where name = 'n1' " +
+                "order by id desc");
+        rs.next();
+        assertEquals(1001, rs.getInt(1));
+        rs = stat.executeQuery("select name from test where id = 3");
+        rs.next();
+        assertEquals("n3", rs.getString(1));
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("insert into test values(1001, 'x')");
+        stat.execute("create table test2(id int, v int)");
+        stat.execute("create unique hash index on test2(v)");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("insert into test2 values(1, 5), (2, 5)");
+        conn.setAutoCommit(false);
+        stat.execute("insert into test2 values(1, 5)");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("insert into test2 values(2, 5)");
+        conn.commit();
+        conn.setAutoCommit(true);
+        rs = stat.executeQuery("select count(*) from test2");
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        conn.close();
+    }
+
+    private void testBulkIndex() throws SQLException {
+        Connection conn;
+        Statement stat;
+        deleteDb(getTestName());
+        String url = getTestName() + ";MV_STORE=TRUE;MAX_MEMORY_ROWS=1000";
+        url = getURL(url, true);
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, a int, b int)");
+        int size = 20 * 1000;
+        stat.execute("insert into test select x, mod(x * 111, 1000), " +
+                "case when mod(x, 10) = 0 then null else x * 7 end " +
+                "from system_range(1, " + size + ")");
+        // the index is built from many sorted buffers
+        stat.execute("create index idx_a on test(a desc)");
+        stat.execute("create unique index idx_b on test(b desc)");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("create unique index idx_a2 on test(a)");
+        ResultSet rs = stat.executeQuery("select count(*) from test " +
+                "where a = 111");
+        rs.next();
+        assertEquals(size / 1000, rs.getInt(1));
+        rs = stat.executeQuery("select b from test where b > 0 order by b desc");
+        int last = Integer.MAX_VALUE, count = 0;
+        while (rs.next()) {
+            assertTrue(rs.getInt(1) < last);
+            last = rs.getInt(1);
+            count++;
+        }
+        assertEquals(size - size / 10, count);
+        stat.execute("delete from test where id < 500");
+        stat.execute("insert into test values(0, 5, 3)");
+        conn.close();
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        rs = stat.executeQuery("select count(*) from test where a >= 0");
+        rs.next();
+        assertEquals(size - 498, rs.getInt(1));
+        rs = stat.executeQuery("select count(*) from test where b >= 0");
+        rs.next();
+        assertEquals(size - 498 - (size - 500) / 10 - 1, rs.getInt(1));
+        rs = stat.executeQuery("select id from test where b = 3");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        conn.close();
+    }
+
+    private void testCacheStatistics() throws SQLException {
+        if (config.memory) {
+            return;
+        }
+        Connection conn;
+        Statement stat;
+        deleteDb(getTestName());
+        String url = getTestName() + ";MV_STORE=TRUE;CACHE_SIZE=1024";
+        url = getURL(url, true);
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, data varchar)");
+        stat.execute("create index idx_data on test(data)");
+        stat.execute("insert into test select x, space(100) || x " +
+                "from system_range(1, 50000)");
+        conn.close();
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        stat.execute("select sum(length(data)) from test");
+        stat.execute("select sum(length(data)) from test");
+        ResultSet rs = stat.executeQuery("select table_name, index_name " +
+                "from information_schema.cache_statistics " +
+                "where table_name = 'TEST' order by index_name");
+        assertTrue(rs.next());
+        assertEquals("IDX_DATA", rs.getString(2));
+        assertTrue(rs.next());
+        assertEquals("TEST_DATA", rs.getString(2));
+        assertFalse(rs.next());
+        rs = stat.executeQuery("select sum(hits), sum(misses), " +
+                "sum(evictions) from information_schema.cache_statistics " +
+                "where table_name = 'TEST'");
+        rs.next();
+        assertTrue(rs.getLong(1) > 0);
+        assertTrue(rs.getLong(2) > 0);
+        // the data is larger than the cache
+        assertTrue(rs.getLong(3) > 0);
+        rs = stat.executeQuery("select value from information_schema.settings " +
+                "where name = 'info.CACHE_EVICTIONS'");
+        assertTrue(rs.next());
+        assertTrue(rs.getLong(1) > 0);
+        conn.close();
+    }
+
+    private void testSyncOnCommit() throws Exception {
+        if (config.memory) {
+            return;
+        }
+        deleteDb(getTestName());
+        String url = getTestName() + ";MV_STORE=TRUE;SYNC_ON_COMMIT=TRUE";
+        final String u = getURL(url, true);
+        Connection conn = getConnection(u);
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, data int)");
+        Task[] tasks = new Task[4];
+        for (int t = 0; t < tasks.length; t++) {
+            final int x = t;
+            tasks[t] = new Task() {
+                @Override
+                public void call() throws Exception {
+                    Connection c = getConnection(u);
+                    PreparedStatement prep = c.prepareStatement(
+                            "insert into test values(?, ?)");
+                    for (int i = 0; i < 50; i++) {
+                        prep.setInt(1, x * 1000 + i);
+                        prep.setInt(2, i);
+                        prep.execute();
+                    }
+                    c.close();
+                }
+            };
+            tasks[t].execute();
+        }
+        for (Task t : tasks) {
+            t.get();
+        }
+        ResultSet rs = stat.executeQuery("select value from " +
+                "information_schema.settings " +
+                "where name = 'info.GROUP_COMMIT_SYNCS'");
+        assertTrue(rs.next());
+        long syncs = rs.getLong(1);
+        assertTrue("syncs: " + syncs, syncs > 0 && syncs <= 201);
+        // the committed rows are stored, even if the database is not closed
+        // normally
+        stat.execute("shutdown immediately");
+        JdbcUtils.closeSilently(conn);
+        conn = getConnection(u);
+        stat = conn.createStatement();
+        rs = stat.executeQuery("select count(*) from test");
+        rs.next();
+        assertEquals(200, rs.getInt(1));
+        // commits that are not done by an update statement are synced as
+        // well, here the commits of the system session when using a sequence
+        stat.execute("create sequence seq cache 1");
+        for (int i = 0; i < 5; i++) {
+            stat.executeQuery("select seq.nextval");
+        }
+        stat.execute("shutdown immediately");
+        JdbcUtils.closeSilently(conn);
+        conn = getConnection(u);
+        stat = conn.createStatement();
+        rs = stat.executeQuery("select seq.nextval");
+        rs.next();
+        assertEquals(6, rs.getInt(1));
+        conn.close();
+    }
+
+    private void testTransactionLog() throws Exception {
+        if (config.memory) {
+            return;
+        }
+        deleteDb(getTestName());
+        String url = getTestName() + ";MV_STORE=TRUE;TRANSACTION_LOG=TRUE";
+        url = getURL(url, true);
+        Connection conn = getConnection(url);
+        Statement stat = conn.createStatement();
+        // only the log is written when committing
+        stat.execute("set write_delay 0");
+        stat.execute("create table test(id int primary key, name varchar)");
+        stat.execute("create index idx_name on test(name desc)");
+        stat.execute("create table test2(data int)");
+        stat.execute("create table test3(data clob)");
+        PreparedStatement prep = conn.prepareStatement(
+                "insert into test values(?, ?)");
+        for (int i = 0; i < 100; i++) {
+            prep.setInt(1, i);
+            prep.setString(2, "Hello " + i);
+            prep.execute();
+        }
+        stat.execute("update test set name = 'World' where id < 10");
+        stat.execute("delete from test where id >= 90");
+        stat.execute("insert into test2 select x from system_range(1, 10)");
+        // the LOB maps are not in the log, so the store is synced
+        stat.execute("insert into test3 values(space(1000))");
+        conn.setAutoCommit(false);
+        stat.execute("insert into test values(100, 'Hello 100')");
+        stat.execute("delete from test where id = 89");
+        conn.commit();
+        conn.setAutoCommit(true);
+        // not committed, so rolled back when opening
+        Connection conn2 = getConnection(url);
+        conn2.setAutoCommit(false);
+        conn2.createStatement().execute("delete from test where id < 50");
+        ResultSet rs = stat.executeQuery("select value from " +
+                "information_schema.settings " +
+                "where name = 'info.TRANSACTION_LOG_SYNCS'");
+        assertTrue(rs.next());
+        assertTrue(rs.getLong(1) > 0);
+        assertTrue(hasLogFile());
+        stat.execute("shutdown immediately");
+        JdbcUtils.closeSilently(conn);
+        JdbcUtils.closeSilently(conn2);
+
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        rs = stat.executeQuery("select count(*), sum(id) from test");
+        rs.next();
+        assertEquals(90, rs.getInt(1));
+        assertEquals(88 * 89 / 2 + 100, rs.getInt(2));
+        rs = stat.executeQuery("select count(*) from test where name = 'World'");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        rs = stat.executeQuery("select name from test order by name desc");
+        rs.next();
+        assertEquals("World", rs.getString(1));
+        // the row keys continue after the keys in the log
+        stat.execute("insert into test2 values(11)");
+        rs = stat.executeQuery(
+                "select count(*), count(distinct _rowid_) from test2");
+        rs.next();
+        assertEquals(11, rs.getInt(1));
+        assertEquals(11, rs.getInt(2));
+        rs = stat.executeQuery("select data from test3");
+        rs.next();
+        assertEquals(1000, rs.getString(1).length());
+        conn.close();
+        // after closing normally, the log is no longer needed
+        assertFalse(hasLogFile());
+
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        rs = stat.executeQuery("select count(*) from test2");
+        rs.next();
+        assertEquals(11, rs.getInt(1));
+        conn.close();
+    }
+
+    private boolean hasLogFile() {
+        for (String f : FileLister.getDatabaseFiles(getBaseDir(),
+                getTestName(), true)) {
+            if (f.endsWith(Constants.SUFFIX_MV_LOG_FILE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void testGarbageCollectionForLOB() throws SQLException {
         if (config.memory) {
             return;
@@ -544,8 +860,9 @@ private void testCount() throws Exception {
         rs = stat2.executeQuery("explain analyze select count(*) from test");
         rs.next();
         plan = rs.getString(1);
-        // transaction log is larger than the table, so read the table
-        assertContains(plan, "reads:");
+        // the transaction log is larger than the table, but the row count
+        // is still known without reading the table
+        assertTrue(plan, plan.indexOf("reads:") < 0);
         rs = stat2.executeQuery("select count(*) from test");
         rs.next();
         assertEquals(10000, rs.getInt(1));
@@ -14,6 +14,7 @@
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
@@ -49,6 +50,8 @@ public void test() throws Exception {
         testConcurrentAddRemove();
         testConcurrentAdd();
         testCountWithOpenTransactions();
+        testCountWithChanges();
+        testCountWithConcurrentChanges();
         testConcurrentUpdate();
         testRepeatedChange();
         testTransactionAge();
@@ -247,6 +250,101 @@ private void testCountWithOpenTransactions() {
         s.close();
     }
 
+    private void testCountWithConcurrentChanges() throws Exception {
+        MVStore s = MVStore.open(null);
+        final TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        final int threadCount = 4;
+        final int count = 2000;
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        Task[] tasks = new Task[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int start = i * count;
+            final boolean commit = i % 2 == 0;
+            tasks[i] = new Task() {
+
+                @Override
+                public void call() throws Exception {
+                    Transaction tx = ts.begin();
+                    TransactionMap<Integer, Integer> map = tx.openMap("data");
+                    for (int j = 0; j < count; j++) {
+                        map.put(start + j, j);
+                    }
+                    for (int j = 0; j < count; j += 2) {
+                        map.remove(start + j);
+                    }
+                    barrier.await();
+                    // the entries of the other transactions are not committed
+                    assertEquals(count / 2, map.sizeAsLong());
+                    barrier.await();
+                    if (commit) {
+                        tx.commit();
+                    } else {
+                        tx.rollback();
+                    }
+                }
+
+            };
+            tasks[i].execute();
+        }
+        for (Task t : tasks) {
+            t.get();
+        }
+        Transaction tx = ts.begin();
+        TransactionMap<Integer, Integer> map = tx.openMap("data");
+        assertEquals(threadCount / 2 * count / 2, map.sizeAsLong());
+        tx.commit();
+        s.close();
+    }
+
+    private void testCountWithChanges() {
+        MVStore s = MVStore.open(null);
+        TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        int txCount = 3;
+        Transaction[] tx = new Transaction[txCount];
+        long[] savepoints = new long[txCount];
+        Random r = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            int t = r.nextInt(txCount);
+            if (tx[t] == null) {
+                tx[t] = ts.begin();
+            }
+            TransactionMap<Integer, Integer> map = tx[t].openMap("data");
+            int k = r.nextInt(100);
+            int op = r.nextInt(100);
+            if (op < 40) {
+                map.trySet(k, i, false);
+            } else if (op < 70) {
+                map.trySet(k, null, false);
+            } else if (op < 80) {
+                savepoints[t] = tx[t].setSavepoint();
+            } else if (op < 85) {
+                tx[t].rollbackToSavepoint(savepoints[t]);
+            } else if (op < 95) {
+                tx[t].commit();
+                tx[t] = null;
+                savepoints[t] = 0;
+            } else {
+                tx[t].rollback();
+                tx[t] = null;
+                savepoints[t] = 0;
+            }
+            for (Transaction x : tx) {
+                if (x != null) {
+                    TransactionMap<Integer, Integer> m = x.openMap("data");
+                    int count = 0;
+                    for (Iterator<Integer> it = m.keyIterator(null);
+                            it.hasNext(); it.next()) {
+                        count++;
+                    }
+                    assertEquals("op: " + i, count, (int) m.sizeAsLong());
+                }
+            }
+        }
+        s.close();
+    }
+
     private void testConcurrentUpdate() {
         MVStore s;
         TransactionStore ts;
@@ -115,7 +115,7 @@ public void test() throws Exception {
             assertContains(result, "write lock");
         }
 
-        assertEquals(2, info.getOperations().length);
+        assertEquals(3, info.getOperations().length);
         assertContains(info.getDescription(), "database");
         attrMap = new HashMap<>();
         for (MBeanAttributeInfo a : info.getAttributes()) {
@@ -162,6 +162,9 @@ public void test() throws Exception {
                     getAttribute(name, "FileWriteCount"));
             assertEquals("0", mbeanServer.
                     getAttribute(name, "FileWriteCountTotal").toString());
+            result = mbeanServer.invoke(name, "listCacheStatistics",
+                    null, null).toString();
+            assertContains(result, "misses: ");
         } else {
             assertEquals("1", mbeanServer.
                     getAttribute(name, "CacheSizeMax").toString());
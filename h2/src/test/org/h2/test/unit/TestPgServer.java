@@ -5,7 +5,20 @@
  */
 package org.h2.test.unit;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.Date;
@@ -19,7 +32,9 @@
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Properties;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -59,6 +74,9 @@ public void test() throws Exception {
         testBinaryTypes();
         testDateTime();
         testPrepareWithUnspecifiedType();
+        testFetchSize();
+        testPortals();
+        testCopy();
     }
 
     private void testLowerCaseIdentifiers() throws SQLException {
@@ -411,10 +429,11 @@ private void testBinaryTypes() throws SQLException {
                     "create table test(x1 varchar, x2 int, " +
                     "x3 smallint, x4 bigint, x5 double, x6 float, " +
                     "x7 real, x8 boolean, x9 char, x10 bytea, " +
-                    "x11 date, x12 time, x13 timestamp, x14 numeric)");
+                    "x11 date, x12 time, x13 timestamp, x14 numeric, " +
+                    "x15 uuid, x16 numeric)");
 
             PreparedStatement ps = conn.prepareStatement(
-                    "insert into test values (?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+                    "insert into test values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
             ps.setString(1, "test");
             ps.setInt(2, 12345678);
             ps.setShort(3, (short) 12345);
@@ -429,8 +448,10 @@ private void testBinaryTypes() throws SQLException {
             ps.setTime(12, Time.valueOf("20:11:15"));
             ps.setTimestamp(13, Timestamp.valueOf("2001-10-30 14:16:10.111"));
             ps.setBigDecimal(14, new BigDecimal("12345678901234567890.12345"));
+            ps.setObject(15, UUID.fromString("01234567-89ab-cdef-0123-456789abcdef"));
+            ps.setBigDecimal(16, new BigDecimal("-0.00010"));
             ps.execute();
-            for (int i = 1; i <= 14; i++) {
+            for (int i = 1; i <= 16; i++) {
                 ps.setNull(i, Types.NULL);
             }
             ps.execute();
@@ -452,8 +473,11 @@ private void testBinaryTypes() throws SQLException {
             assertEquals(Time.valueOf("20:11:15"), rs.getTime(12));
             assertEquals(Timestamp.valueOf("2001-10-30 14:16:10.111"), rs.getTimestamp(13));
             assertEquals(new BigDecimal("12345678901234567890.12345"), rs.getBigDecimal(14));
+            assertEquals(UUID.fromString("01234567-89ab-cdef-0123-456789abcdef"),
+                    rs.getObject(15));
+            assertEquals(new BigDecimal("-0.00010"), rs.getBigDecimal(16));
             assertTrue(rs.next());
-            for (int i = 1; i <= 14; i++) {
+            for (int i = 1; i <= 16; i++) {
                 assertNull(rs.getObject(i));
             }
             assertFalse(rs.next());
@@ -569,4 +593,239 @@ private void testPrepareWithUnspecifiedType() throws Exception {
             server.stop();
         }
     }
+
+    private void testFetchSize() throws SQLException {
+        if (!getPgJdbcDriver()) {
+            return;
+        }
+        Server server = createPgServer(
+                "-pgPort", "5535", "-pgDaemon", "-key", "pgserver", "mem:pgserver");
+        try {
+            Connection conn = DriverManager.getConnection(
+                    "jdbc:postgresql://localhost:5535/pgserver", "sa", "sa");
+            Statement stat = conn.createStatement();
+            stat.execute("create table test(id int primary key, name varchar)");
+            stat.execute("insert into test select x, space(100) " +
+                    "from system_range(1, 1000)");
+            // the fetch size is only used if auto-commit is disabled
+            conn.setAutoCommit(false);
+            PreparedStatement prep = conn.prepareStatement(
+                    "select id from test where id > ? order by id");
+            prep.setFetchSize(7);
+            prep.setInt(1, 10);
+            ResultSet rs = prep.executeQuery();
+            for (int i = 11; i <= 1000; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+            }
+            assertFalse(rs.next());
+            rs.close();
+            // the statement can be used again after a partial read
+            prep.setInt(1, 990);
+            rs = prep.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(991, rs.getInt(1));
+            rs.close();
+            stat.setFetchSize(100);
+            rs = stat.executeQuery("select count(*) from test");
+            assertTrue(rs.next());
+            assertEquals(1000, rs.getInt(1));
+            conn.commit();
+            conn.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void testPortals() throws Exception {
+        // the pg_catalog script replaces the built-in function VERSION
+        Server server = createPgServer("-pgPort", "5535", "-pgDaemon",
+                "-key", "pgserver", "mem:pgserver;BUILTIN_ALIAS_OVERRIDE=TRUE");
+        // the protocol is used directly, as pgJDBC does not bind a
+        // statement again while a portal is open
+        try (Socket socket = new Socket("localhost", 5535)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            writeMessage(out, (char) 0, 196608, "user", "sa",
+                    "database", "pgserver", "");
+            assertEquals('R', in.read());
+            in.readFully(new byte[in.readInt() - 4]);
+            writeMessage(out, 'p', "sa");
+            ArrayList<String> events = new ArrayList<>();
+            readMessages(in, events);
+            writeMessage(out, 'Q', "create table test(id int primary key); " +
+                    "insert into test select x from system_range(1, 10)");
+            readMessages(in, events);
+            assertEquals("[C, C]", events.toString());
+            events.clear();
+            writeMessage(out, 'P', "s1",
+                    "select id from test where id > $1 order by id",
+                    (short) 1, 23);
+            // two portals of the same statement, with different parameters
+            writeMessage(out, 'B', "p1", "s1", (short) 0, (short) 1,
+                    "0".getBytes(StandardCharsets.UTF_8), (short) 0);
+            writeMessage(out, 'E', "p1", 2);
+            writeMessage(out, 'B', "p2", "s1", (short) 0, (short) 1,
+                    "5".getBytes(StandardCharsets.UTF_8), (short) 0);
+            writeMessage(out, 'E', "p2", 2);
+            writeMessage(out, 'E', "p1", 2);
+            writeMessage(out, 'E', "p2", 0);
+            writeMessage(out, 'S');
+            readMessages(in, events);
+            assertEquals("[1, 2, s, 6, 7, s, 3, 4, s, 8, 9, 10, C]",
+                    events.toString());
+            writeMessage(out, 'X');
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Send a message of the PostgreSQL protocol.
+     *
+     * @param out the output stream
+     * @param type the message type, or 0 for the startup message
+     * @param fields the fields: a String, int, short, or a byte array with
+     *            its length
+     */
+    private static void writeMessage(DataOutputStream out, char type,
+            Object... fields) throws IOException {
+        ByteArrayOutputStream buff = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(buff);
+        for (Object f : fields) {
+            if (f instanceof String) {
+                data.write(((String) f).getBytes(StandardCharsets.UTF_8));
+                data.write(0);
+            } else if (f instanceof Integer) {
+                data.writeInt((Integer) f);
+            } else if (f instanceof Short) {
+                data.writeShort((Short) f);
+            } else {
+                byte[] b = (byte[]) f;
+                data.writeInt(b.length);
+                data.write(b);
+            }
+        }
+        if (type != 0) {
+            out.write(type);
+        }
+        out.writeInt(buff.size() + 4);
+        buff.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Read the messages of the server up to ReadyForQuery. The first column
+     * of each data row, and the type of the messages that end or suspend a
+     * portal, are added to the list.
+     *
+     * @param in the input stream
+     * @param events the list
+     */
+    private static void readMessages(DataInputStream in,
+            ArrayList<String> events) throws IOException {
+        while (true) {
+            int type = in.read();
+            byte[] data = new byte[in.readInt() - 4];
+            in.readFully(data);
+            switch (type) {
+            case 'Z':
+                return;
+            case 'D': {
+                DataInputStream row = new DataInputStream(
+                        new ByteArrayInputStream(data));
+                row.readShort();
+                byte[] value = new byte[row.readInt()];
+                row.readFully(value);
+                events.add(new String(value, StandardCharsets.UTF_8));
+                break;
+            }
+            case 's':
+            case 'C':
+            case 'E':
+                events.add(String.valueOf((char) type));
+                break;
+            default:
+            }
+        }
+    }
+
+    private void testCopy() throws Exception {
+        if (!getPgJdbcDriver()) {
+            return;
+        }
+        Server server = createPgServer(
+                "-pgPort", "5535", "-pgDaemon", "-key", "pgserver", "mem:pgserver");
+        try {
+            Connection conn = DriverManager.getConnection(
+                    "jdbc:postgresql://localhost:5535/pgserver", "sa", "sa");
+            Statement stat = conn.createStatement();
+            stat.execute("create table test(id int primary key, name varchar)");
+            // the CopyManager of pgJDBC is used using reflection,
+            // as the driver is not required to compile the tests
+            Object copyManager = conn.getClass().getMethod("getCopyAPI").invoke(conn);
+            Method copyIn = copyManager.getClass().getMethod("copyIn",
+                    String.class, Reader.class);
+            Method copyOut = copyManager.getClass().getMethod("copyOut",
+                    String.class, Writer.class);
+            assertEquals(3L, copyIn.invoke(copyManager, "copy test from stdin",
+                    new StringReader("1\tHello\n2\t\\N\n3\tA\\tB\n")));
+            assertEquals(2L, copyIn.invoke(copyManager,
+                    "copy test(id, name) from stdin with (format csv, header)",
+                    new StringReader("id,name\n4,\"x, y\"\n5,\"\"\n")));
+            try {
+                copyIn.invoke(copyManager, "copy test from stdin",
+                        new StringReader("6\ta\n1\tb\n"));
+                fail();
+            } catch (InvocationTargetException e) {
+                // duplicate key: the rows are not inserted
+            }
+            ResultSet rs = stat.executeQuery("select count(*) from test");
+            rs.next();
+            assertEquals(5, rs.getInt(1));
+            StringWriter writer = new StringWriter();
+            assertEquals(5L, copyOut.invoke(copyManager,
+                    "copy test to stdout", writer));
+            assertEquals("1\tHello\n2\t\\N\n3\tA\\tB\n" +
+                    "4\tx, y\n5\t\n", writer.toString());
+            writer = new StringWriter();
+            assertEquals(2L, copyOut.invoke(copyManager,
+                    "copy (select * from test where id > 3 order by id) " +
+                    "to stdout with csv header", writer));
+            assertEquals("ID,NAME\n4,\"x, y\"\n5,\"\"\n", writer.toString());
+            // a row with too few or too many fields is an error
+            try {
+                copyIn.invoke(copyManager, "copy test from stdin",
+                        new StringReader("6\ta\n7\n"));
+                fail();
+            } catch (InvocationTargetException e) {
+                assertContains(e.getCause().getMessage(), "line 2");
+            }
+            try {
+                copyIn.invoke(copyManager, "copy test from stdin csv",
+                        new StringReader("6,\"a\nb\",c\n"));
+                fail();
+            } catch (InvocationTargetException e) {
+                assertContains(e.getCause().getMessage(), "line 1");
+            }
+            // without auto-commit, only the rows of the copy are rolled back
+            conn.setAutoCommit(false);
+            stat.execute("insert into test values(6, 'x')");
+            try {
+                copyIn.invoke(copyManager, "copy test from stdin",
+                        new StringReader("7\ta\n8\n"));
+                fail();
+            } catch (InvocationTargetException e) {
+                assertContains(e.getCause().getMessage(), "line 2");
+            }
+            conn.commit();
+            conn.setAutoCommit(true);
+            rs = stat.executeQuery("select count(*) from test");
+            rs.next();
+            assertEquals(6, rs.getInt(1));
+            conn.close();
+        } finally {
+            server.stop();
+        }
+    }
 }
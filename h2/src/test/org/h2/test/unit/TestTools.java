@@ -41,6 +41,7 @@
 
 import org.h2.api.ErrorCode;
 import org.h2.engine.SysProperties;
+import org.h2.server.TcpServer;
 import org.h2.store.FileLister;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
@@ -89,6 +90,8 @@ public void test() throws Exception {
         org.h2.Driver.load();
         testSimpleResultSet();
         testTcpServerWithoutPort();
+        testTcpServerWorkers();
+        testTcpServerStalledClient();
         testConsole();
         testJdbcDriverUtils();
         testWrongServer();
@@ -126,6 +129,87 @@ private void testTcpServerWithoutPort() throws Exception {
         s1.stop();
     }
 
+    private void testTcpServerWorkers() throws Exception {
+        deleteDb("test");
+        Server server = Server.createTcpServer(
+                "-baseDir", getBaseDir(), "-tcpWorkers", "2").start();
+        TcpServer service = (TcpServer) server.getService();
+        try {
+            String url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/test";
+            // more connections than worker threads
+            Connection[] conns = new Connection[10];
+            for (int i = 0; i < conns.length; i++) {
+                conns[i] = getConnection(url, "sa", "");
+            }
+            conns[0].createStatement().execute(
+                    "create table test(id int primary key, data clob)");
+            PreparedStatement[] preps = new PreparedStatement[conns.length];
+            for (int i = 0; i < conns.length; i++) {
+                preps[i] = conns[i].prepareStatement(
+                        "insert into test values(?, ?)");
+            }
+            String data = new String(new char[10000]).replace('\0', 'x');
+            for (int j = 0; j < 10; j++) {
+                for (int i = 0; i < conns.length; i++) {
+                    preps[i].setInt(1, j * conns.length + i);
+                    preps[i].setString(2, data);
+                    preps[i].execute();
+                }
+            }
+            for (Connection conn : conns) {
+                ResultSet rs = conn.createStatement().executeQuery(
+                        "select count(*), sum(length(data)) from test");
+                rs.next();
+                assertEquals(100, rs.getInt(1));
+                assertEquals(1000000, rs.getLong(2));
+            }
+            // all connections wait for the next request
+            for (int i = 0; i < 100 && service.getIdleConnectionCount() <
+                    conns.length; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(conns.length, service.getIdleConnectionCount());
+            assertEquals(0, service.getActiveWorkerCount());
+            assertEquals(0, service.getWorkerQueueSize());
+            for (Connection conn : conns) {
+                conn.close();
+            }
+        } finally {
+            server.stop();
+        }
+        deleteDb("test");
+    }
+
+    private void testTcpServerStalledClient() throws Exception {
+        deleteDb("test");
+        Server server = Server.createTcpServer("-baseDir", getBaseDir(),
+                "-tcpWorkers", "1", "-tcpReadTimeout", "500").start();
+        try {
+            // a client that stops in the middle of a request
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                out.write(new byte[] { 0, 0, 0, 6 });
+                out.flush();
+                socket.setSoTimeout(10000);
+                // the server sends an error and closes the connection
+                InputStream in = socket.getInputStream();
+                while (in.read() >= 0) {
+                    // ignore
+                }
+            }
+            // the only worker is free again
+            String url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/test";
+            Connection conn = getConnection(url, "sa", "");
+            ResultSet rs = conn.createStatement().executeQuery("select 1");
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+            conn.close();
+        } finally {
+            server.stop();
+        }
+        deleteDb("test");
+    }
+
     private void testConsole() throws Exception {
         String old = System.getProperty(SysProperties.H2_BROWSER);
         Console c = new Console();